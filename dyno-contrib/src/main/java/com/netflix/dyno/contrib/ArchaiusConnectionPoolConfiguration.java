@@ -1,5 +1,7 @@
 package com.netflix.dyno.contrib;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONObject;
 import org.slf4j.Logger;
@@ -21,8 +23,39 @@ public class ArchaiusConnectionPoolConfiguration extends ConnectionPoolConfigura
 	private static final String DynoPrefix = "dyno.";
 	
 	private final DynamicIntProperty maxConnsPerHost;
+	private final DynamicIntProperty minConnsPerHost;
+	private final DynamicIntProperty poolGrowWaitThreshold;
+	private final DynamicIntProperty idleConnectionTimeout;
+	private final DynamicBooleanProperty autoPipelineEnabled;
+	private final DynamicIntProperty autoPipelineMaxBatchSize;
+	private final DynamicIntProperty autoPipelineWindowMicros;
+	private final DynamicIntProperty autoPipelineMaxFlushesPerHost;
 	private final DynamicIntProperty maxTimeoutWhenExhausted;
 	private final DynamicIntProperty maxFailoverCount;
+	private final DynamicIntProperty hedgeLatencyPercentile;
+	private final DynamicIntProperty hedgeBudgetPercent;
+	private final DynamicIntProperty maxOpsPerSecond;
+	private final DynamicIntProperty maxOpsPerSecondPerHost;
+	private final ConcurrentHashMap<String, DynamicIntProperty> maxOpsPerSecondPerOperation = new ConcurrentHashMap<String, DynamicIntProperty>();
+	private final DynamicIntProperty throttleTimeout;
+	private final DynamicBooleanProperty adaptiveConcurrencyLimitEnabled;
+	private final DynamicIntProperty maxInFlightPerHost;
+	private final DynamicIntProperty maxInFlight;
+	private final DynamicIntProperty circuitBreakerFailureThreshold;
+	private final DynamicIntProperty circuitBreakerLatencyThreshold;
+	private final DynamicIntProperty circuitBreakerOpenTimeout;
+	private final DynamicIntProperty circuitBreakerProbes;
+	private final DynamicBooleanProperty outlierDetectionEnabled;
+	private final DynamicIntProperty outlierDetectionInterval;
+	private final DynamicIntProperty outlierMinRequests;
+	private final DynamicIntProperty outlierLatencyThresholdPercent;
+	private final DynamicIntProperty outlierBaseEjectionTime;
+	private final DynamicIntProperty outlierMaxEjectionTime;
+	private final DynamicIntProperty outlierMaxEjectionPercent;
+	private final DynamicIntProperty retryBudgetPercent;
+	private final DynamicIntProperty retryBudgetMinRetriesPerSecond;
+	private final DynamicIntProperty ringConcurrency;
+	private final DynamicIntProperty ringOperationTimeout;
 	private final DynamicIntProperty connectTimeout;
 	private final DynamicIntProperty socketTimeout;
 	private final DynamicIntProperty poolShutdownDelay;
@@ -32,14 +65,46 @@ public class ArchaiusConnectionPoolConfiguration extends ConnectionPoolConfigura
 	private final ErrorRateMonitorConfig errorRateConfig;
 	private final RetryPolicyFactory retryPolicyFactory;
 	
+	private final String propertyPrefix;
+	
 	public ArchaiusConnectionPoolConfiguration(String name) {
 		super(name);
 		
-		String propertyPrefix = DynoPrefix + name; 
+		propertyPrefix = DynoPrefix + name; 
 		
 		maxConnsPerHost = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".connection.maxConnsPerHost", super.getMaxConnsPerHost());
+		minConnsPerHost = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".connection.minConnsPerHost", -1);
+		poolGrowWaitThreshold = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".connection.poolGrowWaitThreshold", super.getPoolGrowWaitThreshold());
+		idleConnectionTimeout = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".connection.idleConnectionTimeout", super.getIdleConnectionTimeout());
+		autoPipelineEnabled = DynamicPropertyFactory.getInstance().getBooleanProperty(propertyPrefix + ".autoPipeline.enabled", super.isAutoPipelineEnabled());
+		autoPipelineMaxBatchSize = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".autoPipeline.maxBatchSize", super.getAutoPipelineMaxBatchSize());
+		autoPipelineWindowMicros = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".autoPipeline.windowMicros", super.getAutoPipelineWindowMicros());
+		autoPipelineMaxFlushesPerHost = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".autoPipeline.maxFlushesPerHost", super.getAutoPipelineMaxFlushesPerHost());
 		maxTimeoutWhenExhausted = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".connection.maxTimeoutWhenExhausted", super.getMaxTimeoutWhenExhausted());
 		maxFailoverCount = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".connection.maxFailoverCount", super.getMaxFailoverCount());
+		maxOpsPerSecond = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".throttle.maxOpsPerSecond", super.getMaxOperationsPerSecond());
+		maxOpsPerSecondPerHost = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".throttle.maxOpsPerSecondPerHost", super.getMaxOperationsPerSecondPerHost());
+		throttleTimeout = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".throttle.timeout", super.getThrottleTimeout());
+		adaptiveConcurrencyLimitEnabled = DynamicPropertyFactory.getInstance().getBooleanProperty(propertyPrefix + ".concurrencyLimit.enabled", super.isAdaptiveConcurrencyLimitEnabled());
+		maxInFlightPerHost = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".concurrencyLimit.maxInFlightPerHost", super.getMaxInFlightPerHost());
+		maxInFlight = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".concurrencyLimit.maxInFlight", super.getMaxInFlight());
+		circuitBreakerFailureThreshold = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".circuitBreaker.failureThreshold", super.getCircuitBreakerFailureThreshold());
+		circuitBreakerLatencyThreshold = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".circuitBreaker.latencyThreshold", super.getCircuitBreakerLatencyThreshold());
+		circuitBreakerOpenTimeout = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".circuitBreaker.openTimeout", super.getCircuitBreakerOpenTimeout());
+		circuitBreakerProbes = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".circuitBreaker.probes", super.getCircuitBreakerProbes());
+		outlierDetectionEnabled = DynamicPropertyFactory.getInstance().getBooleanProperty(propertyPrefix + ".outlier.enabled", super.isOutlierDetectionEnabled());
+		outlierDetectionInterval = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".outlier.interval", super.getOutlierDetectionInterval());
+		outlierMinRequests = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".outlier.minRequests", super.getOutlierMinRequests());
+		outlierLatencyThresholdPercent = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".outlier.latencyThresholdPercent", super.getOutlierLatencyThresholdPercent());
+		outlierBaseEjectionTime = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".outlier.baseEjectionTime", super.getOutlierBaseEjectionTime());
+		outlierMaxEjectionTime = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".outlier.maxEjectionTime", super.getOutlierMaxEjectionTime());
+		outlierMaxEjectionPercent = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".outlier.maxEjectionPercent", super.getOutlierMaxEjectionPercent());
+		retryBudgetPercent = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".retryBudget.percent", super.getRetryBudgetPercent());
+		retryBudgetMinRetriesPerSecond = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".retryBudget.minRetriesPerSecond", super.getRetryBudgetMinRetriesPerSecond());
+		ringConcurrency = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".ring.concurrency", super.getRingConcurrency());
+		ringOperationTimeout = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".ring.operationTimeout", super.getRingOperationTimeout());
+		hedgeLatencyPercentile = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".hedge.latencyPercentile", super.getHedgeLatencyPercentile());
+		hedgeBudgetPercent = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".hedge.budgetPercent", super.getHedgeBudgetPercent());
 		connectTimeout = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".connection.connectTimeout", super.getConnectTimeout());
 		socketTimeout = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".connection.socketTimeout", super.getSocketTimeout());
 		poolShutdownDelay = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".connection.poolShutdownDelay", super.getPoolShutdownDelay());
@@ -62,11 +127,176 @@ public class ArchaiusConnectionPoolConfiguration extends ConnectionPoolConfigura
 		return maxConnsPerHost.get();
 	}
 
+	@Override
+	public int getMinConnsPerHost() {
+		int minConns = minConnsPerHost.get();
+		if (minConns < 0) {
+			return getMaxConnsPerHost();
+		}
+		return Math.min(minConns, getMaxConnsPerHost());
+	}
+
+	@Override
+	public int getPoolGrowWaitThreshold() {
+		return poolGrowWaitThreshold.get();
+	}
+
+	@Override
+	public int getIdleConnectionTimeout() {
+		return idleConnectionTimeout.get();
+	}
+
+	@Override
+	public boolean isAutoPipelineEnabled() {
+		return autoPipelineEnabled.get();
+	}
+
+	@Override
+	public int getAutoPipelineMaxBatchSize() {
+		return autoPipelineMaxBatchSize.get();
+	}
+
+	@Override
+	public int getAutoPipelineWindowMicros() {
+		return autoPipelineWindowMicros.get();
+	}
+
+	@Override
+	public int getAutoPipelineMaxFlushesPerHost() {
+		return autoPipelineMaxFlushesPerHost.get();
+	}
+
 	@Override
 	public int getMaxTimeoutWhenExhausted() {
 		return maxTimeoutWhenExhausted.get();
 	}
 
+	@Override
+	public int getRingConcurrency() {
+		return ringConcurrency.get();
+	}
+
+	@Override
+	public int getRingOperationTimeout() {
+		return ringOperationTimeout.get();
+	}
+
+	@Override
+	public int getHedgeLatencyPercentile() {
+		return hedgeLatencyPercentile.get();
+	}
+
+	@Override
+	public int getHedgeBudgetPercent() {
+		return hedgeBudgetPercent.get();
+	}
+
+	@Override
+	public int getMaxOperationsPerSecond() {
+		return maxOpsPerSecond.get();
+	}
+
+	@Override
+	public int getMaxOperationsPerSecond(String opName) {
+		DynamicIntProperty limit = maxOpsPerSecondPerOperation.get(opName);
+		if (limit == null) {
+			limit = DynamicPropertyFactory.getInstance().getIntProperty(propertyPrefix + ".throttle.maxOpsPerSecond." + opName, super.getMaxOperationsPerSecond(opName));
+			DynamicIntProperty prev = maxOpsPerSecondPerOperation.putIfAbsent(opName, limit);
+			limit = (prev != null) ? prev : limit;
+		}
+		return limit.get();
+	}
+
+	@Override
+	public int getMaxOperationsPerSecondPerHost() {
+		return maxOpsPerSecondPerHost.get();
+	}
+
+	@Override
+	public int getThrottleTimeout() {
+		return throttleTimeout.get();
+	}
+
+	@Override
+	public boolean isAdaptiveConcurrencyLimitEnabled() {
+		return adaptiveConcurrencyLimitEnabled.get();
+	}
+
+	@Override
+	public int getMaxInFlightPerHost() {
+		return maxInFlightPerHost.get();
+	}
+
+	@Override
+	public int getMaxInFlight() {
+		return maxInFlight.get();
+	}
+
+	@Override
+	public int getCircuitBreakerFailureThreshold() {
+		return circuitBreakerFailureThreshold.get();
+	}
+
+	@Override
+	public int getCircuitBreakerLatencyThreshold() {
+		return circuitBreakerLatencyThreshold.get();
+	}
+
+	@Override
+	public int getCircuitBreakerOpenTimeout() {
+		return circuitBreakerOpenTimeout.get();
+	}
+
+	@Override
+	public int getCircuitBreakerProbes() {
+		return circuitBreakerProbes.get();
+	}
+
+	@Override
+	public boolean isOutlierDetectionEnabled() {
+		return outlierDetectionEnabled.get();
+	}
+
+	@Override
+	public int getOutlierDetectionInterval() {
+		return outlierDetectionInterval.get();
+	}
+
+	@Override
+	public int getOutlierMinRequests() {
+		return outlierMinRequests.get();
+	}
+
+	@Override
+	public int getOutlierLatencyThresholdPercent() {
+		return outlierLatencyThresholdPercent.get();
+	}
+
+	@Override
+	public int getOutlierBaseEjectionTime() {
+		return outlierBaseEjectionTime.get();
+	}
+
+	@Override
+	public int getOutlierMaxEjectionTime() {
+		return outlierMaxEjectionTime.get();
+	}
+
+	@Override
+	public int getOutlierMaxEjectionPercent() {
+		return outlierMaxEjectionPercent.get();
+	}
+
+	@Override
+	public int getRetryBudgetPercent() {
+		return retryBudgetPercent.get();
+	}
+
+	@Override
+	public int getRetryBudgetMinRetriesPerSecond() {
+		return retryBudgetMinRetriesPerSecond.get();
+	}
+
 	@Override
 	public int getMaxFailoverCount() {
 		return maxFailoverCount.get();
@@ -3,6 +3,7 @@ package com.netflix.dyno.contrib;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.netflix.dyno.connectionpool.OperationTimings.Phase;
 import com.netflix.dyno.connectionpool.impl.CountingConnectionPoolMonitor;
 import com.netflix.servo.DefaultMonitorRegistry;
 import com.netflix.servo.annotations.DataSourceType;
@@ -64,6 +65,48 @@ public class DynoCPMonitor extends CountingConnectionPoolMonitor {
 		return super.getConnectionReturnedCount();
 	}
 
+	@Monitor(name = "PoolGrow", type = DataSourceType.COUNTER)
+	@Override
+	public long getPoolGrowCount() {
+		return super.getPoolGrowCount();
+	}
+
+	@Monitor(name = "PoolShrink", type = DataSourceType.COUNTER)
+	@Override
+	public long getPoolShrinkCount() {
+		return super.getPoolShrinkCount();
+	}
+
+	@Monitor(name = "AutoPipelineFlush", type = DataSourceType.COUNTER)
+	@Override
+	public long getAutoPipelineFlushCount() {
+		return super.getAutoPipelineFlushCount();
+	}
+
+	@Monitor(name = "AutoPipelinedOps", type = DataSourceType.COUNTER)
+	@Override
+	public long getAutoPipelinedOperationCount() {
+		return super.getAutoPipelinedOperationCount();
+	}
+
+	@Monitor(name = "HedgeSent", type = DataSourceType.COUNTER)
+	@Override
+	public long getHedgeSentCount() {
+		return super.getHedgeSentCount();
+	}
+
+	@Monitor(name = "HedgeWon", type = DataSourceType.COUNTER)
+	@Override
+	public long getHedgeWonCount() {
+		return super.getHedgeWonCount();
+	}
+
+	@Monitor(name = "HedgeBudgetExhausted", type = DataSourceType.COUNTER)
+	@Override
+	public long getHedgeBudgetExhaustedCount() {
+		return super.getHedgeBudgetExhaustedCount();
+	}
+
 	@Monitor(name = "PoolExhausted", type = DataSourceType.COUNTER)
 	@Override
 	public long getPoolExhaustedTimeoutCount() {
@@ -118,6 +161,30 @@ public class DynoCPMonitor extends CountingConnectionPoolMonitor {
 		return super.getBadRequestCount();
 	}
 
+	@Monitor(name = "CircuitBreakerOpenCount", type = DataSourceType.COUNTER)
+	@Override
+	public long getCircuitBreakerOpenCount() {
+		return super.getCircuitBreakerOpenCount();
+	}
+
+	@Monitor(name = "HostEjectedCount", type = DataSourceType.COUNTER)
+	@Override
+	public long getHostEjectedCount() {
+		return super.getHostEjectedCount();
+	}
+
+	@Monitor(name = "HostReadmittedCount", type = DataSourceType.COUNTER)
+	@Override
+	public long getHostReadmittedCount() {
+		return super.getHostReadmittedCount();
+	}
+
+	@Monitor(name = "RetryBudgetExhausted", type = DataSourceType.COUNTER)
+	@Override
+	public long getRetryBudgetExhaustedCount() {
+		return super.getRetryBudgetExhaustedCount();
+	}
+
 
 	@Monitor(name = "HostCount", type = DataSourceType.GAUGE)
 	@Override
@@ -136,4 +203,44 @@ public class DynoCPMonitor extends CountingConnectionPoolMonitor {
 	public long getHostDownCount() {
 		return super.getHostDownCount();
 	}
+
+	@Monitor(name = "OperationLatencyMean", type = DataSourceType.GAUGE)
+	public double getOperationLatencyMean() {
+		return getOperationLatency().getMean();
+	}
+
+	@Monitor(name = "OperationLatency99", type = DataSourceType.GAUGE)
+	public long getOperationLatency99() {
+		return getOperationLatency().getPercentile(0.99);
+	}
+
+	@Monitor(name = "OperationLatency999", type = DataSourceType.GAUGE)
+	public long getOperationLatency999() {
+		return getOperationLatency().getPercentile(0.999);
+	}
+
+	@Monitor(name = "ConcurrencyLimit", type = DataSourceType.GAUGE)
+	public int getConcurrencyLimit() {
+		return super.getConcurrencyLimit();
+	}
+
+	@Monitor(name = "SelectionLatency99", type = DataSourceType.GAUGE)
+	public long getSelectionLatency99() {
+		return getPhaseLatency(Phase.SELECTION).getPercentile(0.99);
+	}
+
+	@Monitor(name = "BorrowLatency99", type = DataSourceType.GAUGE)
+	public long getBorrowLatency99() {
+		return getPhaseLatency(Phase.BORROW).getPercentile(0.99);
+	}
+
+	@Monitor(name = "ExecuteLatency99", type = DataSourceType.GAUGE)
+	public long getExecuteLatency99() {
+		return getPhaseLatency(Phase.EXECUTE).getPercentile(0.99);
+	}
+
+	@Monitor(name = "RetryLatency99", type = DataSourceType.GAUGE)
+	public long getRetryLatency99() {
+		return getPhaseLatency(Phase.RETRY).getPercentile(0.99);
+	}
 }
@@ -4,9 +4,10 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import com.netflix.dyno.connectionpool.OperationMonitor;
-import com.netflix.dyno.connectionpool.impl.utils.EstimatedHistogram;
-import com.netflix.dyno.contrib.EstimatedHistogramBasedCounter.EstimatedHistogramMean;
-import com.netflix.dyno.contrib.EstimatedHistogramBasedCounter.EstimatedHistogramPercentile;
+import com.netflix.dyno.connectionpool.impl.utils.LatencyHistogram;
+import com.netflix.dyno.connectionpool.impl.utils.LatencyRecorder;
+import com.netflix.dyno.contrib.LatencyRecorderBasedCounter.LatencyRecorderMean;
+import com.netflix.dyno.contrib.LatencyRecorderBasedCounter.LatencyRecorderPercentile;
 import com.netflix.servo.DefaultMonitorRegistry;
 import com.netflix.servo.monitor.BasicCounter;
 import com.netflix.servo.monitor.Counter;
@@ -18,8 +19,10 @@ public class DynoOPMonitor implements OperationMonitor {
 
 	private final ConcurrentHashMap<String, DynoOpCounter> counterMap = new ConcurrentHashMap<String, DynoOpCounter>();
 	private final ConcurrentHashMap<String, DynoTimingCounters> timerMap = new ConcurrentHashMap<String, DynoTimingCounters>();
+	private final ConcurrentHashMap<String, DynoNearCacheCounter> nearCacheMap = new ConcurrentHashMap<String, DynoNearCacheCounter>();
 
 	private final String appName;
+	private volatile BasicCounter nearCacheEvictions;
 
 	public DynoOPMonitor(String applicationName) {
 		appName = applicationName;
@@ -40,6 +43,33 @@ public class DynoOPMonitor implements OperationMonitor {
 		getOrCreateCounter(opName).incrementFailure();
 	}
 	
+	@Override
+	public void recordNearCacheHit(String opName) {
+		getOrCreateNearCacheCounter(opName).hit.increment();
+	}
+
+	@Override
+	public void recordNearCacheMiss(String opName) {
+		getOrCreateNearCacheCounter(opName).miss.increment();
+	}
+
+	@Override
+	public void recordNearCacheEviction() {
+		BasicCounter evictions = nearCacheEvictions;
+		if (evictions == null) {
+			synchronized (this) {
+				evictions = nearCacheEvictions;
+				if (evictions == null) {
+					MonitorConfig config = MonitorConfig.builder("Dyno__" + appName + "__NearCache__EVICTION").build();
+					evictions = new BasicCounter(config);
+					DefaultMonitorRegistry.getInstance().register(evictions);
+					nearCacheEvictions = evictions;
+				}
+			}
+		}
+		evictions.increment();
+	}
+	
 	private class DynoOpCounter {
 		
 		private final Counter success; 
@@ -81,27 +111,47 @@ public class DynoOPMonitor implements OperationMonitor {
 		return counter; 
 	}
 
+	/**
+	 * @param opName
+	 * @return the latencies in micros of the operation during the last reporting interval
+	 */
+	public LatencyHistogram getLatency(String opName) {
+		DynoTimingCounters timer = timerMap.get(opName);
+		return (timer != null) ? timer.recorder.getIntervalHistogram() : new LatencyHistogram();
+	}
+
+	/**
+	 * @return the latencies in micros of all the operations during the last reporting interval
+	 */
+	public LatencyHistogram getLatency() {
+		LatencyHistogram latency = new LatencyHistogram();
+		for (DynoTimingCounters timer : timerMap.values()) {
+			latency.add(timer.recorder.getIntervalHistogram());
+		}
+		return latency;
+	}
+	
 	private class DynoTimingCounters {
 		
-		private final EstimatedHistogramMean latMean; 
-		private final EstimatedHistogramPercentile lat99;
-		private final EstimatedHistogramPercentile lat995;
-		private final EstimatedHistogramPercentile lat999;
+		private final LatencyRecorderMean latMean; 
+		private final LatencyRecorderPercentile lat99;
+		private final LatencyRecorderPercentile lat995;
+		private final LatencyRecorderPercentile lat999;
 		
-		private final EstimatedHistogram estHistogram; 
+		private final LatencyRecorder recorder; 
 		
 		private DynoTimingCounters(String appName, String opName) {
 
-			estHistogram = new EstimatedHistogram();
-			latMean = new EstimatedHistogramMean("Dyno__" + appName + "__" + opName + "__latMean", opName, estHistogram);
-			lat99 = new EstimatedHistogramPercentile("Dyno__" + appName + "__" + opName + "__lat990", opName, estHistogram, 0.99);
-			lat995 = new EstimatedHistogramPercentile("Dyno__" + appName + "__" + opName + "__lat995", opName, estHistogram, 0.995);
-			lat999 = new EstimatedHistogramPercentile("Dyno__" + appName + "__" + opName + "__lat999", opName, estHistogram, 0.999);
+			recorder = new LatencyRecorder();
+			latMean = new LatencyRecorderMean("Dyno__" + appName + "__" + opName + "__latMean", opName, recorder);
+			lat99 = new LatencyRecorderPercentile("Dyno__" + appName + "__" + opName + "__lat990", opName, recorder, 0.99);
+			lat995 = new LatencyRecorderPercentile("Dyno__" + appName + "__" + opName + "__lat995", opName, recorder, 0.995);
+			lat999 = new LatencyRecorderPercentile("Dyno__" + appName + "__" + opName + "__lat999", opName, recorder, 0.999);
 		}
 		
 		public void recordLatency(long duration, TimeUnit unit) {
 			long durationMicros = TimeUnit.MICROSECONDS.convert(duration, unit);
-			estHistogram.add(durationMicros);
+			recorder.record(durationMicros);
 		}
 	}
 
@@ -122,4 +172,37 @@ public class DynoOPMonitor implements OperationMonitor {
 		DefaultMonitorRegistry.getInstance().register(timer.lat999);
 		return timer; 
 	}
+
+	private class DynoNearCacheCounter {
+		
+		private final BasicCounter hit; 
+		private final BasicCounter miss;
+		
+		private DynoNearCacheCounter(String appName, String opName) {
+			hit = getNewCounter("Dyno__" + appName + "__" + opName + "__NearCache__HIT", opName);
+			miss = getNewCounter("Dyno__" + appName + "__" + opName + "__NearCache__MISS", opName);
+		}
+		
+		private BasicCounter getNewCounter(String metricName, String opName) {
+			MonitorConfig config = 
+					MonitorConfig.builder(metricName).withTag(new BasicTag("dyno_op", opName)).build();
+			return new BasicCounter(config);
+		}
+	}
+
+	private DynoNearCacheCounter getOrCreateNearCacheCounter(String opName) {
+		
+		DynoNearCacheCounter counter = nearCacheMap.get(opName);
+		if (counter != null) {
+			return counter;
+		}
+		counter = new DynoNearCacheCounter(appName, opName);
+		DynoNearCacheCounter prevCounter = nearCacheMap.putIfAbsent(opName, counter);
+		if (prevCounter != null) {
+			return prevCounter;
+		}
+		DefaultMonitorRegistry.getInstance().register(counter.hit);
+		DefaultMonitorRegistry.getInstance().register(counter.miss);
+		return counter; 
+	}
 }
@@ -0,0 +1,79 @@
+package com.netflix.dyno.contrib;
+
+import com.google.common.base.Objects;
+import com.netflix.dyno.connectionpool.impl.utils.LatencyRecorder;
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.AbstractMonitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.BasicTag;
+
+/**
+ * Gauges over the last reporting interval of a {@link LatencyRecorder}, unlike {@link EstimatedHistogramBasedCounter} 
+ * which reports on everything since startup.
+ */
+public abstract class LatencyRecorderBasedCounter extends AbstractMonitor<Number> {
+
+	protected final LatencyRecorder recorder; 
+	
+	/**
+	 * Creates a new instance of the counter.
+	 */
+	public LatencyRecorderBasedCounter(final String name, final String opName, final LatencyRecorder recorder) {
+		super(MonitorConfig.builder(name).build()
+				.withAdditionalTag(DataSourceType.GAUGE)
+				.withAdditionalTag(new BasicTag("dyno_op", opName)));
+		this.recorder = recorder;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == null || !(obj instanceof LatencyRecorderBasedCounter)) {
+			return false;
+		}
+		LatencyRecorderBasedCounter m = (LatencyRecorderBasedCounter) obj;
+		return config.equals(m.getConfig()) && recorder.equals(m.recorder);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(config, recorder.hashCode());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("config", config)
+				.add("count", getValue())
+				.toString();
+	}
+	
+	public static class LatencyRecorderMean extends LatencyRecorderBasedCounter {
+
+		public LatencyRecorderMean(final String name, final String opName, final LatencyRecorder recorder) {
+			super(name, opName, recorder);
+		}
+
+		@Override
+		public Number getValue() {
+			return recorder.getIntervalHistogram().getMean();
+		}
+	}
+
+	public static class LatencyRecorderPercentile extends LatencyRecorderBasedCounter {
+
+		private final double percentile;
+		
+		public LatencyRecorderPercentile(final String name, final String opName, final LatencyRecorder recorder, double pVal) {
+			super(name, opName, recorder);
+			percentile = pVal;
+		}
+
+		@Override
+		public Number getValue() {
+			return recorder.getIntervalHistogram().getPercentile(percentile);
+		}
+	}
+}
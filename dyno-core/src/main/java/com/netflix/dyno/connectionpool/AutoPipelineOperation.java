@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool;
+
+/**
+ * Marker for a synchronous {@link Operation} that can be written to the server in one pipelined flush together with 
+ * other operations to the same host, rather than in a round trip of its own. 
+ * 
+ * When auto pipelining is enabled (see {@link ConnectionPoolConfiguration#isAutoPipelineEnabled()}) the connection pool 
+ * batches such operations per host and hands them to a {@link PipelinedConnection}. Each caller still gets back its own result.
+ * Connections that are not pipeline aware simply execute the batched operations one by one.
+ * 
+ * @author poberai
+ *
+ * @param <CL>
+ * @param <R>
+ */
+public interface AutoPipelineOperation<CL, R> extends Operation<CL, R> {
+
+}
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool;
+
+/**
+ * Operation on a binary key. Token aware routing hashes the key bytes directly, so they never need to be decoded to a String. 
+ * Implementations can return null from {@link #getKey()}. 
+ * 
+ * @author poberai
+ *
+ * @param <CL>
+ * @param <R>
+ */
+public interface BinaryKeyOperation<CL, R> extends BaseOperation<CL, R> {
+
+	/**
+	 * The raw key for the operation, used for token aware routing
+	 * @return byte[]
+	 */
+	public byte[] getBinaryKey();
+}
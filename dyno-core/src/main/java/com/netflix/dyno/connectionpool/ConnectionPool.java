@@ -94,6 +94,16 @@ public interface ConnectionPool<CL> {
      */
     <R> OperationResult<R> executeWithFailover(Operation<CL, R> op) throws DynoException;
     
+    /**
+     * Execute a set of independent operations concurrently, e.g one operation per token for a multi key request. 
+     * Each operation fails over on its own, just like {@link #executeWithFailover(Operation)}.
+     * @param ops
+     * @return List<OperationResult<R>> in the same order as the operations
+     * @throws DynoException the first failure, once all the operations are done, 
+     *         or a TimeoutException if they are not all done within {@link ConnectionPoolConfiguration#getRingOperationTimeout()}
+     */
+    public <R> List<OperationResult<R>> executeAllWithFailover(List<? extends Operation<CL, R>> ops) throws DynoException;
+
     /**
      * Scatter gather style operation
      * @param op
@@ -102,6 +112,29 @@ public interface ConnectionPool<CL> {
      */
     public <R> Collection<OperationResult<R>> executeWithRing(Operation<CL, R> op) throws DynoException;
 
+    /**
+     * Scatter gather style operation that does not fail when the operation fails on some of the nodes. 
+     * @param op
+     * @return RingResults<R> with the results from the nodes that succeeded, and the failures from the ones that did not
+     * @throws DynoException
+     */
+    public <R> RingResults<R> executeWithRingPartial(Operation<CL, R> op) throws DynoException;
+
+    /**
+     * Execute an operation on the node that owns the token, falling back to a remote rack if that node is down. 
+     * Used to walk the ring one node at a time, e.g a ring wide SCAN. 
+     * @param token
+     * @param op
+     * @return OperationResult<R>
+     * @throws DynoException
+     */
+    public <R> OperationResult<R> executeOnToken(Long token, Operation<CL, R> op) throws DynoException;
+
+    /**
+     * @return the tokens owned by the nodes in the local rack, in ring order
+     */
+    public List<Long> getRingTokens();
+
     /**
      * Execute an operation asynchronously.
      * @param op
@@ -15,6 +15,8 @@
  ******************************************************************************/
 package com.netflix.dyno.connectionpool;
 
+import com.netflix.dyno.connectionpool.exception.ConcurrencyLimitExceededException;
+import com.netflix.dyno.connectionpool.exception.ThrottledException;
 import com.netflix.dyno.connectionpool.RetryPolicy.RetryPolicyFactory;
 import com.netflix.dyno.connectionpool.impl.health.ErrorMonitor.ErrorMonitorFactory;
 
@@ -22,7 +24,7 @@ import com.netflix.dyno.connectionpool.impl.health.ErrorMonitor.ErrorMonitorFact
 public interface ConnectionPoolConfiguration {
 	
 	public static enum LoadBalancingStrategy {
-		RoundRobin, TokenAware;
+		RoundRobin, TokenAware, LatencyAware;
 	}
 
     /**
@@ -35,6 +37,45 @@ public interface ConnectionPoolConfiguration {
      */
     public int getMaxConnsPerHost();
 
+    /**
+     * @return Minimum number of connections to keep open for a single host's pool. The pool is primed with this many 
+     * connections and grows on demand up to {@link #getMaxConnsPerHost()}
+     */
+    public int getMinConnsPerHost();
+
+    /**
+     * @return Time in ms that a borrow can wait on an empty pool before the pool tries to grow by one connection
+     */
+    public int getPoolGrowWaitThreshold();
+
+    /**
+     * @return Time in ms after which an unused connection is closed, if the pool has more than {@link #getMinConnsPerHost()} conns
+     */
+    public int getIdleConnectionTimeout();
+
+    /**
+     * @return Whether concurrent operations that support it are automatically pipelined per host, 
+     * see {@link AutoPipelineOperation}
+     */
+    public boolean isAutoPipelineEnabled();
+
+    /**
+     * @return Max number of operations that are written to a host in a single pipelined flush
+     */
+    public int getAutoPipelineMaxBatchSize();
+
+    /**
+     * @return Time in microseconds to wait for more operations to join a pipelined flush before it is written. 
+     * 0 means flush right away, with whatever accumulated while the previous flush was in flight
+     */
+    public int getAutoPipelineWindowMicros();
+
+    /**
+     * @return Max number of pipelined flushes that can be in flight to a single host at the same time, each on its own 
+     * connection. Capped by {@link #getMaxConnsPerHost()}
+     */
+    public int getAutoPipelineMaxFlushesPerHost();
+
     /**
      * @return Maximum amount of time to wait for a connection to free up when a
      * connection pool is exhausted.
@@ -43,6 +84,135 @@ public interface ConnectionPoolConfiguration {
      */
     public int getMaxTimeoutWhenExhausted();
 
+    /**
+     * @return Max number of nodes that a scatter gather operation (executeWithRing) runs on concurrently, across all callers
+     */
+    public int getRingConcurrency();
+
+    /**
+     * @return Overall time in ms within which a scatter gather operation must hear back from every node, 
+     *         also bounds the wait for {@link ConnectionPool#executeAllWithFailover(java.util.List)}
+     */
+    public int getRingOperationTimeout();
+
+    /**
+     * @return Latency percentile of a host's recent responses after which a {@link HedgeableOperation} is also sent to 
+     * the same token's owner in another rack, e.g 95
+     */
+    public int getHedgeLatencyPercentile();
+
+    /**
+     * @return Max hedged requests as a percentage of hedgeable operations. 0 disables hedging
+     */
+    public int getHedgeBudgetPercent();
+
+    /**
+     * @return Max operations per second across all hosts, 0 means no limit
+     */
+    public int getMaxOperationsPerSecond();
+
+    /**
+     * @param opName
+     * @return Max operations per second with the given name, 0 means no limit
+     */
+    public int getMaxOperationsPerSecond(String opName);
+
+    /**
+     * @return Max operations per second that are sent to any single host, 0 means no limit
+     */
+    public int getMaxOperationsPerSecondPerHost();
+
+    /**
+     * @return Time in ms that an operation can wait for the rate limits to let it through before it fails 
+     * with a {@link ThrottledException}. 0 means fail right away
+     */
+    public int getThrottleTimeout();
+
+    /**
+     * @return Whether the number of in flight operations, per host and across all hosts, is capped by a limit that 
+     * adapts to their latency. Operations over the limit fail right away with a {@link ConcurrencyLimitExceededException}
+     */
+    public boolean isAdaptiveConcurrencyLimitEnabled();
+
+    /**
+     * @return Upper bound of the adaptive limit on in flight operations to a single host
+     */
+    public int getMaxInFlightPerHost();
+
+    /**
+     * @return Upper bound of the adaptive limit on in flight operations across all hosts
+     */
+    public int getMaxInFlight();
+
+    /**
+     * @return Consecutive failures, timeouts or responses slower than {@link #getCircuitBreakerLatencyThreshold()}, 
+     * after which a host's circuit breaker opens and its requests go to a fallback host. 0 disables the circuit breakers
+     */
+    public int getCircuitBreakerFailureThreshold();
+
+    /**
+     * @return Time in ms after which a response counts as a failure for the circuit breaker, 0 means latency is not considered
+     */
+    public int getCircuitBreakerLatencyThreshold();
+
+    /**
+     * @return Time in ms that a circuit breaker stays open before letting probe requests through
+     */
+    public int getCircuitBreakerOpenTimeout();
+
+    /**
+     * @return Probe requests that must succeed for a half open circuit breaker to close
+     */
+    public int getCircuitBreakerProbes();
+
+    /**
+     * @return Whether hosts whose latency is far above that of the other hosts in their rack are ejected, 
+     * i.e their requests go to a fallback host for a while
+     */
+    public boolean isOutlierDetectionEnabled();
+
+    /**
+     * @return Interval in ms over which the host latencies are compared 
+     */
+    public int getOutlierDetectionInterval();
+
+    /**
+     * @return Min number of operations that a host must have served during the interval to be compared with its peers
+     */
+    public int getOutlierMinRequests();
+
+    /**
+     * @return Percent of the peers' median p99 and mean latency that a host must exceed on both to be an outlier, e.g 300 for 3x
+     */
+    public int getOutlierLatencyThresholdPercent();
+
+    /**
+     * @return Time in ms that a host is ejected for the first time, repeated ejections last proportionally longer
+     */
+    public int getOutlierBaseEjectionTime();
+
+    /**
+     * @return Max time in ms that a host is ejected for
+     */
+    public int getOutlierMaxEjectionTime();
+
+    /**
+     * @return Max percent of the hosts in a rack that can be ejected at the same time, rounded down. No host is ejected 
+     *         from a rack that is too small for the percent to cover one host
+     */
+    public int getOutlierMaxEjectionPercent();
+
+    /**
+     * @return Retries allowed across the client, as a percent of the recent successful operations, on top of the 
+     * {@link RetryPolicy} of every operation. 0 means there is no retry budget
+     */
+    public int getRetryBudgetPercent();
+
+    /**
+     * @return Retries per second that the retry budget allows regardless of the successful operations
+     */
+    public int getRetryBudgetMinRetriesPerSecond();
+
     /**
      * @return Get the max number of failover attempts
      */
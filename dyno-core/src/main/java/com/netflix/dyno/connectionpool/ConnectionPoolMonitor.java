@@ -17,6 +17,9 @@ package com.netflix.dyno.connectionpool;
 
 import java.util.Map;
 
+import com.netflix.dyno.connectionpool.impl.health.CircuitBreaker;
+import com.netflix.dyno.connectionpool.impl.utils.LatencyHistogram;
+
 /**
  * Monitoring interface to receive notification of pool events. A concrete
  * monitor will make event stats available to a monitoring application and may
@@ -105,6 +108,71 @@ public interface ConnectionPoolMonitor {
 
     public long getConnectionReturnedCount();
 
+    /**
+     * A host's connection pool opened an extra connection since borrowers were waiting on an empty pool
+     * 
+     * @param host
+     * @param numConnections
+     *            No of connections open in the pool after growing
+     */
+    public void incPoolGrow(Host host, int numConnections);
+
+    public long getPoolGrowCount();
+
+    /**
+     * A host's connection pool closed connections that were idle for too long
+     * 
+     * @param host
+     * @param numConnections
+     *            No of connections open in the pool after shrinking
+     */
+    public void incPoolShrink(Host host, int numConnections);
+
+    public long getPoolShrinkCount();
+
+    /**
+     * A batch of operations was written to a host in a single pipelined flush
+     * 
+     * @param host
+     * @param batchSize
+     *            No of operations in the flush
+     */
+    public void incAutoPipelineFlush(Host host, int batchSize);
+
+    public long getAutoPipelineFlushCount();
+
+    public long getAutoPipelinedOperationCount();
+
+    /**
+     * A hedged request was sent to a replica since the primary host had not responded in time
+     * 
+     * @param host
+     *            The replica that the hedged request was sent to
+     */
+    public void incHedgeSent(Host host);
+
+    public long getHedgeSentCount();
+
+    /**
+     * The hedged request returned before the request to the primary host
+     * 
+     * @param host
+     *            The replica that the hedged request was sent to
+     */
+    public void incHedgeWon(Host host);
+
+    public long getHedgeWonCount();
+
+    /**
+     * A hedged request was not sent since the hedge budget was used up
+     * 
+     * @param host
+     *            The slow primary host
+     */
+    public void incHedgeBudgetExhausted(Host host);
+
+    public long getHedgeBudgetExhaustedCount();
+
     /**
      * Timeout trying to get a connection from the pool
      */
@@ -189,4 +257,78 @@ public interface ConnectionPoolMonitor {
      */
     public Map<Host, HostConnectionStats> getHostStats();
 
+    /**
+     * @return Return the latencies of the successful operations on all hosts during the last reporting interval
+     */
+    public LatencyHistogram getOperationLatency();
+
+    /**
+     * Record the time spent in each phase of an operation
+     * @param timings
+     */
+    public void recordOperationTimings(OperationTimings timings);
+
+    /**
+     * @param phase
+     * @return Return the time in micros spent in the phase by the operations during the last reporting interval
+     */
+    public LatencyHistogram getPhaseLatency(OperationTimings.Phase phase);
+
+    /**
+     * The adaptive limit on in flight operations changed
+     * @param host the host whose limit changed, null for the limit across all hosts
+     * @param limit
+     */
+    public void setConcurrencyLimit(Host host, int limit);
+
+    /**
+     * @return Return the current adaptive limit on in flight operations across all hosts, 0 if there is none
+     */
+    public int getConcurrencyLimit();
+
+    /**
+     * The circuit breaker of a host changed state
+     * @param host
+     * @param oldState
+     * @param newState
+     */
+    public void circuitBreakerStateChanged(Host host, CircuitBreaker.State oldState, CircuitBreaker.State newState);
+
+    /**
+     * @return Return the number of times that a host's circuit breaker opened
+     */
+    public long getCircuitBreakerOpenCount();
+
+    /**
+     * A host was ejected for being a latency outlier in its rack
+     * @param host
+     * @param ejectionMillis
+     */
+    public void hostEjected(Host host, long ejectionMillis);
+
+    /**
+     * An ejected host was let back in
+     * @param host
+     */
+    public void hostReadmitted(Host host);
+
+    /**
+     * @return Return the number of times that a host was ejected for being a latency outlier
+     */
+    public long getHostEjectedCount();
+
+    /**
+     * @return Return the number of times that an ejected host was let back in
+     */
+    public long getHostReadmittedCount();
+
+    /**
+     * A retry was not attempted since the client's retry budget is exhausted
+     */
+    public void incRetryBudgetExhausted();
+
+    /**
+     * @return Return the number of retries that the retry budget refused
+     */
+    public long getRetryBudgetExhaustedCount();
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool;
+
+/**
+ * How many of the racks in the local DC must serve a {@link QuorumOperation}. Every rack holds a replica of the 
+ * whole token range, so the replicas of a key are its token's owners in each rack. 
+ * 
+ * <ol>
+ * <li> DC_ONE: a single replica, i.e the operation executes like any other operation </li>
+ * <li> DC_QUORUM: a majority of the replicas </li>
+ * <li> DC_ALL: every replica </li>
+ * </ol>
+ * 
+ * @author poberai
+ *
+ */
+public enum ConsistencyLevel {
+	
+	DC_ONE, DC_QUORUM, DC_ALL;
+	
+	/**
+	 * @param replicas the number of racks
+	 * @return the number of replicas that must respond
+	 */
+	public int getRequiredReplicas(int replicas) {
+		switch (this) {
+		case DC_ONE:
+			return 1;
+		case DC_QUORUM:
+			return replicas / 2 + 1;
+		case DC_ALL:
+			return replicas;
+		default:
+			throw new IllegalArgumentException("Unknown consistency level " + this);
+		}
+	}
+}
@@ -15,6 +15,8 @@
  ******************************************************************************/
 package com.netflix.dyno.connectionpool;
 
+import java.nio.ByteBuffer;
+
 import com.netflix.dyno.connectionpool.impl.lb.HostToken;
 
 /**
@@ -45,6 +47,30 @@ public interface HashPartitioner {
 	 */
 	public Long hash(String key);
 	
+	/**
+	 * Same hash as {@link #hash(String)} but without allocating, i.e the chars are encoded as UTF-8 on the fly 
+	 * and the hash is not boxed
+	 * @param key
+	 * @return long
+	 */
+	public long hashKey(CharSequence key);
+	
+	/**
+	 * Hash of the UTF-8 bytes of a key without copying them
+	 * @param key
+	 * @param offset
+	 * @param length
+	 * @return long
+	 */
+	public long hashKey(byte[] key, int offset, int length);
+	
+	/**
+	 * Hash of the bytes between the buffer's position and limit. The position of the buffer is not changed. 
+	 * @param key
+	 * @return long
+	 */
+	public long hashKey(ByteBuffer key);
+	
 	/**
 	 * 
 	 * @param keyHash
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool;
+
+/**
+ * Marker for an idempotent {@link Operation}, typically a read, that may be sent speculatively to a replica in another rack 
+ * when the primary host is slow to respond. Whichever reply arrives first is used. 
+ * 
+ * See {@link ConnectionPoolConfiguration#getHedgeLatencyPercentile()} and {@link ConnectionPoolConfiguration#getHedgeBudgetPercent()}
+ * 
+ * @author poberai
+ *
+ * @param <CL>
+ * @param <R>
+ */
+public interface HedgeableOperation<CL, R> extends Operation<CL, R> {
+
+}
@@ -15,6 +15,9 @@
  ******************************************************************************/
 package com.netflix.dyno.connectionpool;
 
+import com.netflix.dyno.connectionpool.impl.health.CircuitBreaker;
+import com.netflix.dyno.connectionpool.impl.utils.LatencyHistogram;
+
 /**
  * Stats for connection operations for each {@code Host}
  * These are tracked by the {@link ConnectionPoolMonitor} for the {@link ConnectionPool}
@@ -62,5 +65,26 @@ public interface HostConnectionStats {
 	 * @return long
 	 */
 	public long getOperationErrorCount();
+
+	/**
+	 * @return the latencies of the successful operations during the last reporting interval
+	 */
+	public LatencyHistogram getOperationLatency();
+
+
+	/**
+	 * @return the current adaptive limit on in flight operations to the host, 0 if there is none
+	 */
+	public int getConcurrencyLimit();
+
+	/**
+	 * @return the state of the host's circuit breaker
+	 */
+	public CircuitBreaker.State getCircuitBreakerState();
+
+	/**
+	 * @return true if the host is currently ejected for being a latency outlier
+	 */
+	public boolean isEjected();
 }
 
@@ -46,4 +46,21 @@ public interface OperationMonitor {
 	 * @param reason
 	 */
 	public void recordFailure(String opName, String reason);
+
+	/**
+	 * Record a hit in the near cache for the operation
+	 * @param opName
+	 */
+	public void recordNearCacheHit(String opName);
+
+	/**
+	 * Record a miss in the near cache for the operation
+	 * @param opName
+	 */
+	public void recordNearCacheMiss(String opName);
+
+	/**
+	 * Record an entry being evicted from the near cache, either due to the size bound or expiry
+	 */
+	public void recordNearCacheEviction();
 }
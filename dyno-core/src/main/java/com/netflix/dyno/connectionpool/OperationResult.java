@@ -74,6 +74,17 @@ public interface OperationResult<R> {
      * @param unit
      */
     public OperationResult<R> setLatency(long duration, TimeUnit unit);
+
+    /**
+     * @return the time spent in each phase of the operation, i.e host selection, waiting for a connection, the 
+     * remote call and retries. Null if the operation was not executed through the connection pool's failover. 
+     */
+    public OperationTimings getTimings();
+
+    /**
+     * @param timings
+     */
+    public OperationResult<R> setTimings(OperationTimings timings);
     
     /**
      * Method that returns any other metadata that is associated with this OperationResult.
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Nanosecond timings of each phase of an operation executed by the {@link ConnectionPool}, so that a latency regression 
+ * can be attributed to host selection, waiting for a connection, the remote call itself, or retries. 
+ * 
+ * Every attempt records when it started, when its host was selected, when the connection was borrowed and when it completed. 
+ * The phases of the operation are those of its last attempt, while the time spent on all the previous (failed) attempts 
+ * counts as {@link Phase#RETRY}. 
+ * 
+ * Not thread safe, an operation is timed by the thread that executes it. 
+ * 
+ * @author poberai
+ *
+ */
+public class OperationTimings {
+
+	public enum Phase {
+		// picking the host, including the fallback to a remote rack
+		SELECTION, 
+		// waiting for a connection from the host pool
+		BORROW, 
+		// the remote call, i.e network and decoding the response
+		EXECUTE, 
+		// all the attempts before the last one
+		RETRY;
+	}
+
+	private static final long NOT_SET = Long.MIN_VALUE;
+
+	private final long startNanos = System.nanoTime();
+	private long endNanos = NOT_SET;
+	private final List<Attempt> attempts = new ArrayList<Attempt>(1);
+	private Attempt current;
+
+	public void attemptStarted() {
+		current = new Attempt(System.nanoTime());
+		attempts.add(current);
+	}
+
+	public void hostSelected() {
+		if (current != null) {
+			current.selectedNanos = System.nanoTime();
+		}
+	}
+
+	public void connectionBorrowed() {
+		if (current != null) {
+			current.borrowedNanos = System.nanoTime();
+		}
+	}
+
+	public void attemptCompleted(Host host, boolean success) {
+		if (current != null) {
+			current.complete(host, success, System.nanoTime());
+			current = null;
+		}
+	}
+
+	public void operationCompleted() {
+		if (current != null) {
+			attemptCompleted(null, false);
+		}
+		endNanos = System.nanoTime();
+	}
+
+	/**
+	 * @return all the attempts, in order
+	 */
+	public List<Attempt> getAttempts() {
+		return Collections.unmodifiableList(attempts);
+	}
+
+	/**
+	 * @return the time from the start of the operation until it completed, or until now if it has not yet
+	 */
+	public long getTotalNanos() {
+		return ((endNanos != NOT_SET) ? endNanos : System.nanoTime()) - startNanos;
+	}
+
+	/**
+	 * @param phase
+	 * @return the time spent in the phase, in nanoseconds
+	 */
+	public long getNanos(Phase phase) {
+
+		if (attempts.isEmpty()) {
+			return 0;
+		}
+
+		Attempt last = attempts.get(attempts.size() - 1);
+		switch (phase) {
+		case SELECTION:
+			return last.getSelectionNanos();
+		case BORROW:
+			return last.getBorrowNanos();
+		case EXECUTE:
+			return last.getExecuteNanos();
+		case RETRY:
+			long retryNanos = 0;
+			for (int i=0; i<attempts.size()-1; i++) {
+				retryNanos += attempts.get(i).getTotalNanos();
+			}
+			return retryNanos;
+		default:
+			throw new IllegalArgumentException("Unknown phase " + phase);
+		}
+	}
+
+	public String toString() {
+		return "OperationTimings [total=" + getTotalNanos() + 
+				", selection=" + getNanos(Phase.SELECTION) + 
+				", borrow=" + getNanos(Phase.BORROW) + 
+				", execute=" + getNanos(Phase.EXECUTE) + 
+				", retry=" + getNanos(Phase.RETRY) + 
+				", attempts=" + attempts.size() + "]";
+	}
+
+	/**
+	 * Timings of a single attempt. Phases that the attempt did not get to take no time. 
+	 */
+	public static class Attempt {
+
+		private final long startNanos;
+		private long selectedNanos = NOT_SET;
+		private long borrowedNanos = NOT_SET;
+		private long completedNanos = NOT_SET;
+		private Host host;
+		private boolean success;
+
+		private Attempt(long start) {
+			this.startNanos = start;
+		}
+
+		private void complete(Host h, boolean s, long now) {
+			if (selectedNanos == NOT_SET) {
+				selectedNanos = now;
+			}
+			if (borrowedNanos == NOT_SET) {
+				borrowedNanos = selectedNanos;
+			}
+			completedNanos = now;
+			host = h;
+			success = s;
+		}
+
+		/**
+		 * @return the host that the attempt ran on, null if it failed before getting a connection
+		 */
+		public Host getHost() {
+			return host;
+		}
+
+		public boolean isSuccess() {
+			return success;
+		}
+
+		public long getSelectionNanos() {
+			return (selectedNanos != NOT_SET) ? selectedNanos - startNanos : 0;
+		}
+
+		public long getBorrowNanos() {
+			return (borrowedNanos != NOT_SET && selectedNanos != NOT_SET) ? borrowedNanos - selectedNanos : 0;
+		}
+
+		public long getExecuteNanos() {
+			return (completedNanos != NOT_SET && borrowedNanos != NOT_SET) ? completedNanos - borrowedNanos : 0;
+		}
+
+		public long getTotalNanos() {
+			return (completedNanos != NOT_SET) ? completedNanos - startNanos : 0;
+		}
+
+		public String toString() {
+			return "Attempt [host=" + host + ", success=" + success + 
+					", selection=" + getSelectionNanos() + 
+					", borrow=" + getBorrowNanos() + 
+					", execute=" + getExecuteNanos() + "]";
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool;
+
+import java.util.List;
+
+import com.netflix.dyno.connectionpool.exception.DynoException;
+
+/**
+ * Interface implemented by a {@link Connection} that can write a batch of {@link AutoPipelineOperation}s to the server 
+ * in a single pipelined flush and then read back all the replies. 
+ * 
+ * @author poberai
+ *
+ * @param <CL>
+ */
+public interface PipelinedConnection<CL> {
+
+	/**
+	 * Execute all the operations in one pipelined flush
+	 * 
+	 * @param ops
+	 * @return one entry per operation in the same order as the ops. An entry is either the {@link OperationResult} of the 
+	 * operation, or the {@link DynoException} that just that operation failed with
+	 * @throws DynoException when the entire batch failed, e.g due to a connection error
+	 */
+	public List<Object> executePipelined(List<AutoPipelineOperation<CL, ?>> ops) throws DynoException;
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool;
+
+/**
+ * An {@link Operation} that is sent in parallel to the owner of its token in every rack, for the data that needs a 
+ * stronger guarantee than a single local replica gives. A write completes once the {@link ConsistencyLevel} number 
+ * of replicas acknowledged it. A read completes once that many replicas returned matching results, i.e results 
+ * that are equal to each other, and returns one of them. 
+ * 
+ * @author poberai
+ *
+ * @param <CL>
+ * @param <R>
+ */
+public interface QuorumOperation<CL, R> extends Operation<CL, R> {
+
+	/**
+	 * @return the number of replicas that must serve the operation
+	 */
+	public ConsistencyLevel getConsistencyLevel();
+	
+	/**
+	 * @return true if the operation is a write, which only needs acknowledgements, rather than a read
+	 */
+	public boolean isWrite();
+}
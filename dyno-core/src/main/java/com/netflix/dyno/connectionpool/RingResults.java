@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.netflix.dyno.connectionpool.exception.DynoException;
+
+/**
+ * Results of a scatter gather operation that was allowed to partially succeed, see {@link ConnectionPool#executeWithRingPartial(Operation)}. 
+ * Holds the results from all the nodes that succeeded along with the failure for each node that did not. 
+ * 
+ * @author poberai
+ *
+ * @param <R>
+ */
+public class RingResults<R> {
+
+	private final List<OperationResult<R>> results = new ArrayList<OperationResult<R>>();
+	private final Map<Host, DynoException> failures = new LinkedHashMap<Host, DynoException>();
+
+	public RingResults<R> addResult(OperationResult<R> result) {
+		results.add(result);
+		return this;
+	}
+
+	public RingResults<R> addFailure(Host host, DynoException e) {
+		failures.put(host, e);
+		return this;
+	}
+
+	/**
+	 * @return results from the nodes where the operation succeeded
+	 */
+	public List<OperationResult<R>> getResults() {
+		return Collections.unmodifiableList(results);
+	}
+
+	/**
+	 * @return the failure for every node where the operation did not succeed
+	 */
+	public Map<Host, DynoException> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * @return true if the operation failed on at least one node
+	 */
+	public boolean isPartial() {
+		return !failures.isEmpty();
+	}
+
+	public String toString() {
+		return "RingResults [results=" + results.size() + ", failures=" + failures + "]";
+	}
+}
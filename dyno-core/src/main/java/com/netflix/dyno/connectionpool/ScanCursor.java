@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.netflix.dyno.connectionpool.exception.DynoException;
+
+/**
+ * Composite cursor for a scan that spans several nodes, e.g a ring wide SCAN. Holds the server side cursor of every 
+ * stream (node or key) that has not been fully scanned yet, so a scan can be resumed later, or in another process, 
+ * from its string form. 
+ * 
+ * The string form is a comma separated list of stream:cursor pairs. Following the redis convention, "0" is both the 
+ * cursor that starts a new scan and the one returned once the scan is complete. 
+ * 
+ * @author poberai
+ *
+ */
+public class ScanCursor implements Serializable {
+
+	private static final long serialVersionUID = 2818047302941183722L;
+
+	private final LinkedHashMap<Long, String> cursors;
+
+	private ScanCursor(LinkedHashMap<Long, String> cursors) {
+		this.cursors = cursors;
+	}
+
+	/**
+	 * @param streams
+	 * @return a cursor that starts a new scan on all the streams
+	 */
+	public static ScanCursor start(Collection<Long> streams) {
+		LinkedHashMap<Long, String> cursors = new LinkedHashMap<Long, String>();
+		for (Long stream : streams) {
+			cursors.put(stream, ScanPage.START_CURSOR);
+		}
+		return new ScanCursor(cursors);
+	}
+
+	/**
+	 * @param cursors the cursor for every stream that is not done yet
+	 * @return ScanCursor
+	 */
+	public static ScanCursor of(Map<Long, String> cursors) {
+		return new ScanCursor(new LinkedHashMap<Long, String>(cursors));
+	}
+
+	/**
+	 * Parse the string form of a cursor
+	 * @param cursor
+	 * @return ScanCursor or null if this is the start cursor "0"
+	 * @throws DynoException if the cursor is malformed
+	 */
+	public static ScanCursor fromString(String cursor) {
+
+		if (cursor == null || ScanPage.START_CURSOR.equals(cursor)) {
+			return null;
+		}
+
+		LinkedHashMap<Long, String> cursors = new LinkedHashMap<Long, String>();
+		for (String part : cursor.split(",")) {
+			int index = part.indexOf(':');
+			if (index <= 0 || index == part.length()-1) {
+				throw new DynoException("Malformed scan cursor: " + cursor);
+			}
+			try {
+				cursors.put(Long.parseLong(part.substring(0, index)), part.substring(index+1));
+			} catch (NumberFormatException e) {
+				throw new DynoException("Malformed scan cursor: " + cursor);
+			}
+		}
+		return new ScanCursor(cursors);
+	}
+
+	/**
+	 * @return the server side cursor of every stream that is not done yet, in scan order
+	 */
+	public Map<Long, String> getCursors() {
+		return Collections.unmodifiableMap(cursors);
+	}
+
+	/**
+	 * @return true if all the streams have been fully scanned
+	 */
+	public boolean isComplete() {
+		return cursors.isEmpty();
+	}
+
+	@Override
+	public int hashCode() {
+		return cursors.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+
+		if (getClass() != obj.getClass())
+			return false;
+
+		return cursors.equals(((ScanCursor) obj).cursors);
+	}
+
+	public String toString() {
+		if (cursors.isEmpty()) {
+			return ScanPage.START_CURSOR;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<Long, String> entry : cursors.entrySet()) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(entry.getKey()).append(':').append(entry.getValue());
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a cursor based SCAN, HSCAN, SSCAN or ZSCAN on a single node. 
+ * The server reports that the iteration is done by returning the cursor "0". 
+ * 
+ * @author poberai
+ *
+ * @param <T>
+ */
+public class ScanPage<T> {
+
+	public static final String START_CURSOR = "0";
+
+	private final String nextCursor;
+	private final List<T> items;
+
+	public ScanPage(String nextCursor, List<T> items) {
+		this.nextCursor = nextCursor;
+		this.items = (items != null) ? items : Collections.<T>emptyList();
+	}
+
+	/**
+	 * @return the cursor to resume the scan from
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	/**
+	 * @return the items in this page, may be empty even when the scan is not done
+	 */
+	public List<T> getItems() {
+		return items;
+	}
+
+	/**
+	 * @return true if this was the last page on the node
+	 */
+	public boolean isLast() {
+		return START_CURSOR.equals(nextCursor);
+	}
+
+	public String toString() {
+		return "ScanPage [nextCursor=" + nextCursor + ", items=" + items.size() + "]";
+	}
+}
@@ -0,0 +1,22 @@
+package com.netflix.dyno.connectionpool.exception;
+
+/**
+ * Thrown right away when the circuit breaker of the host that an operation maps to is open and there is no other 
+ * host to fall back to. An ejected latency outlier still serves the operation in that case unless its breaker is open too. 
+ */
+public class CircuitOpenException extends DynoConnectException implements IsRetryableException {
+
+	private static final long serialVersionUID = -4153820913453285346L;
+
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+
+	public CircuitOpenException(Throwable t) {
+		super(t);
+	}
+
+	public CircuitOpenException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
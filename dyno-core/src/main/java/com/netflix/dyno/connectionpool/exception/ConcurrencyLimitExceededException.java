@@ -0,0 +1,22 @@
+package com.netflix.dyno.connectionpool.exception;
+
+/**
+ * Thrown right away, without queuing, when an operation would exceed the adaptive limit on in flight operations 
+ * to a host or across all hosts. 
+ */
+public class ConcurrencyLimitExceededException extends ThrottledException {
+
+	private static final long serialVersionUID = 3616484395834476543L;
+
+	public ConcurrencyLimitExceededException(String message) {
+		super(message);
+	}
+
+	public ConcurrencyLimitExceededException(Throwable t) {
+		super(t);
+	}
+
+	public ConcurrencyLimitExceededException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,18 @@
+package com.netflix.dyno.connectionpool.exception;
+
+/**
+ * Thrown when fewer replicas than the {@link com.netflix.dyno.connectionpool.ConsistencyLevel} of a 
+ * {@link com.netflix.dyno.connectionpool.QuorumOperation} acknowledged it, or returned matching results. 
+ */
+public class QuorumNotReachedException extends DynoException {
+
+	private static final long serialVersionUID = 3264982739120347561L;
+
+	public QuorumNotReachedException(String message) {
+		super(message);
+	}
+
+	public QuorumNotReachedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
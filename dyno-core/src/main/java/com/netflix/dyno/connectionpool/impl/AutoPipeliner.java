@@ -0,0 +1,631 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.AsyncOperation;
+import com.netflix.dyno.connectionpool.AutoPipelineOperation;
+import com.netflix.dyno.connectionpool.Connection;
+import com.netflix.dyno.connectionpool.ConnectionContext;
+import com.netflix.dyno.connectionpool.ConnectionPoolConfiguration;
+import com.netflix.dyno.connectionpool.ConnectionPoolMonitor;
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.HostConnectionPool;
+import com.netflix.dyno.connectionpool.ListenableFuture;
+import com.netflix.dyno.connectionpool.Operation;
+import com.netflix.dyno.connectionpool.OperationResult;
+import com.netflix.dyno.connectionpool.PipelinedConnection;
+import com.netflix.dyno.connectionpool.exception.DynoConnectException;
+import com.netflix.dyno.connectionpool.exception.DynoException;
+import com.netflix.dyno.connectionpool.exception.FatalConnectionException;
+import com.netflix.dyno.connectionpool.exception.PoolTimeoutException;
+
+/**
+ * Batches concurrent {@link AutoPipelineOperation}s that are routed to the same {@link HostConnectionPool}, so that they 
+ * are written to the host in a single pipelined flush on one connection. 
+ * 
+ * There is no background thread. Every caller adds its operation to the queue for the host pool. Whoever finds that fewer 
+ * than {@link ConnectionPoolConfiguration#getAutoPipelineMaxFlushesPerHost()} flushes are in progress for that host 
+ * becomes a leader, borrows a connection, drains up to {@link ConnectionPoolConfiguration#getAutoPipelineMaxBatchSize()} 
+ * ops from the queue and executes them in one go. The other callers just wait for their own op to be completed. Hence 
+ * while the flushes are in flight the next batch accumulates on its own, and a caller only pays for a single round trip 
+ * when it has the host to itself. 
+ * 
+ * A leader that is done wakes up the caller of the oldest queued op, which then takes over the flush slot. So ops left 
+ * in the queue never wait for a timeout to be picked up. 
+ * 
+ * Optionally the leader can wait for {@link ConnectionPoolConfiguration#getAutoPipelineWindowMicros()} for more ops to 
+ * join the batch before flushing it. 
+ * 
+ * A caller that times out waiting for a flush cancels its op, which the leader then skips. If the op was already taken 
+ * into a flush the caller keeps waiting for its result instead, so that an op can never be sent twice when the caller retries. 
+ * 
+ * @author poberai
+ *
+ * @param <CL>
+ */
+public class AutoPipeliner<CL> {
+
+	private final ConcurrentHashMap<HostConnectionPool<CL>, HostQueue> queues = new ConcurrentHashMap<HostConnectionPool<CL>, HostQueue>();
+
+	private final ConnectionPoolConfiguration cpConfig;
+	private final ConnectionPoolMonitor cpMonitor;
+
+	public AutoPipeliner(ConnectionPoolConfiguration config, ConnectionPoolMonitor monitor) {
+		this.cpConfig = config;
+		this.cpMonitor = monitor;
+	}
+
+	/**
+	 * Execute the operation on the given host pool, possibly as part of a pipelined flush with other operations
+	 * @param hostPool
+	 * @param op
+	 * @return OperationResult<R>
+	 * @throws DynoException
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> OperationResult<R> execute(HostConnectionPool<CL> hostPool, AutoPipelineOperation<CL, R> op) throws DynoException {
+
+		HostQueue queue = getQueue(hostPool);
+
+		PendingOp pending = new PendingOp(op);
+		queue.ops.add(pending);
+		queue.size.incrementAndGet();
+
+		long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(cpConfig.getMaxTimeoutWhenExhausted() + cpConfig.getSocketTimeout());
+		long deadline = System.nanoTime() + maxWaitNanos;
+
+		int maxFlushes = Math.max(1, Math.min(cpConfig.getAutoPipelineMaxFlushesPerHost(), cpConfig.getMaxConnsPerHost()));
+
+		while (!pending.isDone()) {
+
+			if (queue.startFlush(maxFlushes)) {
+				try {
+					flush(hostPool, queue);
+				} finally {
+					queue.endFlush();
+				}
+				continue;
+			}
+
+			// all flush slots are taken, wait for this op to be completed or for a leader to hand over its slot
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				if (pending.cancel()) {
+					throw new PoolTimeoutException("Timed out waiting on pipelined flush to host: " + hostPool.getHost());
+				}
+				// the op is already part of a flush in flight, we must wait for its outcome 
+				remaining = TimeUnit.MILLISECONDS.toNanos(1);
+			}
+			pending.await(remaining);
+		}
+
+		if (pending.error != null) {
+			throw pending.error;
+		}
+		return (OperationResult<R>) pending.result;
+	}
+
+	public void removeHostPool(HostConnectionPool<CL> hostPool) {
+		queues.remove(hostPool);
+	}
+
+	private HostQueue getQueue(HostConnectionPool<CL> hostPool) {
+		HostQueue queue = queues.get(hostPool);
+		if (queue == null) {
+			HostQueue newQueue = new HostQueue();
+			queue = queues.putIfAbsent(hostPool, newQueue);
+			if (queue == null) {
+				queue = newQueue;
+			}
+		}
+		return queue;
+	}
+
+	private void flush(HostConnectionPool<CL> hostPool, HostQueue queue) {
+
+		int maxBatchSize = Math.max(1, cpConfig.getAutoPipelineMaxBatchSize());
+
+		int window = cpConfig.getAutoPipelineWindowMicros();
+		if (window > 0 && queue.size.get() < maxBatchSize) {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(window));
+		}
+
+		List<PendingOp> batch = new ArrayList<PendingOp>(Math.min(queue.size.get(), maxBatchSize));
+		PendingOp pending;
+		while (batch.size() < maxBatchSize && (pending = queue.ops.poll()) != null) {
+			queue.size.decrementAndGet();
+			// skip ops whose callers have already given up on them
+			if (pending.claim()) {
+				batch.add(pending);
+			}
+		}
+
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		Connection<CL> connection = null;
+		try {
+			connection = hostPool.borrowConnection(cpConfig.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS);
+			cpMonitor.incAutoPipelineFlush(hostPool.getHost(), batch.size());
+
+			if (connection instanceof PipelinedConnection) {
+				executePipelined(connection, batch);
+			} else {
+				executeOneByOne(connection, batch);
+			}
+
+		} catch (DynoException e) {
+			for (PendingOp op : batch) {
+				op.fail(e);
+			}
+		} catch (RuntimeException e) {
+			DynoException ex = new FatalConnectionException(e).setHost(hostPool.getHost());
+			for (PendingOp op : batch) {
+				op.fail(ex);
+			}
+		} finally {
+			if (connection != null) {
+				connection.getContext().reset();
+				hostPool.returnConnection(connection);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void executePipelined(Connection<CL> connection, List<PendingOp> batch) {
+
+		List<AutoPipelineOperation<CL, ?>> ops = new ArrayList<AutoPipelineOperation<CL, ?>>(batch.size());
+		for (PendingOp pending : batch) {
+			ops.add(pending.op);
+		}
+
+		List<Object> results = ((PipelinedConnection<CL>) connection).executePipelined(ops);
+
+		for (int i=0; i<batch.size(); i++) {
+			Object result = results.get(i);
+			if (result instanceof DynoException) {
+				batch.get(i).fail((DynoException) result);
+			} else {
+				batch.get(i).complete((OperationResult<?>) result, connection);
+			}
+		}
+	}
+
+	private void executeOneByOne(Connection<CL> connection, List<PendingOp> batch) {
+		for (PendingOp pending : batch) {
+			try {
+				pending.complete(connection.execute(pending.op), connection);
+			} catch (DynoException e) {
+				pending.fail(e);
+			}
+		}
+	}
+
+	private class HostQueue {
+
+		private final ConcurrentLinkedQueue<PendingOp> ops = new ConcurrentLinkedQueue<PendingOp>();
+		private final AtomicInteger size = new AtomicInteger(0);
+		private final AtomicInteger flushers = new AtomicInteger(0);
+
+		private boolean startFlush(int maxFlushes) {
+			while (true) {
+				int current = flushers.get();
+				if (current >= maxFlushes) {
+					return false;
+				}
+				if (flushers.compareAndSet(current, current + 1)) {
+					return true;
+				}
+			}
+		}
+
+		private void endFlush() {
+			flushers.decrementAndGet();
+			// hand the slot over to the oldest op that is still waiting. An op that is queued after this point 
+			// will see the free slot itself
+			for (PendingOp next : ops) {
+				if (next.isQueued()) {
+					next.wakeUp();
+					break;
+				}
+			}
+		}
+	}
+
+	private class PendingOp {
+
+		private static final int QUEUED = 0;
+		private static final int FLUSHING = 1;
+		private static final int CANCELLED = 2;
+
+		private final AutoPipelineOperation<CL, ?> op;
+		private final Thread waiter = Thread.currentThread();
+		private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+		private volatile OperationResult<?> result;
+		private volatile DynoException error;
+		private volatile boolean done = false;
+
+		private PendingOp(AutoPipelineOperation<CL, ?> op) {
+			this.op = op;
+		}
+
+		private boolean isDone() {
+			return done;
+		}
+
+		private boolean isQueued() {
+			return state.get() == QUEUED;
+		}
+
+		/**
+		 * @return true if the op was taken into a flush, false if it was cancelled
+		 */
+		private boolean claim() {
+			return state.compareAndSet(QUEUED, FLUSHING);
+		}
+
+		/**
+		 * @return true if the op was cancelled before it could be flushed
+		 */
+		private boolean cancel() {
+			return state.compareAndSet(QUEUED, CANCELLED);
+		}
+
+		/**
+		 * Parks the caller until the op is done, it is handed a flush slot or the time runs out. 
+		 * The caller re-checks its state either way
+		 */
+		private void await(long nanos) {
+			if (done) {
+				return;
+			}
+			LockSupport.parkNanos(this, nanos);
+			if (Thread.currentThread().isInterrupted()) {
+				throw new RuntimeException(new InterruptedException());
+			}
+		}
+
+		private void wakeUp() {
+			LockSupport.unpark(waiter);
+		}
+
+		private void complete(OperationResult<?> r, Connection<CL> connection) {
+			r.addMetadata(connection.getContext().getAll());
+			result = r;
+			done = true;
+			wakeUp();
+		}
+
+		private void fail(DynoException e) {
+			error = e;
+			done = true;
+			wakeUp();
+		}
+	}
+
+	public static class UnitTest {
+
+		private final Host host = new Host("host1", 8080, Host.Status.Up);
+		private final CountingConnectionPoolMonitor cpMonitor = new CountingConnectionPoolMonitor();
+
+		private final AtomicInteger flushes = new AtomicInteger(0);
+		private final AtomicInteger maxBatch = new AtomicInteger(0);
+		private final AtomicBoolean failFlush = new AtomicBoolean(false);
+		private final AtomicInteger flushDelayMillis = new AtomicInteger(0);
+		private final AtomicInteger flushesInFlight = new AtomicInteger(0);
+		private final AtomicInteger maxFlushesInFlight = new AtomicInteger(0);
+		private final ConcurrentLinkedQueue<Integer> executed = new ConcurrentLinkedQueue<Integer>();
+
+		@Test
+		public void testConcurrentOpsArePipelined() throws Exception {
+
+			ConnectionPoolConfigurationImpl config = new ConnectionPoolConfigurationImpl("test").setAutoPipelineMaxBatchSize(16);
+			final AutoPipeliner<Integer> pipeliner = new AutoPipeliner<Integer>(config, cpMonitor);
+			final HostConnectionPool<Integer> hostPool = getMockHostPool();
+
+			int nThreads = 8;
+			final int opsPerThread = 200;
+
+			ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+			for (int i=0; i<nThreads; i++) {
+				final int base = i * opsPerThread;
+				futures.add(threadPool.submit(new Callable<Integer>() {
+
+					@Override
+					public Integer call() throws Exception {
+						int mismatches = 0;
+						for (int j=0; j<opsPerThread; j++) {
+							OperationResult<Integer> result = pipeliner.execute(hostPool, new TestOperation(base + j));
+							if (result.getResult().intValue() != (base + j) * 2) {
+								mismatches++;
+							}
+						}
+						return mismatches;
+					}
+				}));
+			}
+
+			for (Future<Integer> f : futures) {
+				Assert.assertEquals(0, f.get().intValue());
+			}
+			threadPool.shutdownNow();
+
+			int totalOps = nThreads * opsPerThread;
+			Assert.assertEquals(totalOps, cpMonitor.getAutoPipelinedOperationCount());
+			Assert.assertEquals(flushes.get(), cpMonitor.getAutoPipelineFlushCount());
+			Assert.assertTrue("Expected ops to be batched, flushes: " + flushes.get(), flushes.get() < totalOps);
+			Assert.assertTrue(maxBatch.get() > 1);
+			Assert.assertTrue(maxBatch.get() <= 16);
+		}
+
+		@Test
+		public void testConcurrentFlushesPerHost() throws Exception {
+
+			ConnectionPoolConfigurationImpl config = new ConnectionPoolConfigurationImpl("test")
+															.setMaxConnsPerHost(4)
+															.setAutoPipelineMaxBatchSize(4)
+															.setAutoPipelineMaxFlushesPerHost(8);
+			final AutoPipeliner<Integer> pipeliner = new AutoPipeliner<Integer>(config, cpMonitor);
+			final HostConnectionPool<Integer> hostPool = getMockHostPool();
+
+			// many more callers than fit in a batch, each flush holds its connection for a while
+			flushDelayMillis.set(20);
+			int nThreads = 32;
+			final CountDownLatch start = new CountDownLatch(1);
+
+			ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			try {
+				for (int i=0; i<nThreads; i++) {
+					final int value = i;
+					futures.add(threadPool.submit(new Callable<Integer>() {
+
+						@Override
+						public Integer call() throws Exception {
+							start.await();
+							return pipeliner.execute(hostPool, new TestOperation(value)).getResult();
+						}
+					}));
+				}
+
+				long startTime = System.currentTimeMillis();
+				start.countDown();
+				for (int i=0; i<nThreads; i++) {
+					Assert.assertEquals(i * 2, futures.get(i).get().intValue());
+				}
+				long duration = System.currentTimeMillis() - startTime;
+
+				Assert.assertEquals(nThreads, executed.size());
+				Assert.assertTrue(maxBatch.get() <= 4);
+				Assert.assertTrue("Expected concurrent flushes, max: " + maxFlushesInFlight.get(), maxFlushesInFlight.get() > 1);
+				Assert.assertTrue(maxFlushesInFlight.get() <= 4);
+				// one flush at a time would need at least 8 round trips of 20 ms
+				Assert.assertTrue("Took: " + duration, duration < 160);
+			} finally {
+				threadPool.shutdownNow();
+			}
+		}
+
+		@Test
+		public void testFailedFlushFailsEveryOp() throws Exception {
+
+			final AutoPipeliner<Integer> pipeliner = new AutoPipeliner<Integer>(new ConnectionPoolConfigurationImpl("test"), cpMonitor);
+			final HostConnectionPool<Integer> hostPool = getMockHostPool();
+
+			failFlush.set(true);
+			try {
+				pipeliner.execute(hostPool, new TestOperation(1));
+				Assert.fail("Expected FatalConnectionException");
+			} catch (FatalConnectionException e) {
+			}
+
+			failFlush.set(false);
+			Assert.assertEquals(2, pipeliner.execute(hostPool, new TestOperation(1)).getResult().intValue());
+		}
+
+		@Test
+		public void testTimedOutOpIsNotFlushed() throws Exception {
+
+			ConnectionPoolConfigurationImpl config = new ConnectionPoolConfigurationImpl("test")
+															.setMaxTimeoutWhenExhausted(20)
+															.setSocketTimeout(20);
+			final AutoPipeliner<Integer> pipeliner = new AutoPipeliner<Integer>(config, cpMonitor);
+			final HostConnectionPool<Integer> hostPool = getMockHostPool();
+
+			// the first op holds the flush for longer than the second op is willing to wait
+			flushDelayMillis.set(200);
+			ExecutorService threadPool = Executors.newFixedThreadPool(1);
+			try {
+				Future<OperationResult<Integer>> slowOp = threadPool.submit(new Callable<OperationResult<Integer>>() {
+					@Override
+					public OperationResult<Integer> call() throws Exception {
+						return pipeliner.execute(hostPool, new TestOperation(1));
+					}
+				});
+				Thread.sleep(50);
+
+				try {
+					pipeliner.execute(hostPool, new TestOperation(2));
+					Assert.fail("Expected PoolTimeoutException");
+				} catch (PoolTimeoutException e) {
+				}
+
+				Assert.assertEquals(2, slowOp.get().getResult().intValue());
+			} finally {
+				threadPool.shutdownNow();
+			}
+
+			// the next flush must skip the timed out op
+			flushDelayMillis.set(0);
+			Assert.assertEquals(6, pipeliner.execute(hostPool, new TestOperation(3)).getResult().intValue());
+
+			Assert.assertTrue(executed.contains(1));
+			Assert.assertFalse(executed.contains(2));
+			Assert.assertTrue(executed.contains(3));
+		}
+
+		@SuppressWarnings("unchecked")
+		private HostConnectionPool<Integer> getMockHostPool() {
+
+			HostConnectionPool<Integer> hostPool = mock(HostConnectionPool.class);
+			TestConnection connection = new TestConnection(hostPool);
+
+			when(hostPool.getHost()).thenReturn(host);
+			when(hostPool.borrowConnection(any(Integer.class), any(TimeUnit.class))).thenReturn(connection);
+			return hostPool;
+		}
+
+		private class TestOperation implements AutoPipelineOperation<Integer, Integer> {
+
+			private final int value;
+
+			private TestOperation(int value) {
+				this.value = value;
+			}
+
+			@Override
+			public Integer execute(Integer client, ConnectionContext state) throws DynoException {
+				return value * client;
+			}
+
+			@Override
+			public String getName() {
+				return "TestOperation";
+			}
+
+			@Override
+			public String getKey() {
+				return String.valueOf(value);
+			}
+		}
+
+		private class TestConnection implements Connection<Integer>, PipelinedConnection<Integer> {
+
+			private final HostConnectionPool<Integer> hostPool;
+			private final ConnectionContextImpl context = new ConnectionContextImpl();
+
+			private TestConnection(HostConnectionPool<Integer> hostPool) {
+				this.hostPool = hostPool;
+			}
+
+			@Override
+			public List<Object> executePipelined(List<AutoPipelineOperation<Integer, ?>> ops) throws DynoException {
+
+				if (failFlush.get()) {
+					throw new FatalConnectionException("Failed flush").setHost(host);
+				}
+
+				flushes.incrementAndGet();
+				int inFlight = flushesInFlight.incrementAndGet();
+				while (inFlight > maxFlushesInFlight.get()) {
+					int current = maxFlushesInFlight.get();
+					if (inFlight <= current || maxFlushesInFlight.compareAndSet(current, inFlight)) {
+						break;
+					}
+				}
+
+				int batchSize = ops.size();
+				while (batchSize > maxBatch.get()) {
+					int current = maxBatch.get();
+					if (batchSize <= current || maxBatch.compareAndSet(current, batchSize)) {
+						break;
+					}
+				}
+
+				// simulate the round trip
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+				if (flushDelayMillis.get() > 0) {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushDelayMillis.get()));
+				}
+
+				List<Object> results = new ArrayList<Object>();
+				for (AutoPipelineOperation<Integer, ?> op : ops) {
+					executed.add(Integer.valueOf(op.getKey()));
+					results.add(new OperationResultImpl<Object>(op.getName(), op.execute(2, context), null));
+				}
+				flushesInFlight.decrementAndGet();
+				return results;
+			}
+
+			@Override
+			public <R> OperationResult<R> execute(Operation<Integer, R> op) throws DynoException {
+				return new OperationResultImpl<R>(op.getName(), op.execute(2, context), null);
+			}
+
+			@Override
+			public <R> ListenableFuture<OperationResult<R>> executeAsync(AsyncOperation<Integer, R> op) throws DynoException {
+				throw new RuntimeException("Not Implemented");
+			}
+
+			@Override
+			public void close() {
+			}
+
+			@Override
+			public Host getHost() {
+				return host;
+			}
+
+			@Override
+			public void open() throws DynoException {
+			}
+
+			@Override
+			public DynoConnectException getLastException() {
+				return null;
+			}
+
+			@Override
+			public HostConnectionPool<Integer> getParentConnectionPool() {
+				return hostPool;
+			}
+
+			@Override
+			public void execPing() {
+			}
+
+			@Override
+			public ConnectionContext getContext() {
+				return context;
+			}
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.ConnectionPoolConfiguration;
+import com.netflix.dyno.connectionpool.ConnectionPoolMonitor;
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.exception.ConcurrencyLimitExceededException;
+import com.netflix.dyno.connectionpool.exception.DynoException;
+import com.netflix.dyno.connectionpool.exception.PoolExhaustedException;
+import com.netflix.dyno.connectionpool.exception.PoolTimeoutException;
+import com.netflix.dyno.connectionpool.exception.TimeoutException;
+import com.netflix.dyno.connectionpool.impl.utils.AdaptiveConcurrencyLimit;
+
+/**
+ * Caps the operations that the {@link ConnectionPoolImpl} has in flight, across all hosts and per host, with an 
+ * {@link AdaptiveConcurrencyLimit} that is learnt from their latency. Operations over the limit fail right away with 
+ * a {@link ConcurrencyLimitExceededException} instead of queuing up for a connection. 
+ * 
+ * The limiter sits in front of the host pools, so it works the same for the sync and the async pools, and changes to 
+ * the limits are reported to the {@link ConnectionPoolMonitor}. 
+ * 
+ * @author poberai
+ *
+ */
+public class ConcurrencyLimiter {
+
+	private static final int MIN_LIMIT = 1;
+	
+	private final ConnectionPoolConfiguration config; 
+	private final ConnectionPoolMonitor monitor; 
+	
+	private final AdaptiveConcurrencyLimit globalLimit; 
+	private final ConcurrentHashMap<Host, AdaptiveConcurrencyLimit> hostLimits = new ConcurrentHashMap<Host, AdaptiveConcurrencyLimit>();
+	
+	public ConcurrencyLimiter(ConnectionPoolConfiguration config, ConnectionPoolMonitor monitor) {
+		this.config = config;
+		this.monitor = monitor;
+		
+		int maxInFlight = Math.max(MIN_LIMIT, config.getMaxInFlight());
+		this.globalLimit = new AdaptiveConcurrencyLimit(maxInFlight/4, MIN_LIMIT, maxInFlight);
+		if (config.isAdaptiveConcurrencyLimitEnabled()) {
+			monitor.setConcurrencyLimit(null, globalLimit.getLimit());
+		}
+	}
+	
+	/**
+	 * @return a permit for an operation across all hosts, that must be released once the operation completes
+	 * @throws ConcurrencyLimitExceededException
+	 */
+	public Permit acquire() throws ConcurrencyLimitExceededException {
+		return acquire(null, globalLimit);
+	}
+	
+	/**
+	 * @param host
+	 * @return a permit for an operation on the host, that must be released once the operation completes
+	 * @throws ConcurrencyLimitExceededException
+	 */
+	public Permit acquire(Host host) throws ConcurrencyLimitExceededException {
+		
+		if (!config.isAdaptiveConcurrencyLimitEnabled()) {
+			return Permit.NONE;
+		}
+		
+		AdaptiveConcurrencyLimit limit = hostLimits.get(host);
+		if (limit == null) {
+			// start from what the pool can do without queuing
+			int maxInFlight = Math.max(MIN_LIMIT, config.getMaxInFlightPerHost());
+			limit = new AdaptiveConcurrencyLimit(config.getMaxConnsPerHost(), MIN_LIMIT, maxInFlight);
+			AdaptiveConcurrencyLimit prev = hostLimits.putIfAbsent(host, limit);
+			if (prev != null) {
+				limit = prev;
+			} else {
+				monitor.setConcurrencyLimit(host, limit.getLimit());
+			}
+		}
+		return acquire(host, limit);
+	}
+	
+	private Permit acquire(Host host, AdaptiveConcurrencyLimit limit) throws ConcurrencyLimitExceededException {
+		
+		if (!config.isAdaptiveConcurrencyLimitEnabled()) {
+			return Permit.NONE;
+		}
+		if (!limit.tryAcquire()) {
+			ConcurrencyLimitExceededException e = new ConcurrencyLimitExceededException("Over the limit of " + limit.getLimit() + 
+					" in flight operations" + ((host != null) ? " to host " + host.getHostName() : ""));
+			if (host != null) {
+				e.setHost(host);
+			}
+			throw e;
+		}
+		return new Permit(monitor, host, limit);
+	}
+	
+	public void removeHost(Host host) {
+		hostLimits.remove(host);
+	}
+	
+	/**
+	 * @param e
+	 * @return true if the failure means that the host or the pool is overloaded, as opposed to e.g a bad request. A 
+	 * rejection by a limit does not count, the operation never got to the host, and one saturated host must not shrink 
+	 * the limits of the other ones. 
+	 */
+	public static boolean isOverload(DynoException e) {
+		return e instanceof TimeoutException || 
+				e instanceof PoolTimeoutException || 
+				e instanceof PoolExhaustedException;
+	}
+	
+	/**
+	 * Held by an operation while it is in flight. Only the first release counts, so that a permit can be released 
+	 * again in a finally block. 
+	 */
+	public static class Permit {
+		
+		// handed out when the limiter is disabled
+		private static final Permit NONE = new Permit(null, null, null);
+
+		private final ConnectionPoolMonitor monitor; 
+		private final Host host; 
+		private final AdaptiveConcurrencyLimit limit; 
+		private final long startNanos = System.nanoTime();
+		private boolean released = false;
+		
+		private Permit(ConnectionPoolMonitor monitor, Host host, AdaptiveConcurrencyLimit limit) {
+			this.monitor = monitor;
+			this.host = host;
+			this.limit = limit;
+		}
+		
+		public void success() {
+			if (markReleased() && limit.success(System.nanoTime() - startNanos)) {
+				monitor.setConcurrencyLimit(host, limit.getLimit());
+			}
+		}
+		
+		public void failure(DynoException e) {
+			if (!isOverload(e)) {
+				ignore();
+			} else if (markReleased() && limit.dropped()) {
+				monitor.setConcurrencyLimit(host, limit.getLimit());
+			}
+		}
+		
+		public void ignore() {
+			if (markReleased()) {
+				limit.ignore();
+			}
+		}
+		
+		private boolean markReleased() {
+			if (released || limit == null) {
+				return false;
+			}
+			released = true;
+			return true;
+		}
+	}
+	
+	public static class UnitTest {
+		
+		private final Host host1 = new Host("host1", 8080);
+		private final Host host2 = new Host("host2", 8080);
+		
+		@Test
+		public void testDisabledByDefault() throws Exception {
+			
+			ConcurrencyLimiter limiter = new ConcurrencyLimiter(new ConnectionPoolConfigurationImpl("test"), new CountingConnectionPoolMonitor());
+			for (int i=0; i<10000; i++) {
+				limiter.acquire();
+				limiter.acquire(host1);
+			}
+		}
+		
+		@Test
+		public void testHostLimitStartsAtPoolSize() throws Exception {
+			
+			ConnectionPoolConfigurationImpl config = new ConnectionPoolConfigurationImpl("test")
+												.setAdaptiveConcurrencyLimitEnabled(true)
+												.setMaxConnsPerHost(2);
+			CountingConnectionPoolMonitor monitor = new CountingConnectionPoolMonitor();
+			ConcurrencyLimiter limiter = new ConcurrencyLimiter(config, monitor);
+			
+			Permit permit = limiter.acquire(host1);
+			limiter.acquire(host1);
+			try {
+				limiter.acquire(host1);
+				Assert.fail("Expected ConcurrencyLimitExceededException");
+			} catch (ConcurrencyLimitExceededException e) {
+			}
+			Assert.assertEquals(2, monitor.getHostStats().get(host1).getConcurrencyLimit());
+			
+			// each host has its own limit
+			limiter.acquire(host2);
+			
+			// releasing twice only frees one slot
+			permit.ignore();
+			permit.ignore();
+			limiter.acquire(host1);
+			try {
+				limiter.acquire(host1);
+				Assert.fail("Expected ConcurrencyLimitExceededException");
+			} catch (ConcurrencyLimitExceededException e) {
+			}
+		}
+		
+		@Test
+		public void testGlobalLimit() throws Exception {
+			
+			ConnectionPoolConfigurationImpl config = new ConnectionPoolConfigurationImpl("test")
+												.setAdaptiveConcurrencyLimitEnabled(true)
+												.setMaxInFlight(8);
+			CountingConnectionPoolMonitor monitor = new CountingConnectionPoolMonitor();
+			ConcurrencyLimiter limiter = new ConcurrencyLimiter(config, monitor);
+			Assert.assertEquals(2, monitor.getConcurrencyLimit());
+			
+			limiter.acquire().success();
+			limiter.acquire();
+			limiter.acquire();
+			try {
+				limiter.acquire();
+				Assert.fail("Expected ConcurrencyLimitExceededException");
+			} catch (ConcurrencyLimitExceededException e) {
+			}
+		}
+	}
+}
@@ -17,6 +17,7 @@ package com.netflix.dyno.connectionpool.impl;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.netflix.dyno.connectionpool.ConnectionPoolConfiguration;
 import com.netflix.dyno.connectionpool.ErrorRateMonitorConfig;
@@ -31,8 +32,38 @@ public class ConnectionPoolConfigurationImpl implements ConnectionPoolConfigurat
 	
 	// DEFAULTS 
 	private static final int DEFAULT_MAX_CONNS_PER_HOST = 1; 
+	private static final int DEFAULT_MIN_CONNS_PER_HOST = -1;  // i.e same as max conns, pool does not grow or shrink
+	private static final int DEFAULT_POOL_GROW_WAIT_THRESHOLD = 5; 
+	private static final int DEFAULT_IDLE_CONNECTION_TIMEOUT = 60000; 
+	private static final boolean DEFAULT_AUTO_PIPELINE_ENABLED = false; 
+	private static final int DEFAULT_AUTO_PIPELINE_MAX_BATCH_SIZE = 32; 
+	private static final int DEFAULT_AUTO_PIPELINE_WINDOW_MICROS = 0; 
+	private static final int DEFAULT_AUTO_PIPELINE_MAX_FLUSHES_PER_HOST = 4; 
 	private static final int DEFAULT_MAX_TIMEOUT_WHEN_EXHAUSTED = 2000; 
 	private static final int DEFAULT_MAX_FAILOVER_COUNT = 3; 
+	private static final int DEFAULT_HEDGE_LATENCY_PERCENTILE = 95; 
+	private static final int DEFAULT_HEDGE_BUDGET_PERCENT = 0;  // i.e hedging is disabled 
+	private static final int DEFAULT_MAX_OPS_PER_SECOND = 0;  // i.e no rate limit 
+	private static final int DEFAULT_MAX_OPS_PER_SECOND_PER_HOST = 0; 
+	private static final int DEFAULT_THROTTLE_TIMEOUT = 0; 
+	private static final boolean DEFAULT_ADAPTIVE_CONCURRENCY_LIMIT_ENABLED = false; 
+	private static final int DEFAULT_MAX_IN_FLIGHT_PER_HOST = 256; 
+	private static final int DEFAULT_MAX_IN_FLIGHT = 4096; 
+	private static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 0;  // i.e no circuit breakers 
+	private static final int DEFAULT_CIRCUIT_BREAKER_LATENCY_THRESHOLD = 0; 
+	private static final int DEFAULT_CIRCUIT_BREAKER_OPEN_TIMEOUT = 5000; 
+	private static final int DEFAULT_CIRCUIT_BREAKER_PROBES = 3; 
+	private static final boolean DEFAULT_OUTLIER_DETECTION_ENABLED = false; 
+	private static final int DEFAULT_OUTLIER_DETECTION_INTERVAL = 10000; 
+	private static final int DEFAULT_OUTLIER_MIN_REQUESTS = 100; 
+	private static final int DEFAULT_OUTLIER_LATENCY_THRESHOLD_PERCENT = 300; 
+	private static final int DEFAULT_OUTLIER_BASE_EJECTION_TIME = 30000; 
+	private static final int DEFAULT_OUTLIER_MAX_EJECTION_TIME = 300000; 
+	private static final int DEFAULT_OUTLIER_MAX_EJECTION_PERCENT = 10; 
+	private static final int DEFAULT_RETRY_BUDGET_PERCENT = 0;  // i.e no retry budget 
+	private static final int DEFAULT_RETRY_BUDGET_MIN_RETRIES_PER_SECOND = 10; 
+	private static final int DEFAULT_RING_CONCURRENCY = 16; 
+	private static final int DEFAULT_RING_OPERATION_TIMEOUT = 15000; 
 	private static final int DEFAULT_CONNECT_TIMEOUT = 3000; 
 	private static final int DEFAULT_SOCKET_TIMEOUT = 12000; 
 	private static final int DEFAULT_POOL_SHUTDOWN_DELAY = 60000; 
@@ -45,8 +76,39 @@ public class ConnectionPoolConfigurationImpl implements ConnectionPoolConfigurat
 
 	private final String name;
 	private int maxConnsPerHost = DEFAULT_MAX_CONNS_PER_HOST; 
+	private int minConnsPerHost = DEFAULT_MIN_CONNS_PER_HOST; 
+	private int poolGrowWaitThreshold = DEFAULT_POOL_GROW_WAIT_THRESHOLD; 
+	private int idleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT; 
+	private boolean autoPipelineEnabled = DEFAULT_AUTO_PIPELINE_ENABLED; 
+	private int autoPipelineMaxBatchSize = DEFAULT_AUTO_PIPELINE_MAX_BATCH_SIZE; 
+	private int autoPipelineWindowMicros = DEFAULT_AUTO_PIPELINE_WINDOW_MICROS; 
+	private int autoPipelineMaxFlushesPerHost = DEFAULT_AUTO_PIPELINE_MAX_FLUSHES_PER_HOST; 
 	private int maxTimeoutWhenExhausted = DEFAULT_MAX_TIMEOUT_WHEN_EXHAUSTED; 
 	private int maxFailoverCount = DEFAULT_MAX_FAILOVER_COUNT; 
+	private int hedgeLatencyPercentile = DEFAULT_HEDGE_LATENCY_PERCENTILE; 
+	private int hedgeBudgetPercent = DEFAULT_HEDGE_BUDGET_PERCENT; 
+	private int maxOpsPerSecond = DEFAULT_MAX_OPS_PER_SECOND; 
+	private int maxOpsPerSecondPerHost = DEFAULT_MAX_OPS_PER_SECOND_PER_HOST; 
+	private final ConcurrentHashMap<String, Integer> maxOpsPerSecondPerOperation = new ConcurrentHashMap<String, Integer>(); 
+	private int throttleTimeout = DEFAULT_THROTTLE_TIMEOUT; 
+	private boolean adaptiveConcurrencyLimitEnabled = DEFAULT_ADAPTIVE_CONCURRENCY_LIMIT_ENABLED; 
+	private int maxInFlightPerHost = DEFAULT_MAX_IN_FLIGHT_PER_HOST; 
+	private int maxInFlight = DEFAULT_MAX_IN_FLIGHT; 
+	private int circuitBreakerFailureThreshold = DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD; 
+	private int circuitBreakerLatencyThreshold = DEFAULT_CIRCUIT_BREAKER_LATENCY_THRESHOLD; 
+	private int circuitBreakerOpenTimeout = DEFAULT_CIRCUIT_BREAKER_OPEN_TIMEOUT; 
+	private int circuitBreakerProbes = DEFAULT_CIRCUIT_BREAKER_PROBES; 
+	private boolean outlierDetectionEnabled = DEFAULT_OUTLIER_DETECTION_ENABLED; 
+	private int outlierDetectionInterval = DEFAULT_OUTLIER_DETECTION_INTERVAL; 
+	private int outlierMinRequests = DEFAULT_OUTLIER_MIN_REQUESTS; 
+	private int outlierLatencyThresholdPercent = DEFAULT_OUTLIER_LATENCY_THRESHOLD_PERCENT; 
+	private int outlierBaseEjectionTime = DEFAULT_OUTLIER_BASE_EJECTION_TIME; 
+	private int outlierMaxEjectionTime = DEFAULT_OUTLIER_MAX_EJECTION_TIME; 
+	private int outlierMaxEjectionPercent = DEFAULT_OUTLIER_MAX_EJECTION_PERCENT; 
+	private int retryBudgetPercent = DEFAULT_RETRY_BUDGET_PERCENT; 
+	private int retryBudgetMinRetriesPerSecond = DEFAULT_RETRY_BUDGET_MIN_RETRIES_PER_SECOND; 
+	private int ringConcurrency = DEFAULT_RING_CONCURRENCY; 
+	private int ringOperationTimeout = DEFAULT_RING_OPERATION_TIMEOUT; 
 	private int connectTimeout = DEFAULT_CONNECT_TIMEOUT; 
 	private int socketTimeout = DEFAULT_SOCKET_TIMEOUT; 
 	private int poolShutdownDelay = DEFAULT_POOL_SHUTDOWN_DELAY; 
@@ -80,11 +142,170 @@ public class ConnectionPoolConfigurationImpl implements ConnectionPoolConfigurat
 		return maxConnsPerHost;
 	}
 
+	@Override
+	public int getMinConnsPerHost() {
+		if (minConnsPerHost < 0) {
+			return getMaxConnsPerHost();
+		}
+		return Math.min(minConnsPerHost, getMaxConnsPerHost());
+	}
+
+	@Override
+	public int getPoolGrowWaitThreshold() {
+		return poolGrowWaitThreshold;
+	}
+
+	@Override
+	public int getIdleConnectionTimeout() {
+		return idleConnectionTimeout;
+	}
+
+	@Override
+	public boolean isAutoPipelineEnabled() {
+		return autoPipelineEnabled;
+	}
+
+	@Override
+	public int getAutoPipelineMaxBatchSize() {
+		return autoPipelineMaxBatchSize;
+	}
+
+	@Override
+	public int getAutoPipelineWindowMicros() {
+		return autoPipelineWindowMicros;
+	}
+
+	@Override
+	public int getAutoPipelineMaxFlushesPerHost() {
+		return autoPipelineMaxFlushesPerHost;
+	}
+
 	@Override
 	public int getMaxTimeoutWhenExhausted() {
 		return maxTimeoutWhenExhausted;
 	}
 
+	@Override
+	public int getRingConcurrency() {
+		return ringConcurrency;
+	}
+
+	@Override
+	public int getRingOperationTimeout() {
+		return ringOperationTimeout;
+	}
+
+	@Override
+	public int getHedgeLatencyPercentile() {
+		return hedgeLatencyPercentile;
+	}
+
+	@Override
+	public int getHedgeBudgetPercent() {
+		return hedgeBudgetPercent;
+	}
+
+	@Override
+	public int getMaxOperationsPerSecond() {
+		return maxOpsPerSecond;
+	}
+
+	@Override
+	public int getMaxOperationsPerSecond(String opName) {
+		Integer limit = maxOpsPerSecondPerOperation.get(opName);
+		return (limit != null) ? limit : 0;
+	}
+
+	@Override
+	public int getMaxOperationsPerSecondPerHost() {
+		return maxOpsPerSecondPerHost;
+	}
+
+	@Override
+	public int getThrottleTimeout() {
+		return throttleTimeout;
+	}
+
+	@Override
+	public boolean isAdaptiveConcurrencyLimitEnabled() {
+		return adaptiveConcurrencyLimitEnabled;
+	}
+
+	@Override
+	public int getMaxInFlightPerHost() {
+		return maxInFlightPerHost;
+	}
+
+	@Override
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	@Override
+	public int getCircuitBreakerFailureThreshold() {
+		return circuitBreakerFailureThreshold;
+	}
+
+	@Override
+	public int getCircuitBreakerLatencyThreshold() {
+		return circuitBreakerLatencyThreshold;
+	}
+
+	@Override
+	public int getCircuitBreakerOpenTimeout() {
+		return circuitBreakerOpenTimeout;
+	}
+
+	@Override
+	public int getCircuitBreakerProbes() {
+		return circuitBreakerProbes;
+	}
+
+	@Override
+	public boolean isOutlierDetectionEnabled() {
+		return outlierDetectionEnabled;
+	}
+
+	@Override
+	public int getOutlierDetectionInterval() {
+		return outlierDetectionInterval;
+	}
+
+	@Override
+	public int getOutlierMinRequests() {
+		return outlierMinRequests;
+	}
+
+	@Override
+	public int getOutlierLatencyThresholdPercent() {
+		return outlierLatencyThresholdPercent;
+	}
+
+	@Override
+	public int getOutlierBaseEjectionTime() {
+		return outlierBaseEjectionTime;
+	}
+
+	@Override
+	public int getOutlierMaxEjectionTime() {
+		return outlierMaxEjectionTime;
+	}
+
+	@Override
+	public int getOutlierMaxEjectionPercent() {
+		return outlierMaxEjectionPercent;
+	}
+
+	@Override
+	public int getRetryBudgetPercent() {
+		return retryBudgetPercent;
+	}
+
+	@Override
+	public int getRetryBudgetMinRetriesPerSecond() {
+		return retryBudgetMinRetriesPerSecond;
+	}
+
 	@Override
 	public int getMaxFailoverCount() {
 		return maxFailoverCount;
@@ -136,11 +357,170 @@ public class ConnectionPoolConfigurationImpl implements ConnectionPoolConfigurat
 		return this;
 	}
 
+	public ConnectionPoolConfigurationImpl setMinConnsPerHost(int minConnsPerHost) {
+		this.minConnsPerHost = minConnsPerHost;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setPoolGrowWaitThreshold(int thresholdMs) {
+		this.poolGrowWaitThreshold = thresholdMs;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setIdleConnectionTimeout(int timeoutMs) {
+		this.idleConnectionTimeout = timeoutMs;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setAutoPipelineEnabled(boolean condition) {
+		this.autoPipelineEnabled = condition;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setAutoPipelineMaxBatchSize(int maxBatchSize) {
+		this.autoPipelineMaxBatchSize = maxBatchSize;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setAutoPipelineWindowMicros(int windowMicros) {
+		this.autoPipelineWindowMicros = windowMicros;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setAutoPipelineMaxFlushesPerHost(int maxFlushes) {
+		this.autoPipelineMaxFlushesPerHost = maxFlushes;
+		return this;
+	}
+
 	public ConnectionPoolConfigurationImpl setMaxTimeoutWhenExhausted(int maxTimeoutWhenExhausted) {
 		this.maxTimeoutWhenExhausted = maxTimeoutWhenExhausted;
 		return this;
 	}
 
+	public ConnectionPoolConfigurationImpl setRingConcurrency(int concurrency) {
+		this.ringConcurrency = concurrency;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setRingOperationTimeout(int timeoutMs) {
+		this.ringOperationTimeout = timeoutMs;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setHedgeLatencyPercentile(int percentile) {
+		this.hedgeLatencyPercentile = percentile;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setHedgeBudgetPercent(int budgetPercent) {
+		this.hedgeBudgetPercent = budgetPercent;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setMaxOperationsPerSecond(int maxOps) {
+		this.maxOpsPerSecond = maxOps;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setMaxOperationsPerSecond(String opName, int maxOps) {
+		if (maxOps > 0) {
+			this.maxOpsPerSecondPerOperation.put(opName, maxOps);
+		} else {
+			this.maxOpsPerSecondPerOperation.remove(opName);
+		}
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setMaxOperationsPerSecondPerHost(int maxOps) {
+		this.maxOpsPerSecondPerHost = maxOps;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setThrottleTimeout(int timeoutMs) {
+		this.throttleTimeout = timeoutMs;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setAdaptiveConcurrencyLimitEnabled(boolean condition) {
+		this.adaptiveConcurrencyLimitEnabled = condition;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setMaxInFlightPerHost(int maxInFlight) {
+		this.maxInFlightPerHost = maxInFlight;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setCircuitBreakerFailureThreshold(int failures) {
+		this.circuitBreakerFailureThreshold = failures;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setCircuitBreakerLatencyThreshold(int thresholdMs) {
+		this.circuitBreakerLatencyThreshold = thresholdMs;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setCircuitBreakerOpenTimeout(int timeoutMs) {
+		this.circuitBreakerOpenTimeout = timeoutMs;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setCircuitBreakerProbes(int probes) {
+		this.circuitBreakerProbes = probes;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setOutlierDetectionEnabled(boolean enabled) {
+		this.outlierDetectionEnabled = enabled;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setOutlierDetectionInterval(int intervalMs) {
+		this.outlierDetectionInterval = intervalMs;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setOutlierMinRequests(int minRequests) {
+		this.outlierMinRequests = minRequests;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setOutlierLatencyThresholdPercent(int percent) {
+		this.outlierLatencyThresholdPercent = percent;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setOutlierBaseEjectionTime(int ejectionMs) {
+		this.outlierBaseEjectionTime = ejectionMs;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setOutlierMaxEjectionTime(int ejectionMs) {
+		this.outlierMaxEjectionTime = ejectionMs;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setOutlierMaxEjectionPercent(int percent) {
+		this.outlierMaxEjectionPercent = percent;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setRetryBudgetPercent(int percent) {
+		this.retryBudgetPercent = percent;
+		return this;
+	}
+
+	public ConnectionPoolConfigurationImpl setRetryBudgetMinRetriesPerSecond(int minRetriesPerSecond) {
+		this.retryBudgetMinRetriesPerSecond = minRetriesPerSecond;
+		return this;
+	}
+
 	public ConnectionPoolConfigurationImpl setMaxFailoverCount(int maxFailoverCount) {
 		this.maxFailoverCount = maxFailoverCount;
 		return this;
@@ -17,18 +17,24 @@ package com.netflix.dyno.connectionpool.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -41,6 +47,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.netflix.dyno.connectionpool.AsyncOperation;
+import com.netflix.dyno.connectionpool.AutoPipelineOperation;
 import com.netflix.dyno.connectionpool.BaseOperation;
 import com.netflix.dyno.connectionpool.Connection;
 import com.netflix.dyno.connectionpool.ConnectionContext;
@@ -50,6 +57,8 @@ import com.netflix.dyno.connectionpool.ConnectionPool;
 import com.netflix.dyno.connectionpool.ConnectionPoolConfiguration;
 import com.netflix.dyno.connectionpool.ConnectionPoolConfiguration.LoadBalancingStrategy;
 import com.netflix.dyno.connectionpool.ConnectionPoolMonitor;
+import com.netflix.dyno.connectionpool.ConsistencyLevel;
+import com.netflix.dyno.connectionpool.HedgeableOperation;
 import com.netflix.dyno.connectionpool.Host;
 import com.netflix.dyno.connectionpool.Host.Status;
 import com.netflix.dyno.connectionpool.HostConnectionPool;
@@ -58,19 +67,29 @@ import com.netflix.dyno.connectionpool.HostSupplier;
 import com.netflix.dyno.connectionpool.ListenableFuture;
 import com.netflix.dyno.connectionpool.Operation;
 import com.netflix.dyno.connectionpool.OperationResult;
+import com.netflix.dyno.connectionpool.OperationTimings;
+import com.netflix.dyno.connectionpool.OperationTimings.Phase;
+import com.netflix.dyno.connectionpool.QuorumOperation;
 import com.netflix.dyno.connectionpool.RetryPolicy;
+import com.netflix.dyno.connectionpool.RingResults;
 import com.netflix.dyno.connectionpool.RetryPolicy.RetryPolicyFactory;
 import com.netflix.dyno.connectionpool.TokenMapSupplier;
 import com.netflix.dyno.connectionpool.TokenPoolTopology;
+import com.netflix.dyno.connectionpool.exception.CircuitOpenException;
+import com.netflix.dyno.connectionpool.exception.ConcurrencyLimitExceededException;
 import com.netflix.dyno.connectionpool.exception.DynoConnectException;
 import com.netflix.dyno.connectionpool.exception.DynoException;
 import com.netflix.dyno.connectionpool.exception.FatalConnectionException;
 import com.netflix.dyno.connectionpool.exception.NoAvailableHostsException;
 import com.netflix.dyno.connectionpool.exception.PoolOfflineException;
+import com.netflix.dyno.connectionpool.exception.QuorumNotReachedException;
 import com.netflix.dyno.connectionpool.exception.PoolTimeoutException;
 import com.netflix.dyno.connectionpool.exception.ThrottledException;
+import com.netflix.dyno.connectionpool.exception.TimeoutException;
+import com.netflix.dyno.connectionpool.impl.ConcurrencyLimiter.Permit;
 import com.netflix.dyno.connectionpool.impl.ConnectionPoolConfigurationImpl.ErrorRateMonitorConfigImpl;
 import com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl.HostConnectionPoolFactory.Type;
+import com.netflix.dyno.connectionpool.impl.health.CircuitBreaker;
 import com.netflix.dyno.connectionpool.impl.health.ConnectionPoolHealthTracker;
 import com.netflix.dyno.connectionpool.impl.lb.HostSelectionWithFallback;
 import com.netflix.dyno.connectionpool.impl.lb.HostToken;
@@ -108,6 +127,14 @@ public class ConnectionPoolImpl<CL> implements ConnectionPool<CL> {
 
 	private static final Logger Logger = LoggerFactory.getLogger(ConnectionPoolImpl.class);
 	
+	// Runs listeners on the thread that completes the future
+	private static final Executor DirectExecutor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+	
 	private final ConcurrentHashMap<Host, HostConnectionPool<CL>> cpMap = new ConcurrentHashMap<Host, HostConnectionPool<CL>>();
 	private final ConnectionPoolHealthTracker<CL> cpHealthTracker;
 	
@@ -123,6 +150,24 @@ public class ConnectionPoolImpl<CL> implements ConnectionPool<CL> {
 	
 	private HostSelectionWithFallback<CL> selectionStrategy; 
 	
+	// Only used when auto pipelining is enabled
+	private final AutoPipeliner<CL> autoPipeliner;
+	
+	// Bounded pool that runs the per node executions for executeWithRing
+	private final ThreadPoolExecutor ringExecutor;
+	
+	// Sends hedged requests for slow hosts
+	private final RequestHedger<CL> requestHedger;
+	
+	// Rate limits operations per client, per op name and per host
+	private final OperationThrottler throttler;
+	
+	// Adaptive limits on in flight operations, across all hosts and per host
+	private final ConcurrencyLimiter concurrencyLimiter;
+	
+	// Caps the retries across all operations, null if there is no retry budget
+	private final RetryBudget retryBudget;
+	
 	public ConnectionPoolImpl(ConnectionFactory<CL> cFactory, ConnectionPoolConfiguration cpConfig, ConnectionPoolMonitor cpMon) {
 		this(cFactory, cpConfig, cpMon, Type.Sync);
 	}
@@ -132,7 +177,7 @@ public class ConnectionPoolImpl<CL> implements ConnectionPool<CL> {
 		this.cpConfiguration = cpConfig;
 		this.cpMonitor = cpMon;
 		
-		this.cpHealthTracker = new ConnectionPoolHealthTracker<CL>(cpConfiguration, connPoolThreadPool);
+		this.cpHealthTracker = new ConnectionPoolHealthTracker<CL>(cpConfiguration, connPoolThreadPool, cpMonitor);
 
 		switch (type) {
 			case Sync:
@@ -145,9 +190,46 @@ public class ConnectionPoolImpl<CL> implements ConnectionPool<CL> {
 				throw new RuntimeException("unknown type");
 		};
 	
+		this.autoPipeliner = cpConfiguration.isAutoPipelineEnabled() ? new AutoPipeliner<CL>(cpConfiguration, cpMonitor) : null;
+		this.ringExecutor = newRingExecutor(Math.max(1, cpConfiguration.getRingConcurrency()));
+		this.throttler = new OperationThrottler(cpConfiguration);
+		this.concurrencyLimiter = new ConcurrencyLimiter(cpConfiguration, cpMonitor);
+		this.requestHedger = new RequestHedger<CL>(cpConfiguration, cpMonitor, concurrencyLimiter, cpHealthTracker);
+		this.retryBudget = (cpConfiguration.getRetryBudgetPercent() > 0) ? 
+				new RetryBudget(cpConfiguration.getRetryBudgetPercent(), cpConfiguration.getRetryBudgetMinRetriesPerSecond(), cpMonitor) : null;
 		this.hostsUpdator = new HostsUpdator(cpConfiguration.getHostSupplier());
 	}
 	
+	private static ThreadPoolExecutor newRingExecutor(int nThreads) {
+		
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads, 60, TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(nThreads * 64), 
+				new ThreadFactory() {
+					
+					private final AtomicInteger count = new AtomicInteger(0);
+					
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "DynoRingExecutor-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				// when the ring executor is backed up, the caller runs the per node execution itself
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Bounded executor for per node work, e.g flushing the per host pipelines of a multi host pipeline. 
+	 * When it is backed up the submitting thread runs the task itself. 
+	 * @return ExecutorService
+	 */
+	public ExecutorService getRingExecutor() {
+		return ringExecutor;
+	}
+	
 	public HostSelectionWithFallback<CL> getTokenSelection() {
 		return selectionStrategy;
 	}
@@ -215,6 +297,12 @@ public class ConnectionPoolImpl<CL> implements ConnectionPool<CL> {
 		HostConnectionPool<CL> hostPool = cpMap.remove(host);
 		if (hostPool != null) {
 			selectionStrategy.removeHost(host, hostPool);
+			if (autoPipeliner != null) {
+				autoPipeliner.removeHostPool(hostPool);
+			}
+			requestHedger.removeHost(host);
+			throttler.removeHost(host);
+			concurrencyLimiter.removeHost(host);
 			cpHealthTracker.removeHost(host);
 			cpMonitor.hostRemoved(host);
 			hostPool.shutdown();
@@ -285,49 +373,140 @@ public class ConnectionPoolImpl<CL> implements ConnectionPool<CL> {
 		return cpMap.get(host);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public <R> OperationResult<R> executeWithFailover(Operation<CL, R> op) throws DynoException {
 		
+		admit(op);
+		
+		Permit permit = acquirePermit();
+		try {
+			OperationResult<R> result = executeWithFailoverWithinLimit(op);
+			permit.success();
+			return result;
+		} catch (DynoException e) {
+			permit.failure(e);
+			throw e;
+		} finally {
+			permit.ignore();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <R> OperationResult<R> executeWithFailoverWithinLimit(Operation<CL, R> op) throws DynoException {
+		
+		if (op instanceof QuorumOperation && ((QuorumOperation<CL, R>) op).getConsistencyLevel() != ConsistencyLevel.DC_ONE) {
+			return executeWithQuorum((QuorumOperation<CL, R>) op);
+		}
+		
+		if (op instanceof HedgeableOperation && cpConfiguration.getHedgeBudgetPercent() > 0) {
+			final HedgeableOperation<CL, R> hedgeableOp = (HedgeableOperation<CL, R>) op;
+			return executeOnHostPool(op, new HostPoolExecution<CL, R>() {
+
+				@Override
+				public OperationResult<R> execute(HostConnectionPool<CL> hostPool) throws DynoException {
+					return requestHedger.execute(selectionStrategy, hostPool, hedgeableOp);
+				}
+
+				@Override
+				public boolean tracksHosts() {
+					return true;
+				}
+			});
+		}
+		
+		if (autoPipeliner != null && op instanceof AutoPipelineOperation) {
+			final AutoPipelineOperation<CL, R> pipelineOp = (AutoPipelineOperation<CL, R>) op;
+			return executeOnHostPool(op, new HostPoolExecution<CL, R>() {
+
+				@Override
+				public OperationResult<R> execute(HostConnectionPool<CL> hostPool) throws DynoException {
+					return autoPipeliner.execute(hostPool, pipelineOp).setNode(hostPool.getHost());
+				}
+
+				@Override
+				public boolean tracksHosts() {
+					return false;
+				}
+			});
+		}
+		
 		// Start recording the operation
 		long startTime = System.currentTimeMillis();
+		OperationTimings timings = new OperationTimings();
 		
-		RetryPolicy retry = cpConfiguration.getRetryPolicyFactory().getRetryPolicy();
+		RetryPolicy retry = newRetryPolicy();
 		retry.begin();
 		
 		DynoException lastException = null;
 		
+		// retries avoid the hosts that failed, e.g by going to the same token's owner in another rack
+		List<Host> failedHosts = new ArrayList<Host>(1);
+		
 		do  {
 			Connection<CL> connection = null;
+			HostPermit hostPermit = new HostPermit();
+			long attemptStartTime = 0;
+			boolean started = false;
+			timings.attemptStarted();
 			
 			try { 
+				if (failedHosts.isEmpty() || !retry.allowRemoteDCFallback()) {
+					connection = 
+							selectionStrategy.getConnection(op, cpConfiguration.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS, timings, hostPermit);
+				} else {
 					connection = 
-							selectionStrategy.getConnection(op, cpConfiguration.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS);
+							selectionStrategy.getConnectionForRetry(op, failedHosts, cpConfiguration.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS, timings, hostPermit);
+				}
 
+				timings.connectionBorrowed();
+				attemptStartTime = System.nanoTime();
+				selectionStrategy.operationStarted(connection.getHost());
+				started = true;
+				
 				OperationResult<R> result = connection.execute(op);
+				hostPermit.success();
+				timings.attemptCompleted(connection.getHost(), true);
 				
 				// Add context to the result from the successful execution
 				result.setNode(connection.getHost())
+					  .setAttemptsCount(timings.getAttempts().size())
+					  .setTimings(timings)
 					  .addMetadata(connection.getContext().getAll());
 				
 				retry.success();
 				cpMonitor.incOperationSuccess(connection.getHost(), System.currentTimeMillis()-startTime);
-				cpHealthTracker.clearConnectionError(connection.getHost());
+				cpHealthTracker.trackSuccess(connection.getHost(), (System.nanoTime() - attemptStartTime)/1000);
+				recordTimings(timings);
 				
 				return result; 
 				
 			} catch(NoAvailableHostsException e) {
 				cpMonitor.incOperationFailure(null, e);
+				recordTimings(timings);
 
 				throw e;
+			} catch(ConcurrencyLimitExceededException e) {
+				failHostOverLimit(e, timings);
+			} catch(ThrottledException e) {
+				
+				// the host is over its rate limit, which says nothing about its health
+				timings.attemptCompleted(connection != null ? connection.getHost() : null, false);
+				retry.failure(e);
+				lastException = e;
+				cpMonitor.incOperationFailure(connection != null ? connection.getHost() : null, e);
+				addFailedHost(failedHosts, connection, e);
+				
 			} catch(DynoException e) {
 				
+				hostPermit.failure(e);
+				timings.attemptCompleted(connection != null ? connection.getHost() : null, false);
 				retry.failure(e);
 				lastException = e;
+				addFailedHost(failedHosts, connection, e);
 				
 				cpMonitor.incOperationFailure(connection != null ? connection.getHost() : null, e);
 				if (retry.allowRetry()) {
-					cpMonitor.incFailover(connection.getHost(), e);
+					cpMonitor.incFailover(connection != null ? connection.getHost() : null, e);
 				}
 				
 				// Track the connection health so that the pool can be purged at a later point
@@ -342,7 +521,11 @@ public class ConnectionPoolImpl<CL> implements ConnectionPool<CL> {
 			} catch(Throwable t) {
 				throw new RuntimeException(t);
 			} finally {
+				hostPermit.ignore();
 				if (connection != null) {
+					if (started) {
+						selectionStrategy.operationCompleted(connection.getHost(), (System.nanoTime() - attemptStartTime)/1000);
+					}
 					connection.getContext().reset();
 					connection.getParentConnectionPool().returnConnection(connection);
 				}
@@ -350,742 +533,2636 @@ public class ConnectionPoolImpl<CL> implements ConnectionPool<CL> {
 			
 		} while(retry.allowRetry());
 		
+		recordTimings(timings);
 		throw lastException;
 	}
 
-	@SuppressWarnings("unchecked")
-	@Override
-	public <R> Collection<OperationResult<R>> executeWithRing(Operation<CL, R> op) throws DynoException {
+	private void admit(BaseOperation<CL, ?> op) throws ThrottledException {
+		try {
+			throttler.admit(op);
+		} catch (ThrottledException e) {
+			cpMonitor.incOperationFailure(null, e);
+			throw e;
+		}
+	}
 
-		// Start recording the operation
-		long startTime = System.currentTimeMillis();
+	private Permit acquirePermit() throws ConcurrencyLimitExceededException {
+		try {
+			return concurrencyLimiter.acquire();
+		} catch (ConcurrencyLimitExceededException e) {
+			cpMonitor.incOperationFailure(null, e);
+			throw e;
+		}
+	}
 
-		Collection<Connection<CL>> connections = selectionStrategy.getConnectionsToRing(cpConfiguration.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS);
+	private void recordTimings(OperationTimings timings) {
+		timings.operationCompleted();
+		cpMonitor.recordOperationTimings(timings);
+	}
 
-		LinkedBlockingQueue<Connection<CL>> connQueue = new LinkedBlockingQueue<Connection<CL>>();
-		connQueue.addAll(connections);
+	private static <CL> void addFailedHost(List<Host> failedHosts, Connection<CL> connection, DynoException e) {
+		addFailedHost(failedHosts, (connection != null) ? connection.getHost() : null, e);
+	}
 
-		List<OperationResult<R>> results = new ArrayList<OperationResult<R>>();
+	private static <CL> void addFailedHost(List<Host> failedHosts, HostConnectionPool<CL> hostPool, DynoException e) {
+		addFailedHost(failedHosts, (hostPool != null) ? hostPool.getHost() : null, e);
+	}
 
-		DynoException lastException = null;
+	private static void addFailedHost(List<Host> failedHosts, Host host, DynoException e) {
+		if (host == null && e instanceof DynoConnectException) {
+			host = ((DynoConnectException) e).getHost();
+		}
+		if (host != null && host != Host.NO_HOST && !failedHosts.contains(host)) {
+			failedHosts.add(host);
+		}
+	}
 
-		try { 
-			while(!connQueue.isEmpty()) {
+	/**
+	 * A host that is at its concurrency limit fails the operation right away. Retrying it would only spend the retry 
+	 * budget to queue up on the host that is already overloaded.
+	 */
+	private void failHostOverLimit(ConcurrencyLimitExceededException e, OperationTimings timings) throws DynoException {
+		timings.attemptCompleted(e.getHost(), false);
+		cpMonitor.incOperationFailure(e.getHost(), e);
+		recordTimings(timings);
+		throw e;
+	}
 
-				Connection<CL> connection = connQueue.poll();
+	/**
+	 * Takes the throttle and the concurrency permit of the host that an attempt is going to, before the attempt waits 
+	 * for a connection from the host's pool. If the selection moves on to another host, the permit moves along. 
+	 */
+	private class HostPermit implements HostSelectionWithFallback.HostAdmission {
 
-				RetryPolicy retry = cpConfiguration.getRetryPolicyFactory().getRetryPolicy();
-				retry.begin();
+		private Permit permit = null;
 
-				do {
-					try { 
-						OperationResult<R> result = connection.execute(op);
+		@Override
+		public void admit(Host host) throws DynoException {
+			ignore();
+			throttler.admit(host);
+			permit = concurrencyLimiter.acquire(host);
+		}
 
-						// Add context to the result from the successful execution
-						result.setNode(connection.getHost())
-						.addMetadata(connection.getContext().getAll());
+		private void success() {
+			if (permit != null) {
+				permit.success();
+			}
+		}
 
-						retry.success();
-						cpMonitor.incOperationSuccess(connection.getHost(), System.currentTimeMillis()-startTime);
+		private void failure(DynoException e) {
+			if (permit != null) {
+				permit.failure(e);
+			}
+		}
 
-						results.add(result); 
+		private void ignore() {
+			if (permit != null) {
+				permit.ignore();
+			}
+		}
+	}
 
-					} catch(NoAvailableHostsException e) {
-						cpMonitor.incOperationFailure(null, e);
+	private RetryPolicy newRetryPolicy() {
+		RetryPolicy retry = cpConfiguration.getRetryPolicyFactory().getRetryPolicy();
+		return (retryBudget != null) ? retryBudget.wrap(retry) : retry;
+	}
 
-						throw e;
-					} catch(DynoException e) {
+	/**
+	 * Executes the operation on a host pool picked by the selection strategy, rather than on a connection borrowed by the caller. 
+	 * Same retry and failure tracking semantics as {@link #executeWithFailover(Operation)}.
+	 */
+	@SuppressWarnings("unchecked")
+	private <R> OperationResult<R> executeOnHostPool(BaseOperation<CL, R> op, HostPoolExecution<CL, R> execution) throws DynoException {
+		
+		long startTime = System.currentTimeMillis();
+		OperationTimings timings = new OperationTimings();
+		
+		RetryPolicy retry = newRetryPolicy();
+		retry.begin();
+		
+		DynoException lastException = null;
+		
+		// retries avoid the hosts that failed, like in executeWithFailover
+		List<Host> failedHosts = new ArrayList<Host>(1);
+		
+		do  {
+			HostConnectionPool<CL> hostPool = null;
+			Permit hostPermit = null;
+			long attemptStartTime = 0;
+			boolean started = false;
+			timings.attemptStarted();
+			
+			try { 
+				if (failedHosts.isEmpty() || !retry.allowRemoteDCFallback()) {
+					hostPool = selectionStrategy.getHostPool(op);
+				} else {
+					hostPool = selectionStrategy.getHostPoolForRetry(op, failedHosts);
+				}
+				throttler.admit(hostPool.getHost());
+				if (!execution.tracksHosts()) {
+					hostPermit = concurrencyLimiter.acquire(hostPool.getHost());
+				}
+				// the execution borrows its own connection, so borrowing is accounted as part of the execution
+				timings.hostSelected();
+				timings.connectionBorrowed();
+				
+				attemptStartTime = System.nanoTime();
+				if (!execution.tracksHosts()) {
+					selectionStrategy.operationStarted(hostPool.getHost());
+					started = true;
+				}
+				
+				OperationResult<R> result = execution.execute(hostPool);
+				// a hedged request may have been served by another host than the one picked
+				Host host = (result.getNode() != null) ? result.getNode() : hostPool.getHost();
+				timings.attemptCompleted(host, true);
+				result.setTimings(timings);
+				
+				retry.success();
+				cpMonitor.incOperationSuccess(host, System.currentTimeMillis()-startTime);
+				if (!execution.tracksHosts()) {
+					hostPermit.success();
+					cpHealthTracker.trackSuccess(host, (System.nanoTime() - attemptStartTime)/1000);
+				}
+				recordTimings(timings);
+				
+				return result; 
+				
+			} catch(NoAvailableHostsException e) {
+				cpMonitor.incOperationFailure(null, e);
+				recordTimings(timings);
+
+				throw e;
+			} catch(ConcurrencyLimitExceededException e) {
+				failHostOverLimit(e, timings);
+			} catch(ThrottledException e) {
+				
+				timings.attemptCompleted(hostPool != null ? hostPool.getHost() : null, false);
+				retry.failure(e);
+				lastException = e;
+				cpMonitor.incOperationFailure(hostPool != null ? hostPool.getHost() : null, e);
+				addFailedHost(failedHosts, hostPool, e);
+				
+			} catch(DynoException e) {
+				
+				if (hostPermit != null) {
+					hostPermit.failure(e);
+				}
+				timings.attemptCompleted(hostPool != null ? hostPool.getHost() : null, false);
+				retry.failure(e);
+				lastException = e;
+				addFailedHost(failedHosts, hostPool, e);
+				
+				cpMonitor.incOperationFailure(hostPool != null ? hostPool.getHost() : null, e);
+				if (retry.allowRetry()) {
+					cpMonitor.incFailover(hostPool != null ? hostPool.getHost() : null, e);
+				}
+				
+				if (hostPool != null) {
+					if (!execution.tracksHosts()) {
+						cpHealthTracker.trackConnectionError(hostPool, lastException);
+					}
+				} else if (e instanceof PoolOfflineException) {
+					PoolOfflineException poe = (PoolOfflineException) e;
+					cpHealthTracker.reconnectPool((HostConnectionPool<CL>)poe.getHostPool());
+				}
+				
+			} catch(Throwable t) {
+				throw new RuntimeException(t);
+			} finally {
+				if (hostPermit != null) {
+					hostPermit.ignore();
+				}
+				if (started) {
+					selectionStrategy.operationCompleted(hostPool.getHost(), (System.nanoTime() - attemptStartTime)/1000);
+				}
+			}
+			
+		} while(retry.allowRetry());
+		
+		recordTimings(timings);
+		throw lastException;
+	}
 
-						retry.failure(e);
-						lastException = e;
+	/**
+	 * Runs an operation on a given host pool for {@link ConnectionPoolImpl#executeOnHostPool(BaseOperation, HostPoolExecution)}
+	 */
+	private interface HostPoolExecution<CL, R> {
+		
+		public OperationResult<R> execute(HostConnectionPool<CL> hostPool) throws DynoException;
+		
+		/**
+		 * @return true if the execution takes the host permits and reports to the health and load trackers itself, 
+		 * for every host that it sends the operation to
+		 */
+		public boolean tracksHosts();
+	}
 
-						cpMonitor.incOperationFailure(connection != null ? connection.getHost() : null, e);
+	@Override
+	public <R> List<OperationResult<R>> executeAllWithFailover(List<? extends Operation<CL, R>> ops) throws DynoException {
 
-						// Track the connection health so that the pool can be purged at a later point
-						if (connection != null) {
-							cpHealthTracker.trackConnectionError(connection.getParentConnectionPool(), lastException);
-						} else if (e instanceof PoolOfflineException) {
-							PoolOfflineException poe = (PoolOfflineException) e;
-							HostConnectionPool<?> hostPool = poe.getHostPool();
-							cpHealthTracker.trackConnectionError((HostConnectionPool<CL>)hostPool, lastException);
-						}
+		if (ops.isEmpty()) {
+			return new ArrayList<OperationResult<R>>();
+		}
+		if (ops.size() == 1) {
+			return Collections.singletonList(executeWithFailover(ops.get(0)));
+		}
 
-					} catch(Throwable t) {
-						throw new RuntimeException(t);
-					} finally {
-						connection.getContext().reset();
-						connection.getParentConnectionPool().returnConnection(connection);
-					}
+		// like scatter gather, we don't wait on the ring for longer than the ring operation timeout
+		long deadline = System.currentTimeMillis() + cpConfiguration.getRingOperationTimeout();
 
-				} while(retry.allowRetry());
-			}
-			
-			// we fail the entire operation on a partial failure. hence need to clean up the rest of the pending connections
-		} finally {
-			List<Connection<CL>> remainingConns = new ArrayList<Connection<CL>>();
-			connQueue.drainTo(remainingConns);
-			for (Connection<CL> connectionToClose : remainingConns) {
-				try { 
-					connectionToClose.getContext().reset();
-					connectionToClose.getParentConnectionPool().returnConnection(connectionToClose);
-				} catch (Throwable t) {
+		List<RingTask<R>> tasks = new ArrayList<RingTask<R>>(ops.size());
+		for (int i=1; i<ops.size(); i++) {
+			RingTask<R> task = new FailoverTask<R>(ops.get(i));
+			task.future = ringExecutor.submit(task);
+			tasks.add(task);
+		}
+
+		List<OperationResult<R>> results = new ArrayList<OperationResult<R>>(ops.size());
+		DynoException failure = null;
+
+		// the caller runs the first operation itself instead of just waiting
+		try {
+			results.add(executeWithFailover(ops.get(0)));
+		} catch (DynoException e) {
+			failure = e;
+			results.add(null);
+		}
+
+		for (int i=0; i<tasks.size(); i++) {
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				results.add(tasks.get(i).future.get(remaining, TimeUnit.MILLISECONDS));
+
+			} catch (java.util.concurrent.TimeoutException e) {
+				// the operations that already run keep their connections till they are done, the others never start
+				for (int j=i; j<tasks.size(); j++) {
+					tasks.get(j).abandon();
+				}
+				DynoException ex = new TimeoutException("Operations did not complete within " + cpConfiguration.getRingOperationTimeout() + " ms");
+				cpMonitor.incOperationFailure(null, ex);
+				throw ex;
+
+			} catch (ExecutionException e) {
+				// the operation already failed over on its own, which does not affect the other operations
+				Throwable cause = e.getCause();
+				DynoException opFailure;
+				if (cause instanceof DynoException) {
+					opFailure = (DynoException) cause;
+				} else {
+					// executeWithFailover only counts DynoExceptions
+					opFailure = new DynoException(cause);
+					cpMonitor.incOperationFailure(null, opFailure);
+				}
+				if (failure == null) {
+					failure = opFailure;
+				}
+				results.add(null);
 
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (int j=i; j<tasks.size(); j++) {
+					tasks.get(j).abandon();
 				}
+				throw new DynoException(e);
 			}
 		}
 
-		if (lastException != null) {
-			throw lastException;
-		} else {
-			return results;
+		if (failure != null) {
+			throw failure;
 		}
+		return results;
 	}
-	
-	/**
-	 * Use with EXTREME CAUTION. Connection that is borrowed must be returned, else we will have connection pool exhaustion
-	 * @param baseOperation
-	 * @return
-	 */
-	public <R> Connection<CL> getConnectionForOperation(BaseOperation<CL, R> baseOperation) {
-		return selectionStrategy.getConnection(baseOperation, cpConfiguration.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS);
-	}
-	
+
 	@Override
-	public void shutdown() {
-		for (Host host : cpMap.keySet()) {
-			removeHost(host);
+	public <R> Collection<OperationResult<R>> executeWithRing(Operation<CL, R> op) throws DynoException {
+
+		RingResults<R> ringResults = scatterGather(op);
+
+		// we fail the entire operation on a partial failure
+		if (ringResults.isPartial()) {
+			throw ringResults.getFailures().values().iterator().next();
 		}
-		cpHealthTracker.stop();
-		hostsUpdator.stop();
-		connPoolThreadPool.shutdownNow();
+		return new ArrayList<OperationResult<R>>(ringResults.getResults());
 	}
 
 	@Override
-	public Future<Boolean> start() throws DynoException {
-		
-		if (started.get()) {
-			return getEmptyFutureTask(false);
+	public <R> RingResults<R> executeWithRingPartial(Operation<CL, R> op) throws DynoException {
+		return scatterGather(op);
+	}
+
+	/**
+	 * Runs the operation on a connection to every token in the ring. The per node executions run concurrently on the 
+	 * bounded ring executor, so the whole operation takes about as long as the slowest node and not the sum of all of them. 
+	 * Nodes that have not responded by the ring operation timeout are recorded as failed with a {@link TimeoutException}.
+	 */
+	private <R> RingResults<R> scatterGather(Operation<CL, R> op) throws DynoException {
+
+		// Start recording the operation
+		long startTime = System.currentTimeMillis();
+		long deadline = startTime + cpConfiguration.getRingOperationTimeout();
+
+		Collection<Connection<CL>> connections = selectionStrategy.getConnectionsToRing(cpConfiguration.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS);
+
+		List<RingTask<R>> tasks = new ArrayList<RingTask<R>>(connections.size());
+		for (Connection<CL> connection : connections) {
+			tasks.add(new RingTask<R>(op, connection, startTime));
 		}
-		
-		HostSupplier hostSupplier = cpConfiguration.getHostSupplier();
-		if (hostSupplier == null) {
-			throw new DynoException("Host supplier not configured!");
+		for (RingTask<R> task : tasks) {
+			task.future = ringExecutor.submit(task);
 		}
 
-		HostStatusTracker hostStatus = hostsUpdator.refreshHosts();
-		Collection<Host> hostsUp = hostStatus.getActiveHosts();
-		
-		if (hostsUp == null || hostsUp.isEmpty()) {
-			if (hostStatus.getInactiveHosts() == null || hostStatus.getInactiveHosts().isEmpty()) {
-				throw new NoAvailableHostsException("No available hosts when starting connection pool");
-			} else {
-				Logger.warn("No available hosts when starting connection pool - hosts will be monitored for transition to available");
-			}
-		}
+		RingResults<R> ringResults = new RingResults<R>();
 
-		for (Host host : hostsUp) {
-			// Add host connection pool, but don't init the load balancer yet
-			addHost(host, false);  
-		}
+		for (int i=0; i<tasks.size(); i++) {
 
-		boolean success = started.compareAndSet(false, true);
-		if (success) {
-			selectionStrategy = initSelectionStrategy();
-			cpHealthTracker.start();
-			
-			connPoolThreadPool.scheduleWithFixedDelay(new Runnable() {
+			RingTask<R> task = tasks.get(i);
+			Host host = task.connection.getHost();
 
-				@Override
-				public void run() {
-					
-					HostStatusTracker hostStatus = hostsUpdator.refreshHosts();
-					updateHosts(hostStatus.getActiveHosts(), hostStatus.getInactiveHosts());
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				ringResults.addResult(task.future.get(remaining, TimeUnit.MILLISECONDS));
+
+			} catch (java.util.concurrent.TimeoutException e) {
+				task.abandon();
+				DynoException ex = new TimeoutException("Ring operation did not complete within " + cpConfiguration.getRingOperationTimeout() + " ms").setHost(host);
+				cpMonitor.incOperationFailure(host, ex);
+				ringResults.addFailure(host, ex);
+
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				ringResults.addFailure(host, (cause instanceof DynoException) ? (DynoException) cause : new DynoException(cause));
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (int j=i; j<tasks.size(); j++) {
+					tasks.get(j).abandon();
 				}
-				
-			}, 15*1000, 30*1000, TimeUnit.MILLISECONDS);
-			
-			MonitorConsole.getInstance().registerConnectionPool(this);
+				throw new DynoException(e);
+			}
 		}
-		
-		return getEmptyFutureTask(true);
+		return ringResults;
 	}
-	
-	public HostSupplier getHostSupplier() {
-		HostSupplier hostSupplier = cpConfiguration.getHostSupplier();
-		return hostSupplier;
-	}
-	
-	private HostSelectionWithFallback<CL> initSelectionStrategy() {
-		
-		if (cpConfiguration.getTokenSupplier() == null) {
-			throw new RuntimeException("TokenMapSupplier not configured");
-		}
-		HostSelectionWithFallback<CL> selection = new HostSelectionWithFallback<CL>(cpConfiguration, cpMonitor);
-		selection.initWithHosts(cpMap);
-		return selection;
-	}
-	
 
-	private Future<Boolean> getEmptyFutureTask(final Boolean condition) {
-		
-		FutureTask<Boolean> future = new FutureTask<Boolean>(new Callable<Boolean>() {
-			@Override
-			public Boolean call() throws Exception {
-				return condition;
-			}
-		});
-		
-		future.run();
-		return future;
-	}
+	/**
+	 * Sends the operation to its token's owner in every rack concurrently, on the ring executor, and completes as soon 
+	 * as enough replicas acknowledged a write or returned matching results for a read. The replicas that did not respond 
+	 * by then still complete the operation in the background. 
+	 */
+	private <R> OperationResult<R> executeWithQuorum(QuorumOperation<CL, R> op) throws DynoException {
 
-	public interface HostConnectionPoolFactory<CL> {
-		
-		HostConnectionPool<CL> createHostConnectionPool(Host host, ConnectionPoolImpl<CL> parentPoolImpl);
+		// Start recording the operation
+		long startTime = System.currentTimeMillis();
+		OperationTimings timings = new OperationTimings();
+		timings.attemptStarted();
+
+		ConsistencyLevel level = op.getConsistencyLevel();
+		int required = level.getRequiredReplicas(selectionStrategy.getReplicaCount());
 		
-		public enum Type {
-			Sync, Async;
+		List<HostConnectionPool<CL>> replicas = selectionStrategy.getReplicaHostPools(op);
+		if (replicas.size() < required) {
+			NoAvailableHostsException e = new NoAvailableHostsException(level + " needs " + required + " replicas, only " + replicas.size() + " are available");
+			cpMonitor.incOperationFailure(null, e);
+			recordTimings(timings);
+			throw e;
 		}
-	}
-	
-	private class SyncHostConnectionPoolFactory implements HostConnectionPoolFactory<CL> {
+		// the replicas borrow their own connections, so borrowing is accounted as part of their execution
+		timings.hostSelected();
+		timings.connectionBorrowed();
 
-		@Override
-		public HostConnectionPool<CL> createHostConnectionPool(Host host, ConnectionPoolImpl<CL> parentPoolImpl) {
-			return new HostConnectionPoolImpl<CL>(host, connFactory, cpConfiguration, cpMonitor);
+		DynoException lastException = null;
+		int failures = 0;
+		
+		List<RingTask<R>> tasks = new ArrayList<RingTask<R>>(replicas.size());
+		for (HostConnectionPool<CL> hostPool : replicas) {
+			tasks.add(new ReplicaTask<R>(op, hostPool, startTime));
 		}
-	}
-	
-	private class AsyncHostConnectionPoolFactory implements HostConnectionPoolFactory<CL> {
 
-		@Override
-		public HostConnectionPool<CL> createHostConnectionPool(Host host, ConnectionPoolImpl<CL> parentPoolImpl) {
-			return new SimpleAsyncConnectionPoolImpl<CL>(host, connFactory, cpConfiguration, cpMonitor);
+		ExecutorCompletionService<OperationResult<R>> completions = new ExecutorCompletionService<OperationResult<R>>(ringExecutor);
+		for (RingTask<R> task : tasks) {
+			task.future = completions.submit(task);
 		}
-	}
-	
-	@Override
-	public <R> ListenableFuture<OperationResult<R>> executeAsync(AsyncOperation<CL, R> op) throws DynoException {
-		
-		DynoException lastException = null;
-		Connection<CL> connection = null;
-		long startTime = System.currentTimeMillis();
-		
-		try { 
-			connection = 
-					selectionStrategy.getConnection(op, cpConfiguration.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS);
-			
-			ListenableFuture<OperationResult<R>> futureResult = connection.executeAsync(op);
-			
-			cpMonitor.incOperationSuccess(connection.getHost(), System.currentTimeMillis()-startTime);
+		// every replica may have to wait for a connection before its request goes out
+		int maxWaitMillis = cpConfiguration.getMaxTimeoutWhenExhausted() + cpConfiguration.getSocketTimeout();
+		long deadline = System.currentTimeMillis() + maxWaitMillis;
+
+		// results that are equal to each other, with how many replicas returned them
+		List<OperationResult<R>> distinctResults = new ArrayList<OperationResult<R>>(1);
+		List<Integer> matches = new ArrayList<Integer>(1);
+		int maxMatches = 0;
+		OperationResult<R> winner = null;
 		
-			return futureResult; 
-			
-		} catch(NoAvailableHostsException e) {
-			cpMonitor.incOperationFailure(null, e);
-			throw e;
-		} catch(DynoException e) {
-			
-			lastException = e;
-			cpMonitor.incOperationFailure(connection != null ? connection.getHost() : null, e);
-			
-			// Track the connection health so that the pool can be purged at a later point
-			if (connection != null) {
-				cpHealthTracker.trackConnectionError(connection.getParentConnectionPool(), lastException);
+		try {
+			for (int pending = tasks.size(); pending > 0 && maxMatches + pending >= required; pending--) {
+
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				Future<OperationResult<R>> future = completions.poll(remaining, TimeUnit.MILLISECONDS);
+				if (future == null) {
+					lastException = new TimeoutException(level + " operation did not complete within " + maxWaitMillis + " ms");
+					break;
+				}
+
+				OperationResult<R> result;
+				try {
+					result = future.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					lastException = (cause instanceof DynoException) ? (DynoException) cause : new DynoException(cause);
+					failures++;
+					continue;
+				}
+
+				// writes only count acknowledgements, reads count the replicas that agree on the result
+				int index = op.isWrite() ? (distinctResults.isEmpty() ? -1 : 0) : indexOfResult(distinctResults, result.getResult());
+				if (index < 0) {
+					distinctResults.add(result);
+					matches.add(1);
+					index = distinctResults.size() - 1;
+				} else {
+					matches.set(index, matches.get(index) + 1);
+				}
+				maxMatches = Math.max(maxMatches, matches.get(index));
+
+				if (matches.get(index) >= required) {
+					winner = distinctResults.get(index);
+					timings.attemptCompleted(winner.getNode(), true);
+					winner.setAttemptsCount(replicas.size())
+						  .setTimings(timings);
+					cpMonitor.incOperationSuccess(winner.getNode(), System.currentTimeMillis()-startTime);
+					recordTimings(timings);
+					return winner;
+				}
 			}
-			
-		} catch(Throwable t) {
-			t.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			DynoException ex = new DynoException(e);
+			cpMonitor.incOperationFailure(null, ex);
+			recordTimings(timings);
+			throw ex;
 		} finally {
-			if (connection != null) {
-				connection.getParentConnectionPool().returnConnection(connection);
+			// the writes that did not start yet still go to the remaining replicas
+			if (winner == null || !op.isWrite()) {
+				for (RingTask<R> task : tasks) {
+					task.abandon();
+				}
 			}
 		}
-		return null;
-	}
 
-	public TokenPoolTopology  getTopology() {
-		return selectionStrategy.getTokenPoolTopology();
+		QuorumNotReachedException e = new QuorumNotReachedException(level + " needs " + required + " of " + replicas.size() + " replicas, got " + 
+				maxMatches + (op.isWrite() ? " acknowledgements" : " matching results") + " and " + failures + " failures", lastException);
+		cpMonitor.incOperationFailure(null, e);
+		recordTimings(timings);
+		throw e;
 	}
-	
-	public static class UnitTest {
-		
-		private static class TestClient {
-			
-			private final AtomicInteger ops = new AtomicInteger(0);
+
+	private static <R> int indexOfResult(List<OperationResult<R>> results, R result) {
+		for (int i=0; i<results.size(); i++) {
+			R other = results.get(i).getResult();
+			if ((other == null) ? (result == null) : other.equals(result)) {
+				return i;
+			}
 		}
+		return -1;
+	}
 
-		private static TestClient client = new TestClient();
-		
-		private static ConnectionPoolConfigurationImpl cpConfig = new ConnectionPoolConfigurationImpl("TestClient");
-		private static CountingConnectionPoolMonitor cpMonitor = new CountingConnectionPoolMonitor();
-		
-		private static class TestConnection implements Connection<TestClient> {
+	@SuppressWarnings("unchecked")
+	@Override
+	public <R> OperationResult<R> executeOnToken(Long token, Operation<CL, R> op) throws DynoException {
 
-			private AtomicInteger ops = new AtomicInteger(0);
-			private DynoConnectException ex; 
-			
-			private HostConnectionPool<TestClient> hostPool;
-			
-			private TestConnection(HostConnectionPool<TestClient> pool) {
-				this.hostPool = pool;
-			}
-			
-			@Override
-			public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+		admit(op);
 
-				try {
-					if (op != null) {
-						R r = op.execute(client, null);
-						return new OperationResultImpl<R>("Test", r, null);
-					}
-				} catch (DynoConnectException e) {
-					ex = e;
-					throw e;
-				} finally {
-					ops.incrementAndGet();
+		// Start recording the operation
+		long startTime = System.currentTimeMillis();
+		OperationTimings timings = new OperationTimings();
+
+		RetryPolicy retry = newRetryPolicy();
+		retry.begin();
+
+		DynoException lastException = null;
+
+		do  {
+			Connection<CL> connection = null;
+			HostPermit hostPermit = new HostPermit();
+			timings.attemptStarted();
+
+			try { 
+				connection = selectionStrategy.getConnectionForToken(token, cpConfiguration.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS, timings, hostPermit);
+
+				timings.connectionBorrowed();
+				long attemptStartTime = System.nanoTime();
+				OperationResult<R> result = connection.execute(op);
+				hostPermit.success();
+				timings.attemptCompleted(connection.getHost(), true);
+
+				// Add context to the result from the successful execution
+				result.setNode(connection.getHost())
+					  .setAttemptsCount(timings.getAttempts().size())
+					  .setTimings(timings)
+					  .addMetadata(connection.getContext().getAll());
+
+				retry.success();
+				cpMonitor.incOperationSuccess(connection.getHost(), System.currentTimeMillis()-startTime);
+				cpHealthTracker.trackSuccess(connection.getHost(), (System.nanoTime() - attemptStartTime)/1000);
+				recordTimings(timings);
+
+				return result; 
+
+			} catch(NoAvailableHostsException e) {
+				cpMonitor.incOperationFailure(null, e);
+				recordTimings(timings);
+
+				throw e;
+			} catch(ConcurrencyLimitExceededException e) {
+				failHostOverLimit(e, timings);
+			} catch(ThrottledException e) {
+
+				timings.attemptCompleted(connection != null ? connection.getHost() : null, false);
+				retry.failure(e);
+				lastException = e;
+				cpMonitor.incOperationFailure(connection != null ? connection.getHost() : null, e);
+
+			} catch(DynoException e) {
+
+				hostPermit.failure(e);
+				timings.attemptCompleted(connection != null ? connection.getHost() : null, false);
+				retry.failure(e);
+				lastException = e;
+
+				cpMonitor.incOperationFailure(connection != null ? connection.getHost() : null, e);
+				if (retry.allowRetry()) {
+					cpMonitor.incFailover(connection != null ? connection.getHost() : null, e);
 				}
-				return null;
-			}
 
-			@Override
-			public void close() {
-			}
+				// Track the connection health so that the pool can be purged at a later point
+				if (connection != null) {
+					cpHealthTracker.trackConnectionError(connection.getParentConnectionPool(), lastException);
+				} else if (e instanceof PoolOfflineException) {
+					PoolOfflineException poe = (PoolOfflineException) e;
+					HostConnectionPool<?> hostPool = poe.getHostPool();
+					cpHealthTracker.reconnectPool((HostConnectionPool<CL>)hostPool);
+				}
 
-			@Override
-			public Host getHost() {
-				return hostPool.getHost();
+			} catch(Throwable t) {
+				throw new RuntimeException(t);
+			} finally {
+				hostPermit.ignore();
+				if (connection != null) {
+					connection.getContext().reset();
+					connection.getParentConnectionPool().returnConnection(connection);
+				}
 			}
 
-			@Override
-			public void open() throws DynoException {
-			}
+		} while(retry.allowRetry());
 
-			@Override
-			public DynoConnectException getLastException() {
-				return ex;
-			}
+		recordTimings(timings);
+		throw lastException;
+	}
 
-			@Override
-			public HostConnectionPool<TestClient> getParentConnectionPool() {
-				return hostPool;
-			}
+	@Override
+	public List<Long> getRingTokens() {
+		return selectionStrategy.getLocalRackTokens();
+	}
 
-			@Override
-			public <R> ListenableFuture<OperationResult<R>> executeAsync(AsyncOperation<TestClient, R> op) throws DynoException {
-				throw new RuntimeException("Not Implemented");
-			}
+	private <R> OperationResult<R> executeOnConnection(Operation<CL, R> op, Connection<CL> connection, long startTime) throws DynoException {
 
-			@Override
-			public void execPing() {
-			}
+		RetryPolicy retry = newRetryPolicy();
+		retry.begin();
 
-			@Override
-			public ConnectionContext getContext() {
-				return new ConnectionContextImpl();
-			}
-		}
-		
-		private static ConnectionFactory<TestClient> connFactory = new ConnectionFactory<TestClient>() {
+		DynoException lastException = null;
 
-			@Override
-			public Connection<TestClient> createConnection(HostConnectionPool<TestClient> pool, ConnectionObservor observor) throws DynoConnectException, ThrottledException {
-				return new TestConnection(pool);
-			}
-		};
-		
-		private Host host1 = new Host("host1", 8080, Status.Up).setRack("localDC");
-		private Host host2 = new Host("host2", 8080, Status.Up).setRack("localDC");
-		private Host host3 = new Host("host3", 8080, Status.Up).setRack("localDC");
-		
-		private final List<Host> hostSupplierHosts = new ArrayList<Host>();
-		
-		@Before
-		public void beforeTest() {
+		do {
+			try { 
+				OperationResult<R> result = connection.execute(op);
 
-			hostSupplierHosts.clear();
-			
-			host1 = new Host("host1", 8080, Status.Up).setRack("localDC");
-			host2 = new Host("host2", 8080, Status.Up).setRack("localDC");
-			host3 = new Host("host3", 8080, Status.Up).setRack("localDC");
+				// Add context to the result from the successful execution
+				result.setNode(connection.getHost())
+				.addMetadata(connection.getContext().getAll());
+
+				retry.success();
+				cpMonitor.incOperationSuccess(connection.getHost(), System.currentTimeMillis()-startTime);
+
+				return result;
+
+			} catch(DynoException e) {
+
+				retry.failure(e);
+				lastException = e;
+
+				cpMonitor.incOperationFailure(connection.getHost(), e);
+
+				// Track the connection health so that the pool can be purged at a later point
+				cpHealthTracker.trackConnectionError(connection.getParentConnectionPool(), lastException);
+			} finally {
+				connection.getContext().reset();
+			}
+
+		} while(retry.allowRetry());
+
+		throw lastException;
+	}
+
+	/**
+	 * Executes a scatter gather operation on the connection to one node. The connection is returned to its pool by whoever 
+	 * claims it first, the task when it starts running or the caller when it gives up on the task after the deadline. 
+	 */
+	private class RingTask<R> implements Callable<OperationResult<R>> {
+
+		protected final Operation<CL, R> op;
+		protected final HostConnectionPool<CL> hostPool;
+		protected final long startTime;
+		private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+		// borrowed up front, or by the task itself once it runs. Tasks that pick their own host have neither
+		protected Connection<CL> connection;
+		private Future<OperationResult<R>> future;
+
+		private RingTask(Operation<CL, R> op, Connection<CL> connection, long startTime) {
+			this(op, connection.getParentConnectionPool(), startTime);
+			this.connection = connection;
+		}
+
+		protected RingTask(Operation<CL, R> op, HostConnectionPool<CL> hostPool, long startTime) {
+			this.op = op;
+			this.hostPool = hostPool;
+			this.startTime = startTime;
+		}
+
+		@Override
+		public OperationResult<R> call() throws Exception {
+			if (!claimed.compareAndSet(false, true)) {
+				TimeoutException e = new TimeoutException("Ring operation timed out before it was executed");
+				if (hostPool != null) {
+					e.setHost(hostPool.getHost());
+				}
+				throw e;
+			}
+			try {
+				return execute();
+			} finally {
+				if (connection != null) {
+					hostPool.returnConnection(connection);
+				}
+			}
+		}
+
+		protected OperationResult<R> execute() throws DynoException {
+			return executeOnConnection(op, connection, startTime);
+		}
+
+		private void abandon() {
+			if (claimed.compareAndSet(false, true)) {
+				future.cancel(false);
+				if (connection != null) {
+					hostPool.returnConnection(connection);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs one of the operations of {@link ConnectionPoolImpl#executeAllWithFailover(List)}, which picks its own host 
+	 * and fails over on its own
+	 */
+	private class FailoverTask<R> extends RingTask<R> {
+
+		private FailoverTask(Operation<CL, R> op) {
+			super(op, (HostConnectionPool<CL>) null, System.currentTimeMillis());
+		}
+
+		@Override
+		protected OperationResult<R> execute() throws DynoException {
+			return executeWithFailover(op);
+		}
+	}
+
+	/**
+	 * Runs a quorum operation on one replica. The replicas already provide the redundancy, hence each one gets a single 
+	 * attempt which goes through the host's throttle and concurrency limit. The connection is borrowed on the ring executor, 
+	 * so that a replica with an exhausted pool does not hold up the others. Its outcome only goes to the health and load 
+	 * trackers, the operation as a whole is counted once by {@link ConnectionPoolImpl#executeWithQuorum(QuorumOperation)}. 
+	 */
+	private class ReplicaTask<R> extends RingTask<R> {
+
+		private ReplicaTask(Operation<CL, R> op, HostConnectionPool<CL> hostPool, long startTime) {
+			super(op, hostPool, startTime);
+		}
+
+		@Override
+		protected OperationResult<R> execute() throws DynoException {
+
+			Host host = hostPool.getHost();
+			Permit hostPermit = null;
+			long attemptStartTime = 0;
+			boolean started = false;
+
+			try {
+				throttler.admit(host);
+				hostPermit = concurrencyLimiter.acquire(host);
+				attemptStartTime = System.nanoTime();
+				selectionStrategy.operationStarted(host);
+				started = true;
+
+				connection = hostPool.borrowConnection(cpConfiguration.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS);
+				OperationResult<R> result = connection.execute(op);
+				hostPermit.success();
+
+				// Add context to the result from the successful execution
+				result.setNode(host)
+					  .addMetadata(connection.getContext().getAll());
+
+				cpHealthTracker.trackSuccess(host, (System.nanoTime() - attemptStartTime)/1000);
+
+				return result;
+
+			} catch(ThrottledException e) {
+				throw e;
+			} catch(DynoException e) {
+				if (hostPermit != null) {
+					hostPermit.failure(e);
+				}
+
+				// Track the connection health so that the pool can be purged at a later point
+				cpHealthTracker.trackConnectionError(hostPool, e);
+				throw e;
+			} finally {
+				if (hostPermit != null) {
+					hostPermit.ignore();
+				}
+				if (started) {
+					selectionStrategy.operationCompleted(host, (System.nanoTime() - attemptStartTime)/1000);
+				}
+				if (connection != null) {
+					connection.getContext().reset();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Use with EXTREME CAUTION. Connection that is borrowed must be returned, else we will have connection pool exhaustion
+	 * @param baseOperation
+	 * @return
+	 */
+	public <R> Connection<CL> getConnectionForOperation(BaseOperation<CL, R> baseOperation) {
+		return selectionStrategy.getConnection(baseOperation, cpConfiguration.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS);
+	}
+	
+	@Override
+	public void shutdown() {
+		for (Host host : cpMap.keySet()) {
+			removeHost(host);
+		}
+		cpHealthTracker.stop();
+		hostsUpdator.stop();
+		connPoolThreadPool.shutdownNow();
+		ringExecutor.shutdownNow();
+		requestHedger.shutdown();
+	}
+
+	@Override
+	public Future<Boolean> start() throws DynoException {
+		
+		if (started.get()) {
+			return getEmptyFutureTask(false);
+		}
+		
+		HostSupplier hostSupplier = cpConfiguration.getHostSupplier();
+		if (hostSupplier == null) {
+			throw new DynoException("Host supplier not configured!");
+		}
+
+		HostStatusTracker hostStatus = hostsUpdator.refreshHosts();
+		Collection<Host> hostsUp = hostStatus.getActiveHosts();
+		
+		if (hostsUp == null || hostsUp.isEmpty()) {
+			if (hostStatus.getInactiveHosts() == null || hostStatus.getInactiveHosts().isEmpty()) {
+				throw new NoAvailableHostsException("No available hosts when starting connection pool");
+			} else {
+				Logger.warn("No available hosts when starting connection pool - hosts will be monitored for transition to available");
+			}
+		}
+
+		for (Host host : hostsUp) {
+			// Add host connection pool, but don't init the load balancer yet
+			addHost(host, false);  
+		}
+
+		boolean success = started.compareAndSet(false, true);
+		if (success) {
+			selectionStrategy = initSelectionStrategy();
+			cpHealthTracker.start();
+			
+			connPoolThreadPool.scheduleWithFixedDelay(new Runnable() {
 
-			client = new TestClient();
-			cpConfig = new ConnectionPoolConfigurationImpl("TestClient").setLoadBalancingStrategy(LoadBalancingStrategy.RoundRobin);
-			cpConfig.withHostSupplier(new HostSupplier() {
-				
 				@Override
-				public Collection<Host> getHosts() {
-					return hostSupplierHosts;
+				public void run() {
+					
+					HostStatusTracker hostStatus = hostsUpdator.refreshHosts();
+					updateHosts(hostStatus.getActiveHosts(), hostStatus.getInactiveHosts());
 				}
-			});
+				
+			}, 15*1000, 30*1000, TimeUnit.MILLISECONDS);
 			
-			cpConfig.setLocalDC("localDC");
-			cpConfig.setLoadBalancingStrategy(LoadBalancingStrategy.RoundRobin);
+			MonitorConsole.getInstance().registerConnectionPool(this);
+		}
+		
+		return getEmptyFutureTask(true);
+	}
+	
+	public HostSupplier getHostSupplier() {
+		HostSupplier hostSupplier = cpConfiguration.getHostSupplier();
+		return hostSupplier;
+	}
+	
+	private HostSelectionWithFallback<CL> initSelectionStrategy() {
+		
+		if (cpConfiguration.getTokenSupplier() == null) {
+			throw new RuntimeException("TokenMapSupplier not configured");
+		}
+		HostSelectionWithFallback<CL> selection = new HostSelectionWithFallback<CL>(cpConfiguration, cpMonitor, cpHealthTracker);
+		selection.initWithHosts(cpMap);
+		return selection;
+	}
+	
+
+	private Future<Boolean> getEmptyFutureTask(final Boolean condition) {
+		
+		FutureTask<Boolean> future = new FutureTask<Boolean>(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return condition;
+			}
+		});
+		
+		future.run();
+		return future;
+	}
+
+	public interface HostConnectionPoolFactory<CL> {
+		
+		HostConnectionPool<CL> createHostConnectionPool(Host host, ConnectionPoolImpl<CL> parentPoolImpl);
+		
+		public enum Type {
+			Sync, Async;
+		}
+	}
+	
+	private class SyncHostConnectionPoolFactory implements HostConnectionPoolFactory<CL> {
+
+		@Override
+		public HostConnectionPool<CL> createHostConnectionPool(Host host, ConnectionPoolImpl<CL> parentPoolImpl) {
+			return new HostConnectionPoolImpl<CL>(host, connFactory, cpConfiguration, cpMonitor);
+		}
+	}
+	
+	private class AsyncHostConnectionPoolFactory implements HostConnectionPoolFactory<CL> {
+
+		@Override
+		public HostConnectionPool<CL> createHostConnectionPool(Host host, ConnectionPoolImpl<CL> parentPoolImpl) {
+			return new SimpleAsyncConnectionPoolImpl<CL>(host, connFactory, cpConfiguration, cpMonitor);
+		}
+	}
+	
+	@Override
+	public <R> ListenableFuture<OperationResult<R>> executeAsync(AsyncOperation<CL, R> op) throws DynoException {
+		
+		admit(op);
+		
+		DynoException lastException = null;
+		Connection<CL> connection = null;
+		long startTime = System.currentTimeMillis();
+		
+		Permit permit = acquirePermit();
+		HostPermit hostPermit = new HostPermit();
+		boolean dispatched = false;
+		
+		try { 
+			connection = 
+					selectionStrategy.getConnection(op, cpConfiguration.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS, null, hostPermit);
 			
-			cpConfig.withTokenSupplier(getTokenMapSupplier());
+			ListenableFuture<OperationResult<R>> futureResult = connection.executeAsync(op);
+			releaseOnCompletion(futureResult, permit, hostPermit.permit);
+			dispatched = true;
 			
-			cpMonitor = new CountingConnectionPoolMonitor();
+			cpMonitor.incOperationSuccess(connection.getHost(), System.currentTimeMillis()-startTime);
+		
+			return futureResult; 
+			
+		} catch(NoAvailableHostsException e) {
+			cpMonitor.incOperationFailure(null, e);
+			throw e;
+		} catch(ThrottledException e) {
+			// the host is over its rate or concurrency limit, which fails the operation right away
+			cpMonitor.incOperationFailure(e.getHost(), e);
+			throw e;
+		} catch(DynoException e) {
+			
+			permit.failure(e);
+			hostPermit.failure(e);
+			lastException = e;
+			cpMonitor.incOperationFailure(connection != null ? connection.getHost() : null, e);
+			
+			// Track the connection health so that the pool can be purged at a later point
+			if (connection != null) {
+				cpHealthTracker.trackConnectionError(connection.getParentConnectionPool(), lastException);
+			}
+			
+		} catch(Throwable t) {
+			t.printStackTrace();
+		} finally {
+			if (!dispatched) {
+				permit.ignore();
+				hostPermit.ignore();
+			}
+			if (connection != null) {
+				connection.getParentConnectionPool().returnConnection(connection);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Releases the permits of an async operation once its result is in
+	 */
+	private <R> void releaseOnCompletion(final ListenableFuture<OperationResult<R>> future, final Permit ... permits) {
+		
+		future.addListener(new Runnable() {
+
+			@Override
+			public void run() {
+				DynoException failure = null;
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					failure = (e.getCause() instanceof DynoException) ? (DynoException) e.getCause() : new DynoException(e.getCause());
+				} catch (Exception e) {
+					// cancelled or interrupted, which says nothing about the latency
+					for (Permit permit : permits) {
+						permit.ignore();
+					}
+					return;
+				}
+				for (Permit permit : permits) {
+					if (failure == null) {
+						permit.success();
+					} else {
+						permit.failure(failure);
+					}
+				}
+			}
+		}, DirectExecutor);
+	}
+
+	public TokenPoolTopology  getTopology() {
+		return selectionStrategy.getTokenPoolTopology();
+	}
+	
+	public static class UnitTest {
+		
+		private static class TestClient {
+			
+			private final AtomicInteger ops = new AtomicInteger(0);
+		}
+
+		private static TestClient client = new TestClient();
+		
+		private static ConnectionPoolConfigurationImpl cpConfig = new ConnectionPoolConfigurationImpl("TestClient");
+		private static CountingConnectionPoolMonitor cpMonitor = new CountingConnectionPoolMonitor();
+		
+		private static class TestConnection implements Connection<TestClient> {
+
+			private AtomicInteger ops = new AtomicInteger(0);
+			private DynoConnectException ex; 
+			
+			private HostConnectionPool<TestClient> hostPool;
+			
+			private TestConnection(HostConnectionPool<TestClient> pool) {
+				this.hostPool = pool;
+			}
+			
+			@Override
+			public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+
+				try {
+					if (op != null) {
+						R r = op.execute(client, null);
+						return new OperationResultImpl<R>("Test", r, null);
+					}
+				} catch (DynoConnectException e) {
+					ex = e;
+					throw e;
+				} finally {
+					ops.incrementAndGet();
+				}
+				return null;
+			}
+
+			@Override
+			public void close() {
+			}
+
+			@Override
+			public Host getHost() {
+				return hostPool.getHost();
+			}
+
+			@Override
+			public void open() throws DynoException {
+			}
+
+			@Override
+			public DynoConnectException getLastException() {
+				return ex;
+			}
+
+			@Override
+			public HostConnectionPool<TestClient> getParentConnectionPool() {
+				return hostPool;
+			}
+
+			@Override
+			public <R> ListenableFuture<OperationResult<R>> executeAsync(AsyncOperation<TestClient, R> op) throws DynoException {
+				throw new RuntimeException("Not Implemented");
+			}
+
+			@Override
+			public void execPing() {
+			}
+
+			@Override
+			public ConnectionContext getContext() {
+				return new ConnectionContextImpl();
+			}
+		}
+		
+		private static ConnectionFactory<TestClient> connFactory = new ConnectionFactory<TestClient>() {
+
+			@Override
+			public Connection<TestClient> createConnection(HostConnectionPool<TestClient> pool, ConnectionObservor observor) throws DynoConnectException, ThrottledException {
+				return new TestConnection(pool);
+			}
+		};
+		
+		private Host host1 = new Host("host1", 8080, Status.Up).setRack("localDC");
+		private Host host2 = new Host("host2", 8080, Status.Up).setRack("localDC");
+		private Host host3 = new Host("host3", 8080, Status.Up).setRack("localDC");
+		
+		private final List<Host> hostSupplierHosts = new ArrayList<Host>();
+		
+		@Before
+		public void beforeTest() {
+
+			hostSupplierHosts.clear();
+			
+			host1 = new Host("host1", 8080, Status.Up).setRack("localDC");
+			host2 = new Host("host2", 8080, Status.Up).setRack("localDC");
+			host3 = new Host("host3", 8080, Status.Up).setRack("localDC");
+
+			client = new TestClient();
+			cpConfig = new ConnectionPoolConfigurationImpl("TestClient").setLoadBalancingStrategy(LoadBalancingStrategy.RoundRobin);
+			cpConfig.withHostSupplier(new HostSupplier() {
+				
+				@Override
+				public Collection<Host> getHosts() {
+					return hostSupplierHosts;
+				}
+			});
+			
+			cpConfig.setLocalDC("localDC");
+			cpConfig.setLoadBalancingStrategy(LoadBalancingStrategy.RoundRobin);
+			
+			cpConfig.withTokenSupplier(getTokenMapSupplier());
+			
+			cpMonitor = new CountingConnectionPoolMonitor();
+		}
+		
+		@Test
+		public void testConnectionPoolNormal() throws Exception {
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(host2);
+			
+			pool.start();
+			
+			final Callable<Void> testLogic = new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					Thread.sleep(1000);
+					return null;
+				}
+			};
+			
+			try {
+				runTest(pool, testLogic);
+				checkConnectionPoolMonitorStats(2);
+			
+				checkHostStats(host1);
+				checkHostStats(host2);
+			} finally {
+				pool.shutdown();
+			}
+		}
+		
+		private void checkConnectionPoolMonitorStats(int numHosts)  {
+			
+			System.out.println("Total ops: " + client.ops.get());
+			Assert.assertTrue("Total ops: " + client.ops.get(), client.ops.get() > 0);
+
+			Assert.assertEquals(client.ops.get(), cpMonitor.getOperationSuccessCount());
+			Assert.assertEquals(0, cpMonitor.getOperationFailureCount());
+			Assert.assertEquals(0, cpMonitor.getOperationTimeoutCount());
+			
+			Assert.assertEquals(numHosts*cpConfig.getMaxConnsPerHost(), cpMonitor.getConnectionCreatedCount());
+			Assert.assertEquals(0, cpMonitor.getConnectionCreateFailedCount());
+			Assert.assertEquals(numHosts*cpConfig.getMaxConnsPerHost(), cpMonitor.getConnectionClosedCount());
+			
+			Assert.assertEquals(client.ops.get(), cpMonitor.getConnectionBorrowedCount());
+			Assert.assertEquals(client.ops.get(), cpMonitor.getConnectionReturnedCount());
+		}
+		
+		private TokenMapSupplier getTokenMapSupplier() {
+			
+			/**
+			cqlsh:dyno_bootstrap> select "availabilityZone","hostname","token" from tokens where "appId" = 'dynomite_redis_puneet';
+
+				availabilityZone | hostname                                   | token
+				------------------+--------------------------------------------+------------
+	   			us-east-1c |  ec2-54-83-179-213.compute-1.amazonaws.com | 1383429731
+	   			us-east-1c |  ec2-54-224-184-99.compute-1.amazonaws.com |  309687905
+	   			us-east-1c |  ec2-54-91-190-159.compute-1.amazonaws.com | 3530913377
+	   			us-east-1c |   ec2-54-81-31-218.compute-1.amazonaws.com | 2457171554
+	   			us-east-1e | ec2-54-198-222-153.compute-1.amazonaws.com |  309687905
+	   			us-east-1e | ec2-54-198-239-231.compute-1.amazonaws.com | 2457171554
+	   			us-east-1e |  ec2-54-226-212-40.compute-1.amazonaws.com | 1383429731
+	   			us-east-1e | ec2-54-197-178-229.compute-1.amazonaws.com | 3530913377
+
+			cqlsh:dyno_bootstrap> 
+			 */
+			final Map<Host, HostToken> tokenMap = new HashMap<Host, HostToken>();
+
+			return new TokenMapSupplier () {
+				@Override
+				public List<HostToken> getTokens() {
+					return new ArrayList<HostToken>(tokenMap.values());
+				}
+
+				@Override
+				public HostToken getTokenForHost(Host host) {
+					Host h = host;
+					if (h.getHostName().equals("host1")) {
+						tokenMap.put(host1, new HostToken(309687905L, host1));
+					} else if (h.getHostName().equals("host2")) {
+						tokenMap.put(host2, new HostToken(1383429731L, host2));
+					} else if (h.getHostName().equals("host3")) {
+						tokenMap.put(host3, new HostToken(2457171554L, host3));
+					}
+					return tokenMap.get(host);
+				}
+
+				@Override
+				public void initWithHosts(Collection<Host> hosts) {
+					
+					tokenMap.clear();
+					for (Host h : hosts) {
+						if (h.getHostName().equals("host1")) {
+							tokenMap.put(host1, new HostToken(309687905L, host1));
+						} else if (h.getHostName().equals("host2")) {
+							tokenMap.put(host2, new HostToken(1383429731L, host2));
+						} else if (h.getHostName().equals("host3")) {
+							tokenMap.put(host3, new HostToken(2457171554L, host3));
+						}
+					}
+				}
+			};
+		}
+		
+		@Test
+		public void testAddingNewHosts() throws Exception {
+			
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(host2);
+			
+			pool.start();
+			
+			final Callable<Void> testLogic = new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					Thread.sleep(1000);
+					pool.addHost(host3);
+					Thread.sleep(1000);
+					return null;
+				}
+			};
+			
+			runTest(pool, testLogic);
+			
+			checkConnectionPoolMonitorStats(3);
+			
+			checkHostStats(host1);
+			checkHostStats(host2);
+			checkHostStats(host3);
+
+			HostConnectionStats h1Stats = cpMonitor.getHostStats().get(host1);
+			HostConnectionStats h2Stats = cpMonitor.getHostStats().get(host2);
+			HostConnectionStats h3Stats = cpMonitor.getHostStats().get(host3);
+			
+			Assert.assertTrue("h3Stats: " + h3Stats + " h1Stats: " + h1Stats, h1Stats.getOperationSuccessCount() > h3Stats.getOperationSuccessCount());
+			Assert.assertTrue("h3Stats: " + h3Stats + " h2Stats: " + h2Stats, h2Stats.getOperationSuccessCount() > h3Stats.getOperationSuccessCount());
+		}
+		
+		private void checkHostStats(Host host) {
+
+			HostConnectionStats hStats = cpMonitor.getHostStats().get(host);
+			Assert.assertTrue("host ops: " + hStats.getOperationSuccessCount(), hStats.getOperationSuccessCount() > 0);
+			Assert.assertEquals(0, hStats.getOperationErrorCount());
+			Assert.assertEquals(cpConfig.getMaxConnsPerHost(), hStats.getConnectionsCreated());
+			Assert.assertEquals(0, hStats.getConnectionsCreateFailed());
+			Assert.assertEquals(cpConfig.getMaxConnsPerHost(), hStats.getConnectionsClosed());
+			Assert.assertEquals(hStats.getOperationSuccessCount(), hStats.getConnectionsBorrowed());
+			Assert.assertEquals(hStats.getOperationSuccessCount(), hStats.getConnectionsReturned());
+		}
+
+		@Test
+		public void testRemovingHosts() throws Exception {
+			
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(host2);
+			hostSupplierHosts.add(host3);
+			
+			pool.start();
+			
+			final Callable<Void> testLogic = new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					Thread.sleep(1000);
+					pool.removeHost(host2);
+					Thread.sleep(1000);
+					return null;
+				}
+			};
+			
+			runTest(pool, testLogic);
+			
+			checkConnectionPoolMonitorStats(3);
+			
+			checkHostStats(host1);
+			checkHostStats(host2);
+			checkHostStats(host3);
+			
+			HostConnectionStats h1Stats = cpMonitor.getHostStats().get(host1);
+			HostConnectionStats h2Stats = cpMonitor.getHostStats().get(host2);
+			HostConnectionStats h3Stats = cpMonitor.getHostStats().get(host3);
+			
+			Assert.assertTrue("h1Stats: " + h1Stats + " h2Stats: " + h2Stats, h1Stats.getOperationSuccessCount() > h2Stats.getOperationSuccessCount());
+			Assert.assertTrue("h2Stats: " + h2Stats + " h3Stats: " + h3Stats, h3Stats.getOperationSuccessCount() > h2Stats.getOperationSuccessCount());
+		}
+
+		@Test (expected=NoAvailableHostsException.class)
+		public void testNoAvailableHosts() throws Exception {
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
+			pool.start();
+			
+			try { 
+				executeTestClientOperation(pool);
+			} finally {
+				pool.shutdown();
+			}
+		}
+		
+		@Test
+		public void testPoolExhausted() throws Exception {
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(host2);
+			hostSupplierHosts.add(host3);
+			
+			pool.start();
+			
+			// Now exhaust all 9 connections, so that the 10th one can fail with PoolExhaustedException
+			final ExecutorService threadPool = Executors.newFixedThreadPool(9);
+			
+			final Callable<Void> blockConnectionForSomeTime = new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					try { 
+						Thread.sleep(10000);  // sleep for a VERY long time to ensure pool exhaustion
+					} catch (InterruptedException e) {
+						// just return
+					}
+					return null;
+				}
+			};
+			
+			final CountDownLatch latch = new CountDownLatch(9);
+			for (int i=0; i<9; i++) {
+				threadPool.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						latch.countDown();
+						executeTestClientOperation(pool, blockConnectionForSomeTime);
+						return null;
+					}
+				});
+			}
+			
+			latch.await(); Thread.sleep(100); // wait patiently for all threads to have blocked the connections
+			
+			try {
+				executeTestClientOperation(pool);
+				Assert.fail("TEST FAILED");
+			} catch (PoolTimeoutException e) {
+				threadPool.shutdownNow();
+				pool.shutdown();
+			}
+		}
+		
+		
+		@Test
+		public void testHostEvictionDueToErrorRates() throws Exception {
+			
+			// First configure the error rate monitor
+			ErrorRateMonitorConfigImpl errConfig =  new ErrorRateMonitorConfigImpl();  
+			errConfig.checkFrequency = 1;
+			errConfig.window = 1;
+			errConfig.suppressWindow = 60;
+			
+			errConfig.addThreshold(10, 1, 100);
+					
+			final AtomicReference<String> badHost = new AtomicReference<String>();
+			
+			final ConnectionFactory<TestClient> badConnectionFactory = new ConnectionFactory<TestClient>() {
+
+				@Override
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					
+					return new TestConnection(pool) {
+
+						@Override
+						public <R> OperationResult<R> execute(Operation<com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl.UnitTest.TestClient, R> op) throws DynoException {
+							if (pool.getHost().getHostName().equals(badHost.get())) {
+								throw new FatalConnectionException("Fail for bad host");
+							}
+							return super.execute(op);
+						}
+					};
+				}
+			};
+			
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(badConnectionFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(host2);
+			hostSupplierHosts.add(host3);
+			
+			pool.start();
+
+			final Callable<Void> testLogic = new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					Thread.sleep(2000);
+					badHost.set("host2");
+					Thread.sleep(2000);
+					return null;
+				}
+			};
+			
+			runTest(pool, testLogic);
+			
+			Assert.assertTrue("Total ops: " + client.ops.get(), client.ops.get() > 0);
+			Assert.assertTrue("Total errors: " + cpMonitor.getOperationFailureCount(), cpMonitor.getOperationFailureCount() > 0);
+			
+			Assert.assertEquals(3*cpConfig.getMaxConnsPerHost(), cpMonitor.getConnectionCreatedCount());
+			Assert.assertEquals(0, cpMonitor.getConnectionCreateFailedCount());
+			Assert.assertEquals(3*cpConfig.getMaxConnsPerHost(), cpMonitor.getConnectionClosedCount());
+			
+			Assert.assertEquals(client.ops.get() + cpMonitor.getOperationFailureCount(), cpMonitor.getConnectionBorrowedCount());
+			Assert.assertEquals(client.ops.get() + cpMonitor.getOperationFailureCount(), cpMonitor.getConnectionReturnedCount());
+			
+			checkHostStats(host1); 
+			checkHostStats(host3);
+			
+			HostConnectionStats h2Stats = cpMonitor.getHostStats().get(host2);
+			Assert.assertEquals(cpMonitor.getOperationFailureCount(), h2Stats.getOperationErrorCount());
+
+		}
+		
+		@Test
+		public void testWithRetries() throws Exception {
+			
+			final ConnectionFactory<TestClient> badConnectionFactory = new ConnectionFactory<TestClient>() {
+				@Override
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					return new TestConnection(pool) {
+						@Override
+						public <R> OperationResult<R> execute(Operation<com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl.UnitTest.TestClient, R> op) throws DynoException {
+							throw new DynoException("Fail for bad host");
+						}
+					};
+				}
+			};
+			
+			final RetryNTimes retry = new RetryNTimes(3, false);
+			final RetryPolicyFactory rFactory = new RetryNTimes.RetryPolicyFactory() {
+				@Override
+				public RetryPolicy getRetryPolicy() {
+					return retry;
+				}
+			};
+			
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(badConnectionFactory, cpConfig.setRetryPolicyFactory(rFactory), cpMonitor);
+			hostSupplierHosts.add(host1);
+
+			pool.start();
+			
+			
+			try { 
+				executeTestClientOperation(pool, null);
+				Assert.fail("Test failed: expected PoolExhaustedException");
+			} catch (DynoException e) {
+				Assert.assertEquals("Retry: " + retry.getAttemptCount(), 4, retry.getAttemptCount());
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testRetryBudget() throws Exception {
+			
+			final ConnectionFactory<TestClient> badConnectionFactory = new ConnectionFactory<TestClient>() {
+				@Override
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					return new TestConnection(pool) {
+						@Override
+						public <R> OperationResult<R> execute(Operation<com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl.UnitTest.TestClient, R> op) throws DynoException {
+							throw new DynoException("Fail for bad host");
+						}
+					};
+				}
+			};
+			
+			// the budget holds 10 retries
+			cpConfig.setRetryPolicyFactory(new RetryNTimes.RetryFactory(3, false)).setRetryBudgetPercent(10).setRetryBudgetMinRetriesPerSecond(1);
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(badConnectionFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+
+			pool.start();
+			
+			try { 
+				for (int i=0; i<10; i++) {
+					try {
+						executeTestClientOperation(pool, null);
+						Assert.fail("Expected DynoException");
+					} catch (DynoException e) {
+					}
+				}
+				// without the budget these would have been 40 attempts
+				Assert.assertTrue("Failures: " + cpMonitor.getOperationFailureCount(), cpMonitor.getOperationFailureCount() <= 21);
+				Assert.assertTrue(cpMonitor.getRetryBudgetExhaustedCount() >= 6);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testOperationTimings() throws Exception {
+
+			final AtomicInteger executions = new AtomicInteger(0);
+			final ConnectionFactory<TestClient> flakyConnectionFactory = new ConnectionFactory<TestClient>() {
+				@Override
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					return new TestConnection(pool) {
+						@Override
+						public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+							if (executions.incrementAndGet() == 1) {
+								throw new DynoException("Fail the first attempt");
+							}
+							return super.execute(op);
+						}
+					};
+				}
+			};
+
+			final RetryPolicyFactory rFactory = new RetryNTimes.RetryPolicyFactory() {
+				@Override
+				public RetryPolicy getRetryPolicy() {
+					return new RetryNTimes(1, false);
+				}
+			};
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(flakyConnectionFactory, cpConfig.setRetryPolicyFactory(rFactory), cpMonitor);
+			hostSupplierHosts.add(host1);
+
+			pool.start();
+
+			try {
+				OperationResult<Integer> result = pool.executeWithFailover(getKeyOperation("key", 1, 20));
+				Assert.assertEquals(1, result.getResult().intValue());
+				Assert.assertEquals(2, result.getAttemptsCount());
+
+				OperationTimings timings = result.getTimings();
+				Assert.assertNotNull(timings);
+				Assert.assertEquals(2, timings.getAttempts().size());
+				Assert.assertFalse(timings.getAttempts().get(0).isSuccess());
+				Assert.assertTrue(timings.getAttempts().get(1).isSuccess());
+				Assert.assertEquals(host1, timings.getAttempts().get(1).getHost());
+
+				Assert.assertTrue(timings.getNanos(Phase.EXECUTE) >= TimeUnit.MILLISECONDS.toNanos(20));
+				Assert.assertTrue(timings.getNanos(Phase.RETRY) > 0);
+				Assert.assertTrue(timings.getNanos(Phase.SELECTION) >= 0);
+				Assert.assertTrue(timings.getNanos(Phase.BORROW) >= 0);
+				Assert.assertTrue(timings.getTotalNanos() >= timings.getNanos(Phase.EXECUTE) + timings.getNanos(Phase.RETRY));
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testThrottledOperationFailsFast() throws Exception {
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig.setMaxOperationsPerSecond("TestKeyOperation", 10), cpMonitor);
+			hostSupplierHosts.add(host1);
+
+			pool.start();
+
+			try {
+				Assert.assertEquals(1, pool.executeWithFailover(getKeyOperation("key", 1, 0)).getResult().intValue());
+				try {
+					pool.executeWithFailover(getKeyOperation("key", 1, 0));
+					Assert.fail("Expected ThrottledException");
+				} catch (ThrottledException e) {
+				}
+				Assert.assertEquals(1, cpMonitor.getOperationFailureCount());
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testThrottledAsyncOperationFailsFast() throws Exception {
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig.setMaxOperationsPerSecond("TestKeyOperation", 10), cpMonitor);
+			hostSupplierHosts.add(host1);
+
+			pool.start();
+
+			try {
+				Assert.assertEquals(1, pool.executeWithFailover(getKeyOperation("key", 1, 0)).getResult().intValue());
+				try {
+					pool.executeAsync(getAsyncOperation("TestKeyOperation"));
+					Assert.fail("Expected ThrottledException");
+				} catch (ThrottledException e) {
+				}
+				Assert.assertEquals(1, cpMonitor.getOperationFailureCount());
+
+				// the host throttle applies as well, before a connection is borrowed
+				Thread.sleep(200);
+				cpConfig.setMaxOperationsPerSecondPerHost(1);
+				Assert.assertEquals(1, pool.executeWithFailover(getKeyOperation("other", 1, 0)).getResult().intValue());
+				long borrowed = cpMonitor.getConnectionBorrowedCount();
+				try {
+					pool.executeAsync(getAsyncOperation("TestAsyncOperation"));
+					Assert.fail("Expected ThrottledException");
+				} catch (ThrottledException e) {
+				}
+				Assert.assertEquals(2, cpMonitor.getOperationFailureCount());
+				Assert.assertEquals(borrowed, cpMonitor.getConnectionBorrowedCount());
+			} finally {
+				cpConfig.setMaxOperationsPerSecondPerHost(0);
+				pool.shutdown();
+			}
+		}
+
+		private AsyncOperation<TestClient, Integer> getAsyncOperation(final String name) {
+
+			return new AsyncOperation<TestClient, Integer>() {
+
+				@Override
+				public ListenableFuture<Integer> executeAsync(TestClient client) throws DynoException {
+					throw new RuntimeException("Not Implemented");
+				}
+
+				@Override
+				public String getName() {
+					return name;
+				}
+
+				@Override
+				public String getKey() {
+					return "key";
+				}
+			};
+		}
+
+		@Test
+		public void testCircuitBreakerFailsFast() throws Exception {
+
+			final AtomicBoolean fail = new AtomicBoolean(true);
+			final ConnectionFactory<TestClient> timeoutConnectionFactory = new ConnectionFactory<TestClient>() {
+				@Override
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					return new TestConnection(pool) {
+						@Override
+						public <R> OperationResult<R> execute(Operation<com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl.UnitTest.TestClient, R> op) throws DynoException {
+							if (fail.get()) {
+								throw new TimeoutException("Timed out");
+							}
+							return super.execute(op);
+						}
+					};
+				}
+			};
+
+			cpConfig.setCircuitBreakerFailureThreshold(2).setCircuitBreakerOpenTimeout(200).setCircuitBreakerProbes(1);
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(timeoutConnectionFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+
+			pool.start();
+
+			try {
+				for (int i=0; i<2; i++) {
+					try {
+						pool.executeWithFailover(getKeyOperation("key", 1, 0));
+						Assert.fail("Expected TimeoutException");
+					} catch (TimeoutException e) {
+					}
+				}
+				Assert.assertEquals(1, cpMonitor.getCircuitBreakerOpenCount());
+
+				long borrowed = cpMonitor.getConnectionBorrowedCount();
+				try {
+					pool.executeWithFailover(getKeyOperation("key", 1, 0));
+					Assert.fail("Expected CircuitOpenException");
+				} catch (CircuitOpenException e) {
+				}
+				Assert.assertEquals(borrowed, cpMonitor.getConnectionBorrowedCount());
+
+				// after the open timeout a probe goes through and closes the breaker again
+				fail.set(false);
+				Thread.sleep(300);
+				Assert.assertEquals(1, pool.executeWithFailover(getKeyOperation("key", 1, 0)).getResult().intValue());
+				Assert.assertEquals(CircuitBreaker.State.CLOSED, cpMonitor.getHostStats().get(host1).getCircuitBreakerState());
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testConcurrencyLimitRejectsFast() throws Exception {
+
+			// a max of 4 in flight starts the limit at 1
+			cpConfig.setAdaptiveConcurrencyLimitEnabled(true).setMaxInFlight(4);
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+
+			pool.start();
+
+			ExecutorService threadPool = Executors.newSingleThreadExecutor();
+			try {
+				Assert.assertEquals(1, cpMonitor.getConcurrencyLimit());
+				
+				Future<OperationResult<Integer>> slowOp = threadPool.submit(new Callable<OperationResult<Integer>>() {
+					@Override
+					public OperationResult<Integer> call() throws Exception {
+						return pool.executeWithFailover(getKeyOperation("slow", 1, 500));
+					}
+				});
+				Thread.sleep(100);
+				
+				long start = System.currentTimeMillis();
+				try {
+					pool.executeWithFailover(getKeyOperation("key", 2, 0));
+					Assert.fail("Expected ConcurrencyLimitExceededException");
+				} catch (ConcurrencyLimitExceededException e) {
+				}
+				Assert.assertTrue(System.currentTimeMillis() - start < 100);
+				
+				Assert.assertEquals(1, slowOp.get().getResult().intValue());
+				Assert.assertEquals(2, pool.executeWithFailover(getKeyOperation("key", 2, 0)).getResult().intValue());
+				Assert.assertTrue(cpMonitor.getHostStats().get(host1).getConcurrencyLimit() > 0);
+			} finally {
+				threadPool.shutdownNow();
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testHostConcurrencyLimitRejectsBeforeBorrowing() throws Exception {
+
+			// a single connection per host starts the host limit at 1, while the client wide limit is far off
+			cpConfig.setAdaptiveConcurrencyLimitEnabled(true)
+					.setMaxInFlight(400)
+					.setMaxConnsPerHost(1)
+					.setMaxTimeoutWhenExhausted(1000)
+					.setRetryPolicyFactory(new RetryNTimes.RetryFactory(2));
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+
+			pool.start();
+
+			ExecutorService threadPool = Executors.newSingleThreadExecutor();
+			try {
+				long globalLimit = cpMonitor.getConcurrencyLimit();
+
+				Future<OperationResult<Integer>> slowOp = threadPool.submit(new Callable<OperationResult<Integer>>() {
+					@Override
+					public OperationResult<Integer> call() throws Exception {
+						return pool.executeWithFailover(getKeyOperation("slow", 1, 500));
+					}
+				});
+				Thread.sleep(100);
+
+				// rejected by the host limit right away, rather than after waiting for the busy connection, and not retried
+				long failures = cpMonitor.getOperationFailureCount();
+				long start = System.currentTimeMillis();
+				try {
+					pool.executeWithFailover(getKeyOperation("key", 2, 0));
+					Assert.fail("Expected ConcurrencyLimitExceededException");
+				} catch (ConcurrencyLimitExceededException e) {
+					Assert.assertEquals(host1, e.getHost());
+				}
+				Assert.assertTrue(System.currentTimeMillis() - start < 100);
+				Assert.assertEquals(failures + 1, cpMonitor.getOperationFailureCount());
+				Assert.assertEquals(0, cpMonitor.getFailoverCount());
+
+				// the rejection is not an overload of the client as a whole
+				Assert.assertEquals(globalLimit, cpMonitor.getConcurrencyLimit());
+
+				Assert.assertEquals(1, slowOp.get().getResult().intValue());
+				Assert.assertEquals(2, pool.executeWithFailover(getKeyOperation("key", 2, 0)).getResult().intValue());
+			} finally {
+				threadPool.shutdownNow();
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testExecuteWithRingRunsConcurrently() throws Exception {
+
+			final AtomicInteger inflight = new AtomicInteger(0);
+			final AtomicInteger maxInflight = new AtomicInteger(0);
+
+			final ConnectionPoolImpl<TestClient> pool = startRingTestPool();
+
+			try {
+				long start = System.currentTimeMillis();
+				Collection<OperationResult<Integer>> results = pool.executeWithRing(getRingOperation(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						int current = inflight.incrementAndGet();
+						synchronized (maxInflight) {
+							maxInflight.set(Math.max(current, maxInflight.get()));
+						}
+						Thread.sleep(300);
+						inflight.decrementAndGet();
+						return null;
+					}
+				}));
+				long duration = System.currentTimeMillis() - start;
+
+				Assert.assertEquals(3, results.size());
+				Assert.assertTrue("Duration: " + duration, duration < 800);
+				Assert.assertTrue("Max inflight: " + maxInflight.get(), maxInflight.get() > 1);
+				Assert.assertEquals(3, cpMonitor.getConnectionReturnedCount());
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testExecuteWithRingPartialResults() throws Exception {
+
+			final AtomicInteger count = new AtomicInteger(0);
+			final Callable<Void> failFirst = new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					if (count.incrementAndGet() == 1) {
+						throw new FatalConnectionException("Fail for one host");
+					}
+					return null;
+				}
+			};
+
+			final ConnectionPoolImpl<TestClient> pool = startRingTestPool();
+
+			try {
+				RingResults<Integer> ringResults = pool.executeWithRingPartial(getRingOperation(failFirst));
+				Assert.assertTrue(ringResults.isPartial());
+				Assert.assertEquals(2, ringResults.getResults().size());
+				Assert.assertEquals(1, ringResults.getFailures().size());
+
+				count.set(0);
+				try {
+					pool.executeWithRing(getRingOperation(failFirst));
+					Assert.fail("Expected FatalConnectionException");
+				} catch (FatalConnectionException e) {
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testExecuteWithRingDeadline() throws Exception {
+
+			cpConfig.setRingOperationTimeout(100);
+			final ConnectionPoolImpl<TestClient> pool = startRingTestPool();
+
+			try {
+				long start = System.currentTimeMillis();
+				RingResults<Integer> ringResults = pool.executeWithRingPartial(getRingOperation(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						Thread.sleep(500);
+						return null;
+					}
+				}));
+				long duration = System.currentTimeMillis() - start;
+
+				Assert.assertTrue("Duration: " + duration, duration < 400);
+				Assert.assertEquals(0, ringResults.getResults().size());
+				Assert.assertEquals(3, ringResults.getFailures().size());
+				for (DynoException e : ringResults.getFailures().values()) {
+					Assert.assertTrue(e instanceof TimeoutException);
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testExecuteAllWithFailover() throws Exception {
+
+			final ConnectionPoolImpl<TestClient> pool = startRingTestPool();
+
+			try {
+				List<Operation<TestClient, Integer>> ops = new ArrayList<Operation<TestClient, Integer>>();
+				for (int i=0; i<3; i++) {
+					ops.add(getKeyOperation("key" + i, i, 300));
+				}
+
+				long start = System.currentTimeMillis();
+				List<OperationResult<Integer>> results = pool.executeAllWithFailover(ops);
+				long duration = System.currentTimeMillis() - start;
+
+				Assert.assertTrue("Duration: " + duration, duration < 800);
+				Assert.assertEquals(3, results.size());
+				for (int i=0; i<3; i++) {
+					Assert.assertEquals(i, results.get(i).getResult().intValue());
+					Assert.assertNotNull(results.get(i).getNode());
+				}
+
+				// one failed operation fails the whole request, but only once the others are done
+				ops.set(1, getKeyOperation("key1", -1, 0));
+				try {
+					pool.executeAllWithFailover(ops);
+					Assert.fail("Expected DynoException");
+				} catch (DynoException e) {
+					Assert.assertEquals("Failed key1", e.getMessage());
+				}
+				Assert.assertEquals(5, cpMonitor.getOperationSuccessCount());
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testExecuteAllWithFailoverTimesOut() throws Exception {
+
+			cpConfig.setRingOperationTimeout(100);
+			final ConnectionPoolImpl<TestClient> pool = startRingTestPool();
+
+			try {
+				List<Operation<TestClient, Integer>> ops = new ArrayList<Operation<TestClient, Integer>>();
+				ops.add(getKeyOperation("key0", 0, 0));
+				ops.add(getKeyOperation("key1", 1, 0));
+				ops.add(getKeyOperation("key2", 2, 1000));
+
+				long start = System.currentTimeMillis();
+				try {
+					pool.executeAllWithFailover(ops);
+					Assert.fail("Expected TimeoutException");
+				} catch (TimeoutException e) {
+				}
+				long duration = System.currentTimeMillis() - start;
+
+				Assert.assertTrue("Duration: " + duration, duration < 500);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testExecuteAllWithFailoverDoesNotInterruptRunningOps() throws Exception {
+
+			cpConfig.setRingOperationTimeout(100);
+			final ConnectionPoolImpl<TestClient> pool = startRingTestPool();
+
+			final AtomicBoolean interrupted = new AtomicBoolean(false);
+			final CountDownLatch finished = new CountDownLatch(1);
+
+			try {
+				List<Operation<TestClient, Integer>> ops = new ArrayList<Operation<TestClient, Integer>>();
+				ops.add(getKeyOperation("key0", 0, 0));
+				ops.add(new Operation<TestClient, Integer>() {
+
+					@Override
+					public Integer execute(TestClient client, ConnectionContext state) throws DynoException {
+						try {
+							Thread.sleep(300);
+						} catch (InterruptedException e) {
+							interrupted.set(true);
+						}
+						finished.countDown();
+						return 1;
+					}
+
+					@Override
+					public String getName() {
+						return "TestSlowOperation";
+					}
+
+					@Override
+					public String getKey() {
+						return "key1";
+					}
+				});
+
+				try {
+					pool.executeAllWithFailover(ops);
+					Assert.fail("Expected TimeoutException");
+				} catch (TimeoutException e) {
+				}
+
+				Assert.assertTrue(finished.await(1000, TimeUnit.MILLISECONDS));
+				Assert.assertFalse(interrupted.get());
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		private Operation<TestClient, Integer> getKeyOperation(final String key, final int result, final long sleepMillis) {
+
+			return new Operation<TestClient, Integer>() {
+
+				@Override
+				public Integer execute(TestClient client, ConnectionContext state) throws DynoException {
+					if (result < 0) {
+						throw new DynoException("Failed " + key);
+					}
+					try {
+						Thread.sleep(sleepMillis);
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					return result;
+				}
+
+				@Override
+				public String getName() {
+					return "TestKeyOperation";
+				}
+
+				@Override
+				public String getKey() {
+					return key;
+				}
+			};
 		}
-		
+
 		@Test
-		public void testConnectionPoolNormal() throws Exception {
+		public void testHedgedRequestToRemoteRack() throws Exception {
 
-			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
-			hostSupplierHosts.add(host1);
-			hostSupplierHosts.add(host2);
-			
-			pool.start();
-			
-			final Callable<Void> testLogic = new Callable<Void>() {
+			final Host remoteHost1 = new Host("remoteHost1", 8080, Status.Up).setRack("remoteDC");
+			final AtomicBoolean slowHost1 = new AtomicBoolean(false);
 
+			final ConnectionFactory<TestClient> slowConnectionFactory = new ConnectionFactory<TestClient>() {
 				@Override
-				public Void call() throws Exception {
-					Thread.sleep(1000);
-					return null;
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					return new TestConnection(pool) {
+						@Override
+						public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+							if (slowHost1.get() && pool.getHost().getHostName().equals("host1")) {
+								try {
+									Thread.sleep(500);
+								} catch (InterruptedException e) {
+								}
+							}
+							return super.execute(op);
+						}
+					};
 				}
 			};
-			
+
+			cpConfig.setHedgeBudgetPercent(100);
+			cpConfig.withTokenSupplier(getSameTokenSupplier(host1, remoteHost1));
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(slowConnectionFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(remoteHost1);
+			pool.start().get();
+
 			try {
-				runTest(pool, testLogic);
-				checkConnectionPoolMonitorStats(2);
-			
-				checkHostStats(host1);
-				checkHostStats(host2);
+				// build up the latency history for host1
+				for (int i=0; i<150; i++) {
+					pool.executeWithFailover(getHedgeableOperation());
+				}
+
+				slowHost1.set(true);
+				long hedgesSent = cpMonitor.getHedgeSentCount();
+				long hedgesWon = cpMonitor.getHedgeWonCount();
+
+				long start = System.currentTimeMillis();
+				OperationResult<Integer> result = pool.executeWithFailover(getHedgeableOperation());
+				long duration = System.currentTimeMillis() - start;
+
+				Assert.assertEquals(remoteHost1, result.getNode());
+				Assert.assertTrue("Duration: " + duration, duration < 400);
+				Assert.assertEquals(hedgesSent + 1, cpMonitor.getHedgeSentCount());
+				Assert.assertEquals(hedgesWon + 1, cpMonitor.getHedgeWonCount());
 			} finally {
 				pool.shutdown();
 			}
 		}
-		
-		private void checkConnectionPoolMonitorStats(int numHosts)  {
-			
-			System.out.println("Total ops: " + client.ops.get());
-			Assert.assertTrue("Total ops: " + client.ops.get(), client.ops.get() > 0);
-
-			Assert.assertEquals(client.ops.get(), cpMonitor.getOperationSuccessCount());
-			Assert.assertEquals(0, cpMonitor.getOperationFailureCount());
-			Assert.assertEquals(0, cpMonitor.getOperationTimeoutCount());
-			
-			Assert.assertEquals(numHosts*cpConfig.getMaxConnsPerHost(), cpMonitor.getConnectionCreatedCount());
-			Assert.assertEquals(0, cpMonitor.getConnectionCreateFailedCount());
-			Assert.assertEquals(numHosts*cpConfig.getMaxConnsPerHost(), cpMonitor.getConnectionClosedCount());
-			
-			Assert.assertEquals(client.ops.get(), cpMonitor.getConnectionBorrowedCount());
-			Assert.assertEquals(client.ops.get(), cpMonitor.getConnectionReturnedCount());
-		}
-		
-		private TokenMapSupplier getTokenMapSupplier() {
-			
-			/**
-			cqlsh:dyno_bootstrap> select "availabilityZone","hostname","token" from tokens where "appId" = 'dynomite_redis_puneet';
 
-				availabilityZone | hostname                                   | token
-				------------------+--------------------------------------------+------------
-	   			us-east-1c |  ec2-54-83-179-213.compute-1.amazonaws.com | 1383429731
-	   			us-east-1c |  ec2-54-224-184-99.compute-1.amazonaws.com |  309687905
-	   			us-east-1c |  ec2-54-91-190-159.compute-1.amazonaws.com | 3530913377
-	   			us-east-1c |   ec2-54-81-31-218.compute-1.amazonaws.com | 2457171554
-	   			us-east-1e | ec2-54-198-222-153.compute-1.amazonaws.com |  309687905
-	   			us-east-1e | ec2-54-198-239-231.compute-1.amazonaws.com | 2457171554
-	   			us-east-1e |  ec2-54-226-212-40.compute-1.amazonaws.com | 1383429731
-	   			us-east-1e | ec2-54-197-178-229.compute-1.amazonaws.com | 3530913377
+		@Test
+		public void testLosingPrimaryIsTrackedForItsHost() throws Exception {
 
-			cqlsh:dyno_bootstrap> 
-			 */
-			final Map<Host, HostToken> tokenMap = new HashMap<Host, HostToken>();
+			final Host remoteHost1 = new Host("remoteHost1", 8080, Status.Up).setRack("remoteDC");
+			final AtomicBoolean failHost1 = new AtomicBoolean(false);
 
-			return new TokenMapSupplier () {
+			final ConnectionFactory<TestClient> slowConnectionFactory = new ConnectionFactory<TestClient>() {
 				@Override
-				public List<HostToken> getTokens() {
-					return new ArrayList<HostToken>(tokenMap.values());
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					return new TestConnection(pool) {
+						@Override
+						public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+							if (failHost1.get() && pool.getHost().getHostName().equals("host1")) {
+								try {
+									Thread.sleep(200);
+								} catch (InterruptedException e) {
+								}
+								throw new TimeoutException("Timed out");
+							}
+							return super.execute(op);
+						}
+					};
 				}
+			};
 
-				@Override
-				public HostToken getTokenForHost(Host host) {
-					Host h = host;
-					if (h.getHostName().equals("host1")) {
-						tokenMap.put(host1, new HostToken(309687905L, host1));
-					} else if (h.getHostName().equals("host2")) {
-						tokenMap.put(host2, new HostToken(1383429731L, host2));
-					} else if (h.getHostName().equals("host3")) {
-						tokenMap.put(host3, new HostToken(2457171554L, host3));
-					}
-					return tokenMap.get(host);
+			cpConfig.setHedgeBudgetPercent(100);
+			cpConfig.setCircuitBreakerFailureThreshold(1);
+			cpConfig.withTokenSupplier(getSameTokenSupplier(host1, remoteHost1));
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(slowConnectionFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(remoteHost1);
+			pool.start().get();
+
+			try {
+				for (int i=0; i<150; i++) {
+					pool.executeWithFailover(getHedgeableOperation());
 				}
 
+				failHost1.set(true);
+				OperationResult<Integer> result = pool.executeWithFailover(getHedgeableOperation());
+				Assert.assertEquals(remoteHost1, result.getNode());
+
+				// the primary times out after the hedge won, and that still counts against host1
+				Thread.sleep(400);
+				Assert.assertEquals(CircuitBreaker.State.OPEN, cpMonitor.getHostStats().get(host1).getCircuitBreakerState());
+				Assert.assertTrue(cpMonitor.getHostStats().get(remoteHost1).getCircuitBreakerState() != CircuitBreaker.State.OPEN);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testHedgePrefersPrimaryError() throws Exception {
+
+			final Host remoteHost1 = new Host("remoteHost1", 8080, Status.Up).setRack("remoteDC");
+			final AtomicBoolean fail = new AtomicBoolean(false);
+
+			final ConnectionFactory<TestClient> failingConnectionFactory = new ConnectionFactory<TestClient>() {
 				@Override
-				public void initWithHosts(Collection<Host> hosts) {
-					
-					tokenMap.clear();
-					for (Host h : hosts) {
-						if (h.getHostName().equals("host1")) {
-							tokenMap.put(host1, new HostToken(309687905L, host1));
-						} else if (h.getHostName().equals("host2")) {
-							tokenMap.put(host2, new HostToken(1383429731L, host2));
-						} else if (h.getHostName().equals("host3")) {
-							tokenMap.put(host3, new HostToken(2457171554L, host3));
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					return new TestConnection(pool) {
+						@Override
+						public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+							if (fail.get()) {
+								if (pool.getHost().getHostName().equals("host1")) {
+									// slow enough for the hedge to be sent and to fail first
+									try {
+										Thread.sleep(200);
+									} catch (InterruptedException e) {
+									}
+									throw new DynoException("primary failed");
+								}
+								throw new DynoException("hedge failed");
+							}
+							return super.execute(op);
 						}
-					}
+					};
 				}
 			};
+
+			cpConfig.setHedgeBudgetPercent(100);
+			cpConfig.setRetryPolicyFactory(new RetryNTimes.RetryFactory(0));
+			cpConfig.withTokenSupplier(getSameTokenSupplier(host1, remoteHost1));
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(failingConnectionFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(remoteHost1);
+			pool.start().get();
+
+			try {
+				for (int i=0; i<150; i++) {
+					pool.executeWithFailover(getHedgeableOperation());
+				}
+
+				fail.set(true);
+				long hedgesSent = cpMonitor.getHedgeSentCount();
+				try {
+					pool.executeWithFailover(getHedgeableOperation());
+					Assert.fail("Expected DynoException");
+				} catch (DynoException e) {
+					Assert.assertTrue(e.getMessage(), e.getMessage().contains("primary failed"));
+				}
+				Assert.assertEquals(hedgesSent + 1, cpMonitor.getHedgeSentCount());
+			} finally {
+				pool.shutdown();
+			}
 		}
-		
+
 		@Test
-		public void testAddingNewHosts() throws Exception {
-			
-			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
-			hostSupplierHosts.add(host1);
-			hostSupplierHosts.add(host2);
-			
-			pool.start();
-			
-			final Callable<Void> testLogic = new Callable<Void>() {
+		public void testHedgeBudget() throws Exception {
 
+			final Host remoteHost1 = new Host("remoteHost1", 8080, Status.Up).setRack("remoteDC");
+			final AtomicBoolean slowHost1 = new AtomicBoolean(false);
+
+			final ConnectionFactory<TestClient> slowConnectionFactory = new ConnectionFactory<TestClient>() {
 				@Override
-				public Void call() throws Exception {
-					Thread.sleep(1000);
-					pool.addHost(host3);
-					Thread.sleep(1000);
-					return null;
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					return new TestConnection(pool) {
+						@Override
+						public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+							if (slowHost1.get() && pool.getHost().getHostName().equals("host1")) {
+								try {
+									Thread.sleep(20);
+								} catch (InterruptedException e) {
+								}
+							}
+							return super.execute(op);
+						}
+					};
 				}
 			};
-			
-			runTest(pool, testLogic);
-			
-			checkConnectionPoolMonitorStats(3);
-			
-			checkHostStats(host1);
-			checkHostStats(host2);
-			checkHostStats(host3);
 
-			HostConnectionStats h1Stats = cpMonitor.getHostStats().get(host1);
-			HostConnectionStats h2Stats = cpMonitor.getHostStats().get(host2);
-			HostConnectionStats h3Stats = cpMonitor.getHostStats().get(host3);
-			
-			Assert.assertTrue("h3Stats: " + h3Stats + " h1Stats: " + h1Stats, h1Stats.getOperationSuccessCount() > h3Stats.getOperationSuccessCount());
-			Assert.assertTrue("h3Stats: " + h3Stats + " h2Stats: " + h2Stats, h2Stats.getOperationSuccessCount() > h3Stats.getOperationSuccessCount());
-		}
-		
-		private void checkHostStats(Host host) {
+			// 10 hedgeable ops earn a single hedge, and at most 10 hedges can be saved up
+			cpConfig.setHedgeBudgetPercent(10);
+			cpConfig.withTokenSupplier(getSameTokenSupplier(host1, remoteHost1));
 
-			HostConnectionStats hStats = cpMonitor.getHostStats().get(host);
-			Assert.assertTrue("host ops: " + hStats.getOperationSuccessCount(), hStats.getOperationSuccessCount() > 0);
-			Assert.assertEquals(0, hStats.getOperationErrorCount());
-			Assert.assertEquals(cpConfig.getMaxConnsPerHost(), hStats.getConnectionsCreated());
-			Assert.assertEquals(0, hStats.getConnectionsCreateFailed());
-			Assert.assertEquals(cpConfig.getMaxConnsPerHost(), hStats.getConnectionsClosed());
-			Assert.assertEquals(hStats.getOperationSuccessCount(), hStats.getConnectionsBorrowed());
-			Assert.assertEquals(hStats.getOperationSuccessCount(), hStats.getConnectionsReturned());
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(slowConnectionFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(remoteHost1);
+			pool.start().get();
+
+			try {
+				for (int i=0; i<150; i++) {
+					pool.executeWithFailover(getHedgeableOperation());
+				}
+
+				// every op is now slow on the primary, but the budget only allows the saved up hedges plus 1 in 10 ops
+				slowHost1.set(true);
+				long hedgesSent = cpMonitor.getHedgeSentCount();
+				for (int i=0; i<50; i++) {
+					pool.executeWithFailover(getHedgeableOperation());
+				}
+				// a slow warm up op can spend some of the savings, hence only the upper bound is exact
+				long sent = cpMonitor.getHedgeSentCount() - hedgesSent;
+				Assert.assertTrue("Hedges sent: " + sent, sent > 0 && sent <= 15);
+				Assert.assertTrue(cpMonitor.getHedgeBudgetExhaustedCount() > 0);
+			} finally {
+				pool.shutdown();
+			}
 		}
 
 		@Test
-		public void testRemovingHosts() throws Exception {
-			
-			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
-			hostSupplierHosts.add(host1);
-			hostSupplierHosts.add(host2);
-			hostSupplierHosts.add(host3);
-			
-			pool.start();
-			
-			final Callable<Void> testLogic = new Callable<Void>() {
+		public void testRetryGoesToAnotherRack() throws Exception {
+
+			final Host remoteHost1 = new Host("remoteHost1", 8080, Status.Up).setRack("remoteDC");
 
+			final ConnectionFactory<TestClient> badConnectionFactory = new ConnectionFactory<TestClient>() {
 				@Override
-				public Void call() throws Exception {
-					Thread.sleep(1000);
-					pool.removeHost(host2);
-					Thread.sleep(1000);
-					return null;
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					return new TestConnection(pool) {
+						@Override
+						public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+							if (pool.getHost().getHostName().equals("host1")) {
+								throw new DynoException("Fail for bad host");
+							}
+							return super.execute(op);
+						}
+					};
 				}
 			};
-			
-			runTest(pool, testLogic);
-			
-			checkConnectionPoolMonitorStats(3);
-			
-			checkHostStats(host1);
-			checkHostStats(host2);
-			checkHostStats(host3);
-			
-			HostConnectionStats h1Stats = cpMonitor.getHostStats().get(host1);
-			HostConnectionStats h2Stats = cpMonitor.getHostStats().get(host2);
-			HostConnectionStats h3Stats = cpMonitor.getHostStats().get(host3);
-			
-			Assert.assertTrue("h1Stats: " + h1Stats + " h2Stats: " + h2Stats, h1Stats.getOperationSuccessCount() > h2Stats.getOperationSuccessCount());
-			Assert.assertTrue("h2Stats: " + h2Stats + " h3Stats: " + h3Stats, h3Stats.getOperationSuccessCount() > h2Stats.getOperationSuccessCount());
-		}
 
-		@Test (expected=NoAvailableHostsException.class)
-		public void testNoAvailableHosts() throws Exception {
+			cpConfig.setRetryPolicyFactory(new RetryNTimes.RetryFactory(1, true));
+			cpConfig.withTokenSupplier(getSameTokenSupplier(host1, remoteHost1));
 
-			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
-			pool.start();
-			
-			try { 
-				executeTestClientOperation(pool);
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(badConnectionFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(remoteHost1);
+			pool.start().get();
+
+			try {
+				OperationResult<Integer> result = pool.executeWithFailover(getHedgeableOperation());
+				Assert.assertEquals(remoteHost1, result.getNode());
+				Assert.assertEquals(2, result.getAttemptsCount());
+
+				List<OperationTimings.Attempt> attempts = result.getTimings().getAttempts();
+				Assert.assertEquals(host1, attempts.get(0).getHost());
+				Assert.assertFalse(attempts.get(0).isSuccess());
+				Assert.assertEquals(remoteHost1, attempts.get(1).getHost());
+				Assert.assertTrue(attempts.get(1).isSuccess());
+
+				// without the remote DC fallback the retry stays on the token owner
+				cpConfig.setRetryPolicyFactory(new RetryNTimes.RetryFactory(1, false));
+				try {
+					pool.executeWithFailover(getHedgeableOperation());
+					Assert.fail("Expected DynoException");
+				} catch (DynoException e) {
+				}
 			} finally {
 				pool.shutdown();
 			}
 		}
-		
+
 		@Test
-		public void testPoolExhausted() throws Exception {
+		public void testHedgedRetryGoesToAnotherRack() throws Exception {
 
-			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
-			hostSupplierHosts.add(host1);
-			hostSupplierHosts.add(host2);
-			hostSupplierHosts.add(host3);
-			
-			pool.start();
-			
-			// Now exhaust all 9 connections, so that the 10th one can fail with PoolExhaustedException
-			final ExecutorService threadPool = Executors.newFixedThreadPool(9);
-			
-			final Callable<Void> blockConnectionForSomeTime = new Callable<Void>() {
+			final Host remoteHost1 = new Host("remoteHost1", 8080, Status.Up).setRack("remoteDC");
 
+			final ConnectionFactory<TestClient> badConnectionFactory = new ConnectionFactory<TestClient>() {
 				@Override
-				public Void call() throws Exception {
-					try { 
-						Thread.sleep(10000);  // sleep for a VERY long time to ensure pool exhaustion
-					} catch (InterruptedException e) {
-						// just return
-					}
-					return null;
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					return new TestConnection(pool) {
+						@Override
+						public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+							if (pool.getHost().getHostName().equals("host1")) {
+								throw new DynoException("Fail for bad host");
+							}
+							return super.execute(op);
+						}
+					};
 				}
 			};
-			
-			final CountDownLatch latch = new CountDownLatch(9);
-			for (int i=0; i<9; i++) {
-				threadPool.submit(new Callable<Void>() {
 
-					@Override
-					public Void call() throws Exception {
-						latch.countDown();
-						executeTestClientOperation(pool, blockConnectionForSomeTime);
-						return null;
-					}
-				});
-			}
-			
-			latch.await(); Thread.sleep(100); // wait patiently for all threads to have blocked the connections
-			
+			// hedgeable ops go through the host pool execution path
+			cpConfig.setHedgeBudgetPercent(100);
+			cpConfig.setRetryPolicyFactory(new RetryNTimes.RetryFactory(1, true));
+			cpConfig.withTokenSupplier(getSameTokenSupplier(host1, remoteHost1));
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(badConnectionFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(remoteHost1);
+			pool.start().get();
+
 			try {
-				executeTestClientOperation(pool);
-				Assert.fail("TEST FAILED");
-			} catch (PoolTimeoutException e) {
-				threadPool.shutdownNow();
+				OperationResult<Integer> result = pool.executeWithFailover(getHedgeableOperation());
+				Assert.assertEquals(remoteHost1, result.getNode());
+
+				List<OperationTimings.Attempt> attempts = result.getTimings().getAttempts();
+				Assert.assertEquals(2, attempts.size());
+				Assert.assertEquals(host1, attempts.get(0).getHost());
+				Assert.assertFalse(attempts.get(0).isSuccess());
+				Assert.assertEquals(remoteHost1, attempts.get(1).getHost());
+				Assert.assertTrue(attempts.get(1).isSuccess());
+			} finally {
 				pool.shutdown();
 			}
 		}
-		
-		
+
 		@Test
-		public void testHostEvictionDueToErrorRates() throws Exception {
-			
-			// First configure the error rate monitor
-			ErrorRateMonitorConfigImpl errConfig =  new ErrorRateMonitorConfigImpl();  
-			errConfig.checkFrequency = 1;
-			errConfig.window = 1;
-			errConfig.suppressWindow = 60;
-			
-			errConfig.addThreshold(10, 1, 100);
-					
-			final AtomicReference<String> badHost = new AtomicReference<String>();
-			
-			final ConnectionFactory<TestClient> badConnectionFactory = new ConnectionFactory<TestClient>() {
+		public void testQuorumOperations() throws Exception {
+
+			final Host remoteHost1 = new Host("remoteHost1", 8080, Status.Up).setRack("remoteDC1");
+			final Host remoteHost2 = new Host("remoteHost2", 8080, Status.Up).setRack("remoteDC2");
+			final Map<String, Integer> results = new ConcurrentHashMap<String, Integer>();
+			results.put("host1", 1);
+			results.put("remoteHost1", 1);
+			results.put("remoteHost2", 1);
 
+			final ConnectionFactory<TestClient> replicaConnectionFactory = new ConnectionFactory<TestClient>() {
 				@Override
 				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
-					
 					return new TestConnection(pool) {
-
+						@SuppressWarnings("unchecked")
 						@Override
-						public <R> OperationResult<R> execute(Operation<com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl.UnitTest.TestClient, R> op) throws DynoException {
-							if (pool.getHost().getHostName().equals(badHost.get())) {
-								throw new FatalConnectionException("Fail for bad host");
+						public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+							int result = results.get(pool.getHost().getHostName());
+							if (result < 0) {
+								throw new DynoException("Fail for bad host");
 							}
-							return super.execute(op);
+							super.execute(op);
+							return new OperationResultImpl<R>("Test", (R) Integer.valueOf(result), null).setNode(pool.getHost());
 						}
 					};
 				}
 			};
-			
-			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(badConnectionFactory, cpConfig, cpMonitor);
+
+			cpConfig.withTokenSupplier(getSameTokenSupplier(host1, remoteHost1, remoteHost2));
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(replicaConnectionFactory, cpConfig, cpMonitor);
 			hostSupplierHosts.add(host1);
-			hostSupplierHosts.add(host2);
-			hostSupplierHosts.add(host3);
-			
-			pool.start();
+			hostSupplierHosts.add(remoteHost1);
+			hostSupplierHosts.add(remoteHost2);
+			pool.start().get();
 
-			final Callable<Void> testLogic = new Callable<Void>() {
+			try {
+				OperationResult<Integer> result = pool.executeWithFailover(getQuorumOperation(ConsistencyLevel.DC_QUORUM, false));
+				Assert.assertEquals(1, result.getResult().intValue());
+				Assert.assertEquals(3, result.getAttemptsCount());
+
+				// DC_ONE executes on the local replica only
+				Thread.sleep(100);
+				long ops = client.ops.get();
+				Assert.assertEquals(host1, pool.executeWithFailover(getQuorumOperation(ConsistencyLevel.DC_ONE, false)).getNode());
+				Thread.sleep(100);
+				Assert.assertEquals(ops + 1, client.ops.get());
+
+				// reads need matching results, writes only acknowledgements
+				results.put("remoteHost1", 2);
+				Assert.assertEquals(1, pool.executeWithFailover(getQuorumOperation(ConsistencyLevel.DC_QUORUM, false)).getResult().intValue());
+				try {
+					pool.executeWithFailover(getQuorumOperation(ConsistencyLevel.DC_ALL, false));
+					Assert.fail("Expected QuorumNotReachedException");
+				} catch (QuorumNotReachedException e) {
+				}
+				pool.executeWithFailover(getQuorumOperation(ConsistencyLevel.DC_ALL, true));
+
+				// a quorum survives the failure of one replica, but not of two
+				results.put("remoteHost1", -1);
+				Assert.assertEquals(1, pool.executeWithFailover(getQuorumOperation(ConsistencyLevel.DC_QUORUM, true)).getResult().intValue());
+				try {
+					pool.executeWithFailover(getQuorumOperation(ConsistencyLevel.DC_ALL, true));
+					Assert.fail("Expected QuorumNotReachedException");
+				} catch (QuorumNotReachedException e) {
+				}
+				results.put("remoteHost2", -1);
+				try {
+					pool.executeWithFailover(getQuorumOperation(ConsistencyLevel.DC_QUORUM, true));
+					Assert.fail("Expected QuorumNotReachedException");
+				} catch (QuorumNotReachedException e) {
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		private QuorumOperation<TestClient, Integer> getQuorumOperation(final ConsistencyLevel level, final boolean write) {
+
+			return new QuorumOperation<TestClient, Integer>() {
 
 				@Override
-				public Void call() throws Exception {
-					Thread.sleep(2000);
-					badHost.set("host2");
-					Thread.sleep(2000);
-					return null;
+				public Integer execute(TestClient client, ConnectionContext state) throws DynoException {
+					client.ops.incrementAndGet();
+					return 1;
+				}
+
+				@Override
+				public String getName() {
+					return "TestQuorumOperation";
 				}
-			};
-			
-			runTest(pool, testLogic);
-			
-			Assert.assertTrue("Total ops: " + client.ops.get(), client.ops.get() > 0);
-			Assert.assertTrue("Total errors: " + cpMonitor.getOperationFailureCount(), cpMonitor.getOperationFailureCount() > 0);
-			
-			Assert.assertEquals(3*cpConfig.getMaxConnsPerHost(), cpMonitor.getConnectionCreatedCount());
-			Assert.assertEquals(0, cpMonitor.getConnectionCreateFailedCount());
-			Assert.assertEquals(3*cpConfig.getMaxConnsPerHost(), cpMonitor.getConnectionClosedCount());
-			
-			Assert.assertEquals(client.ops.get() + cpMonitor.getOperationFailureCount(), cpMonitor.getConnectionBorrowedCount());
-			Assert.assertEquals(client.ops.get() + cpMonitor.getOperationFailureCount(), cpMonitor.getConnectionReturnedCount());
-			
-			checkHostStats(host1); 
-			checkHostStats(host3);
-			
-			HostConnectionStats h2Stats = cpMonitor.getHostStats().get(host2);
-			Assert.assertEquals(cpMonitor.getOperationFailureCount(), h2Stats.getOperationErrorCount());
 
+				@Override
+				public String getKey() {
+					return "TestQuorumOperation";
+				}
+
+				@Override
+				public ConsistencyLevel getConsistencyLevel() {
+					return level;
+				}
+
+				@Override
+				public boolean isWrite() {
+					return write;
+				}
+			};
 		}
-		
+
 		@Test
-		public void testWithRetries() throws Exception {
-			
-			final ConnectionFactory<TestClient> badConnectionFactory = new ConnectionFactory<TestClient>() {
+		public void testQuorumReplicasAreAttemptedOnce() throws Exception {
+
+			final Host remoteHost1 = new Host("remoteHost1", 8080, Status.Up).setRack("remoteDC1");
+			final Host remoteHost2 = new Host("remoteHost2", 8080, Status.Up).setRack("remoteDC2");
+			final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<String, AtomicInteger>();
+			attempts.put("host1", new AtomicInteger());
+			attempts.put("remoteHost1", new AtomicInteger());
+			attempts.put("remoteHost2", new AtomicInteger());
+
+			final ConnectionFactory<TestClient> replicaConnectionFactory = new ConnectionFactory<TestClient>() {
 				@Override
 				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
 					return new TestConnection(pool) {
 						@Override
-						public <R> OperationResult<R> execute(Operation<com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl.UnitTest.TestClient, R> op) throws DynoException {
-							throw new DynoException("Fail for bad host");
+						public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+							attempts.get(pool.getHost().getHostName()).incrementAndGet();
+							if (pool.getHost().getHostName().equals("remoteHost1")) {
+								throw new DynoException("Fail for bad host");
+							}
+							return super.execute(op).setNode(pool.getHost());
 						}
 					};
 				}
 			};
-			
-			final RetryNTimes retry = new RetryNTimes(3, false);
-			final RetryPolicyFactory rFactory = new RetryNTimes.RetryPolicyFactory() {
+
+			cpConfig.setRetryPolicyFactory(new RetryNTimes.RetryFactory(2, true));
+			cpConfig.withTokenSupplier(getSameTokenSupplier(host1, remoteHost1, remoteHost2));
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(replicaConnectionFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(remoteHost1);
+			hostSupplierHosts.add(remoteHost2);
+			pool.start().get();
+
+			try {
+				// the failed replica is not retried, the other two make the quorum
+				Assert.assertEquals(1, pool.executeWithFailover(getQuorumOperation(ConsistencyLevel.DC_QUORUM, true)).getResult().intValue());
+				Thread.sleep(100);
+				Assert.assertEquals(1, attempts.get("host1").get());
+				Assert.assertEquals(1, attempts.get("remoteHost1").get());
+				Assert.assertEquals(1, attempts.get("remoteHost2").get());
+				// the operation is counted once, however many replicas it went to
+				Assert.assertEquals(1, cpMonitor.getOperationSuccessCount());
+				Assert.assertEquals(0, cpMonitor.getOperationFailureCount());
+
+				// replicas go through the host throttle
+				cpConfig.setMaxOperationsPerSecondPerHost(1);
+				pool.executeWithFailover(getQuorumOperation(ConsistencyLevel.DC_QUORUM, true));
+				try {
+					pool.executeWithFailover(getQuorumOperation(ConsistencyLevel.DC_QUORUM, true));
+					Assert.fail("Expected QuorumNotReachedException");
+				} catch (QuorumNotReachedException e) {
+					Assert.assertTrue(e.getCause() instanceof ThrottledException);
+				}
+				Assert.assertEquals(2, cpMonitor.getOperationSuccessCount());
+				Assert.assertEquals(1, cpMonitor.getOperationFailureCount());
+				Assert.assertEquals(2, attempts.get("host1").get());
+				Assert.assertEquals(2, attempts.get("remoteHost2").get());
+			} finally {
+				cpConfig.setMaxOperationsPerSecondPerHost(0);
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void testLatencyAwareReplicaSelection() throws Exception {
+
+			final Host remoteHost1 = new Host("remoteHost1", 8080, Status.Up).setRack("remoteDC");
+
+			final ConnectionFactory<TestClient> slowConnectionFactory = new ConnectionFactory<TestClient>() {
 				@Override
-				public RetryPolicy getRetryPolicy() {
-					return retry;
+				public Connection<TestClient> createConnection(final HostConnectionPool<TestClient> pool, ConnectionObservor cObservor) throws DynoConnectException, ThrottledException {
+					return new TestConnection(pool) {
+						@Override
+						public <R> OperationResult<R> execute(Operation<TestClient, R> op) throws DynoException {
+							if (pool.getHost().getHostName().equals("host1")) {
+								try {
+									Thread.sleep(5);
+								} catch (InterruptedException e) {
+								}
+							}
+							return super.execute(op);
+						}
+					};
 				}
 			};
-			
-			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(badConnectionFactory, cpConfig.setRetryPolicyFactory(rFactory), cpMonitor);
+
+			cpConfig.setLoadBalancingStrategy(LoadBalancingStrategy.LatencyAware);
+			cpConfig.withTokenSupplier(getSameTokenSupplier(host1, remoteHost1));
+
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(slowConnectionFactory, cpConfig, cpMonitor);
 			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(remoteHost1);
+			pool.start().get();
 
-			pool.start();
-			
-			
-			try { 
-				executeTestClientOperation(pool, null);
-				Assert.fail("Test failed: expected PoolExhaustedException");
-			} catch (DynoException e) {
-				Assert.assertEquals("Retry: " + retry.getAttemptCount(), 4, retry.getAttemptCount());
+			try {
+				int host1Count = 0;
+				for (int i=0; i<200; i++) {
+					OperationResult<Integer> result = pool.executeWithFailover(getHedgeableOperation());
+					if (host1.equals(result.getNode())) {
+						host1Count++;
+					}
+				}
+				// host1 only gets probed every now and then after the first few responses
+				Assert.assertTrue("host1 count: " + host1Count, host1Count < 20);
 			} finally {
 				pool.shutdown();
 			}
 		}
 
+		private TokenMapSupplier getSameTokenSupplier(final Host ... replicas) {
+
+			return new TokenMapSupplier() {
+
+				private final List<HostToken> tokens = new ArrayList<HostToken>();
+
+				@Override
+				public void initWithHosts(Collection<Host> hosts) {
+					tokens.clear();
+					for (Host replica : replicas) {
+						tokens.add(new HostToken(309687905L, replica));
+					}
+				}
+
+				@Override
+				public List<HostToken> getTokens() {
+					return tokens;
+				}
+
+				@Override
+				public HostToken getTokenForHost(Host host) {
+					return new HostToken(309687905L, host);
+				}
+			};
+		}
+
+		private HedgeableOperation<TestClient, Integer> getHedgeableOperation() {
+
+			return new HedgeableOperation<TestClient, Integer>() {
+
+				@Override
+				public Integer execute(TestClient client, ConnectionContext state) throws DynoException {
+					client.ops.incrementAndGet();
+					return 1;
+				}
+
+				@Override
+				public String getName() {
+					return "TestHedgeableOperation";
+				}
+
+				@Override
+				public String getKey() {
+					return "TestHedgeableOperation";
+				}
+			};
+		}
+
+		private ConnectionPoolImpl<TestClient> startRingTestPool() throws Exception {
+
+			cpConfig.setLoadBalancingStrategy(LoadBalancingStrategy.TokenAware);
+			final ConnectionPoolImpl<TestClient> pool = new ConnectionPoolImpl<TestClient>(connFactory, cpConfig, cpMonitor);
+			hostSupplierHosts.add(host1);
+			hostSupplierHosts.add(host2);
+			hostSupplierHosts.add(host3);
+
+			pool.start().get();
+			return pool;
+		}
+
+		private Operation<TestClient, Integer> getRingOperation(final Callable<Void> customLogic) {
+
+			return new Operation<TestClient, Integer>() {
+
+				@Override
+				public Integer execute(TestClient client, ConnectionContext state) throws DynoException {
+					try {
+						customLogic.call();
+					} catch (DynoException e) {
+						throw e;
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+					return 1;
+				}
+
+				@Override
+				public String getName() {
+					return "TestRingOperation";
+				}
+
+				@Override
+				public String getKey() {
+					return null;
+				}
+			};
+		}
+
 		private void executeTestClientOperation(final ConnectionPoolImpl<TestClient> pool) {
 			executeTestClientOperation(pool, null);
 		}		
@@ -15,10 +15,10 @@
  ******************************************************************************/
 package com.netflix.dyno.connectionpool.impl;
 
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -28,77 +28,105 @@ import com.netflix.dyno.connectionpool.Host;
 import com.netflix.dyno.connectionpool.HostConnectionPool;
 import com.netflix.dyno.connectionpool.HostConnectionStats;
 import com.netflix.dyno.connectionpool.HostGroup;
+import com.netflix.dyno.connectionpool.OperationTimings;
+import com.netflix.dyno.connectionpool.OperationTimings.Phase;
 import com.netflix.dyno.connectionpool.exception.BadRequestException;
 import com.netflix.dyno.connectionpool.exception.NoAvailableHostsException;
 import com.netflix.dyno.connectionpool.exception.PoolExhaustedException;
 import com.netflix.dyno.connectionpool.exception.PoolTimeoutException;
 import com.netflix.dyno.connectionpool.exception.TimeoutException;
+import com.netflix.dyno.connectionpool.impl.health.CircuitBreaker;
+import com.netflix.dyno.connectionpool.impl.utils.LatencyHistogram;
+import com.netflix.dyno.connectionpool.impl.utils.LatencyRecorder;
+import com.netflix.dyno.connectionpool.impl.utils.StripedCounter;
 
 /**
- * Impl of {@link ConnectionPoolMonitor} using thread safe AtomicLongs
+ * Impl of {@link ConnectionPoolMonitor} using {@link StripedCounter}s, so that the many threads that update the same 
+ * counters on every operation do not contend on them
  * @author poberai
  *
  */
 public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 	
     // Tracking operation level metrics
-    private final AtomicLong operationFailureCount  = new AtomicLong();
-    private final AtomicLong operationSuccessCount  = new AtomicLong();
+    private final StripedCounter operationFailureCount  = new StripedCounter();
+    private final StripedCounter operationSuccessCount  = new StripedCounter();
     
     // Tracking connection counts
-    private final AtomicLong connectionCreateCount  = new AtomicLong();
-    private final AtomicLong connectionClosedCount  = new AtomicLong();
-    private final AtomicLong connectionCreateFailureCount = new AtomicLong();
-    private final AtomicLong connectionBorrowCount  = new AtomicLong();
-    private final AtomicLong connectionReturnCount  = new AtomicLong();
-    private final AtomicLong operationFailoverCount = new AtomicLong();
+    private final StripedCounter connectionCreateCount  = new StripedCounter();
+    private final StripedCounter connectionClosedCount  = new StripedCounter();
+    private final StripedCounter connectionCreateFailureCount = new StripedCounter();
+    private final StripedCounter connectionBorrowCount  = new StripedCounter();
+    private final StripedCounter connectionReturnCount  = new StripedCounter();
+    private final StripedCounter operationFailoverCount = new StripedCounter();
+    private final StripedCounter poolGrowCount          = new StripedCounter();
+    private final StripedCounter poolShrinkCount        = new StripedCounter();
+    private final StripedCounter autoPipelineFlushCount = new StripedCounter();
+    private final StripedCounter autoPipelinedOpCount   = new StripedCounter();
+    private final StripedCounter hedgeSentCount         = new StripedCounter();
+    private final StripedCounter hedgeWonCount          = new StripedCounter();
+    private final StripedCounter hedgeBudgetExhaustedCount = new StripedCounter();
 
     // tracking host activity
-    private final AtomicLong hostAddedCount         = new AtomicLong();
-    //private final AtomicLong hostRemovedCount       = new AtomicLong();
-    private final AtomicLong hostDownCount          = new AtomicLong();
-    private final AtomicLong hostReactivatedCount   = new AtomicLong();
+    private final StripedCounter hostAddedCount         = new StripedCounter();
+    //private final StripedCounter hostRemovedCount       = new StripedCounter();
+    private final StripedCounter hostDownCount          = new StripedCounter();
+    private final StripedCounter hostReactivatedCount   = new StripedCounter();
     
-    private final AtomicLong poolTimeoutCount      = new AtomicLong();
-    private final AtomicLong poolExhastedCount      = new AtomicLong();
-    private final AtomicLong operationTimeoutCount  = new AtomicLong();
-    private final AtomicLong socketTimeoutCount     = new AtomicLong();
-    private final AtomicLong noHostsCount           = new AtomicLong();
-    private final AtomicLong unknownErrorCount      = new AtomicLong();
-    private final AtomicLong badRequestCount        = new AtomicLong();
+    private final StripedCounter poolTimeoutCount      = new StripedCounter();
+    private final StripedCounter poolExhastedCount      = new StripedCounter();
+    private final StripedCounter operationTimeoutCount  = new StripedCounter();
+    private final StripedCounter socketTimeoutCount     = new StripedCounter();
+    private final StripedCounter noHostsCount           = new StripedCounter();
+    private final StripedCounter unknownErrorCount      = new StripedCounter();
+    private final StripedCounter badRequestCount        = new StripedCounter();
 
     private final ConcurrentHashMap<Host, HostConnectionStats> hostStats = new ConcurrentHashMap<Host, HostConnectionStats>();
     
+    // time spent in each phase of the operations
+    private final EnumMap<Phase, LatencyRecorder> phaseLatencies = new EnumMap<Phase, LatencyRecorder>(Phase.class);
+    
+    // adaptive limit on in flight operations across all hosts
+    private volatile int concurrencyLimit = 0;
+    
+    private final StripedCounter circuitBreakerOpenCount = new StripedCounter();
+    private final StripedCounter hostEjectedCount = new StripedCounter();
+    private final StripedCounter hostReadmittedCount = new StripedCounter();
+    private final StripedCounter retryBudgetExhaustedCount = new StripedCounter();
+    
     public CountingConnectionPoolMonitor() {
+    	for (Phase phase : Phase.values()) {
+    		phaseLatencies.put(phase, new LatencyRecorder());
+    	}
     }
     
     private void trackError(Host host, Exception reason) {
     	if (reason != null) {
     		if (reason instanceof PoolTimeoutException) {
-    			this.poolTimeoutCount.incrementAndGet();
+    			this.poolTimeoutCount.increment();
     		} else if (reason instanceof PoolExhaustedException) {
-        			this.poolExhastedCount.incrementAndGet();
+        			this.poolExhastedCount.increment();
     		} else if (reason instanceof TimeoutException) {
-    			this.socketTimeoutCount.incrementAndGet();
+    			this.socketTimeoutCount.increment();
     		} else if (reason instanceof BadRequestException) {
-    			this.badRequestCount.incrementAndGet();
+    			this.badRequestCount.increment();
     		} else if (reason instanceof NoAvailableHostsException ) {
-    			this.noHostsCount.incrementAndGet();
+    			this.noHostsCount.increment();
     		} else {
-    			this.unknownErrorCount.incrementAndGet();
+    			this.unknownErrorCount.increment();
     		}
     	} else {
-    		this.unknownErrorCount.incrementAndGet();
+    		this.unknownErrorCount.increment();
     	}
     	
         if (host != null) {
-        	getOrCreateHostStats(host).opFailure.incrementAndGet();
+        	getOrCreateHostStats(host).opFailure.increment();
         }
     }
 
     @Override
     public void incOperationFailure(Host host, Exception reason) {
-        this.operationFailureCount.incrementAndGet();
+        this.operationFailureCount.increment();
         trackError(host, reason);
     }
 
@@ -108,8 +136,10 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 
     @Override
     public void incOperationSuccess(Host host, long latency) {
-        this.operationSuccessCount.incrementAndGet();
-        getOrCreateHostStats(host).opSuccess.incrementAndGet();
+        this.operationSuccessCount.increment();
+        HostConnectionStatsImpl hStats = getOrCreateHostStats(host);
+        hStats.opSuccess.increment();
+        hStats.latency.record(latency);
     }
 
     public long getOperationSuccessCount() {
@@ -118,8 +148,8 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 
     @Override
     public void incConnectionCreated(Host host) {
-        this.connectionCreateCount.incrementAndGet();
-        getOrCreateHostStats(host).created.incrementAndGet();
+        this.connectionCreateCount.increment();
+        getOrCreateHostStats(host).created.increment();
     }
 
     public long getConnectionCreatedCount() {
@@ -128,8 +158,8 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 
     @Override
     public void incConnectionClosed(Host host, Exception reason) {
-        this.connectionClosedCount.incrementAndGet();
-        getOrCreateHostStats(host).closed.incrementAndGet();
+        this.connectionClosedCount.increment();
+        getOrCreateHostStats(host).closed.increment();
     }
 
     public long getConnectionClosedCount() {
@@ -138,8 +168,8 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 
     @Override
     public void incConnectionCreateFailed(Host host, Exception reason) {
-        this.connectionCreateFailureCount.incrementAndGet();
-        getOrCreateHostStats(host).createFailed.incrementAndGet();
+        this.connectionCreateFailureCount.increment();
+        getOrCreateHostStats(host).createFailed.increment();
     }
 
     public long getConnectionCreateFailedCount() {
@@ -148,11 +178,11 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 
     @Override
     public void incConnectionBorrowed(Host host, long delay) {
-        this.connectionBorrowCount.incrementAndGet();
+        this.connectionBorrowCount.increment();
         if (host == null || (host instanceof HostGroup)) {
         	return;
         }
-        getOrCreateHostStats(host).borrowed.incrementAndGet();
+        getOrCreateHostStats(host).borrowed.increment();
     }
 
     public long getConnectionBorrowedCount() {
@@ -161,17 +191,83 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 
     @Override
     public void incConnectionReturned(Host host) {
-        this.connectionReturnCount.incrementAndGet();
+        this.connectionReturnCount.increment();
         if (host == null || (host instanceof HostGroup)) {
         	return;
         }
-        getOrCreateHostStats(host).returned.incrementAndGet();
+        getOrCreateHostStats(host).returned.increment();
     }
 
     public long getConnectionReturnedCount() {
         return this.connectionReturnCount.get();
     }
 
+    @Override
+    public void incPoolGrow(Host host, int numConnections) {
+        this.poolGrowCount.increment();
+    }
+
+    @Override
+    public long getPoolGrowCount() {
+        return this.poolGrowCount.get();
+    }
+
+    @Override
+    public void incPoolShrink(Host host, int numConnections) {
+        this.poolShrinkCount.increment();
+    }
+
+    @Override
+    public long getPoolShrinkCount() {
+        return this.poolShrinkCount.get();
+    }
+
+    @Override
+    public void incAutoPipelineFlush(Host host, int batchSize) {
+        this.autoPipelineFlushCount.increment();
+        this.autoPipelinedOpCount.add(batchSize);
+    }
+
+    @Override
+    public long getAutoPipelineFlushCount() {
+        return this.autoPipelineFlushCount.get();
+    }
+
+    @Override
+    public long getAutoPipelinedOperationCount() {
+        return this.autoPipelinedOpCount.get();
+    }
+
+    @Override
+    public void incHedgeSent(Host host) {
+        this.hedgeSentCount.increment();
+    }
+
+    @Override
+    public long getHedgeSentCount() {
+        return this.hedgeSentCount.get();
+    }
+
+    @Override
+    public void incHedgeWon(Host host) {
+        this.hedgeWonCount.increment();
+    }
+
+    @Override
+    public long getHedgeWonCount() {
+        return this.hedgeWonCount.get();
+    }
+
+    @Override
+    public void incHedgeBudgetExhausted(Host host) {
+        this.hedgeBudgetExhaustedCount.increment();
+    }
+
+    @Override
+    public long getHedgeBudgetExhaustedCount() {
+        return this.hedgeBudgetExhaustedCount.get();
+    }
+
     public long getPoolExhaustedTimeoutCount() {
         return this.poolExhastedCount.get();
     }
@@ -187,7 +283,7 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 
     @Override
     public void incFailover(Host host, Exception reason) {
-        this.operationFailoverCount.incrementAndGet();
+        this.operationFailoverCount.increment();
     }
 
     @Override
@@ -240,6 +336,8 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
                     .append(",failed="     ).append(connectionCreateFailureCount.get())
                     .append(",borrow="     ).append(connectionBorrowCount.get())
                     .append(",return="     ).append(connectionReturnCount.get())
+                    .append(",grow="       ).append(poolGrowCount.get())
+                    .append(",shrink="     ).append(poolShrinkCount.get())
                 .append("], Operations[")
                     .append( "success="    ).append(operationSuccessCount.get())
                     .append(",failure="    ).append(operationFailureCount.get())
@@ -247,6 +345,11 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
                     .append(",timeout="    ).append(socketTimeoutCount.get())
                     .append(",failover="   ).append(operationFailoverCount.get())
                     .append(",nohosts="    ).append(noHostsCount.get())
+                    .append(",pipelineflush=").append(autoPipelineFlushCount.get())
+                    .append(",pipelinedops=").append(autoPipelinedOpCount.get())
+                    .append(",hedged="     ).append(hedgeSentCount.get())
+                    .append(",hedgewon="   ).append(hedgeWonCount.get())
+                    .append(",hedgedenied=").append(hedgeBudgetExhaustedCount.get())
                     .append(",unknown="    ).append(unknownErrorCount.get())
                     .append(",exhausted="  ).append(poolExhastedCount.get())
                 .append("], Hosts[")
@@ -289,6 +392,86 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 	public Map<Host, HostConnectionStats> getHostStats() {
 		return hostStats;
 	}
+
+	@Override
+	public void recordOperationTimings(OperationTimings timings) {
+		for (Phase phase : Phase.values()) {
+			phaseLatencies.get(phase).record(timings.getNanos(phase)/1000);
+		}
+	}
+
+	@Override
+	public LatencyHistogram getPhaseLatency(Phase phase) {
+		return phaseLatencies.get(phase).getIntervalHistogram();
+	}
+
+	@Override
+	public void setConcurrencyLimit(Host host, int limit) {
+		if (host == null) {
+			concurrencyLimit = limit;
+		} else {
+			getOrCreateHostStats(host).concurrencyLimit = limit;
+		}
+	}
+
+	@Override
+	public int getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	@Override
+	public void circuitBreakerStateChanged(Host host, CircuitBreaker.State oldState, CircuitBreaker.State newState) {
+		if (newState == CircuitBreaker.State.OPEN) {
+			circuitBreakerOpenCount.increment();
+		}
+		getOrCreateHostStats(host).circuitBreakerState = newState;
+	}
+
+	@Override
+	public long getCircuitBreakerOpenCount() {
+		return circuitBreakerOpenCount.get();
+	}
+
+	@Override
+	public void hostEjected(Host host, long ejectionMillis) {
+		hostEjectedCount.increment();
+		getOrCreateHostStats(host).ejected = true;
+	}
+
+	@Override
+	public void hostReadmitted(Host host) {
+		hostReadmittedCount.increment();
+		getOrCreateHostStats(host).ejected = false;
+	}
+
+	@Override
+	public long getHostEjectedCount() {
+		return hostEjectedCount.get();
+	}
+
+	@Override
+	public long getHostReadmittedCount() {
+		return hostReadmittedCount.get();
+	}
+
+	@Override
+	public void incRetryBudgetExhausted() {
+		retryBudgetExhaustedCount.increment();
+	}
+
+	@Override
+	public long getRetryBudgetExhaustedCount() {
+		return retryBudgetExhaustedCount.get();
+	}
+
+	@Override
+	public LatencyHistogram getOperationLatency() {
+		LatencyHistogram latency = new LatencyHistogram();
+		for (HostConnectionStats stats : hostStats.values()) {
+			latency.add(stats.getOperationLatency());
+		}
+		return latency;
+	}
 	
 	public HostConnectionStatsImpl getOrCreateHostStats(Host host) {
 		
@@ -305,13 +488,17 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 		private AtomicBoolean hostUp = new AtomicBoolean(true);
 		private final String name;
 
-		private final AtomicLong opFailure  = new AtomicLong();
-		private final AtomicLong opSuccess  = new AtomicLong();
-		private final AtomicLong created  = new AtomicLong();
-		private final AtomicLong closed  = new AtomicLong();
-		private final AtomicLong createFailed = new AtomicLong();
-		private final AtomicLong borrowed  = new AtomicLong();
-		private final AtomicLong returned  = new AtomicLong();
+		private final StripedCounter opFailure  = new StripedCounter();
+		private final StripedCounter opSuccess  = new StripedCounter();
+		private final StripedCounter created  = new StripedCounter();
+		private final StripedCounter closed  = new StripedCounter();
+		private final StripedCounter createFailed = new StripedCounter();
+		private final StripedCounter borrowed  = new StripedCounter();
+		private final StripedCounter returned  = new StripedCounter();
+		private final LatencyRecorder latency = new LatencyRecorder();
+		private volatile int concurrencyLimit = 0;
+		private volatile CircuitBreaker.State circuitBreakerState = CircuitBreaker.State.CLOSED;
+		private volatile boolean ejected = false;
 		    
 		private HostConnectionStatsImpl(Host host) {
 			this.name = host.getHostName();
@@ -356,6 +543,26 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 		public long getOperationErrorCount() {
 			return opFailure.get();
 		}
+
+		@Override
+		public LatencyHistogram getOperationLatency() {
+			return latency.getIntervalHistogram();
+		}
+
+		@Override
+		public int getConcurrencyLimit() {
+			return concurrencyLimit;
+		}
+
+		@Override
+		public CircuitBreaker.State getCircuitBreakerState() {
+			return circuitBreakerState;
+		}
+
+		@Override
+		public boolean isEjected() {
+			return ejected;
+		}
 		
 		public String toString() {
 			return name + " isUp: " + hostUp.get() + 
@@ -424,6 +631,12 @@ public class CountingConnectionPoolMonitor implements ConnectionPoolMonitor {
 			Assert.assertEquals(0, counter.getHostStats().get(host2).getConnectionsCreateFailed());
 			Assert.assertEquals(1, counter.getHostStats().get(host2).getOperationSuccessCount());
 			Assert.assertEquals(4, counter.getHostStats().get(host2).getOperationErrorCount());
+			
+			// VERIFY LATENCIES
+			counter.incOperationSuccess(host1, 100);
+			Assert.assertEquals(2, counter.getHostStats().get(host1).getOperationLatency().getCount());
+			Assert.assertEquals(100, counter.getHostStats().get(host1).getOperationLatency().getMax());
+			Assert.assertEquals(3, counter.getOperationLatency().getCount());
 		}
 	}
 }
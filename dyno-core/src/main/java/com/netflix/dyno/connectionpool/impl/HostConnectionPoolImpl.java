@@ -23,9 +23,12 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
@@ -57,13 +60,24 @@ import com.netflix.dyno.connectionpool.exception.PoolOfflineException;
 import com.netflix.dyno.connectionpool.exception.PoolTimeoutException;
 import com.netflix.dyno.connectionpool.exception.ThrottledException;
 import com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl.HostConnectionPoolFactory.Type;
+import com.netflix.dyno.connectionpool.impl.utils.LockFreeStack;
 
 /**
  * Main impl for {@link HostConnectionPool}
  * 
  * This class does not allow shared access to the connections being managed for this pool. 
- * Hence it uses a {@link LinkedBlockingQueue} to manage the available connections. 
- * When a connection needs to be borrowed, we wait or poll the queue. As connections are returned, they are added back into the queue. 
+ * Hence it uses a {@link LockFreeStack} to manage the available connections. 
+ * When a connection needs to be borrowed, we pop the top of the stack and only park the calling thread if the stack is empty. 
+ * As connections are returned, they are pushed back on the stack. The stack is LIFO so that the most recently used (warmest) connection 
+ * is handed out first. Borrow and return are a single CAS each, which avoids the lock contention of a blocking queue with many request threads. 
+ * 
+ * The pool is elastic. It is primed with {@link ConnectionPoolConfiguration#getMinConnsPerHost()} connections, and when a borrow has 
+ * waited for more than {@link ConnectionPoolConfiguration#getPoolGrowWaitThreshold()} ms on an empty pool, one more connection is opened 
+ * (up to {@link ConnectionPoolConfiguration#getMaxConnsPerHost()}). Connections that have not been borrowed for 
+ * {@link ConnectionPoolConfiguration#getIdleConnectionTimeout()} ms are closed again, down to the min. 
+ * By default min conns is the same as max conns and hence the pool stays at a fixed size. 
+ * Opening and closing connections for growing / shrinking the pool is done on a background executor shared by all pools, 
+ * hence request threads never pay for socket setup or teardown, they just wait on the stack for the new connection. 
  * This is the normal behavior during the "Active" state of this pool. 
  * 
  * The class also manages another state called "Inactive" where it can be put "Down" where it stops accepting requests for borrowing more connections, 
@@ -78,10 +92,17 @@ public class HostConnectionPoolImpl<CL> implements HostConnectionPool<CL> {
 
 	private static final Logger Logger = LoggerFactory.getLogger(HostConnectionPoolImpl.class);
 	
+	// Background threads that grow and shrink the pools, shared across all pools
+	private static final ThreadPoolExecutor PoolSizer = newPoolSizer(4);
+	
 	// The connections available for this connection pool
-	private final LinkedBlockingQueue<Connection<CL>> availableConnections = new LinkedBlockingQueue<Connection<CL>>();
+	private final LockFreeStack<Connection<CL>> availableConnections = new LockFreeStack<Connection<CL>>();
 	// Track the no of connections open (both available and in use)
 	private final AtomicInteger numActiveConnections = new AtomicInteger(0);
+	// Only one thread at a time opens an extra connection when the pool needs to grow
+	private final AtomicBoolean growingPool = new AtomicBoolean(false);
+	// The last time we checked for idle connections to close
+	private final AtomicLong lastIdleCheck = new AtomicLong(System.currentTimeMillis());
 	
 	// Private members required by this class
 	private final Host host; 
@@ -183,7 +204,7 @@ public class HostConnectionPoolImpl<CL> implements HostConnectionPool<CL> {
 	@Override
 	public int primeConnections() throws DynoException {
 
-		Logger.info("Priming connection pool for host:" + host + ", with conns:" + cpConfig.getMaxConnsPerHost());
+		Logger.info("Priming connection pool for host:" + host + ", with conns:" + cpConfig.getMinConnsPerHost() + ", max conns:" + cpConfig.getMaxConnsPerHost());
 
 		if(cpState.get() != cpNotInited) {
 			throw new DynoException("Connection pool has already been inited, cannot prime connections for host:" + host);
@@ -200,15 +221,16 @@ public class HostConnectionPoolImpl<CL> implements HostConnectionPool<CL> {
 		}
 		
 		int successfullyCreated = 0; 
+		int numConns = cpConfig.getMinConnsPerHost();
 		
-		for (int i=0; i<cpConfig.getMaxConnsPerHost(); i++) {
+		for (int i=0; i<numConns; i++) {
 			boolean success = createConnectionWithRetries(); 
 			if (success) {
 				successfullyCreated++;
 			}
 		}
 		
-		if (successfullyCreated == cpConfig.getMaxConnsPerHost()) {
+		if (successfullyCreated == numConns) {
 			if (!(cpState.compareAndSet(cpReconnecting, cpActive))) {
 				throw new IllegalStateException("something went wrong with prime connections");
 			}
@@ -242,6 +264,112 @@ public class HostConnectionPoolImpl<CL> implements HostConnectionPool<CL> {
 		return success;
 	}
 
+	private static ThreadPoolExecutor newPoolSizer(int nThreads) {
+		
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads, 60, TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(), 
+				new ThreadFactory() {
+			
+					private final AtomicInteger count = new AtomicInteger(0);
+					
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "DynoPoolSizer-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	private boolean canGrow() {
+		return numActiveConnections.get() < cpConfig.getMaxConnsPerHost();
+	}
+	
+	/**
+	 * Schedule one more connection to be opened for this pool on the background executor, if no one else is already doing so. 
+	 * The new connection is pushed on the available connections and hence goes to whoever is waiting on the pool.
+	 */
+	private void growPool() {
+		
+		if (!growingPool.compareAndSet(false, true)) {
+			return;
+		}
+		
+		PoolSizer.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					if (cpState.get() != cpActive || !canGrow()) {
+						return;
+					}
+					cpActive.createConnection();
+					monitor.incPoolGrow(host, numActiveConnections.get());
+				} catch (DynoException e) {
+					// failure is already tracked by createConnection(), the borrower just keeps waiting on the pool
+				} finally {
+					growingPool.set(false);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Schedule the idle connections to be closed on the background executor. 
+	 * This is checked at most once per idle timeout period.
+	 */
+	private void maybeShrinkPool() {
+		
+		int idleTimeout = cpConfig.getIdleConnectionTimeout();
+		if (idleTimeout <= 0) {
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		long lastCheck = lastIdleCheck.get();
+		if (now - lastCheck < idleTimeout || numActiveConnections.get() <= cpConfig.getMinConnsPerHost() 
+				|| !lastIdleCheck.compareAndSet(lastCheck, now)) {
+			return;
+		}
+		
+		PoolSizer.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				shrinkIdleConnections();
+			}
+		});
+	}
+	
+	/**
+	 * Close connections that have not been borrowed for the configured idle timeout, while keeping at least min conns open. 
+	 */
+	private void shrinkIdleConnections() {
+		
+		if (cpState.get() != cpActive) {
+			return;
+		}
+		
+		int excess = numActiveConnections.get() - cpConfig.getMinConnsPerHost();
+		if (excess <= 0) {
+			return;
+		}
+		
+		List<Connection<CL>> idleConnections = new ArrayList<Connection<CL>>();
+		availableConnections.drainIdle(System.currentTimeMillis() - cpConfig.getIdleConnectionTimeout(), excess, idleConnections);
+		
+		if (idleConnections.isEmpty()) {
+			return;
+		}
+		
+		for (Connection<CL> connection : idleConnections) {
+			cpActive.closeConnection(connection);
+		}
+		monitor.incPoolShrink(host, numActiveConnections.get());
+	}
+
 	@Override
 	public Host getHost() {
 		return host;
@@ -302,7 +430,7 @@ public class HostConnectionPoolImpl<CL> implements HostConnectionPool<CL> {
 			try { 
 				Connection<CL> connection = connFactory.createConnection((HostConnectionPool<CL>) pool, null);
 				connection.open();
-				availableConnections.add(connection);
+				availableConnections.push(connection);
 
 				monitor.incConnectionCreated(host);
 				numActiveConnections.incrementAndGet();
@@ -338,7 +466,8 @@ public class HostConnectionPoolImpl<CL> implements HostConnectionPool<CL> {
 					
 				} else {
 					// add connection back to the pool
-					availableConnections.add(connection);
+					availableConnections.push(connection);
+					maybeShrinkPool();
 					return false;
 				}
 			} finally { 
@@ -365,11 +494,22 @@ public class HostConnectionPoolImpl<CL> implements HostConnectionPool<CL> {
 
 			// Start recording how long it takes to get the connection - for insight/metrics
 			long startTime = System.currentTimeMillis();
+			long timeout = unit.toMillis(duration);
+			int growThreshold = cpConfig.getPoolGrowWaitThreshold();
 
 			Connection<CL> conn = null;
 			try {
-				// wait on the connection pool with a timeout
-				conn = availableConnections.poll(duration, unit);
+				if (canGrow() && growThreshold < timeout) {
+					// grab the top of the stack, else wait a little and open another connection if we are still out of connections
+					conn = availableConnections.poll(growThreshold, TimeUnit.MILLISECONDS);
+					if (conn == null) {
+						growPool();
+						conn = availableConnections.poll(timeout - (System.currentTimeMillis() - startTime), TimeUnit.MILLISECONDS);
+					}
+				} else {
+					// grab the top of the stack, else wait on the connection pool with a timeout
+					conn = availableConnections.poll(duration, unit);
+				}
 			} catch (InterruptedException e) {
 				Logger.info("Thread interrupted when waiting on connections");
 				throw new DynoConnectException(e);
@@ -658,6 +798,47 @@ public class HostConnectionPoolImpl<CL> implements HostConnectionPool<CL> {
 			Assert.assertTrue(result.failureCount.get() > 0);
 		}
 		
+		@Test
+		public void testPoolGrowsAndShrinks() throws Exception {
+			
+			ConnectionPoolConfigurationImpl elasticConfig = new ConnectionPoolConfigurationImpl("TestClient")
+																.setMaxConnsPerHost(4)
+																.setMinConnsPerHost(1)
+																.setPoolGrowWaitThreshold(2)
+																.setIdleConnectionTimeout(100);
+			
+			pool = new HostConnectionPoolImpl<TestClient>(TestHost, connFactory, elasticConfig, cpMonitor);
+			int numConns = pool.primeConnections();
+			Assert.assertEquals(1, numConns);
+
+			final BasicResult result = new BasicResult();
+			final TestControl control = new TestControl(4);
+
+			for (int i=0; i<4; i++) {   // Note 4 threads .. which is more than min conns .. hence the pool should grow
+				threadPool.submit(new BasicWorker(result, control, 10));
+			}
+			
+			Thread.sleep(300);
+			
+			control.stop();
+			control.waitOnFinish();
+			
+			Assert.assertTrue(cpMonitor.getPoolGrowCount() > 0);
+			Assert.assertTrue(cpMonitor.getConnectionCreatedCount() > 1);
+			Assert.assertTrue(cpMonitor.getConnectionCreatedCount() <= 4);
+			Assert.assertEquals(cpMonitor.getConnectionCreatedCount() - 1, cpMonitor.getPoolGrowCount());
+			
+			// let the connections go idle and then return one, which should close the idle ones down to min conns in the background
+			Thread.sleep(250);
+			pool.returnConnection(pool.borrowConnection(20, TimeUnit.MILLISECONDS));
+			Thread.sleep(50);
+			
+			Assert.assertEquals(1, cpMonitor.getPoolShrinkCount());
+			Assert.assertEquals(1, cpMonitor.getConnectionCreatedCount() - cpMonitor.getConnectionClosedCount());
+			
+			pool.shutdown();
+		}
+		
 		private class BasicWorker implements Callable<Void> {
 
 			private final BasicResult result;
@@ -33,6 +33,9 @@ public class LastOperationMonitor implements OperationMonitor {
 	private final ConcurrentHashMap<String, Long> latestTimings = new ConcurrentHashMap<String, Long>();
 	private final ConcurrentHashMap<String, AtomicInteger> opCounters = new ConcurrentHashMap<String, AtomicInteger>();
 	private final ConcurrentHashMap<String, AtomicInteger> opFailureCounters = new ConcurrentHashMap<String, AtomicInteger>();
+	private final ConcurrentHashMap<String, AtomicInteger> nearCacheHits = new ConcurrentHashMap<String, AtomicInteger>();
+	private final ConcurrentHashMap<String, AtomicInteger> nearCacheMisses = new ConcurrentHashMap<String, AtomicInteger>();
+	private final AtomicInteger nearCacheEvictions = new AtomicInteger(0);
 	
 	@Override
 	public void recordLatency(String opName, long duration, TimeUnit unit) {
@@ -59,4 +62,44 @@ public class LastOperationMonitor implements OperationMonitor {
 		}
 	}
 
+	@Override
+	public void recordNearCacheHit(String opName) {
+		increment(nearCacheHits, opName);
+	}
+
+	@Override
+	public void recordNearCacheMiss(String opName) {
+		increment(nearCacheMisses, opName);
+	}
+
+	@Override
+	public void recordNearCacheEviction() {
+		nearCacheEvictions.incrementAndGet();
+	}
+
+	public int getNearCacheHits(String opName) {
+		AtomicInteger count = nearCacheHits.get(opName);
+		return (count != null) ? count.get() : 0;
+	}
+
+	public int getNearCacheMisses(String opName) {
+		AtomicInteger count = nearCacheMisses.get(opName);
+		return (count != null) ? count.get() : 0;
+	}
+
+	public int getNearCacheEvictions() {
+		return nearCacheEvictions.get();
+	}
+
+	private void increment(ConcurrentHashMap<String, AtomicInteger> counters, String opName) {
+		AtomicInteger count = counters.get(opName);
+		if (count == null) {
+			count = new AtomicInteger(0);
+			AtomicInteger prev = counters.putIfAbsent(opName, count);
+			if (prev != null) {
+				count = prev;
+			}
+		}
+		count.incrementAndGet();
+	}
 }
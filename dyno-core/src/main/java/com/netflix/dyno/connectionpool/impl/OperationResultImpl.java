@@ -27,6 +27,7 @@ import org.junit.Test;
 import com.netflix.dyno.connectionpool.Host;
 import com.netflix.dyno.connectionpool.OperationMonitor;
 import com.netflix.dyno.connectionpool.OperationResult;
+import com.netflix.dyno.connectionpool.OperationTimings;
 import com.netflix.dyno.connectionpool.exception.DynoException;
 
 /**
@@ -45,6 +46,7 @@ public class OperationResultImpl<R> implements OperationResult<R> {
 	private Host host = null;
 	private long duration = 0;
 	private int attempts = 0;
+	private OperationTimings timings = null;
 	private final OperationMonitor opMonitor; 
 	private final ConcurrentHashMap<String, String> metadata = new ConcurrentHashMap<String, String>();
 	
@@ -124,6 +126,17 @@ public class OperationResultImpl<R> implements OperationResult<R> {
 		return this;
 	}
 
+	@Override
+	public OperationTimings getTimings() {
+		return timings;
+	}
+
+	@Override
+	public OperationResultImpl<R> setTimings(OperationTimings t) {
+		timings = t;
+		return this;
+	}
+
 	@Override
 	public Map<String, String> getMetadata() {
 		return metadata;
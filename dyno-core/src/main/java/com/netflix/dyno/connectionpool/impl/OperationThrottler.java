@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.BaseOperation;
+import com.netflix.dyno.connectionpool.ConnectionPoolConfiguration;
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.exception.ThrottledException;
+import com.netflix.dyno.connectionpool.impl.utils.RateLimitUtil;
+
+/**
+ * Admission stage of the {@link ConnectionPoolImpl} that enforces the rate limits of the {@link ConnectionPoolConfiguration}: 
+ * one across the whole client, one per operation name and one per host. An operation that cannot get through within 
+ * {@link ConnectionPoolConfiguration#getThrottleTimeout()} fails with a {@link ThrottledException}, so that the caller can 
+ * shed load instead of blocking on the limit. 
+ * 
+ * The limits are read from the config on every operation and a limiter is rebuilt when its limit changes, so they can be 
+ * tuned at runtime. 
+ * 
+ * @author poberai
+ *
+ */
+public class OperationThrottler {
+
+	private final ConnectionPoolConfiguration config;
+	
+	private final AtomicReference<RateLimitUtil> clientLimiter = new AtomicReference<RateLimitUtil>(null);
+	private final ConcurrentHashMap<String, RateLimitUtil> opLimiters = new ConcurrentHashMap<String, RateLimitUtil>();
+	private final ConcurrentHashMap<Host, RateLimitUtil> hostLimiters = new ConcurrentHashMap<Host, RateLimitUtil>();
+	
+	public OperationThrottler(ConnectionPoolConfiguration config) {
+		this.config = config;
+	}
+	
+	/**
+	 * Admits the operation against the per operation and the client wide limits
+	 * @param op
+	 * @throws ThrottledException if either limit does not let the operation through in time
+	 */
+	public void admit(BaseOperation<?, ?> op) throws ThrottledException {
+		
+		String opName = op.getName();
+		if (opName != null) {
+			RateLimitUtil opLimiter = getLimiter(opLimiters, opName, config.getMaxOperationsPerSecond(opName));
+			acquire(opLimiter, opName);
+		}
+		
+		int clientRps = config.getMaxOperationsPerSecond();
+		RateLimitUtil limiter = clientLimiter.get();
+		if (clientRps <= 0) {
+			if (limiter != null) {
+				clientLimiter.compareAndSet(limiter, null);
+			}
+			return;
+		}
+		if (limiter == null || limiter.getRps() != clientRps) {
+			RateLimitUtil newLimiter = RateLimitUtil.create(clientRps);
+			limiter = clientLimiter.compareAndSet(limiter, newLimiter) ? newLimiter : clientLimiter.get();
+		}
+		acquire(limiter, config.getName());
+	}
+	
+	/**
+	 * Admits an operation to the host that it was routed to
+	 * @param host
+	 * @throws ThrottledException if the host's limit does not let the operation through in time
+	 */
+	public void admit(Host host) throws ThrottledException {
+		acquire(getLimiter(hostLimiters, host, config.getMaxOperationsPerSecondPerHost()), host.getHostName());
+	}
+	
+	/**
+	 * Drops the limiter of a host that is no longer in the pool
+	 * @param host
+	 */
+	public void removeHost(Host host) {
+		hostLimiters.remove(host);
+	}
+	
+	private void acquire(RateLimitUtil limiter, String name) throws ThrottledException {
+		if (limiter != null && !limiter.tryAcquire(config.getThrottleTimeout(), TimeUnit.MILLISECONDS)) {
+			throw new ThrottledException("Throttled, " + name + " is over its limit of " + limiter.getRps() + " ops/sec");
+		}
+	}
+	
+	private static <K> RateLimitUtil getLimiter(ConcurrentHashMap<K, RateLimitUtil> limiters, K key, int rps) {
+		
+		RateLimitUtil limiter = limiters.get(key);
+		if (rps <= 0) {
+			if (limiter != null) {
+				limiters.remove(key, limiter);
+			}
+			return null;
+		}
+		
+		if (limiter == null) {
+			RateLimitUtil newLimiter = RateLimitUtil.create(rps);
+			RateLimitUtil prev = limiters.putIfAbsent(key, newLimiter);
+			return (prev != null) ? prev : newLimiter;
+		}
+		
+		if (limiter.getRps() != rps) {
+			RateLimitUtil newLimiter = RateLimitUtil.create(rps);
+			return limiters.replace(key, limiter, newLimiter) ? newLimiter : limiters.get(key);
+		}
+		return limiter;
+	}
+	
+	public static class UnitTest {
+		
+		private final Host host1 = new Host("host1", 8080);
+		private final Host host2 = new Host("host2", 8080);
+		
+		@Test
+		public void testNoLimitsByDefault() throws Exception {
+			
+			OperationThrottler throttler = new OperationThrottler(new ConnectionPoolConfigurationImpl("test"));
+			for (int i=0; i<10000; i++) {
+				throttler.admit(getOperation("GET"));
+				throttler.admit(host1);
+			}
+		}
+		
+		@Test
+		public void testPerOperationLimit() throws Exception {
+			
+			ConnectionPoolConfigurationImpl config = new ConnectionPoolConfigurationImpl("test").setMaxOperationsPerSecond("SET", 10);
+			OperationThrottler throttler = new OperationThrottler(config);
+			
+			throttler.admit(getOperation("SET"));
+			try {
+				throttler.admit(getOperation("SET"));
+				Assert.fail("Expected ThrottledException");
+			} catch (ThrottledException e) {
+			}
+			
+			// other operations are not limited
+			for (int i=0; i<100; i++) {
+				throttler.admit(getOperation("GET"));
+			}
+			
+			// with a timeout the caller waits for the next permit instead
+			config.setThrottleTimeout(200);
+			throttler.admit(getOperation("SET"));
+		}
+		
+		@Test
+		public void testClientAndHostLimits() throws Exception {
+			
+			ConnectionPoolConfigurationImpl config = new ConnectionPoolConfigurationImpl("test")
+												.setMaxOperationsPerSecond(20)
+												.setMaxOperationsPerSecondPerHost(10);
+			OperationThrottler throttler = new OperationThrottler(config);
+			
+			throttler.admit(getOperation("GET"));
+			throttler.admit(getOperation("GET"));
+			try {
+				throttler.admit(getOperation("GET"));
+				Assert.fail("Expected ThrottledException");
+			} catch (ThrottledException e) {
+			}
+			
+			// each host has its own limit
+			throttler.admit(host1);
+			throttler.admit(host2);
+			try {
+				throttler.admit(host1);
+				Assert.fail("Expected ThrottledException");
+			} catch (ThrottledException e) {
+			}
+			
+			// lifting the limit takes effect right away
+			config.setMaxOperationsPerSecondPerHost(0);
+			throttler.admit(host1);
+		}
+		
+		private BaseOperation<Object, Object> getOperation(final String name) {
+			return new BaseOperation<Object, Object>() {
+
+				@Override
+				public String getName() {
+					return name;
+				}
+
+				@Override
+				public String getKey() {
+					return "key";
+				}
+			};
+		}
+	}
+}
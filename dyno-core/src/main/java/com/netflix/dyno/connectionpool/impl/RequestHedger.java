@@ -0,0 +1,458 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.Connection;
+import com.netflix.dyno.connectionpool.ConnectionPoolConfiguration;
+import com.netflix.dyno.connectionpool.ConnectionPoolMonitor;
+import com.netflix.dyno.connectionpool.HedgeableOperation;
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.HostConnectionPool;
+import com.netflix.dyno.connectionpool.OperationResult;
+import com.netflix.dyno.connectionpool.exception.DynoException;
+import com.netflix.dyno.connectionpool.exception.FatalConnectionException;
+import com.netflix.dyno.connectionpool.exception.ThrottledException;
+import com.netflix.dyno.connectionpool.exception.TimeoutException;
+import com.netflix.dyno.connectionpool.impl.health.ConnectionPoolHealthTracker;
+import com.netflix.dyno.connectionpool.impl.lb.HostSelectionWithFallback;
+import com.netflix.dyno.connectionpool.impl.utils.LatencySampler;
+
+/**
+ * Executes {@link HedgeableOperation}s with speculative retries (hedged requests). 
+ * 
+ * The operation is first sent to the primary host. If the primary has not responded within the configured percentile 
+ * of its own recent latency, the same operation is also sent to the owner of the same token in another rack, and 
+ * whichever reply arrives first wins. A single slow node hence does not show up in the client's tail latency. 
+ * 
+ * Hedging is capped by a budget. Every hedgeable operation earns {@link ConnectionPoolConfiguration#getHedgeBudgetPercent()} 
+ * credits and a hedged request costs 100, so hedges stay within that percentage of the traffic even when an entire rack is slow. 
+ * 
+ * Operations run on the caller's thread unless a hedge can actually be sent, i.e we know the host's latency percentile and 
+ * there is budget for a hedge. Only then are the attempts handed to a bounded executor so that the caller can wait on whichever 
+ * replies first. The executor does not queue, when it is full the primary simply runs on the caller's thread and a hedge that 
+ * cannot be scheduled is counted as budget exhausted. 
+ * 
+ * Every attempt, including a hedge that loses or a primary that is given up on, takes a concurrency limit permit for its own 
+ * host and reports its outcome for that host to the health tracker and the load tracker once it completes. 
+ * 
+ * @author poberai
+ *
+ * @param <CL>
+ */
+public class RequestHedger<CL> {
+
+	// we need some history for a host before its percentile latency means anything
+	private static final int MIN_SAMPLES = 100;
+	private static final int SAMPLE_SIZE = 1024;
+	// allow a burst of at most 10 hedges
+	private static final long MAX_BUDGET_CREDITS = 1000;
+	private static final long HEDGE_COST = 100;
+	// max attempts in flight on the executor, beyond which we stop hedging
+	private static final int MAX_CONCURRENT_ATTEMPTS = 64;
+
+	private final ConcurrentHashMap<Host, LatencySampler> latencies = new ConcurrentHashMap<Host, LatencySampler>();
+	private final AtomicLong budget = new AtomicLong(0);
+
+	private final ConnectionPoolConfiguration cpConfig;
+	private final ConnectionPoolMonitor cpMonitor;
+	private final ConcurrencyLimiter concurrencyLimiter;
+	private final ConnectionPoolHealthTracker<CL> healthTracker;
+	private final ThreadPoolExecutor executor;
+
+	public RequestHedger(ConnectionPoolConfiguration config, ConnectionPoolMonitor monitor) {
+		this(config, monitor, null, null);
+	}
+
+	/**
+	 * @param config
+	 * @param monitor
+	 * @param limiter hands out the per host permits for the attempts, may be null
+	 * @param tracker is told about the outcome of every attempt, may be null
+	 */
+	public RequestHedger(ConnectionPoolConfiguration config, ConnectionPoolMonitor monitor, ConcurrencyLimiter limiter, ConnectionPoolHealthTracker<CL> tracker) {
+		this.cpConfig = config;
+		this.cpMonitor = monitor;
+		this.concurrencyLimiter = limiter;
+		this.healthTracker = tracker;
+		this.executor = new ThreadPoolExecutor(0, MAX_CONCURRENT_ATTEMPTS, 60, TimeUnit.SECONDS, 
+				new SynchronousQueue<Runnable>(), 
+				new ThreadFactory() {
+
+					private final AtomicInteger count = new AtomicInteger(0);
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "DynoHedgeExecutor-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, 
+				new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Execute the operation on the primary host pool, hedging to a replica in another rack if the primary is slow
+	 * @param selection
+	 * @param primaryPool
+	 * @param op
+	 * @return OperationResult<R>
+	 * @throws DynoException
+	 */
+	public <R> OperationResult<R> execute(HostSelectionWithFallback<CL> selection, HostConnectionPool<CL> primaryPool, 
+			HedgeableOperation<CL, R> op) throws DynoException {
+
+		earnBudget();
+
+		long hedgeDelay = getHedgeDelay(primaryPool.getHost());
+		if (hedgeDelay < 0) {
+			return executeOnCallerThread(selection, primaryPool, op);
+		}
+		if (budget.get() < HEDGE_COST) {
+			// no hedge can be sent, don't bother handing off to another thread. Still track whether we would have hedged
+			long startTime = System.nanoTime();
+			try {
+				return executeOnCallerThread(selection, primaryPool, op);
+			} finally {
+				if ((System.nanoTime() - startTime)/1000 > hedgeDelay) {
+					cpMonitor.incHedgeBudgetExhausted(primaryPool.getHost());
+				}
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + cpConfig.getMaxTimeoutWhenExhausted() + cpConfig.getSocketTimeout();
+		LinkedBlockingQueue<Attempt<R>> completions = new LinkedBlockingQueue<Attempt<R>>();
+
+		if (!submit(selection, primaryPool, op, completions)) {
+			return executeOnCallerThread(selection, primaryPool, op);
+		}
+		int pending = 1;
+		boolean hedged = false;
+
+		try {
+			Attempt<R> attempt = completions.poll(hedgeDelay, TimeUnit.MICROSECONDS);
+			if (attempt == null) {
+				hedged = hedge(selection, primaryPool, op, completions);
+				if (hedged) {
+					pending++;
+				}
+			}
+
+			DynoException lastException = null;
+
+			while (pending > 0) {
+
+				if (attempt == null) {
+					long remaining = deadline - System.currentTimeMillis();
+					attempt = (remaining > 0) ? completions.poll(remaining, TimeUnit.MILLISECONDS) : null;
+					if (attempt == null) {
+						throw new TimeoutException("Timed out waiting on hedged operation").setHost(primaryPool.getHost());
+					}
+				}
+				pending--;
+
+				if (attempt.exception == null) {
+					if (hedged && attempt.hostPool != primaryPool) {
+						cpMonitor.incHedgeWon(attempt.hostPool.getHost());
+					}
+					return attempt.result;
+				}
+
+				// prefer reporting the primary's failure 
+				if (lastException == null || attempt.hostPool == primaryPool) {
+					lastException = attempt.exception;
+				}
+				attempt = null;
+			}
+
+			throw lastException;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DynoException(e);
+		}
+	}
+
+	public void removeHost(Host host) {
+		latencies.remove(host);
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private <R> boolean hedge(HostSelectionWithFallback<CL> selection, HostConnectionPool<CL> primaryPool, HedgeableOperation<CL, R> op, 
+			LinkedBlockingQueue<Attempt<R>> completions) {
+
+		if (!spendBudget()) {
+			cpMonitor.incHedgeBudgetExhausted(primaryPool.getHost());
+			return false;
+		}
+		// only pick the replica once the hedge will be sent, picking it takes a probe from a half open circuit breaker
+		HostConnectionPool<CL> hedgePool = selection.getHedgeHostPool(op, primaryPool.getHost());
+		if (hedgePool == null) {
+			budget.addAndGet(HEDGE_COST);
+			return false;
+		}
+
+		if (!submit(selection, hedgePool, op, completions)) {
+			// executor is full, give the credits back and treat it like running out of budget
+			budget.addAndGet(HEDGE_COST);
+			cpMonitor.incHedgeBudgetExhausted(primaryPool.getHost());
+			return false;
+		}
+		cpMonitor.incHedgeSent(hedgePool.getHost());
+		return true;
+	}
+
+	/**
+	 * @return time in micros to wait on the primary before hedging, or -1 if we don't know enough about the host yet
+	 */
+	long getHedgeDelay(Host host) {
+		if (cpConfig.getHedgeBudgetPercent() <= 0) {
+			return -1L;
+		}
+		LatencySampler sampler = latencies.get(host);
+		if (sampler == null || sampler.getSampleCount() < MIN_SAMPLES) {
+			return -1L;
+		}
+		return sampler.getPercentile(cpConfig.getHedgeLatencyPercentile());
+	}
+
+	private void earnBudget() {
+		long credits = cpConfig.getHedgeBudgetPercent();
+		while (true) {
+			long current = budget.get();
+			long next = Math.min(MAX_BUDGET_CREDITS, current + credits);
+			if (next == current || budget.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+
+	private boolean spendBudget() {
+		while (true) {
+			long current = budget.get();
+			if (current < HEDGE_COST) {
+				return false;
+			}
+			if (budget.compareAndSet(current, current - HEDGE_COST)) {
+				return true;
+			}
+		}
+	}
+
+	long getBudget() {
+		return budget.get();
+	}
+
+	LatencySampler getSampler(Host host) {
+		LatencySampler sampler = latencies.get(host);
+		if (sampler == null) {
+			LatencySampler newSampler = new LatencySampler(SAMPLE_SIZE);
+			sampler = latencies.putIfAbsent(host, newSampler);
+			if (sampler == null) {
+				sampler = newSampler;
+			}
+		}
+		return sampler;
+	}
+
+	private <R> OperationResult<R> executeOnCallerThread(HostSelectionWithFallback<CL> selection, HostConnectionPool<CL> hostPool, 
+			HedgeableOperation<CL, R> op) throws DynoException {
+		Attempt<R> attempt = attempt(selection, hostPool, op);
+		if (attempt.exception != null) {
+			throw attempt.exception;
+		}
+		return attempt.result;
+	}
+
+	/**
+	 * @return false if the executor is full
+	 */
+	private <R> boolean submit(final HostSelectionWithFallback<CL> selection, final HostConnectionPool<CL> hostPool, 
+			final HedgeableOperation<CL, R> op, final LinkedBlockingQueue<Attempt<R>> completions) {
+
+		try {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					completions.add(attempt(selection, hostPool, op));
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	private <R> Attempt<R> attempt(HostSelectionWithFallback<CL> selection, HostConnectionPool<CL> hostPool, HedgeableOperation<CL, R> op) {
+
+		Host host = hostPool.getHost();
+		long startTime = System.nanoTime();
+		ConcurrencyLimiter.Permit permit = null;
+		boolean started = false;
+		Connection<CL> connection = null;
+
+		try {
+			if (concurrencyLimiter != null) {
+				permit = concurrencyLimiter.acquire(host);
+			}
+			selection.operationStarted(host);
+			started = true;
+
+			connection = hostPool.borrowConnection(cpConfig.getMaxTimeoutWhenExhausted(), TimeUnit.MILLISECONDS);
+
+			OperationResult<R> result = connection.execute(op);
+			result.setNode(host)
+			.addMetadata(connection.getContext().getAll());
+
+			long latencyMicros = (System.nanoTime() - startTime)/1000;
+			getSampler(host).record(latencyMicros);
+			if (permit != null) {
+				permit.success();
+			}
+			if (healthTracker != null) {
+				healthTracker.trackSuccess(host, latencyMicros);
+			}
+			return new Attempt<R>(hostPool, result, null);
+
+		} catch (ThrottledException e) {
+			// the host turned the attempt away, which says nothing about its health
+			return new Attempt<R>(hostPool, null, e);
+		} catch (DynoException e) {
+			return failed(hostPool, permit, e);
+		} catch (RuntimeException e) {
+			return failed(hostPool, permit, new FatalConnectionException(e).setHost(host));
+		} finally {
+			if (connection != null) {
+				connection.getContext().reset();
+				hostPool.returnConnection(connection);
+			}
+			if (permit != null) {
+				permit.ignore();
+			}
+			if (started) {
+				selection.operationCompleted(host, (System.nanoTime() - startTime)/1000);
+			}
+		}
+	}
+
+	private <R> Attempt<R> failed(HostConnectionPool<CL> hostPool, ConcurrencyLimiter.Permit permit, DynoException e) {
+		if (permit != null) {
+			permit.failure(e);
+		}
+		if (healthTracker != null) {
+			healthTracker.trackConnectionError(hostPool, e);
+		}
+		return new Attempt<R>(hostPool, null, e);
+	}
+
+	private class Attempt<R> {
+
+		private final HostConnectionPool<CL> hostPool;
+		private final OperationResult<R> result;
+		private final DynoException exception;
+
+		private Attempt(HostConnectionPool<CL> hostPool, OperationResult<R> result, DynoException exception) {
+			this.hostPool = hostPool;
+			this.result = result;
+			this.exception = exception;
+		}
+	}
+
+	public static class UnitTest {
+
+		private final Host host = new Host("host1", 8080);
+
+		@Test
+		public void testHedgeDelayFromPercentile() throws Exception {
+
+			ConnectionPoolConfigurationImpl config = new ConnectionPoolConfigurationImpl("test")
+															.setHedgeBudgetPercent(10)
+															.setHedgeLatencyPercentile(90);
+			RequestHedger<Object> hedger = new RequestHedger<Object>(config, new CountingConnectionPoolMonitor());
+
+			try {
+				// unknown host and too little history
+				Assert.assertEquals(-1L, hedger.getHedgeDelay(host));
+				for (int i=1; i<MIN_SAMPLES; i++) {
+					hedger.getSampler(host).record(i);
+				}
+				Assert.assertEquals(-1L, hedger.getHedgeDelay(host));
+
+				// latencies 1 .. 200 micros
+				for (int i=MIN_SAMPLES; i<=200; i++) {
+					hedger.getSampler(host).record(i);
+				}
+				Assert.assertEquals(hedger.getSampler(host).getPercentile(90), hedger.getHedgeDelay(host));
+				Assert.assertTrue(hedger.getHedgeDelay(host) >= 175 && hedger.getHedgeDelay(host) <= 185);
+
+				// hedging disabled
+				config.setHedgeBudgetPercent(0);
+				Assert.assertEquals(-1L, hedger.getHedgeDelay(host));
+			} finally {
+				hedger.shutdown();
+			}
+		}
+
+		@Test
+		public void testBudgetAccounting() throws Exception {
+
+			ConnectionPoolConfigurationImpl config = new ConnectionPoolConfigurationImpl("test").setHedgeBudgetPercent(10);
+			RequestHedger<Object> hedger = new RequestHedger<Object>(config, new CountingConnectionPoolMonitor());
+
+			try {
+				Assert.assertFalse(hedger.spendBudget());
+
+				// 10 ops earn exactly one hedge
+				for (int i=0; i<10; i++) {
+					hedger.earnBudget();
+				}
+				Assert.assertEquals(HEDGE_COST, hedger.getBudget());
+				Assert.assertTrue(hedger.spendBudget());
+				Assert.assertFalse(hedger.spendBudget());
+				Assert.assertEquals(0L, hedger.getBudget());
+
+				// the budget is capped, i.e a long quiet period does not allow an unbounded burst of hedges
+				for (int i=0; i<1000; i++) {
+					hedger.earnBudget();
+				}
+				Assert.assertEquals(MAX_BUDGET_CREDITS, hedger.getBudget());
+				int hedges = 0;
+				while (hedger.spendBudget()) {
+					hedges++;
+				}
+				Assert.assertEquals(MAX_BUDGET_CREDITS/HEDGE_COST, hedges);
+			} finally {
+				hedger.shutdown();
+			}
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.ConnectionPoolMonitor;
+import com.netflix.dyno.connectionpool.RetryPolicy;
+
+/**
+ * Retry budget shared by all the operations of a client, so that a partial outage does not turn every request into 
+ * N+1 attempts against the surviving hosts. 
+ * 
+ * The budget is a token bucket. Every successful operation deposits a percent of a token and every retry withdraws a 
+ * whole one, so the retries are capped at that percent of the recent successful operations. On top of that the bucket 
+ * refills at a min number of retries per second, so that a client with little traffic can still retry. The bucket holds 
+ * at most 10 seconds worth of the min retries, which is also what it starts with. 
+ * 
+ * The budget applies on top of the per operation {@link RetryPolicy}, see {@link #wrap(RetryPolicy)}. A retry that the 
+ * budget refuses is reported to the {@link ConnectionPoolMonitor}. 
+ * 
+ * @author poberai
+ *
+ */
+public class RetryBudget {
+
+	// balances are in thousandths of a retry
+	private static final long TOKEN = 1000L;
+	private static final long MAX_BALANCE_SECONDS = 10L;
+	
+	private final long depositPerSuccess;
+	private final int minRetriesPerSecond;
+	private final long maxBalance;
+	private final ConnectionPoolMonitor monitor;
+	
+	private final AtomicLong balance;
+	private final AtomicLong lastRefillNanos = new AtomicLong(System.nanoTime());
+	
+	/**
+	 * @param percent retries allowed as a percent of the successful operations
+	 * @param minRetriesPerSecond retries allowed regardless of the successful operations
+	 * @param monitor notified of the retries that the budget refused, may be null
+	 */
+	public RetryBudget(int percent, int minRetriesPerSecond, ConnectionPoolMonitor monitor) {
+		this.depositPerSuccess = percent * TOKEN / 100;
+		this.minRetriesPerSecond = Math.max(0, minRetriesPerSecond);
+		this.maxBalance = Math.max(1, this.minRetriesPerSecond) * MAX_BALANCE_SECONDS * TOKEN;
+		this.monitor = monitor;
+		this.balance = new AtomicLong(maxBalance);
+	}
+	
+	/**
+	 * @param policy
+	 * @return a policy that allows a retry when the given policy allows it and there is budget left for it
+	 */
+	public RetryPolicy wrap(RetryPolicy policy) {
+		return new BudgetedRetryPolicy(policy);
+	}
+	
+	/**
+	 * @return the number of retries left in the budget
+	 */
+	public long getBalance() {
+		refill();
+		return balance.get() / TOKEN;
+	}
+	
+	void deposit() {
+		add(depositPerSuccess);
+	}
+	
+	boolean tryWithdraw() {
+		
+		refill();
+		while (true) {
+			long current = balance.get();
+			if (current < TOKEN) {
+				return false;
+			}
+			if (balance.compareAndSet(current, current - TOKEN)) {
+				return true;
+			}
+		}
+	}
+	
+	private void refill() {
+		
+		if (minRetriesPerSecond == 0) {
+			return;
+		}
+		
+		long last = lastRefillNanos.get();
+		long elapsed = System.nanoTime() - last;
+		
+		// whole thousandths only, the remainder of the elapsed time counts towards the next refill
+		long minted = elapsed * minRetriesPerSecond / 1000000L;
+		if (minted > 0 && lastRefillNanos.compareAndSet(last, last + minted * 1000000L / minRetriesPerSecond)) {
+			add(minted);
+		}
+	}
+	
+	private void add(long amount) {
+		
+		while (true) {
+			long current = balance.get();
+			long next = Math.min(maxBalance, current + amount);
+			if (next == current || balance.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+	
+	private class BudgetedRetryPolicy implements RetryPolicy {
+
+		private final RetryPolicy policy;
+		
+		// the decision for an attempt count, since the callers may ask more than once after the same failure
+		private int decidedAt = -1;
+		private boolean allowed = false;
+		
+		private BudgetedRetryPolicy(RetryPolicy policy) {
+			this.policy = policy;
+		}
+		
+		@Override
+		public void begin() {
+			policy.begin();
+		}
+
+		@Override
+		public void success() {
+			policy.success();
+			deposit();
+		}
+
+		@Override
+		public void failure(Exception e) {
+			policy.failure(e);
+		}
+
+		@Override
+		public synchronized boolean allowRetry() {
+			
+			int attempts = policy.getAttemptCount();
+			if (attempts == decidedAt) {
+				return allowed;
+			}
+			decidedAt = attempts;
+			
+			allowed = policy.allowRetry();
+			if (allowed && attempts > 0) {
+				allowed = tryWithdraw();
+				if (!allowed && monitor != null) {
+					monitor.incRetryBudgetExhausted();
+				}
+			}
+			return allowed;
+		}
+
+		@Override
+		public boolean allowRemoteDCFallback() {
+			return policy.allowRemoteDCFallback();
+		}
+
+		@Override
+		public int getAttemptCount() {
+			return policy.getAttemptCount();
+		}
+	}
+	
+	public static class UnitTest {
+		
+		private final RuntimeException e = new RuntimeException("failure");
+		
+		@Test
+		public void testRetriesCappedByBudget() throws Exception {
+			
+			CountingConnectionPoolMonitor monitor = new CountingConnectionPoolMonitor();
+			RetryBudget budget = new RetryBudget(10, 0, monitor);
+			
+			// starts with 10 seconds worth of at least 1 retry per second
+			Assert.assertEquals(10, budget.getBalance());
+			
+			int retries = 0;
+			for (int i=0; i<20; i++) {
+				RetryPolicy retry = budget.wrap(new RetryNTimes(3, false));
+				retry.begin();
+				retry.failure(e);
+				while (retry.allowRetry()) {
+					retries++;
+					retry.failure(e);
+				}
+			}
+			Assert.assertEquals(10, retries);
+			Assert.assertEquals(0, budget.getBalance());
+			Assert.assertEquals(17, monitor.getRetryBudgetExhaustedCount());
+			
+			// 10% of the successes go back into the budget
+			for (int i=0; i<20; i++) {
+				RetryPolicy retry = budget.wrap(new RetryNTimes(3, false));
+				retry.begin();
+				retry.success();
+			}
+			Assert.assertEquals(2, budget.getBalance());
+		}
+		
+		@Test
+		public void testOneWithdrawalPerAttempt() throws Exception {
+			
+			RetryBudget budget = new RetryBudget(10, 0, null);
+			RetryPolicy retry = budget.wrap(new RetryNTimes(3, false));
+			retry.begin();
+			
+			// no retry yet
+			Assert.assertTrue(retry.allowRetry());
+			Assert.assertEquals(10, budget.getBalance());
+			
+			retry.failure(e);
+			Assert.assertTrue(retry.allowRetry());
+			Assert.assertTrue(retry.allowRetry());
+			Assert.assertEquals(9, budget.getBalance());
+			
+			// the wrapped policy has the last word
+			retry.failure(e);
+			retry.failure(e);
+			retry.failure(e);
+			Assert.assertFalse(retry.allowRetry());
+			Assert.assertEquals(9, budget.getBalance());
+		}
+		
+		@Test
+		public void testMinRetriesPerSecond() throws Exception {
+			
+			RetryBudget budget = new RetryBudget(0, 100, null);
+			while (budget.tryWithdraw()) {
+			}
+			Assert.assertFalse(budget.tryWithdraw());
+			
+			Thread.sleep(100);
+			long balance = budget.getBalance();
+			Assert.assertTrue("Balance: " + balance, balance >= 9 && balance <= 20);
+		}
+	}
+}
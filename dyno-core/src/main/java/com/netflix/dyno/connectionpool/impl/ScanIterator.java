@@ -0,0 +1,491 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.Operation;
+import com.netflix.dyno.connectionpool.ScanCursor;
+import com.netflix.dyno.connectionpool.ScanPage;
+import com.netflix.dyno.connectionpool.exception.DynoException;
+
+/**
+ * Streams the results of a cursor based scan over several streams, e.g a SCAN over every node in the local rack, 
+ * instead of gathering all the matching keys in memory like a KEYS fan out does. 
+ * 
+ * Pages are fetched in the background on the ring executor and merged lazily. Each stream keeps at most 
+ * <i>prefetch</i> pages buffered, and at most <i>parallelism</i> streams are scanned at once, so the memory used is 
+ * bounded no matter how big the ring is. With a parallelism of 1 the streams are scanned one after the other, in order. 
+ * 
+ * The scan can be resumed from {@link #getCursor()}. The cursor only moves forward once a page has been fully consumed, 
+ * hence a resumed scan may return some items again, which redis SCAN allows for anyway. 
+ * 
+ * This class is not thread safe, it is meant to be consumed by a single thread like any other iterator. 
+ * 
+ * @author poberai
+ *
+ * @param <T>
+ */
+public class ScanIterator<T> implements Iterator<T>, Closeable {
+
+	// the single stream of a scan over one key, e.g HSCAN
+	public static final Long KEY_STREAM = 0L;
+
+	/**
+	 * Builds the operation that fetches one page of the scan from a cursor
+	 * @param <CL>
+	 * @param <T>
+	 */
+	public interface ScanOperationFactory<CL, T> {
+		public Operation<CL, ScanPage<T>> getScanOperation(String cursor);
+	}
+
+	/**
+	 * Fetches one page of a stream
+	 * @param <T>
+	 */
+	public interface PageFetcher<T> {
+		public ScanPage<T> fetch(Long stream, String cursor) throws DynoException;
+	}
+
+	/**
+	 * Scan every token owner in the local rack of the ring
+	 * @param pool
+	 * @param factory
+	 * @param cursor the cursor to resume from, or null to start a new scan
+	 * @param prefetch max number of pages buffered per node
+	 * @param parallelism max number of nodes scanned concurrently
+	 * @return ScanIterator<T>
+	 */
+	public static <CL, T> ScanIterator<T> ringScan(final ConnectionPoolImpl<CL> pool, final ScanOperationFactory<CL, T> factory, 
+			ScanCursor cursor, int prefetch, int parallelism) {
+
+		if (cursor == null) {
+			cursor = ScanCursor.start(pool.getRingTokens());
+		}
+		return new ScanIterator<T>(new PageFetcher<T>() {
+
+			@Override
+			public ScanPage<T> fetch(Long token, String nodeCursor) throws DynoException {
+				return pool.executeOnToken(token, factory.getScanOperation(nodeCursor)).getResult();
+			}
+		}, pool.getRingExecutor(), cursor, prefetch, parallelism);
+	}
+
+	/**
+	 * Scan a single key, e.g HSCAN, SSCAN or ZSCAN. The operations are routed to the owner of the key like any other operation. 
+	 * @param pool
+	 * @param factory
+	 * @param cursor the cursor to resume from, or null to start a new scan
+	 * @param prefetch max number of pages buffered
+	 * @return ScanIterator<T>
+	 */
+	public static <CL, T> ScanIterator<T> keyScan(final ConnectionPoolImpl<CL> pool, final ScanOperationFactory<CL, T> factory, 
+			ScanCursor cursor, int prefetch) {
+
+		if (cursor == null) {
+			cursor = ScanCursor.start(Collections.singletonList(KEY_STREAM));
+		}
+		return new ScanIterator<T>(new PageFetcher<T>() {
+
+			@Override
+			public ScanPage<T> fetch(Long stream, String keyCursor) throws DynoException {
+				return pool.executeWithFailover(factory.getScanOperation(keyCursor)).getResult();
+			}
+		}, pool.getRingExecutor(), cursor, prefetch, 1);
+	}
+
+	private final PageFetcher<T> fetcher;
+	private final ExecutorService executor;
+	private final int prefetch;
+	private final int parallelism;
+
+	// streams that have not been fully consumed yet, in scan order
+	private final LinkedList<Stream> streams = new LinkedList<Stream>();
+	// fetches signal here once they are done
+	private final LinkedBlockingQueue<FetchTask> completed = new LinkedBlockingQueue<FetchTask>();
+
+	private Stream currentStream;
+	private ScanPage<T> currentPage;
+	private Iterator<T> currentItems;
+	private boolean closed = false;
+
+	public ScanIterator(PageFetcher<T> fetcher, ExecutorService executor, ScanCursor cursor, int prefetch, int parallelism) {
+		if (prefetch < 1 || parallelism < 1) {
+			throw new IllegalArgumentException("prefetch and parallelism must be at least 1");
+		}
+		this.fetcher = fetcher;
+		this.executor = executor;
+		this.prefetch = prefetch;
+		this.parallelism = parallelism;
+
+		for (Map.Entry<Long, String> entry : cursor.getCursors().entrySet()) {
+			streams.add(new Stream(entry.getKey(), entry.getValue()));
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		if (closed) {
+			return false;
+		}
+
+		while (true) {
+
+			if (currentItems != null && currentItems.hasNext()) {
+				return true;
+			}
+
+			if (currentPage != null) {
+				commitCurrentPage();
+			}
+
+			if (streams.isEmpty()) {
+				return false;
+			}
+
+			Stream stream = getReadyStream();
+			if (stream == null) {
+				awaitFetch();
+				continue;
+			}
+
+			currentStream = stream;
+			currentPage = stream.ready.poll();
+			currentItems = currentPage.getItems().iterator();
+		}
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return currentItems.next();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return the cursor to resume the scan from, "0" once the scan is complete
+	 */
+	public ScanCursor getCursor() {
+		LinkedHashMap<Long, String> cursors = new LinkedHashMap<Long, String>();
+		for (Stream stream : streams) {
+			cursors.put(stream.id, stream.committed);
+		}
+		return ScanCursor.of(cursors);
+	}
+
+	/**
+	 * Stop the scan and cancel the fetches in flight. The cursor can still be used to resume the scan later. 
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Stream stream : streams) {
+			if (stream.inflight != null) {
+				stream.inflight.cancel(false);
+				stream.inflight = null;
+			}
+		}
+	}
+
+	private void commitCurrentPage() {
+
+		currentStream.committed = currentPage.getNextCursor();
+		if (currentPage.isLast()) {
+			streams.remove(currentStream);
+		}
+		currentStream = null;
+		currentPage = null;
+		currentItems = null;
+	}
+
+	/**
+	 * Collect the fetches that are done and start new ones for the active streams that have room for more pages
+	 * @return the first active stream with a page ready, or null if none 
+	 */
+	private Stream getReadyStream() {
+
+		Stream ready = null;
+		int active = 0;
+		for (Stream stream : streams) {
+			if (active++ == parallelism) {
+				break;
+			}
+			stream.collect();
+			stream.fetchIfRoom();
+			if (ready == null && !stream.ready.isEmpty()) {
+				ready = stream;
+			}
+		}
+		return ready;
+	}
+
+	private void awaitFetch() {
+		try {
+			completed.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DynoException(e);
+		}
+	}
+
+	private class FetchTask extends FutureTask<ScanPage<T>> {
+
+		private FetchTask(final Long stream, final String cursor) {
+			super(new Callable<ScanPage<T>>() {
+
+				@Override
+				public ScanPage<T> call() throws Exception {
+					return fetcher.fetch(stream, cursor);
+				}
+			});
+		}
+
+		@Override
+		protected void done() {
+			completed.offer(this);
+		}
+	}
+
+	private class Stream {
+
+		private final Long id;
+		// cursor of the first page that has not been fully consumed
+		private String committed;
+		// cursor of the next page to fetch
+		private String fetchCursor;
+		private boolean fetchedAll = false;
+
+		private FetchTask inflight;
+		private final LinkedList<ScanPage<T>> ready = new LinkedList<ScanPage<T>>();
+
+		private Stream(Long id, String cursor) {
+			this.id = id;
+			this.committed = cursor;
+			this.fetchCursor = cursor;
+		}
+
+		private void fetchIfRoom() {
+			if (inflight == null && !fetchedAll && ready.size() < prefetch) {
+				inflight = new FetchTask(id, fetchCursor);
+				executor.execute(inflight);
+			}
+		}
+
+		private void collect() {
+
+			if (inflight == null || !inflight.isDone()) {
+				return;
+			}
+
+			FetchTask task = inflight;
+			inflight = null;
+
+			ScanPage<T> page;
+			try {
+				page = task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DynoException(e);
+			} catch (ExecutionException e) {
+				// the page will be fetched again on the next call
+				Throwable cause = e.getCause();
+				throw (cause instanceof DynoException) ? (DynoException) cause : new DynoException(cause);
+			}
+
+			ready.add(page);
+			fetchCursor = page.getNextCursor();
+			fetchedAll = page.isLast();
+		}
+	}
+
+	public static class UnitTest {
+
+		private final ExecutorService executor = Executors.newFixedThreadPool(4);
+		private final AtomicInteger fetches = new AtomicInteger(0);
+
+		@After
+		public void afterTest() {
+			executor.shutdownNow();
+		}
+
+		@Test
+		public void testSequentialScan() throws Exception {
+
+			ScanIterator<String> iter = getScanIterator(ScanCursor.start(Arrays.asList(1L, 2L, 3L)), 2, 1, -1);
+
+			List<String> items = new ArrayList<String>();
+			while (iter.hasNext()) {
+				items.add(iter.next());
+			}
+
+			// one stream after the other, in order
+			Assert.assertEquals(getAllItems(1L, 2L, 3L), items);
+			Assert.assertTrue(iter.getCursor().isComplete());
+			Assert.assertEquals("0", iter.getCursor().toString());
+			Assert.assertEquals(3*5, fetches.get());
+			Assert.assertFalse(iter.hasNext());
+		}
+
+		@Test
+		public void testParallelScan() throws Exception {
+
+			ScanIterator<String> iter = getScanIterator(ScanCursor.start(Arrays.asList(1L, 2L, 3L)), 1, 3, -1);
+
+			Set<String> items = new HashSet<String>();
+			while (iter.hasNext()) {
+				Assert.assertTrue(items.add(iter.next()));
+			}
+			Assert.assertEquals(new HashSet<String>(getAllItems(1L, 2L, 3L)), items);
+			Assert.assertTrue(iter.getCursor().isComplete());
+		}
+
+		@Test
+		public void testResume() throws Exception {
+
+			ScanIterator<String> iter = getScanIterator(ScanCursor.start(Arrays.asList(1L, 2L, 3L)), 2, 2, -1);
+
+			Set<String> items = new HashSet<String>();
+			for (int i=0; i<17; i++) {
+				items.add(iter.next());
+			}
+			String cursor = iter.getCursor().toString();
+			iter.close();
+			Assert.assertFalse(iter.hasNext());
+
+			ScanIterator<String> resumed = getScanIterator(ScanCursor.fromString(cursor), 2, 2, -1);
+			while (resumed.hasNext()) {
+				items.add(resumed.next());
+			}
+			Assert.assertEquals(new HashSet<String>(getAllItems(1L, 2L, 3L)), items);
+		}
+
+		@Test
+		public void testFailedFetchIsRetried() throws Exception {
+
+			// the 3rd page of the first stream fails once
+			ScanIterator<String> iter = getScanIterator(ScanCursor.start(Arrays.asList(1L, 2L)), 1, 1, 3);
+
+			List<String> items = new ArrayList<String>();
+			try {
+				while (iter.hasNext()) {
+					items.add(iter.next());
+				}
+				Assert.fail("Expected DynoException");
+			} catch (DynoException e) {
+			}
+			Assert.assertEquals(Arrays.asList("1-0", "1-1", "1-2", "1-3"), items);
+
+			while (iter.hasNext()) {
+				items.add(iter.next());
+			}
+			Assert.assertEquals(getAllItems(1L, 2L), items);
+		}
+
+		@Test
+		public void testPrefetchIsBounded() throws Exception {
+
+			ScanIterator<String> iter = getScanIterator(ScanCursor.start(Arrays.asList(1L, 2L, 3L)), 2, 1, -1);
+
+			Assert.assertTrue(iter.hasNext());
+			Thread.sleep(100);
+			// one page being consumed, 2 buffered and 1 in flight at most
+			Assert.assertTrue("fetches: " + fetches.get(), fetches.get() <= 4);
+
+			int count = 0;
+			while (iter.hasNext()) {
+				iter.next();
+				count++;
+			}
+			Assert.assertEquals(3*5*2, count);
+		}
+
+		@Test
+		public void testCursorString() throws Exception {
+
+			ScanCursor cursor = ScanCursor.fromString("-10:0,20:123");
+			Assert.assertEquals(2, cursor.getCursors().size());
+			Assert.assertEquals("0", cursor.getCursors().get(-10L));
+			Assert.assertEquals("123", cursor.getCursors().get(20L));
+			Assert.assertEquals("-10:0,20:123", cursor.toString());
+			Assert.assertEquals(cursor, ScanCursor.fromString(cursor.toString()));
+
+			Assert.assertNull(ScanCursor.fromString("0"));
+			try {
+				ScanCursor.fromString("abc:1");
+				Assert.fail("Expected DynoException");
+			} catch (DynoException e) {
+			}
+		}
+
+		// every stream has 5 pages of 2 items each, the cursor is the index of the next page
+		private ScanIterator<String> getScanIterator(ScanCursor cursor, int prefetch, int parallelism, final int failOnFetch) {
+
+			return new ScanIterator<String>(new PageFetcher<String>() {
+
+				@Override
+				public ScanPage<String> fetch(Long stream, String cursor) throws DynoException {
+
+					if (fetches.incrementAndGet() == failOnFetch) {
+						throw new DynoException("failed fetch");
+					}
+					int page = Integer.parseInt(cursor);
+					String next = (page == 4) ? "0" : String.valueOf(page+1);
+					return new ScanPage<String>(next, Arrays.asList(stream + "-" + (2*page), stream + "-" + (2*page+1)));
+				}
+			}, executor, cursor, prefetch, parallelism);
+		}
+
+		private List<String> getAllItems(Long ... streams) {
+			List<String> items = new ArrayList<String>();
+			for (Long stream : streams) {
+				for (int i=0; i<10; i++) {
+					items.add(stream + "-" + i);
+				}
+			}
+			return items;
+		}
+	}
+}
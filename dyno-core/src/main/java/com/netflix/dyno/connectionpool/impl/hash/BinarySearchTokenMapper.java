@@ -15,13 +15,12 @@
  ******************************************************************************/
 package com.netflix.dyno.connectionpool.impl.hash;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -36,6 +35,9 @@ import com.netflix.dyno.connectionpool.impl.lb.HostToken;
  * Impl of {@link HashPartitioner} that can be used to keys to the dynomite topology ring using the binary search mechanism. 
  * Note that the class only performs the function of binary search to locate a hash token on the dynomite topology ring. 
  * The hash token to be generated from the key is generated using the HashPartitioner provided to this class. 
+ * 
+ * Lookups go against an immutable {@link TokenRing} which is rebuilt and swapped in whenever a token is added or removed, 
+ * so the lookup path itself does not box or allocate. 
  *  
  * @author poberai
  *
@@ -43,12 +45,23 @@ import com.netflix.dyno.connectionpool.impl.lb.HostToken;
 public class BinarySearchTokenMapper implements HashPartitioner {
 
 	private final HashPartitioner partitioner; 
+	private final boolean useIndex;
 	
-	private final AtomicReference<DynoBinarySearch<Long>> binarySearch = new AtomicReference<DynoBinarySearch<Long>>(null); 
+	private volatile TokenRing tokenRing = TokenRing.EMPTY; 
+	// source of truth for the ring, only used when the topology changes
 	private final ConcurrentHashMap<Long, HostToken> tokenMap = new ConcurrentHashMap<Long, HostToken>(); 
 	
 	public BinarySearchTokenMapper(HashPartitioner p) {
+		this(p, true);
+	}
+	
+	/**
+	 * @param p
+	 * @param useIndex whether to build the prefix index for the token ring, see {@link TokenRing}
+	 */
+	public BinarySearchTokenMapper(HashPartitioner p, boolean useIndex) {
 		this.partitioner = p;
+		this.useIndex = useIndex;
 	}
 	
 	@Override
@@ -66,36 +79,55 @@ public class BinarySearchTokenMapper implements HashPartitioner {
 		return partitioner.hash(key);
 	}
 
+	@Override
+	public long hashKey(CharSequence key) {
+		return partitioner.hashKey(key);
+	}
+
+	@Override
+	public long hashKey(byte[] key, int offset, int length) {
+		return partitioner.hashKey(key, offset, length);
+	}
+
+	@Override
+	public long hashKey(ByteBuffer key) {
+		return partitioner.hashKey(key);
+	}
+
 	@Override
 	public HostToken getToken(Long keyHash) {
-		Long token = binarySearch.get().getTokenOwner(keyHash);
+		return getToken(keyHash.longValue());
+	}
+
+	public HostToken getToken(long keyHash) {
+		HostToken token = tokenRing.getTokenOwner(keyHash);
 		if (token == null) {
 			throw new NoAvailableHostsException("Token not found for key hash: " + keyHash);
 		}
-		return tokenMap.get(token);
+		return token;
 	}
 
-	public void initSearchMecahnism(Collection<HostToken> hostTokens) {
+	public synchronized void initSearchMecahnism(Collection<HostToken> hostTokens) {
 
 		for (HostToken hostToken : hostTokens) {
 			tokenMap.put(hostToken.getToken(), hostToken);
 		}
-		initBinarySearch();
+		initTokenRing();
 	}
 	
-	public void addHostToken(HostToken hostToken) {
+	public synchronized void addHostToken(HostToken hostToken) {
 
 		HostToken prevToken = tokenMap.putIfAbsent(hostToken.getToken(), hostToken);
 		if (prevToken == null) {
-			initBinarySearch();
+			initTokenRing();
 		}
 	}
 	
-	public void remoteHostToken(HostToken hostToken) {
+	public synchronized void remoteHostToken(HostToken hostToken) {
 
 		HostToken prevToken = tokenMap.remove(hostToken.getToken());
 		if (prevToken != null) {
-			initBinarySearch();
+			initTokenRing();
 		}
 	}
 	
@@ -115,10 +147,12 @@ public class BinarySearchTokenMapper implements HashPartitioner {
 		}
 	}
 
-	private void initBinarySearch() {
-		List<Long> tokens = new ArrayList<Long>(tokenMap.keySet());
-		Collections.sort(tokens);
-		binarySearch.set(new DynoBinarySearch<Long>(tokens));
+	private void initTokenRing() {
+		tokenRing = new TokenRing(tokenMap.values(), useIndex);
+	}
+
+	public TokenRing getTokenRing() {
+		return tokenRing;
 	}
 
 	public boolean isEmpty() {
@@ -126,7 +160,7 @@ public class BinarySearchTokenMapper implements HashPartitioner {
 	}
 	
 	public String toString() {
-		return binarySearch.toString();
+		return tokenRing.toString();
 	}
 	
 	public static class UniTest {
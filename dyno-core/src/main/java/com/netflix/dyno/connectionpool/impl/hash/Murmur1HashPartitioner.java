@@ -51,6 +51,24 @@ public class Murmur1HashPartitioner implements HashPartitioner {
         return UnsignedIntsUtils.toLong(Murmur1Hash.hash(b, b.length));
 	}
 
+	@Override
+	public long hashKey(CharSequence key) {
+		if (key == null) {
+			return 0L;
+		}
+		return UnsignedIntsUtils.toLong(StreamingMurmurHash.MURMUR1.hash(key));
+	}
+
+	@Override
+	public long hashKey(byte[] key, int offset, int length) {
+		return UnsignedIntsUtils.toLong(StreamingMurmurHash.MURMUR1.hash(key, offset, length));
+	}
+
+	@Override
+	public long hashKey(ByteBuffer key) {
+		return UnsignedIntsUtils.toLong(StreamingMurmurHash.MURMUR1.hash(key));
+	}
+
 	@Override
 	public HostToken getToken(Long keyHash) {
 		throw new RuntimeException("NotImplemented");
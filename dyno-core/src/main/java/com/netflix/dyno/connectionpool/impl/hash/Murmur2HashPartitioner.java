@@ -48,6 +48,24 @@ public class Murmur2HashPartitioner implements HashPartitioner {
 		return  UnsignedIntsUtils.toLong(Murmur2Hash.hash32(b, b.length));
 	}
 
+	@Override
+	public long hashKey(CharSequence key) {
+		if (key == null) {
+			return 0L;
+		}
+		return UnsignedIntsUtils.toLong(StreamingMurmurHash.MURMUR2.hash(key));
+	}
+
+	@Override
+	public long hashKey(byte[] key, int offset, int length) {
+		return UnsignedIntsUtils.toLong(StreamingMurmurHash.MURMUR2.hash(key, offset, length));
+	}
+
+	@Override
+	public long hashKey(ByteBuffer key) {
+		return UnsignedIntsUtils.toLong(StreamingMurmurHash.MURMUR2.hash(key));
+	}
+
 	@Override
 	public HostToken getToken(Long keyHash) {
 		throw new RuntimeException("NotImplemented");
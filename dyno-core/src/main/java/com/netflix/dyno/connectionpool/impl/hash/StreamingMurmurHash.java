@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Allocation free versions of the 32 bit murmur hashes used by the {@link Murmur1HashPartitioner}, 
+ * {@link Murmur2HashPartitioner} and {@link Murmur3HashPartitioner}. 
+ * 
+ * All 3 hashes consume their input as little endian 4 byte words followed by a tail of up to 3 bytes. This class walks 
+ * the input one word at a time straight out of a {@link CharSequence} (encoding UTF-8 on the fly), a byte[] slice or a 
+ * {@link ByteBuffer}, so that no intermediate byte[] or ByteBuffer is created. The hashes are bit for bit the same as 
+ * {@link Murmur1Hash#hash(byte[], int)}, {@link Murmur2Hash#hash32(byte[], int)} and {@link Murmur3Hash#hash32(byte[], int)} 
+ * over the UTF-8 bytes of the key, including the '?' that String.getBytes() substitutes for unpaired surrogates.
+ * 
+ * @author poberai
+ */
+public abstract class StreamingMurmurHash {
+
+	public static final StreamingMurmurHash MURMUR1 = new Murmur2Mix() {
+		@Override
+		int init(int length) {
+			return (0xdeadbeef * length) ^ length;
+		}
+	};
+
+	public static final StreamingMurmurHash MURMUR2 = new Murmur2Mix() {
+		@Override
+		int init(int length) {
+			return 0x9747b28c ^ length;
+		}
+	};
+
+	public static final StreamingMurmurHash MURMUR3 = new Murmur3Mix();
+
+	/**
+	 * @param length number of bytes that will be hashed
+	 * @return initial hash state
+	 */
+	abstract int init(int length);
+
+	/**
+	 * Mix one full little endian word into the hash
+	 */
+	abstract int mix(int h, int word);
+
+	/**
+	 * Mix the last 1-3 bytes into the hash
+	 */
+	abstract int tail(int h, int word);
+
+	abstract int finish(int h, int length);
+
+	/**
+	 * Hash the UTF-8 encoding of the chars
+	 * @param key
+	 * @return 32 bit hash
+	 */
+	public int hash(CharSequence key) {
+
+		int numChars = key.length();
+		int length = utf8Length(key);
+		int h = init(length);
+
+		int word = 0;
+		int filled = 0;
+
+		for (int i=0; i<numChars; i++) {
+
+			char c = key.charAt(i);
+			int bytes;
+			int count;
+
+			if (c < 0x80) {
+				bytes = c;
+				count = 1;
+			} else if (c < 0x800) {
+				bytes = (0xc0 | (c >> 6)) | ((0x80 | (c & 0x3f)) << 8);
+				count = 2;
+			} else if (isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < numChars && Character.isLowSurrogate(key.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, key.charAt(++i));
+					bytes = (0xf0 | (cp >> 18)) | ((0x80 | ((cp >> 12) & 0x3f)) << 8) 
+							| ((0x80 | ((cp >> 6) & 0x3f)) << 16) | ((0x80 | (cp & 0x3f)) << 24);
+					count = 4;
+				} else {
+					// unpaired surrogate, same replacement as the UTF-8 encoder
+					bytes = '?';
+					count = 1;
+				}
+			} else {
+				bytes = (0xe0 | (c >> 12)) | ((0x80 | ((c >> 6) & 0x3f)) << 8) | ((0x80 | (c & 0x3f)) << 16);
+				count = 3;
+			}
+
+			for (int j=0; j<count; j++) {
+				word |= ((bytes >>> (j << 3)) & 0xff) << (filled << 3);
+				if (++filled == 4) {
+					h = mix(h, word);
+					word = 0;
+					filled = 0;
+				}
+			}
+		}
+
+		if (filled > 0) {
+			h = tail(h, word);
+		}
+		return finish(h, length);
+	}
+
+	/**
+	 * Hash a slice of a byte[]
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return 32 bit hash
+	 */
+	public int hash(byte[] data, int offset, int length) {
+
+		int h = init(length);
+		int end = offset + (length & ~3);
+
+		for (int i=offset; i<end; i+=4) {
+			int word = (data[i] & 0xff) | ((data[i+1] & 0xff) << 8) | ((data[i+2] & 0xff) << 16) | ((data[i+3] & 0xff) << 24);
+			h = mix(h, word);
+		}
+
+		int remaining = length & 3;
+		if (remaining > 0) {
+			int word = 0;
+			for (int j=0; j<remaining; j++) {
+				word |= (data[end + j] & 0xff) << (j << 3);
+			}
+			h = tail(h, word);
+		}
+		return finish(h, length);
+	}
+
+	/**
+	 * Hash the bytes between the buffer's position and limit. The buffer's position and byte order are not changed. 
+	 * @param buffer
+	 * @return 32 bit hash
+	 */
+	public int hash(ByteBuffer buffer) {
+
+		if (buffer.hasArray()) {
+			return hash(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		}
+
+		int start = buffer.position();
+		int length = buffer.remaining();
+		int h = init(length);
+		int end = start + (length & ~3);
+
+		for (int i=start; i<end; i+=4) {
+			int word = (buffer.get(i) & 0xff) | ((buffer.get(i+1) & 0xff) << 8) | ((buffer.get(i+2) & 0xff) << 16) | ((buffer.get(i+3) & 0xff) << 24);
+			h = mix(h, word);
+		}
+
+		int remaining = length & 3;
+		if (remaining > 0) {
+			int word = 0;
+			for (int j=0; j<remaining; j++) {
+				word |= (buffer.get(end + j) & 0xff) << (j << 3);
+			}
+			h = tail(h, word);
+		}
+		return finish(h, length);
+	}
+
+	/**
+	 * @param key
+	 * @return the number of bytes in the UTF-8 encoding of the chars
+	 */
+	public static int utf8Length(CharSequence key) {
+
+		int numChars = key.length();
+		int length = numChars;
+
+		for (int i=0; i<numChars; i++) {
+			char c = key.charAt(i);
+			if (c < 0x80) {
+				continue;
+			} else if (c < 0x800) {
+				length += 1;
+			} else if (isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < numChars && Character.isLowSurrogate(key.charAt(i + 1))) {
+					// 2 chars -> 4 bytes
+					length += 2;
+					i++;
+				}
+				// else unpaired surrogate -> '?'
+			} else {
+				length += 2;
+			}
+		}
+		return length;
+	}
+
+	private static boolean isSurrogate(char c) {
+		return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+	}
+
+	/**
+	 * Shared by murmur1 and murmur2, they only differ in the seed
+	 */
+	private static abstract class Murmur2Mix extends StreamingMurmurHash {
+
+		private static final int M = 0x5bd1e995;
+		private static final int R = 24;
+
+		@Override
+		int mix(int h, int k) {
+			k *= M;
+			k ^= k >>> R;
+			k *= M;
+			h *= M;
+			return h ^ k;
+		}
+
+		@Override
+		int tail(int h, int word) {
+			h ^= word;
+			return h * M;
+		}
+
+		@Override
+		int finish(int h, int length) {
+			h ^= h >>> 13;
+			h *= M;
+			return h ^ (h >>> 15);
+		}
+	}
+
+	private static class Murmur3Mix extends StreamingMurmurHash {
+
+		private static final int C1 = 0xcc9e2d51;
+		private static final int C2 = 0x1b873593;
+
+		@Override
+		int init(int length) {
+			return 0;
+		}
+
+		@Override
+		int mix(int h1, int k1) {
+			h1 ^= mixK1(k1);
+			h1 = (h1 << 13) | (h1 >>> 19);
+			return h1 * 5 + 0xe6546b64;
+		}
+
+		@Override
+		int tail(int h1, int k1) {
+			return h1 ^ mixK1(k1);
+		}
+
+		@Override
+		int finish(int h1, int length) {
+			h1 ^= length;
+			h1 ^= h1 >>> 16;
+			h1 *= 0x85ebca6b;
+			h1 ^= h1 >>> 13;
+			h1 *= 0xc2b2ae35;
+			return h1 ^ (h1 >>> 16);
+		}
+
+		private int mixK1(int k1) {
+			k1 *= C1;
+			k1 = (k1 << 15) | (k1 >>> 17);
+			return k1 * C2;
+		}
+	}
+
+	public static class UnitTest {
+
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+
+		@Test
+		public void testSameHashAsByteArrayImpls() throws Exception {
+
+			for (String key : getTestKeys()) {
+
+				byte[] bytes = key.getBytes(UTF8);
+				Assert.assertEquals("Key: " + key, bytes.length, utf8Length(key));
+
+				Assert.assertEquals("Key: " + key, Murmur1Hash.hash(bytes, bytes.length), MURMUR1.hash(key));
+				Assert.assertEquals("Key: " + key, Murmur2Hash.hash32(bytes, bytes.length), MURMUR2.hash(key));
+				Assert.assertEquals("Key: " + key, Murmur3Hash.hash32(bytes, bytes.length), MURMUR3.hash(key));
+
+				// same key in a larger array and in a direct buffer
+				byte[] padded = new byte[bytes.length + 5];
+				System.arraycopy(bytes, 0, padded, 3, bytes.length);
+				ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 2);
+				direct.put((byte) 7).put(bytes).put((byte) 9);
+				direct.position(1).limit(1 + bytes.length);
+
+				for (StreamingMurmurHash hash : new StreamingMurmurHash[] { MURMUR1, MURMUR2, MURMUR3 }) {
+					int expected = hash.hash(key);
+					Assert.assertEquals("Key: " + key, expected, hash.hash(padded, 3, bytes.length));
+					Assert.assertEquals("Key: " + key, expected, hash.hash(ByteBuffer.wrap(padded, 3, bytes.length)));
+					Assert.assertEquals("Key: " + key, expected, hash.hash(ByteBuffer.wrap(padded, 3, bytes.length).slice()));
+					Assert.assertEquals("Key: " + key, expected, hash.hash(direct));
+					Assert.assertEquals(1, direct.position());
+				}
+			}
+		}
+
+		private List<String> getTestKeys() {
+
+			List<String> keys = new ArrayList<String>();
+			keys.add("");
+			keys.add("a");
+			keys.add("ab");
+			keys.add("abc");
+			keys.add("abcd");
+			keys.add("abcde");
+			keys.add("\u00e9t\u00e9");
+			keys.add("\u65e5\u672c\u8a9e\u306e\u30ad\u30fc");
+			keys.add("emoji \ud83d\ude00 key");
+			keys.add("unpaired \ud83d high");
+			keys.add("unpaired \ude00 low");
+			keys.add("ends with high \ud83d");
+			for (int i=0; i<10000; i++) {
+				keys.add("" + i);
+				keys.add("key_" + i + "_\u00fc" + (char) (i + 0x100));
+			}
+			return keys;
+		}
+	}
+}
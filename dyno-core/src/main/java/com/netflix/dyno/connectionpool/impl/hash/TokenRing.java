@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.hash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.Host.Status;
+import com.netflix.dyno.connectionpool.impl.lb.HostToken;
+
+/**
+ * Immutable snapshot of the dynomite token ring used to map a key hash to its owner. 
+ * 
+ * The tokens are kept in a sorted long[] with a parallel HostToken[], so that a lookup is a plain binary search over 
+ * primitives with no boxing and no allocation. The owner of a hash is the first token that is >= the hash, and hashes 
+ * past the last token wrap around to the first token, same as {@link DynoBinarySearch}. 
+ * 
+ * The ring can optionally be built with a prefix index. The 32 bit hash space is split into buckets by the top bits of 
+ * the hash and each bucket records the first token position that can own a hash in that bucket. A lookup then only 
+ * needs to search the handful of tokens in its bucket, which is near O(1) for large rings. 
+ * 
+ * Topology changes build a new ring which is then swapped in atomically by the owner, see {@link BinarySearchTokenMapper}
+ * 
+ * @author poberai
+ */
+public class TokenRing {
+
+	private static final int HASH_BITS = 32;
+	private static final long MAX_HASH = (1L << HASH_BITS) - 1;
+	private static final int MAX_INDEX_BITS = 16;
+
+	public static final TokenRing EMPTY = new TokenRing(new ArrayList<HostToken>(), false);
+
+	private final long[] tokens;
+	private final HostToken[] hostTokens;
+
+	// bucketStart[b] is the position of the first token >= (b << indexShift), there is one extra slot at the end
+	private final int[] bucketStart;
+	private final int indexShift;
+
+	public TokenRing(Collection<HostToken> tokenCollection, boolean buildIndex) {
+
+		List<HostToken> sorted = new ArrayList<HostToken>(tokenCollection);
+		Collections.sort(sorted, new Comparator<HostToken>() {
+			@Override
+			public int compare(HostToken o1, HostToken o2) {
+				return o1.getToken().compareTo(o2.getToken());
+			}
+		});
+
+		int size = sorted.size();
+		tokens = new long[size];
+		hostTokens = new HostToken[size];
+		for (int i=0; i<size; i++) {
+			tokens[i] = sorted.get(i).getToken();
+			hostTokens[i] = sorted.get(i);
+		}
+
+		if (buildIndex && size > 1 && tokens[0] >= 0 && tokens[size-1] <= MAX_HASH) {
+			// roughly 2 buckets per token
+			int indexBits = Math.min(MAX_INDEX_BITS, HASH_BITS - Integer.numberOfLeadingZeros(size * 2 - 1));
+			indexShift = HASH_BITS - indexBits;
+			int numBuckets = 1 << indexBits;
+			bucketStart = new int[numBuckets + 1];
+			int pos = 0;
+			for (int b=0; b<numBuckets; b++) {
+				long bucketFloor = ((long) b) << indexShift;
+				while (pos < size && tokens[pos] < bucketFloor) {
+					pos++;
+				}
+				bucketStart[b] = pos;
+			}
+			bucketStart[numBuckets] = size;
+		} else {
+			bucketStart = null;
+			indexShift = 0;
+		}
+	}
+
+	/**
+	 * @param hash
+	 * @return the owner of the hash, or null if the ring is empty
+	 */
+	public HostToken getTokenOwner(long hash) {
+		int pos = getOwnerPosition(hash);
+		return (pos < 0) ? null : hostTokens[pos];
+	}
+
+	/**
+	 * @param hash
+	 * @return position of the owner of the hash in the ring, or -1 if the ring is empty
+	 */
+	public int getOwnerPosition(long hash) {
+
+		int size = tokens.length;
+		if (size == 0) {
+			return -1;
+		}
+
+		int low = 0;
+		int high = size - 1;
+
+		if (bucketStart != null && hash >= 0 && hash <= MAX_HASH) {
+			int bucket = (int) (hash >>> indexShift);
+			low = bucketStart[bucket];
+			// the owner is at most the first token of the next bucket
+			high = Math.min(bucketStart[bucket + 1], size - 1);
+		}
+
+		// find the first token >= hash in [low, high]
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (tokens[mid] < hash) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		// past the last token, wrap around to the first one
+		return (low >= size) ? 0 : low;
+	}
+
+	public HostToken getHostToken(int position) {
+		return hostTokens[position];
+	}
+
+	public long getToken(int position) {
+		return tokens[position];
+	}
+
+	public int size() {
+		return tokens.length;
+	}
+
+	public boolean isEmpty() {
+		return tokens.length == 0;
+	}
+
+	public boolean isIndexed() {
+		return bucketStart != null;
+	}
+
+	public String toString() {
+		return "TokenRing: " + Arrays.toString(tokens) + (isIndexed() ? ", indexed" : "");
+	}
+
+	public static class UnitTest {
+
+		@Test
+		public void testTokenOwner() throws Exception {
+
+			List<HostToken> list = new ArrayList<HostToken>();
+			for (long token=100; token>=10; token-=10) {
+				list.add(new HostToken(token, new Host("h" + token, Status.Up)));
+			}
+
+			for (boolean indexed : new boolean[] {false, true}) {
+				TokenRing ring = new TokenRing(list, indexed);
+				Assert.assertEquals(indexed, ring.isIndexed());
+
+				for (long i=0; i<=133; i++) {
+					Assert.assertEquals("Hash: " + i, getExpectedToken(i), ring.getTokenOwner(i).getToken().longValue());
+				}
+				Assert.assertEquals(10L, ring.getTokenOwner(Long.MAX_VALUE).getToken().longValue());
+				Assert.assertEquals(10L, ring.getTokenOwner(-1L).getToken().longValue());
+			}
+		}
+
+		@Test
+		public void testIndexedRingMatchesBinarySearch() throws Exception {
+
+			List<Long> tokenList = new ArrayList<Long>();
+			List<HostToken> hostTokens = new ArrayList<HostToken>();
+			long step = MAX_HASH / 600;
+			for (int i=0; i<600; i++) {
+				// uneven spacing so that some buckets are empty and some hold several tokens
+				long token = i * step + (i % 7) * (step / 8);
+				tokenList.add(token);
+				hostTokens.add(new HostToken(token, new Host("h" + i, Status.Up)));
+			}
+
+			DynoBinarySearch<Long> search = new DynoBinarySearch<Long>(tokenList);
+			TokenRing ring = new TokenRing(hostTokens, true);
+
+			Murmur1HashPartitioner partitioner = new Murmur1HashPartitioner();
+			for (int i=0; i<100000; i++) {
+				long hash = partitioner.hash("key" + i);
+				Assert.assertEquals(search.getTokenOwner(hash).longValue(), ring.getTokenOwner(hash).getToken().longValue());
+			}
+
+			for (Long token : tokenList) {
+				Assert.assertEquals(token.longValue(), ring.getTokenOwner(token).getToken().longValue());
+				Assert.assertEquals(search.getTokenOwner(token + 1).longValue(), ring.getTokenOwner(token + 1).getToken().longValue());
+			}
+			Assert.assertEquals(tokenList.get(0).longValue(), ring.getTokenOwner(MAX_HASH).getToken().longValue());
+		}
+
+		@Test
+		public void testEmptyAndSingleTokenRing() throws Exception {
+
+			Assert.assertNull(EMPTY.getTokenOwner(42L));
+
+			HostToken h1 = new HostToken(1000L, new Host("h1", Status.Up));
+			TokenRing ring = new TokenRing(Collections.singletonList(h1), true);
+			Assert.assertEquals(h1, ring.getTokenOwner(0L));
+			Assert.assertEquals(h1, ring.getTokenOwner(1000L));
+			Assert.assertEquals(h1, ring.getTokenOwner(5000L));
+		}
+
+		private long getExpectedToken(long key) {
+			if (key < 10 || key > 100) {
+				return 10;
+			}
+			if (key % 10 == 0) {
+				return key;
+			}
+			return key + (10 - key%10);
+		}
+	}
+}
@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.health;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.ConnectionPoolMonitor;
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.impl.CountingConnectionPoolMonitor;
+
+/**
+ * Per host circuit breaker, so that requests stop paying a full socket timeout on a host that is failing well before 
+ * the {@link ErrorMonitor} gets the host pool recycled. 
+ * 
+ * <ol>
+ * <li> CLOSED: requests go through. A number of consecutive failures, where a timeout or a response slower than the 
+ * latency threshold also counts as a failure, opens the breaker. </li>
+ * <li> OPEN: requests are refused, so that the caller falls back to another host, until the open period is over. </li>
+ * <li> HALF_OPEN: a few probe requests go through. The breaker closes once they all succeed and opens again on the 
+ * first failure. Probes that never report back are re-issued after another open period. </li>
+ * </ol>
+ * 
+ * Requests through a closed breaker only read a volatile, the transitions are synchronized. 
+ * 
+ * @author poberai
+ *
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN;
+	}
+	
+	private final Host host; 
+	private final ConnectionPoolMonitor monitor; 
+	
+	private final int failureThreshold; 
+	private final long latencyThresholdMicros; 
+	private final long openMillis; 
+	private final int probes; 
+	
+	private volatile State state = State.CLOSED;
+	private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+	
+	// guarded by this
+	private long stateChangedAt = 0L;
+	private int probesIssued = 0;
+	private int probesSucceeded = 0;
+	
+	/**
+	 * @param host
+	 * @param monitor notified of the state transitions
+	 * @param failureThreshold consecutive failures that open the breaker
+	 * @param latencyThresholdMillis responses slower than this count as failures, 0 means latency is not considered
+	 * @param openMillis how long the breaker stays open before letting probes through
+	 * @param probes requests that must succeed in a row for the breaker to close again
+	 */
+	public CircuitBreaker(Host host, ConnectionPoolMonitor monitor, int failureThreshold, int latencyThresholdMillis, int openMillis, int probes) {
+		this.host = host;
+		this.monitor = monitor;
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.latencyThresholdMicros = latencyThresholdMillis * 1000L;
+		this.openMillis = openMillis;
+		this.probes = Math.max(1, probes);
+	}
+	
+	/**
+	 * @return true if a request may be sent to the host. In the half open state this issues one of the probes
+	 */
+	public boolean allowRequest() {
+		if (state == State.CLOSED) {
+			return true;
+		}
+		return allowWhenNotClosed();
+	}
+	
+	/**
+	 * Same check as {@link #allowRequest()} without issuing a probe, for filtering the hosts that a request could go to. 
+	 * Only the host that the request is actually sent to should call {@link #allowRequest()}
+	 * @return true if a request to the host would be refused
+	 */
+	public boolean isOpen() {
+		if (state == State.CLOSED) {
+			return false;
+		}
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			switch (state) {
+			case CLOSED:
+				return false;
+			case OPEN:
+				return now - stateChangedAt < openMillis;
+			case HALF_OPEN:
+				return probesIssued >= probes && now - stateChangedAt < openMillis;
+			default:
+				return true;
+			}
+		}
+	}
+	
+	private synchronized boolean allowWhenNotClosed() {
+		
+		long now = System.currentTimeMillis();
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (now - stateChangedAt < openMillis) {
+				return false;
+			}
+			transition(State.HALF_OPEN, now);
+			probesIssued = 1;
+			return true;
+		case HALF_OPEN:
+			if (probesIssued >= probes && now - stateChangedAt >= openMillis) {
+				// the probes got lost, e.g the host was picked but the request went elsewhere
+				stateChangedAt = now;
+				probesIssued = probesSucceeded;
+			}
+			if (probesIssued < probes) {
+				probesIssued++;
+				return true;
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * @param latencyMicros
+	 */
+	public void onSuccess(long latencyMicros) {
+		
+		if (latencyThresholdMicros > 0 && latencyMicros > latencyThresholdMicros) {
+			onFailure();
+			return;
+		}
+		
+		if (state == State.CLOSED) {
+			if (consecutiveFailures.get() != 0) {
+				consecutiveFailures.set(0);
+			}
+			return;
+		}
+		
+		synchronized (this) {
+			if (state == State.HALF_OPEN && ++probesSucceeded >= probes) {
+				consecutiveFailures.set(0);
+				transition(State.CLOSED, System.currentTimeMillis());
+			}
+		}
+	}
+	
+	public void onFailure() {
+		
+		if (state == State.CLOSED && consecutiveFailures.incrementAndGet() < failureThreshold) {
+			return;
+		}
+		
+		synchronized (this) {
+			if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures.get() >= failureThreshold)) {
+				transition(State.OPEN, System.currentTimeMillis());
+			}
+		}
+	}
+	
+	public State getState() {
+		return state;
+	}
+	
+	private void transition(State newState, long now) {
+		State oldState = state;
+		state = newState;
+		stateChangedAt = now;
+		probesIssued = 0;
+		probesSucceeded = 0;
+		if (monitor != null) {
+			monitor.circuitBreakerStateChanged(host, oldState, newState);
+		}
+	}
+	
+	public String toString() {
+		return "CircuitBreaker [host=" + host + ", state=" + state + ", consecutiveFailures=" + consecutiveFailures.get() + "]";
+	}
+	
+	public static class UnitTest {
+		
+		private final Host host = new Host("host1", 8080);
+		
+		@Test
+		public void testOpensOnConsecutiveFailures() throws Exception {
+			
+			CountingConnectionPoolMonitor monitor = new CountingConnectionPoolMonitor();
+			CircuitBreaker breaker = new CircuitBreaker(host, monitor, 3, 0, 10000, 1);
+			
+			breaker.onFailure();
+			breaker.onFailure();
+			breaker.onSuccess(100);
+			breaker.onFailure();
+			breaker.onFailure();
+			Assert.assertEquals(State.CLOSED, breaker.getState());
+			Assert.assertTrue(breaker.allowRequest());
+			
+			breaker.onFailure();
+			Assert.assertEquals(State.OPEN, breaker.getState());
+			Assert.assertFalse(breaker.allowRequest());
+			Assert.assertEquals(1, monitor.getCircuitBreakerOpenCount());
+			Assert.assertEquals(State.OPEN, monitor.getHostStats().get(host).getCircuitBreakerState());
+		}
+		
+		@Test
+		public void testSlowResponsesCountAsFailures() throws Exception {
+			
+			CircuitBreaker breaker = new CircuitBreaker(host, null, 2, 50, 10000, 1);
+			breaker.onSuccess(49000);
+			breaker.onSuccess(51000);
+			Assert.assertEquals(State.CLOSED, breaker.getState());
+			breaker.onSuccess(51000);
+			Assert.assertEquals(State.OPEN, breaker.getState());
+		}
+		
+		@Test
+		public void testHalfOpenProbes() throws Exception {
+			
+			CircuitBreaker breaker = new CircuitBreaker(host, null, 1, 0, 50, 2);
+			breaker.onFailure();
+			Assert.assertFalse(breaker.allowRequest());
+			
+			Thread.sleep(60);
+			
+			// only the probes go through
+			Assert.assertTrue(breaker.allowRequest());
+			Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+			Assert.assertTrue(breaker.allowRequest());
+			Assert.assertFalse(breaker.allowRequest());
+			
+			breaker.onSuccess(100);
+			Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+			breaker.onSuccess(100);
+			Assert.assertEquals(State.CLOSED, breaker.getState());
+			Assert.assertTrue(breaker.allowRequest());
+		}
+		
+		@Test
+		public void testFailedProbeReopens() throws Exception {
+			
+			CircuitBreaker breaker = new CircuitBreaker(host, null, 1, 0, 50, 2);
+			breaker.onFailure();
+			Thread.sleep(60);
+			
+			Assert.assertTrue(breaker.allowRequest());
+			breaker.onFailure();
+			Assert.assertEquals(State.OPEN, breaker.getState());
+			Assert.assertFalse(breaker.allowRequest());
+		}
+		
+		@Test
+		public void testLostProbesAreReissued() throws Exception {
+			
+			CircuitBreaker breaker = new CircuitBreaker(host, null, 1, 0, 50, 1);
+			breaker.onFailure();
+			Thread.sleep(60);
+			
+			Assert.assertTrue(breaker.allowRequest());
+			Assert.assertFalse(breaker.allowRequest());
+			
+			// the probe never reports back
+			Thread.sleep(60);
+			Assert.assertTrue(breaker.allowRequest());
+		}
+		
+		@Test
+		public void testIsOpenDoesNotIssueProbes() throws Exception {
+			
+			CircuitBreaker breaker = new CircuitBreaker(host, null, 1, 0, 50, 1);
+			Assert.assertFalse(breaker.isOpen());
+			breaker.onFailure();
+			Assert.assertTrue(breaker.isOpen());
+			Thread.sleep(60);
+			
+			// checking the host over and over leaves the probe for the request that is actually sent
+			for (int i=0; i<5; i++) {
+				Assert.assertFalse(breaker.isOpen());
+			}
+			Assert.assertEquals(State.OPEN, breaker.getState());
+			Assert.assertTrue(breaker.allowRequest());
+			Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+			Assert.assertTrue(breaker.isOpen());
+			Assert.assertFalse(breaker.allowRequest());
+		}
+	}
+}
@@ -42,6 +42,7 @@ import org.slf4j.LoggerFactory;
 
 import com.netflix.dyno.connectionpool.Connection;
 import com.netflix.dyno.connectionpool.ConnectionPoolConfiguration;
+import com.netflix.dyno.connectionpool.ConnectionPoolMonitor;
 import com.netflix.dyno.connectionpool.Host;
 import com.netflix.dyno.connectionpool.Host.Status;
 import com.netflix.dyno.connectionpool.HostConnectionPool;
@@ -76,6 +77,9 @@ public class ConnectionPoolHealthTracker<CL> {
 	private final ConcurrentHashMap<Host, ErrorMonitor> errorRates = new ConcurrentHashMap<Host, ErrorMonitor>();
 	private final ConcurrentHashMap<Host, HostConnectionPool<CL>> reconnectingPools = new ConcurrentHashMap<Host, HostConnectionPool<CL>>();
 	private final ConcurrentHashMap<Host, HostConnectionPool<CL>> pingingPools = new ConcurrentHashMap<Host, HostConnectionPool<CL>>();
+	private final ConcurrentHashMap<Host, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<Host, CircuitBreaker>();
+	private final ConnectionPoolMonitor cpMonitor;
+	private final OutlierDetector outlierDetector;
 
 	private final AtomicBoolean startedPing = new AtomicBoolean(false);
 	
@@ -85,18 +89,30 @@ public class ConnectionPoolHealthTracker<CL> {
 	private final Integer PoolReconnectWaitMillis; 
 	
 	public ConnectionPoolHealthTracker(ConnectionPoolConfiguration config, ScheduledExecutorService thPool) {
-		this(config, thPool, DEFAULT_SLEEP_MILLIS, DEFAULT_POOL_RECONNECT_WAIT_MILLIS);
+		this(config, thPool, null);
+	}
+		
+	public ConnectionPoolHealthTracker(ConnectionPoolConfiguration config, ScheduledExecutorService thPool, ConnectionPoolMonitor monitor) {
+		this(config, thPool, monitor, DEFAULT_SLEEP_MILLIS, DEFAULT_POOL_RECONNECT_WAIT_MILLIS);
 	}
 		
 	public ConnectionPoolHealthTracker(ConnectionPoolConfiguration config, ScheduledExecutorService thPool, int sleepMillis, int poolReconnectWaitMillis) {
+		this(config, thPool, null, sleepMillis, poolReconnectWaitMillis);
+	}
+		
+	public ConnectionPoolHealthTracker(ConnectionPoolConfiguration config, ScheduledExecutorService thPool, ConnectionPoolMonitor monitor, int sleepMillis, int poolReconnectWaitMillis) {
 		cpConfiguration = config;	
 		threadPool = thPool;
+		cpMonitor = monitor;
+		outlierDetector = new OutlierDetector(config, monitor);
 		SleepMillis = sleepMillis;
 		PoolReconnectWaitMillis = poolReconnectWaitMillis;
 	}
 
 
 	public void removeHost(Host host) {
+		circuitBreakers.remove(host);
+		outlierDetector.removeHost(host);
 		HostConnectionPool<CL> destPool = reconnectingPools.get(host);
 		if (destPool != null) {
 			Logger.info("Health tracker marking host as down " + host);
@@ -155,6 +171,24 @@ public class ConnectionPoolHealthTracker<CL> {
 			}
 			
 		}, 1000, SleepMillis, TimeUnit.MILLISECONDS);
+		
+		int outlierInterval = cpConfiguration.getOutlierDetectionInterval();
+		threadPool.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				
+				if(stop.get() || Thread.currentThread().isInterrupted() || !cpConfiguration.isOutlierDetectionEnabled()) {
+					return;
+				}
+				try {
+					outlierDetector.detectOutliers();
+				} catch (Exception e) {
+					Logger.warn("Failed to detect latency outliers " + e.getMessage());
+				}
+			}
+			
+		}, outlierInterval, outlierInterval, TimeUnit.MILLISECONDS);
 	}
 	
 	public void stop() {
@@ -165,8 +199,97 @@ public class ConnectionPoolHealthTracker<CL> {
 		errorRates.remove(host);
 	}
 	
+	/**
+	 * An operation on the host succeeded
+	 * @param host
+	 * @param latencyMicros
+	 */
+	public void trackSuccess(Host host, long latencyMicros) {
+		
+		clearConnectionError(host);
+		
+		if (cpConfiguration.isOutlierDetectionEnabled()) {
+			outlierDetector.record(host, latencyMicros);
+		}
+		
+		CircuitBreaker breaker = circuitBreakers.get(host);
+		if (breaker == null) {
+			int latencyThreshold = cpConfiguration.getCircuitBreakerLatencyThreshold();
+			if (latencyThreshold <= 0 || latencyMicros <= latencyThreshold * 1000L) {
+				return;
+			}
+			breaker = getCircuitBreaker(host);
+		}
+		if (breaker != null) {
+			breaker.onSuccess(latencyMicros);
+		}
+	}
+	
+	/**
+	 * @param host
+	 * @return true if the host's circuit breaker would refuse a request. Unlike {@link #allowRequest(Host)} this 
+	 * does not use up one of the probes of a half open breaker
+	 */
+	public boolean isCircuitOpen(Host host) {
+		if (cpConfiguration.getCircuitBreakerFailureThreshold() <= 0) {
+			return false;
+		}
+		CircuitBreaker breaker = circuitBreakers.get(host);
+		return breaker != null && breaker.isOpen();
+	}
+	
+	/**
+	 * Call this once for the host that the operation is sent to, see {@link #isCircuitOpen(Host)} for checking hosts 
+	 * that may not be used
+	 * @param host
+	 * @return false if the host's circuit breaker is open, in which case the operation should go to another host
+	 */
+	public boolean allowRequest(Host host) {
+		if (cpConfiguration.getCircuitBreakerFailureThreshold() <= 0) {
+			return true;
+		}
+		CircuitBreaker breaker = circuitBreakers.get(host);
+		return breaker == null || breaker.allowRequest();
+	}
+	
+	/**
+	 * @param host
+	 * @return true if the host is ejected for being a latency outlier, in which case the operation should preferably 
+	 * go to another host
+	 */
+	public boolean isEjected(Host host) {
+		return cpConfiguration.isOutlierDetectionEnabled() && outlierDetector.isEjected(host);
+	}
+	
+	private CircuitBreaker getCircuitBreaker(Host host) {
+		
+		if (cpConfiguration.getCircuitBreakerFailureThreshold() <= 0) {
+			return null;
+		}
+		
+		CircuitBreaker breaker = circuitBreakers.get(host);
+		if (breaker == null) {
+			breaker = new CircuitBreaker(host, cpMonitor, 
+										 cpConfiguration.getCircuitBreakerFailureThreshold(), 
+										 cpConfiguration.getCircuitBreakerLatencyThreshold(), 
+										 cpConfiguration.getCircuitBreakerOpenTimeout(), 
+										 cpConfiguration.getCircuitBreakerProbes());
+			CircuitBreaker prev = circuitBreakers.putIfAbsent(host, breaker);
+			breaker = (prev != null) ? prev : breaker;
+		}
+		return breaker;
+	}
+	
 	public void trackConnectionError(HostConnectionPool<CL> hostPool, DynoException e) {
 			
+		if (e instanceof TimeoutException || e instanceof FatalConnectionException) {
+			// unlike the error rate, the circuit breaker does count timeouts since they are what it protects the callers from 
+			CircuitBreaker breaker = getCircuitBreaker(hostPool.getHost());
+			if (breaker != null) {
+				breaker.onFailure();
+			}
+		}
+		
 		if (e != null && e instanceof TimeoutException) {
 			// don't track timeouts, since that may not be indicative of an actual n/w problem
 			// that may just be a slowdown due to pool saturation of larger payloads
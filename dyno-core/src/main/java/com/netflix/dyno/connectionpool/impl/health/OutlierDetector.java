@@ -0,0 +1,368 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.health;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.dyno.connectionpool.ConnectionPoolConfiguration;
+import com.netflix.dyno.connectionpool.ConnectionPoolMonitor;
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.Host.Status;
+import com.netflix.dyno.connectionpool.impl.ConnectionPoolConfigurationImpl;
+import com.netflix.dyno.connectionpool.impl.CountingConnectionPoolMonitor;
+import com.netflix.dyno.connectionpool.impl.utils.LatencyHistogram;
+import com.netflix.dyno.connectionpool.impl.utils.LatencyRecorder;
+
+/**
+ * Ejects the hosts that are much slower than the other hosts in their rack, even though their requests do not fail. 
+ * 
+ * The latency of every successful operation is recorded per host. On every interval each host's p99 and mean 
+ * latency over the interval are compared with the median p99 and mean of its rack peers, and a host that is above 
+ * the threshold on both is ejected. Ejected hosts are skipped by the host selection, just like a host with an open 
+ * {@link CircuitBreaker}, until the ejection time is over. Every ejection of the same host lasts longer than the last 
+ * one, up to the max ejection time, and an interval without being an outlier takes one step off again. 
+ * At most a configured percent of a rack, rounded down, is ejected at any time, so that a rack wide slowdown does not 
+ * eject the rack. A rack that is too small for the percent to cover a single host never has a host ejected. 
+ * 
+ * @author poberai
+ *
+ */
+public class OutlierDetector {
+
+	private static final Logger Logger = LoggerFactory.getLogger(OutlierDetector.class);
+
+	// a host is only compared against 2 or more peers
+	private static final int MIN_HOSTS_PER_RACK = 3;
+	
+	private final ConnectionPoolConfiguration cpConfiguration;
+	private final ConnectionPoolMonitor cpMonitor;
+	
+	private final ConcurrentHashMap<Host, HostLatency> hosts = new ConcurrentHashMap<Host, HostLatency>();
+	
+	public OutlierDetector(ConnectionPoolConfiguration config, ConnectionPoolMonitor monitor) {
+		cpConfiguration = config;
+		cpMonitor = monitor;
+	}
+	
+	/**
+	 * Record the latency of a successful operation on the host
+	 * @param host
+	 * @param latencyMicros
+	 */
+	public void record(Host host, long latencyMicros) {
+		
+		HostLatency latency = hosts.get(host);
+		if (latency == null) {
+			latency = new HostLatency(host);
+			HostLatency prev = hosts.putIfAbsent(host, latency);
+			latency = (prev != null) ? prev : latency;
+		}
+		latency.recorder.record(latencyMicros);
+	}
+	
+	/**
+	 * @param host
+	 * @return true if the host is currently ejected
+	 */
+	public boolean isEjected(Host host) {
+		HostLatency latency = hosts.get(host);
+		return latency != null && latency.ejected;
+	}
+	
+	public void removeHost(Host host) {
+		hosts.remove(host);
+	}
+	
+	/**
+	 * Readmit the hosts whose ejection is over and eject the outliers of the interval since the last call
+	 */
+	public void detectOutliers() {
+		detectOutliers(System.currentTimeMillis());
+	}
+	
+	private synchronized void detectOutliers(long now) {
+		
+		Map<String, List<HostLatency>> racks = new HashMap<String, List<HostLatency>>();
+		
+		for (HostLatency latency : hosts.values()) {
+			
+			LatencyHistogram interval = latency.recorder.getIntervalHistogram();
+			
+			String rack = (latency.host.getRack() != null) ? latency.host.getRack() : "";
+			List<HostLatency> rackHosts = racks.get(rack);
+			if (rackHosts == null) {
+				rackHosts = new ArrayList<HostLatency>();
+				racks.put(rack, rackHosts);
+			}
+			rackHosts.add(latency);
+
+			if (latency.ejected && now >= latency.ejectedUntil) {
+				readmit(latency);
+			}
+			
+			latency.p99 = interval.getPercentile(0.99);
+			latency.mean = interval.getMean();
+			latency.sampled = !latency.ejected && interval.getCount() >= cpConfiguration.getOutlierMinRequests();
+		}
+		
+		for (List<HostLatency> rackHosts : racks.values()) {
+			detectOutliers(rackHosts, now);
+		}
+	}
+	
+	private void detectOutliers(List<HostLatency> rackHosts, long now) {
+		
+		List<HostLatency> sampled = new ArrayList<HostLatency>();
+		int ejected = 0; 
+		for (HostLatency latency : rackHosts) {
+			if (latency.sampled) {
+				sampled.add(latency);
+			} else if (latency.ejected) {
+				ejected++;
+			}
+		}
+		if (sampled.size() < MIN_HOSTS_PER_RACK) {
+			return;
+		}
+		
+		int maxEjected = rackHosts.size() * cpConfiguration.getOutlierMaxEjectionPercent() / 100;
+		double threshold = cpConfiguration.getOutlierLatencyThresholdPercent() / 100.0;
+		
+		// the slowest hosts get ejected first when the max ejection percent is reached
+		Collections.sort(sampled, new Comparator<HostLatency>() {
+			@Override
+			public int compare(HostLatency o1, HostLatency o2) {
+				return Long.valueOf(o2.p99).compareTo(o1.p99);
+			}
+		});
+		
+		for (HostLatency latency : sampled) {
+			
+			List<Double> peerP99s = new ArrayList<Double>(sampled.size());
+			List<Double> peerMeans = new ArrayList<Double>(sampled.size());
+			for (HostLatency peer : sampled) {
+				if (peer != latency) {
+					peerP99s.add((double) peer.p99);
+					peerMeans.add(peer.mean);
+				}
+			}
+			
+			boolean outlier = latency.p99 > threshold * median(peerP99s) && latency.mean > threshold * median(peerMeans);
+			
+			if (outlier && ejected < maxEjected) {
+				eject(latency, now);
+				ejected++;
+			} else if (!outlier && latency.ejections > 0) {
+				latency.ejections--;
+			}
+		}
+	}
+	
+	private void eject(HostLatency latency, long now) {
+		
+		latency.ejections++;
+		long ejectionMillis = Math.min((long) cpConfiguration.getOutlierBaseEjectionTime() * latency.ejections, cpConfiguration.getOutlierMaxEjectionTime());
+		latency.ejectedUntil = now + ejectionMillis;
+		latency.ejected = true;
+		
+		Logger.warn("Ejecting host " + latency.host + " for " + ejectionMillis + " ms, p99: " + latency.p99 + " us, mean: " + latency.mean + " us");
+		if (cpMonitor != null) {
+			cpMonitor.hostEjected(latency.host, ejectionMillis);
+		}
+	}
+	
+	private void readmit(HostLatency latency) {
+		
+		latency.ejected = false;
+		
+		Logger.info("Readmitting host " + latency.host);
+		if (cpMonitor != null) {
+			cpMonitor.hostReadmitted(latency.host);
+		}
+	}
+	
+	private static double median(List<Double> values) {
+		Collections.sort(values);
+		int mid = values.size() / 2;
+		return (values.size() % 2 == 1) ? values.get(mid) : (values.get(mid-1) + values.get(mid)) / 2;
+	}
+	
+	private static class HostLatency {
+		
+		private final Host host;
+		private final LatencyRecorder recorder = new LatencyRecorder(LatencyHistogram.DEFAULT_SUB_BUCKET_BITS, 0);
+		private volatile boolean ejected = false;
+		
+		// guarded by the detector
+		private long ejectedUntil = 0L;
+		private int ejections = 0;
+		private boolean sampled = false;
+		private long p99 = 0L;
+		private double mean = 0.0;
+		
+		private HostLatency(Host host) {
+			this.host = host;
+		}
+	}
+	
+	public static class UnitTest {
+		
+		private final Host h1 = new Host("h1", 8080, Status.Up).setRack("r1");
+		private final Host h2 = new Host("h2", 8080, Status.Up).setRack("r1");
+		private final Host h3 = new Host("h3", 8080, Status.Up).setRack("r1");
+		private final Host h4 = new Host("h4", 8080, Status.Up).setRack("r1");
+		
+		private final ConnectionPoolConfigurationImpl config = new ConnectionPoolConfigurationImpl("test")
+																	.setOutlierMinRequests(10)
+																	.setOutlierMaxEjectionPercent(25)
+																	.setOutlierBaseEjectionTime(1000)
+																	.setOutlierMaxEjectionTime(2500);
+		private final CountingConnectionPoolMonitor monitor = new CountingConnectionPoolMonitor();
+		
+		private void record(OutlierDetector detector, Host host, long latencyMicros, int count) {
+			for (int i=0; i<count; i++) {
+				detector.record(host, latencyMicros);
+			}
+		}
+		
+		private void recordInterval(OutlierDetector detector, long slowLatencyMicros) {
+			record(detector, h1, 1000, 100);
+			record(detector, h2, 1200, 100);
+			record(detector, h3, 1100, 100);
+			record(detector, h4, slowLatencyMicros, 100);
+		}
+		
+		@Test
+		public void testSlowHostIsEjectedAndReadmitted() throws Exception {
+			
+			OutlierDetector detector = new OutlierDetector(config, monitor);
+			
+			recordInterval(detector, 20000);
+			detector.detectOutliers(0);
+			
+			Assert.assertTrue(detector.isEjected(h4));
+			Assert.assertFalse(detector.isEjected(h1));
+			Assert.assertEquals(1, monitor.getHostEjectedCount());
+			Assert.assertTrue(monitor.getHostStats().get(h4).isEjected());
+			
+			detector.detectOutliers(999);
+			Assert.assertTrue(detector.isEjected(h4));
+			
+			detector.detectOutliers(1000);
+			Assert.assertFalse(detector.isEjected(h4));
+			Assert.assertEquals(1, monitor.getHostReadmittedCount());
+			Assert.assertFalse(monitor.getHostStats().get(h4).isEjected());
+		}
+		
+		@Test
+		public void testNoEjectionWithinThreshold() throws Exception {
+			
+			OutlierDetector detector = new OutlierDetector(config, monitor);
+			
+			recordInterval(detector, 2000);
+			detector.detectOutliers(0);
+			Assert.assertFalse(detector.isEjected(h4));
+			
+			// too few requests to tell
+			record(detector, h1, 1000, 100);
+			record(detector, h2, 1000, 100);
+			record(detector, h3, 1000, 100);
+			record(detector, h4, 20000, 5);
+			detector.detectOutliers(0);
+			Assert.assertFalse(detector.isEjected(h4));
+			
+			Assert.assertEquals(0, monitor.getHostEjectedCount());
+		}
+		
+		@Test
+		public void testRepeatedEjectionsLastLonger() throws Exception {
+			
+			OutlierDetector detector = new OutlierDetector(config, monitor);
+			
+			long now = 0;
+			long[] expectedEjections = { 1000, 2000, 2500 };
+			for (long expected : expectedEjections) {
+				recordInterval(detector, 20000);
+				detector.detectOutliers(now);
+				Assert.assertTrue(detector.isEjected(h4));
+				
+				detector.detectOutliers(now + expected - 1);
+				Assert.assertTrue(detector.isEjected(h4));
+				
+				now += expected;
+				detector.detectOutliers(now);
+				Assert.assertFalse(detector.isEjected(h4));
+			}
+			Assert.assertEquals(3, monitor.getHostEjectedCount());
+		}
+		
+		@Test
+		public void testMaxEjectionPercent() throws Exception {
+			
+			OutlierDetector detector = new OutlierDetector(config.setOutlierMaxEjectionPercent(10), monitor);
+			
+			// two slow hosts, but only one of the rack's hosts can be ejected
+			for (int i=5; i<11; i++) {
+				record(detector, new Host("h" + i, 8080, Status.Up).setRack("r1"), 1000, 100);
+			}
+			record(detector, h1, 1000, 100);
+			record(detector, h2, 1000, 100);
+			record(detector, h3, 30000, 100);
+			record(detector, h4, 20000, 100);
+			detector.detectOutliers(0);
+			
+			Assert.assertTrue(detector.isEjected(h3));
+			Assert.assertFalse(detector.isEjected(h4));
+			Assert.assertEquals(1, monitor.getHostEjectedCount());
+			
+			// hosts in another rack are not compared with these
+			Host other = new Host("other", 8080, Status.Up).setRack("r2");
+			record(detector, other, 20000, 100);
+			record(detector, h1, 1000, 100);
+			record(detector, h2, 1000, 100);
+			detector.detectOutliers(0);
+			Assert.assertFalse(detector.isEjected(other));
+		}
+		
+		@Test
+		public void testNoEjectionWhenPercentIsBelowOneHost() throws Exception {
+			
+			// 24% of 4 hosts is less than one host
+			OutlierDetector detector = new OutlierDetector(config.setOutlierMaxEjectionPercent(24), monitor);
+			recordInterval(detector, 20000);
+			detector.detectOutliers(0);
+			Assert.assertFalse(detector.isEjected(h4));
+			
+			detector = new OutlierDetector(config.setOutlierMaxEjectionPercent(0), monitor);
+			recordInterval(detector, 20000);
+			detector.detectOutliers(0);
+			Assert.assertFalse(detector.isEjected(h4));
+			
+			Assert.assertEquals(0, monitor.getHostEjectedCount());
+		}
+	}
+}
@@ -16,47 +16,62 @@
 package com.netflix.dyno.connectionpool.impl.health;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Assert;
 import org.junit.Test;
 
-import com.netflix.dyno.connectionpool.exception.DynoException;
 import com.netflix.dyno.connectionpool.impl.utils.RateLimitUtil;
 
 /**
  * Class that tracks the rate at which events occur over a specified rolling time window (in seconds)
  * This is useful for tracking error rates from {@link ErrorRateMonitor}
  * 
+ * The window is a fixed ring of per second buckets indexed by epoch second % window size. Every bucket is striped 
+ * across threads to avoid contention, and every stripe is a single long holding both the second it counts for (high 
+ * 32 bits) and the count (low 32 bits). A stripe that still holds an older second is hence reset by the same CAS that 
+ * tracks the first event of the new second, and tracking never blocks or allocates, even at the turn of a second. 
+ * 
  * @author poberai
  *
  */
 public class RateTracker {
 	
-	private final AtomicReference<BucketCreator> bucketCreateLock = new AtomicReference<BucketCreator>(null);
-	private final AtomicInteger wonLock = new AtomicInteger(0);
+	private static final int MAX_STRIPES = 16;
+	// keep the stripes of a bucket at least a cache line apart
+	private static final int MIN_STRIPE_STRIDE = 8;
+	private static final long COUNT_MASK = 0xFFFFFFFFL;
 
-	private final RollingWindow rWindow;
+	private final int windowSize;
+	private final int stripeMask;
+	private final int stripeStride;
+	private final AtomicLongArray cells;
+	// the most recent second that an event was tracked for
+	private final AtomicLong latestSecond;
 	
 	public RateTracker(int numSeconds) {
 		
-		int windowSize = numSeconds; 
-		rWindow = new RollingWindow(windowSize);
+		windowSize = numSeconds; 
+		
+		int stripes = 1;
+		while (stripes < Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES)) {
+			stripes <<= 1;
+		}
+		stripeMask = stripes - 1;
+		stripeStride = Math.max(windowSize, MIN_STRIPE_STRIDE);
+		cells = new AtomicLongArray(stripes * stripeStride);
+		latestSecond = new AtomicLong(currentSecond());
 	}
 
 	public void trackRate() {
@@ -64,140 +79,82 @@ public class RateTracker {
 	}
 	
 	public void trackRate(int count) {
+		trackRate(count, currentSecond());
+	}
 	
-		long currentTime = System.currentTimeMillis() / 1000;  // the current second
+	void trackRate(int count, long second) {
 		
-		// compare the current window
-		int compare = rWindow.compareWindow(currentTime);
+		int stripe = (int) (Thread.currentThread().getId() & stripeMask);
+		int index = stripe * stripeStride + (int) (second % windowSize);
 		
-		if (compare == 0) {
-			// it is the same window, increment the quota and check the rate for this second
-			rWindow.trackRate(count);
-			
-		} else if (compare < 0) {
-			
-			// the current window that is tracked is in the past, so create the window for this second
-			// it does not matter if some other thread beat us to setting the last bucket. 
-			
-			BucketCreator expected = bucketCreateLock.get();
-			BucketCreator newCreator = new BucketCreator(currentTime);
-			boolean success = bucketCreateLock.compareAndSet(expected, newCreator) ;
-			
-			if (success) {
-				
-				wonLock.incrementAndGet();
-				newCreator.futureBucket.run();
-				
+		while (true) {
+			long cell = cells.get(index);
+			long cellSecond = cell >>> 32;
+			
+			long update;
+			if (cellSecond == second) {
+				// same second, just add to the count
+				update = cell + count;
+			} else if (cellSecond < second) {
+				// the bucket still holds a second that has rolled out of the window, reset it
+				update = (second << 32) | (count & COUNT_MASK);
 			} else {
-				
-				try {
-					bucketCreateLock.get().futureBucket.get(20, TimeUnit.MILLISECONDS);
-				} catch (TimeoutException e) {
-					//return true;
-					e.printStackTrace();
-				} catch (Exception e) {
-					throw new DynoException(e);
-				}
+				// the bucket has already moved on to a later second, this event is older than the window
+				return;
 			}
 			
-			rWindow.trackRate(count);
-
-			
-		} else {
-			// it is the prev window, let the request through
-			return ;
+			if (cells.compareAndSet(index, cell, update)) {
+				break;
+			}
+		}
+		
+		long latest = latestSecond.get();
+		while (second > latest && !latestSecond.compareAndSet(latest, second)) {
+			latest = latestSecond.get();
 		}
 	}
 	
-	
+	/**
+	 * @param lookback
+	 * @return the buckets for the last lookback seconds, most recent first
+	 */
 	public List<Bucket> getBuckets(int lookback) {
-		return rWindow.getBuckets(lookback);
+		
+		long latest = latestSecond.get();
+		int numBuckets = Math.min(lookback, windowSize);
+		
+		List<Bucket> list = new ArrayList<Bucket>(numBuckets);
+		for (int i=0; i<numBuckets; i++) {
+			list.add(getBucket(latest - i));
+		}
+		return list;
 	}
-	
 
+	/**
+	 * @return all the buckets in the window, most recent first
+	 */
 	public List<Bucket> getAllBuckets() {
-		return rWindow.getAllBuckets();
+		return getBuckets(windowSize);
 	}
 	
-	private class RollingWindow { 
-		
-		private final int windowSize;
-		
-		private final LinkedBlockingDeque<Bucket> queue = new LinkedBlockingDeque<Bucket>();
-		private final AtomicInteger bucketCreateCount = new AtomicInteger(0);
-
-		private RollingWindow(int wSize) {
-			
-			windowSize = wSize;
-			
-			long currentTime = System.currentTimeMillis()/1000;
-			long startTime = currentTime - windowSize + 1;
-			
-			for (long i = startTime; i<=currentTime; i++) {
-				queue.addFirst(new Bucket(i));
-			}
-		}
-		
-		private void trackRate(int count) {
-			queue.peekFirst().track(count);
-		}
-		
-		private List<Bucket> getBuckets(int lookback) {
-			
-			List<Bucket> list = new ArrayList<Bucket>();
-			int count = 0;
-			Iterator<Bucket> iter = queue.iterator();
-			
-			while (iter.hasNext() && count < lookback) {
-				list.add(iter.next());
-				count++;
-			}
-			return list;
-		}
+	private Bucket getBucket(long second) {
 		
-		private List<Bucket> getAllBuckets() {
-			
-			List<Bucket> list = new ArrayList<Bucket>();
-			Iterator<Bucket> iter = queue.iterator();
-			
-			while (iter.hasNext()) {
-				list.add(iter.next());
+		int slot = (int) (second % windowSize);
+		long count = 0;
+		for (int stripe = 0; stripe <= stripeMask; stripe++) {
+			long cell = cells.get(stripe * stripeStride + slot);
+			if ((cell >>> 32) == second) {
+				count += cell & COUNT_MASK;
 			}
-			return list;
 		}
 		
-		private int compareWindow(long currentTimestamp) {
-			
-			Long lastBucketTimestamp = queue.peekFirst().lastTimestamp.get();
-			return lastBucketTimestamp.compareTo(currentTimestamp);
-		}
-		
-		private void addNewBucket(long timestamp) {
-			
-			bucketCreateCount.incrementAndGet();
-			
-			Bucket  newBucket = new Bucket(timestamp);
-			queue.removeLast();
-			queue.addFirst(newBucket);
-		}
-		
-		private void syncToNewWindow(long timestamp) {
-			
-			long currentTimestamp = queue.peekFirst().lastTimestamp.get();
-			
-			if (currentTimestamp == timestamp) {
-				return;
-			}
-			
-			while (currentTimestamp < timestamp) {
-				currentTimestamp++;
-				addNewBucket(currentTimestamp);
-			}
-		}
-
-		public Bucket firstBucket() {
-			return queue.peekFirst();
-		}
+		Bucket bucket = new Bucket(second);
+		bucket.track((int) count);
+		return bucket;
+	}
+	
+	private static long currentSecond() {
+		return System.currentTimeMillis() / 1000;
 	}
 	
 	public static class Bucket { 
@@ -248,50 +205,6 @@ public class RateTracker {
 		}
 	}
 	
-	private class BucketCreator {
-		
-		private final String id = UUID.randomUUID().toString();
-		private final long timestamp;
-		private final FutureTask<Bucket> futureBucket; 
-		
-		private BucketCreator(long time) {
-			this.timestamp = time;
-			
-			this.futureBucket  = new FutureTask<Bucket>(new Callable<Bucket>() {
-
-				@Override
-				public Bucket call() throws Exception {
-					rWindow.syncToNewWindow(timestamp);
-					return rWindow.firstBucket();
-				}
-				
-			}); 
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + ((id == null) ? 0 : id.hashCode());
-			result = prime * result + (int) (timestamp ^ (timestamp >>> 32));
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) return true;
-			if (obj == null) return false;
-			if (getClass() != obj.getClass()) return false;
-			BucketCreator other = (BucketCreator) obj;
-			boolean equals = true;
-			equals &=  (id != null) ? id.equals(other.id) : other.id == null;
-			equals &=  (timestamp == other.timestamp);
-			return equals;
-		}
-		
-	}
-	
-	
 	public static class UnitTest {
 		
 		@Test
@@ -355,13 +268,10 @@ public class RateTracker {
 			Thread.sleep(1000);
 			latch.await();
 			System.out.println("=======================");
-			System.out.println("Won lock: " + tracker.wonLock.get());
 			System.out.println("Total ops: " + totalOps.get());
 
-			Assert.assertEquals(20, tracker.rWindow.queue.size());
-			Assert.assertTrue(16 >= tracker.rWindow.bucketCreateCount.get());
-			
 			List<Bucket> allBuckets = tracker.getAllBuckets();
+			Assert.assertEquals(20, allBuckets.size());
 			threadPool.shutdownNow();
 			
 			// Remove the first bucket since it's essentially unreliable since that is when the test had stopped.
@@ -388,6 +298,74 @@ public class RateTracker {
 			Assert.assertTrue("P diff failed",  10 >= percentageDiff(100, allBuckets.get(14).count()));
 		}
 		
+		@Test
+		public void testBucketsRollOver() throws Exception {
+			
+			RateTracker tracker = new RateTracker(5);
+			long now = currentSecond() + 1000;
+			
+			for (int i=0; i<5; i++) {
+				tracker.trackRate(i+1, now + i);
+			}
+			Assert.assertEquals("[5, 4, 3, 2, 1]", tracker.getAllBuckets().toString());
+			Assert.assertEquals("[5, 4]", tracker.getBuckets(2).toString());
+			Assert.assertEquals(now + 4, tracker.getAllBuckets().get(0).timestamp());
+			
+			// the bucket for now is reused for now+5, and now+1 to now+3 drop out of the window
+			tracker.trackRate(10, now + 5);
+			tracker.trackRate(10, now + 8);
+			Assert.assertEquals("[10, 0, 0, 10, 5]", tracker.getAllBuckets().toString());
+			
+			// events older than the window are dropped
+			tracker.trackRate(100, now + 1);
+			Assert.assertEquals("[10, 0, 0, 10, 5]", tracker.getAllBuckets().toString());
+			
+			// late events that are still within the window are counted
+			tracker.trackRate(1, now + 6);
+			Assert.assertEquals("[10, 0, 1, 10, 5]", tracker.getAllBuckets().toString());
+		}
+		
+		@Test
+		public void testConcurrentTrackingIsExact() throws Exception {
+			
+			final RateTracker tracker = new RateTracker(10);
+			final long now = currentSecond() + 1000;
+			
+			int numThreads = 8; 
+			final int numSeconds = 20;
+			final int perSecond = 5000;
+			ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+			final CyclicBarrier barrier = new CyclicBarrier(numThreads);
+			
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i=0; i<numThreads; i++) {
+				futures.add(threadPool.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						for (int second=0; second<numSeconds; second++) {
+							barrier.await();
+							for (int j=0; j<perSecond; j++) {
+								tracker.trackRate(1, now + second);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+			threadPool.shutdownNow();
+			
+			List<Bucket> buckets = tracker.getAllBuckets();
+			Assert.assertEquals(10, buckets.size());
+			for (int i=0; i<buckets.size(); i++) {
+				Assert.assertEquals(now + numSeconds - 1 - i, buckets.get(i).timestamp());
+				Assert.assertEquals(numThreads * perSecond, buckets.get(i).count());
+			}
+		}
+		
 		private int percentageDiff(int expected, int result) {
 			int pDiff =   expected == 0 ? 0 : Math.abs(expected-result)*100/expected;
 			System.out.println("Expected: " + expected  + " pDiff: " + pDiff);  
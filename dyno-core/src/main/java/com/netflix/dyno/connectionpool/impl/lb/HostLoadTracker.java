@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.lb;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.Host.Status;
+import com.netflix.dyno.connectionpool.HostConnectionPool;
+
+/**
+ * Tracks the load on each {@link Host} for latency aware load balancing, i.e an exponentially weighted moving average 
+ * of the response time along with the number of requests that are currently outstanding on the host. 
+ * 
+ * The moving average is a "peak" EWMA. A response that is slower than the current average replaces it right away so that
+ * a host that starts GC pausing is penalized immediately, while faster responses pull the average down gradually. 
+ * The average also decays while the host is not getting any responses, so that a host that was avoided for being slow
+ * gets probed again after a while instead of being starved forever. 
+ * 
+ * The load score of a host is its average latency times (outstanding requests + 1). 
+ * 
+ * @author poberai
+ */
+public class HostLoadTracker {
+
+	// time over which older latency samples lose most of their weight
+	private static final double DECAY_TIME_NANOS = 10L * 1000L * 1000L * 1000L;
+
+	private final ConcurrentHashMap<Host, HostLoad> hostLoads = new ConcurrentHashMap<Host, HostLoad>();
+	private final Random random = new Random();
+
+	public void operationStarted(Host host) {
+		getHostLoad(host).outstanding.incrementAndGet();
+	}
+
+	public void operationCompleted(Host host, long latencyMicros) {
+		HostLoad load = getHostLoad(host);
+		load.outstanding.decrementAndGet();
+		load.update(latencyMicros, System.nanoTime());
+	}
+
+	public void removeHost(Host host) {
+		hostLoads.remove(host);
+	}
+
+	/**
+	 * @param host
+	 * @return the current load score for the host, lower is better
+	 */
+	public double getScore(Host host) {
+		HostLoad load = hostLoads.get(host);
+		if (load == null) {
+			return 0;
+		}
+		return load.getScore(System.nanoTime());
+	}
+
+	/**
+	 * @param bound
+	 * @return random int in [0, bound)
+	 */
+	public int nextRandom(int bound) {
+		return random.nextInt(bound);
+	}
+
+	/**
+	 * Power of two choices, i.e pick the less loaded one of the two pools
+	 * @param pool1
+	 * @param pool2
+	 * @return the pool with the lower load score
+	 */
+	public <T extends HostConnectionPool<?>> T choose(T pool1, T pool2) {
+		return getScore(pool2.getHost()) < getScore(pool1.getHost()) ? pool2 : pool1;
+	}
+
+	private HostLoad getHostLoad(Host host) {
+		HostLoad load = hostLoads.get(host);
+		if (load == null) {
+			HostLoad newLoad = new HostLoad();
+			load = hostLoads.putIfAbsent(host, newLoad);
+			if (load == null) {
+				load = newLoad;
+			}
+		}
+		return load;
+	}
+
+	private static class HostLoad {
+
+		private final AtomicInteger outstanding = new AtomicInteger(0);
+
+		// guarded by this
+		private double ewmaMicros = 0;
+		private long lastUpdateNanos = System.nanoTime();
+
+		private synchronized void update(long latencyMicros, long now) {
+			if (latencyMicros > ewmaMicros) {
+				ewmaMicros = latencyMicros;
+			} else {
+				double weight = Math.exp(-(now - lastUpdateNanos) / DECAY_TIME_NANOS);
+				ewmaMicros = ewmaMicros * weight + latencyMicros * (1 - weight);
+			}
+			lastUpdateNanos = now;
+		}
+
+		private double getScore(long now) {
+			double ewma;
+			long lastUpdate;
+			synchronized (this) {
+				ewma = ewmaMicros;
+				lastUpdate = lastUpdateNanos;
+			}
+			double decayedEwma = ewma * Math.exp(-Math.max(0, now - lastUpdate) / DECAY_TIME_NANOS);
+			return (decayedEwma + 1) * (Math.max(0, outstanding.get()) + 1);
+		}
+	}
+
+	public static class UnitTest {
+
+		private final Host h1 = new Host("h1", 8080, Status.Up);
+		private final Host h2 = new Host("h2", 8080, Status.Up);
+
+		@Test
+		public void testSlowHostScoresHigher() throws Exception {
+
+			HostLoadTracker tracker = new HostLoadTracker();
+			for (int i=0; i<10; i++) {
+				tracker.operationStarted(h1);
+				tracker.operationCompleted(h1, 1000);
+				tracker.operationStarted(h2);
+				tracker.operationCompleted(h2, 100);
+			}
+			Assert.assertTrue(tracker.getScore(h1) > tracker.getScore(h2));
+
+			// a single slow response is penalized right away 
+			tracker.operationStarted(h2);
+			tracker.operationCompleted(h2, 50000);
+			Assert.assertTrue(tracker.getScore(h2) > tracker.getScore(h1));
+		}
+
+		@Test
+		public void testOutstandingRequestsAddToScore() throws Exception {
+
+			HostLoadTracker tracker = new HostLoadTracker();
+			tracker.operationStarted(h1);
+			tracker.operationCompleted(h1, 100);
+			tracker.operationStarted(h2);
+			tracker.operationCompleted(h2, 100);
+
+			for (int i=0; i<5; i++) {
+				tracker.operationStarted(h1);
+			}
+			Assert.assertTrue(tracker.getScore(h1) > 5 * tracker.getScore(h2));
+
+			for (int i=0; i<5; i++) {
+				tracker.operationCompleted(h1, 100);
+			}
+			Assert.assertEquals(tracker.getScore(h2), tracker.getScore(h1), 1.0);
+		}
+	}
+}
@@ -22,6 +22,7 @@ import static org.mockito.Mockito.when;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -47,8 +48,10 @@ import com.netflix.dyno.connectionpool.ConnectionPoolMonitor;
 import com.netflix.dyno.connectionpool.Host;
 import com.netflix.dyno.connectionpool.Host.Status;
 import com.netflix.dyno.connectionpool.HostConnectionPool;
+import com.netflix.dyno.connectionpool.OperationTimings;
 import com.netflix.dyno.connectionpool.TokenMapSupplier;
 import com.netflix.dyno.connectionpool.TokenPoolTopology;
+import com.netflix.dyno.connectionpool.exception.CircuitOpenException;
 import com.netflix.dyno.connectionpool.exception.DynoConnectException;
 import com.netflix.dyno.connectionpool.exception.DynoException;
 import com.netflix.dyno.connectionpool.exception.NoAvailableHostsException;
@@ -58,6 +61,7 @@ import com.netflix.dyno.connectionpool.impl.ConnectionPoolConfigurationImpl;
 import com.netflix.dyno.connectionpool.impl.CountingConnectionPoolMonitor;
 import com.netflix.dyno.connectionpool.impl.HostSelectionStrategy;
 import com.netflix.dyno.connectionpool.impl.HostSelectionStrategy.HostSelectionStrategyFactory;
+import com.netflix.dyno.connectionpool.impl.health.ConnectionPoolHealthTracker;
 import com.netflix.dyno.connectionpool.impl.utils.CollectionUtils;
 import com.netflix.dyno.connectionpool.impl.utils.CollectionUtils.Predicate;
 import com.netflix.dyno.connectionpool.impl.utils.CollectionUtils.Transform;
@@ -99,19 +103,285 @@ public class HostSelectionWithFallback<CL> {
 
 	private final HostSelectionStrategyFactory<CL> selectorFactory;
 
+	// load on each host, only tracked for the LatencyAware strategy
+	private final HostLoadTracker loadTracker;
+
+	// consulted for the hosts' circuit breakers, may be null
+	private final ConnectionPoolHealthTracker<CL> healthTracker;
+
 	public HostSelectionWithFallback(ConnectionPoolConfiguration config, ConnectionPoolMonitor monitor) {
+		this(config, monitor, null);
+	}
+
+	public HostSelectionWithFallback(ConnectionPoolConfiguration config, ConnectionPoolMonitor monitor, ConnectionPoolHealthTracker<CL> tracker) {
 
 		cpMonitor = monitor;
+		healthTracker = tracker;
 		cpConfig = config;
 		localRack = cpConfig.getLocalDC();
 		tokenSupplier = cpConfig.getTokenSupplier();
+		loadTracker = (cpConfig.getLoadBalancingStrategy() == LoadBalancingStrategy.LatencyAware) ? new HostLoadTracker() : null;
 
 		selectorFactory = new DefaultSelectionFactory(cpConfig);
 		localSelector = selectorFactory.vendPoolSelectionStrategy();
 	}
 
 	public Connection<CL> getConnection(BaseOperation<CL, ?> op, int duration, TimeUnit unit) throws NoAvailableHostsException, PoolExhaustedException {
-		return getConnection(op, null, duration, unit);
+		return getConnection(op, null, duration, unit, null, null);
+	}
+
+	/**
+	 * Same as {@link #getConnection(BaseOperation, int, TimeUnit)}, and records when the host was selected, i.e 
+	 * before waiting for a connection from its pool
+	 * @param op
+	 * @param duration
+	 * @param unit
+	 * @param timings
+	 * @return Connection<CL>
+	 * @throws NoAvailableHostsException
+	 * @throws PoolExhaustedException
+	 */
+	public Connection<CL> getConnection(BaseOperation<CL, ?> op, int duration, TimeUnit unit, OperationTimings timings) throws NoAvailableHostsException, PoolExhaustedException {
+		return getConnection(op, null, duration, unit, timings, null);
+	}
+
+	/**
+	 * Same as {@link #getConnection(BaseOperation, int, TimeUnit, OperationTimings)}, and has the attempt admitted on the 
+	 * selected host before waiting for a connection from its pool
+	 * @param op
+	 * @param duration
+	 * @param unit
+	 * @param timings
+	 * @param admission
+	 * @return Connection<CL>
+	 * @throws DynoException
+	 */
+	public Connection<CL> getConnection(BaseOperation<CL, ?> op, int duration, TimeUnit unit, OperationTimings timings, HostAdmission admission) throws DynoException {
+		return getConnection(op, null, duration, unit, timings, admission);
+	}
+
+	/**
+	 * Pick the host pool for the operation without borrowing a connection from it. The local rack's pool is used if it is 
+	 * active, else we fallback to a remote pool for the same token.
+	 * @param op
+	 * @return HostConnectionPool<CL>
+	 * @throws NoAvailableHostsException
+	 */
+	public HostConnectionPool<CL> getHostPool(BaseOperation<CL, ?> op) throws NoAvailableHostsException {
+
+		HostConnectionPool<CL> hostPool = null; 
+		NoAvailableHostsException lastEx = null;
+
+		try {
+			hostPool = getPoolForOperation(op);
+			if (isConnectionPoolAvailable(hostPool) && allowRequest(hostPool)) {
+				return hostPool;
+			}
+		} catch (NoAvailableHostsException e) {
+			lastEx = e;
+			cpMonitor.incOperationFailure(null, e);
+		}
+
+		if (cpConfig.getMaxFailoverCount() > 0 && !remoteDCNames.getEntireList().isEmpty()) {
+			cpMonitor.incFailover(null, null);
+			return getFallbackHostPool(op, null);
+		}
+
+		if (lastEx != null) {
+			throw lastEx; // give up
+		}
+		if (isConnectionPoolActive(hostPool)) {
+			if (useAsLastResort(hostPool)) {
+				return hostPool;
+			}
+			throw circuitOpen(hostPool);
+		}
+		throw new PoolOfflineException(hostPool, "host pool is offline and no DCs available for fallback");
+	}
+
+	/**
+	 * Find a replica for a hedged request, i.e the active pool that owns the same token as the primary host in one 
+	 * of the other racks
+	 * @param op
+	 * @param primary
+	 * @return HostConnectionPool<CL> or null if there is no active replica
+	 */
+	public HostConnectionPool<CL> getHedgeHostPool(BaseOperation<CL, ?> op, Host primary) {
+		return getReplicaHostPool(op, Collections.singletonList(primary));
+	}
+
+	/**
+	 * Get a connection for retrying an operation that failed on the given hosts. The retry goes to the local pool if 
+	 * the selection strategy picks a host that did not fail yet, else to the owner of the same token in one of the 
+	 * other racks. Only when every candidate already failed does it go through the regular selection again. 
+	 * @param op
+	 * @param failedHosts
+	 * @param duration
+	 * @param unit
+	 * @param timings
+	 * @return Connection<CL>
+	 * @throws NoAvailableHostsException
+	 * @throws PoolExhaustedException
+	 */
+	public Connection<CL> getConnectionForRetry(BaseOperation<CL, ?> op, Collection<Host> failedHosts, int duration, TimeUnit unit, OperationTimings timings) throws NoAvailableHostsException, PoolExhaustedException {
+		return getConnectionForRetry(op, failedHosts, duration, unit, timings, null);
+	}
+
+	/**
+	 * Same as {@link #getConnectionForRetry(BaseOperation, Collection, int, TimeUnit, OperationTimings)}, and has the 
+	 * attempt admitted on the selected host before waiting for a connection from its pool
+	 * @param op
+	 * @param failedHosts
+	 * @param duration
+	 * @param unit
+	 * @param timings
+	 * @param admission
+	 * @return Connection<CL>
+	 * @throws DynoException
+	 */
+	public Connection<CL> getConnectionForRetry(BaseOperation<CL, ?> op, Collection<Host> failedHosts, int duration, TimeUnit unit, OperationTimings timings, HostAdmission admission) throws DynoException {
+
+		HostConnectionPool<CL> hostPool = null;
+		try {
+			HostConnectionPool<CL> localPool = getPoolForOperation(op);
+			if (isConnectionPoolAvailable(localPool) && !failedHosts.contains(localPool.getHost()) && allowRequest(localPool)) {
+				hostPool = localPool;
+			}
+		} catch (NoAvailableHostsException e) {
+			// try the other racks
+		}
+
+		if (hostPool == null) {
+			hostPool = getReplicaHostPool(op, failedHosts);
+			if (hostPool == null) {
+				return getConnection(op, null, duration, unit, timings, admission);
+			}
+		}
+
+		if (timings != null) {
+			timings.hostSelected();
+		}
+		admit(admission, hostPool);
+		return hostPool.borrowConnection(duration, unit);
+	}
+
+	/**
+	 * Pick the host pool for retrying an operation that failed on the given hosts, without borrowing a connection from 
+	 * it. Same choice of host as {@link #getConnectionForRetry(BaseOperation, Collection, int, TimeUnit, OperationTimings)}.
+	 * @param op
+	 * @param failedHosts
+	 * @return HostConnectionPool<CL>
+	 * @throws NoAvailableHostsException
+	 */
+	public HostConnectionPool<CL> getHostPoolForRetry(BaseOperation<CL, ?> op, Collection<Host> failedHosts) throws NoAvailableHostsException {
+
+		try {
+			HostConnectionPool<CL> localPool = getPoolForOperation(op);
+			if (isConnectionPoolAvailable(localPool) && !failedHosts.contains(localPool.getHost()) && allowRequest(localPool)) {
+				return localPool;
+			}
+		} catch (NoAvailableHostsException e) {
+			// try the other racks
+		}
+
+		HostConnectionPool<CL> hostPool = getReplicaHostPool(op, failedHosts);
+		if (hostPool == null) {
+			return getHostPool(op);
+		}
+		return hostPool;
+	}
+
+	/**
+	 * Find the replicas for a quorum operation, i.e the available pools that own the operation's token in the local 
+	 * rack and in each of the other racks
+	 * @param op
+	 * @return List<HostConnectionPool<CL>>, empty if there is no available replica
+	 */
+	public List<HostConnectionPool<CL>> getReplicaHostPools(BaseOperation<CL, ?> op) {
+
+		List<HostConnectionPool<CL>> replicas = new ArrayList<HostConnectionPool<CL>>(getReplicaCount());
+		try {
+			HostConnectionPool<CL> hostPool = getPoolForOperation(op);
+			if (isConnectionPoolAvailable(hostPool) && allowRequest(hostPool)) {
+				replicas.add(hostPool);
+			}
+		} catch (NoAvailableHostsException e) {
+			// the other racks may still have a replica
+		}
+
+		for (String remoteDC : remoteDCNames.getEntireList()) {
+			HostSelectionStrategy<CL> remoteDCSelector = remoteDCSelectors.get(remoteDC);
+			if (remoteDCSelector == null) {
+				continue;
+			}
+			try {
+				HostConnectionPool<CL> hostPool = remoteDCSelector.getPoolForOperation(op);
+				if (isConnectionPoolAvailable(hostPool) && allowRequest(hostPool)) {
+					replicas.add(hostPool);
+				}
+			} catch (NoAvailableHostsException e) {
+				// try the next rack
+			}
+		}
+		return replicas;
+	}
+
+	/**
+	 * @return the number of racks, i.e the replicas of every token
+	 */
+	public int getReplicaCount() {
+		return 1 + remoteDCNames.getEntireList().size();
+	}
+
+	/**
+	 * @param op
+	 * @param excludedHosts
+	 * @return the available pool that owns the operation's token in one of the other racks, but is not one of the 
+	 * excluded hosts, or null if there is none
+	 */
+	private HostConnectionPool<CL> getReplicaHostPool(BaseOperation<CL, ?> op, Collection<Host> excludedHosts) {
+
+		// rotate through the remote racks so that the requests are spread across them
+		int numRemotes = remoteDCNames.getEntireList().size();
+		for (int i=0; i<numRemotes; i++) {
+
+			String remoteDC = remoteDCNames.getNextElement();
+			HostSelectionStrategy<CL> remoteDCSelector = remoteDCSelectors.get(remoteDC);
+			if (remoteDCSelector == null) {
+				continue;
+			}
+
+			try {
+				HostConnectionPool<CL> hostPool = remoteDCSelector.getPoolForOperation(op);
+				if (isConnectionPoolAvailable(hostPool) && !excludedHosts.contains(hostPool.getHost()) && allowRequest(hostPool)) {
+					return hostPool;
+				}
+			} catch (NoAvailableHostsException e) {
+				// try the next rack
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Record that an operation was sent to the host. Only used by the {@link LoadBalancingStrategy#LatencyAware} strategy
+	 * @param host
+	 */
+	public void operationStarted(Host host) {
+		if (loadTracker != null) {
+			loadTracker.operationStarted(host);
+		}
+	}
+
+	/**
+	 * Record the response time for an operation that was sent to the host
+	 * @param host
+	 * @param latencyMicros
+	 */
+	public void operationCompleted(Host host, long latencyMicros) {
+		if (loadTracker != null) {
+			loadTracker.operationCompleted(host, latencyMicros);
+		}
 	}
 
 	public Long getHostTokenForKey(String key) {
@@ -134,16 +404,20 @@ public class HostSelectionWithFallback<CL> {
 		return poolActiveForKey;
 	}
 	
-	private Connection<CL> getConnection(BaseOperation<CL, ?> op, Long token, int duration, TimeUnit unit) throws NoAvailableHostsException, PoolExhaustedException {
+	private Connection<CL> getConnection(BaseOperation<CL, ?> op, Long token, int duration, TimeUnit unit, OperationTimings timings, HostAdmission admission) throws NoAvailableHostsException, PoolExhaustedException {
 
 		HostConnectionPool<CL> hostPool = null; 
 		DynoConnectException lastEx = null;
 		
 		boolean useFallback = false;
+		boolean ejected = false;
+		boolean circuitOpen = false;
 		
 		try {
-			hostPool = (op != null) ? localSelector.getPoolForOperation(op) : localSelector.getPoolForToken(token);
-			useFallback = !isConnectionPoolActive(hostPool);
+			hostPool = (op != null) ? getPoolForOperation(op) : localSelector.getPoolForToken(token);
+			ejected = isConnectionPoolActive(hostPool) && isEjected(hostPool);
+			circuitOpen = isConnectionPoolActive(hostPool) && !ejected && isCircuitOpen(hostPool);
+			useFallback = ejected || circuitOpen || !isConnectionPoolActive(hostPool);
 			
 		} catch (NoAvailableHostsException e) {
 			lastEx = e;
@@ -151,7 +425,18 @@ public class HostSelectionWithFallback<CL> {
 			useFallback = true;
 		}
 		
+		if (!useFallback && !allowRequest(hostPool)) {
+			// the last probe of a half open breaker went to someone else in the meantime
+			circuitOpen = true;
+			useFallback = true;
+		}
+		
 		if (!useFallback) {
+			if (timings != null) {
+				timings.hostSelected();
+			}
+			// a host that is over its limits rejects the attempt, which is not a reason to fallback
+			admit(admission, hostPool);
 			try { 
 				return hostPool.borrowConnection(duration, unit);
 			} catch (DynoConnectException e) {
@@ -168,21 +453,99 @@ public class HostSelectionWithFallback<CL> {
 			if (numRemotes == 0) {
 				if (lastEx != null) {
 					throw lastEx; // give up
+				} else if (ejected && useAsLastResort(hostPool)) {
+					// stay on the host
+				} else if (circuitOpen || ejected) {
+					throw circuitOpen(hostPool);
 				} else {
 					throw new PoolOfflineException(hostPool, "host pool is offline and no DCs available for fallback");
 				}
 			} else {
 				hostPool = getFallbackHostPool(op, token);
 			}
+		} else if (circuitOpen || (ejected && !useAsLastResort(hostPool))) {
+			throw circuitOpen(hostPool);
 		}
 		
 		if (hostPool == null) {
 			throw new NoAvailableHostsException("Found no hosts when using fallback DC", localSelector.getHostTokenForKey(op.getKey()));
 		}
 		
+		if (timings != null) {
+			timings.hostSelected();
+		}
+		admit(admission, hostPool);
 		return hostPool.borrowConnection(duration, unit);
 	}
 
+	/**
+	 * Admits an attempt on the host that was selected for it, before a connection is borrowed from the host's pool. 
+	 * Hence a host that is over its limits rejects the attempt right away, rather than after waiting for a connection. 
+	 * The selection may still move on to another host after an admission, e.g when the first host has no connection 
+	 * to spare, in which case that host is admitted as well. 
+	 */
+	public interface HostAdmission {
+		
+		public void admit(Host host) throws DynoException;
+	}
+
+	private void admit(HostAdmission admission, HostConnectionPool<CL> hostPool) throws DynoException {
+		if (admission != null) {
+			admission.admit(hostPool.getHost());
+		}
+	}
+
+	private HostConnectionPool<CL> getPoolForOperation(BaseOperation<CL, ?> op) throws NoAvailableHostsException {
+
+		if (loadTracker != null && TokenAwareSelection.hasKey(op)) {
+			HostConnectionPool<CL> replica = getLeastLoadedReplica(op);
+			if (replica != null) {
+				return replica;
+			}
+		}
+		return localSelector.getPoolForOperation(op);
+	}
+
+	/**
+	 * Power of two choices over the owners of the key's token in all the racks
+	 * @param op
+	 * @return HostConnectionPool<CL> or null if none of the replicas are active
+	 */
+	private HostConnectionPool<CL> getLeastLoadedReplica(BaseOperation<CL, ?> op) {
+
+		List<HostConnectionPool<CL>> replicas = new ArrayList<HostConnectionPool<CL>>(remoteDCSelectors.size() + 1);
+		addActiveReplica(replicas, localSelector, op);
+		for (HostSelectionStrategy<CL> remoteDCSelector : remoteDCSelectors.values()) {
+			addActiveReplica(replicas, remoteDCSelector, op);
+		}
+
+		int size = replicas.size();
+		if (size == 0) {
+			return null;
+		}
+		if (size == 1) {
+			return replicas.get(0);
+		}
+
+		int first = loadTracker.nextRandom(size);
+		int second = loadTracker.nextRandom(size - 1);
+		if (second >= first) {
+			second++;
+		}
+		return loadTracker.choose(replicas.get(first), replicas.get(second));
+	}
+
+	private void addActiveReplica(List<HostConnectionPool<CL>> replicas, HostSelectionStrategy<CL> selector, BaseOperation<CL, ?> op) {
+		try {
+			HostConnectionPool<CL> hostPool = selector.getPoolForOperation(op);
+			if (isConnectionPoolAvailable(hostPool)) {
+				replicas.add(hostPool);
+			}
+		} catch (NoAvailableHostsException e) {
+			// no replica in this rack
+		}
+	}
+
 	private HostConnectionPool<CL> getFallbackHostPool(BaseOperation<CL, ?> op, Long token) {
 		
 		int numRemotes = remoteDCNames.getEntireList().size();
@@ -205,7 +568,7 @@ public class HostSelectionWithFallback<CL> {
 				HostConnectionPool<CL> fallbackHostPool = 
 						(op != null) ? remoteDCSelector.getPoolForOperation(op) : remoteDCSelector.getPoolForToken(token);
 				
-				if (isConnectionPoolActive(fallbackHostPool)) {
+				if (isConnectionPoolAvailable(fallbackHostPool) && allowRequest(fallbackHostPool)) {
 					return fallbackHostPool;
 				}
 
@@ -222,7 +585,10 @@ public class HostSelectionWithFallback<CL> {
 		}
 	}
 
-	public Collection<Connection<CL>> getConnectionsToRing(int duration, TimeUnit unit) throws NoAvailableHostsException, PoolExhaustedException {
+	/**
+	 * @return the tokens owned by the hosts in the local rack, in ring order
+	 */
+	public List<Long> getLocalRackTokens() {
 		
 		final Collection<HostToken> localZoneTokens = CollectionUtils.filter(hostTokens.values(), new Predicate<HostToken>() {
 			@Override
@@ -238,13 +604,41 @@ public class HostSelectionWithFallback<CL> {
 			}
 		});
 		
+		List<Long> sorted = new ArrayList<Long>(tokens);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Borrow a connection to the owner of the token, falling back to a remote rack when the local owner is down. 
+	 * Use with care, the connection must be returned to its parent pool.
+	 * @param token
+	 * @param duration
+	 * @param unit
+	 * @param timings records when the host was selected, may be null
+	 * @return Connection<CL>
+	 * @throws NoAvailableHostsException
+	 * @throws PoolExhaustedException
+	 */
+	public Connection<CL> getConnectionForToken(Long token, int duration, TimeUnit unit, OperationTimings timings) throws NoAvailableHostsException, PoolExhaustedException {
+		return getConnection(null, token, duration, unit, timings, null);
+	}
+
+	public Connection<CL> getConnectionForToken(Long token, int duration, TimeUnit unit, OperationTimings timings, HostAdmission admission) throws DynoException {
+		return getConnection(null, token, duration, unit, timings, admission);
+	}
+
+	public Collection<Connection<CL>> getConnectionsToRing(int duration, TimeUnit unit) throws NoAvailableHostsException, PoolExhaustedException {
+		
+		final Collection<Long> tokens = getLocalRackTokens();
+		
 		DynoConnectException lastEx = null;
 		
 		List<Connection<CL>> connections = new ArrayList<Connection<CL>>();
 				
 		for (Long token : tokens) {
 			try { 
-				connections.add(getConnection(null, token, duration, unit));
+				connections.add(getConnection(null, token, duration, unit, null, null));
 			} catch (DynoConnectException e) {
 				Logger.warn("Failed to get connection when getting all connections from ring", e.getMessage());
 				lastEx = e;
@@ -283,6 +677,53 @@ public class HostSelectionWithFallback<CL> {
 		return remoteSelector;
 	}
 
+	/**
+	 * Only checks the host, so that it can be used for hosts that the request may not go to after all. 
+	 * Call {@link #allowRequest(HostConnectionPool)} on the host that is picked
+	 * @param hPool
+	 * @return true if the pool is active, its host is not ejected as a latency outlier and its circuit breaker is not open
+	 */
+	private boolean isConnectionPoolAvailable(HostConnectionPool<CL> hPool) {
+		return isConnectionPoolActive(hPool) && !isEjected(hPool) && !isCircuitOpen(hPool);
+	}
+
+	private boolean isCircuitOpen(HostConnectionPool<CL> hPool) {
+		return healthTracker != null && healthTracker.isCircuitOpen(hPool.getHost());
+	}
+
+	/**
+	 * Called exactly once for the host that the request goes to, since it takes one of the probes of a half open 
+	 * circuit breaker
+	 * @param hPool
+	 * @return true if the circuit breaker lets the request through
+	 */
+	private boolean allowRequest(HostConnectionPool<CL> hPool) {
+		return healthTracker == null || healthTracker.allowRequest(hPool.getHost());
+	}
+
+	private boolean isEjected(HostConnectionPool<CL> hPool) {
+		return healthTracker != null && healthTracker.isEjected(hPool.getHost());
+	}
+
+	/**
+	 * An ejected host is only slow, so it still serves the request when there is no other host to fall back to
+	 * @param hPool
+	 * @return true if the request can go to the ejected host after all
+	 */
+	private boolean isLastResort(HostConnectionPool<CL> hPool) {
+		return isEjected(hPool) && !isCircuitOpen(hPool);
+	}
+
+	private boolean useAsLastResort(HostConnectionPool<CL> hPool) {
+		return isLastResort(hPool) && allowRequest(hPool);
+	}
+
+	private CircuitOpenException circuitOpen(HostConnectionPool<CL> hPool) {
+		CircuitOpenException e = new CircuitOpenException("Circuit breaker is open for host " + hPool.getHost().getHostName() + " and no DCs available for fallback");
+		e.setHost(hPool.getHost());
+		return e;
+	}
+
 	private boolean isConnectionPoolActive(HostConnectionPool<CL> hPool) {
 		if (hPool == null) {
 			return false;
@@ -372,6 +813,10 @@ public class HostSelectionWithFallback<CL> {
 
 	public void removeHost(Host host, HostConnectionPool<CL> hostPool) {
 
+		if (loadTracker != null) {
+			loadTracker.removeHost(host);
+		}
+
 		HostToken hostToken = hostTokens.remove(host);
 		if (hostToken != null) {
 			HostSelectionStrategy<CL> selector = findSelector(host);
@@ -395,6 +840,8 @@ public class HostSelectionWithFallback<CL> {
 				return new RoundRobinSelection<CL>();
 			case TokenAware:
 				return new TokenAwareSelection<CL>();
+			case LatencyAware:
+				return new LatencyAwareSelection<CL>(loadTracker);
 			default :
 				throw new RuntimeException("LoadBalancing strategy not supported! " + cpConfig.getLoadBalancingStrategy().name());
 			}
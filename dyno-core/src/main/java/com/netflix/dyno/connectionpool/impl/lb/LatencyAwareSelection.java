@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.lb;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.netflix.dyno.connectionpool.BaseOperation;
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.Host.Status;
+import com.netflix.dyno.connectionpool.HostConnectionPool;
+import com.netflix.dyno.connectionpool.exception.NoAvailableHostsException;
+import com.netflix.dyno.connectionpool.impl.HostSelectionStrategy;
+
+/**
+ * Impl of {@link HostSelectionStrategy} that balances by load rather than evenly. For each operation it picks 2 random 
+ * active pools and chooses the one with the lower load score from the {@link HostLoadTracker}, i.e the lower EWMA of 
+ * response time weighted by outstanding requests (power of two choices). 
+ * 
+ * Unlike {@link RoundRobinSelection} this steers traffic away from a host that is GC pausing or running on a noisy neighbour, 
+ * while the random choice keeps all clients from piling onto the single least loaded host at the same time. 
+ * 
+ * Operations with a key are routed to the token owner within the rack, just like {@link TokenAwareSelection}. 
+ * {@link HostSelectionWithFallback} then applies the power of two choices across the same token replicas in the different racks.
+ * 
+ * @author poberai
+ *
+ * @param <CL>
+ */
+public class LatencyAwareSelection<CL> implements HostSelectionStrategy<CL> {
+
+	private final HostLoadTracker loadTracker;
+	private final TokenAwareSelection<CL> tokenSelection = new TokenAwareSelection<CL>();
+
+	// snapshot of all the pools in this rack, swapped on every topology change
+	private volatile List<HostConnectionPool<CL>> pools = new ArrayList<HostConnectionPool<CL>>();
+
+	public LatencyAwareSelection(HostLoadTracker tracker) {
+		this.loadTracker = tracker;
+	}
+
+	@Override
+	public HostConnectionPool<CL> getPoolForOperation(BaseOperation<CL, ?> op) throws NoAvailableHostsException {
+
+		if (TokenAwareSelection.hasKey(op)) {
+			return tokenSelection.getPoolForOperation(op);
+		}
+		return getLeastLoadedPool();
+	}
+
+	@Override
+	public Map<HostConnectionPool<CL>, BaseOperation<CL, ?>> getPoolsForOperationBatch(Collection<BaseOperation<CL, ?>> ops) throws NoAvailableHostsException {
+		Map<HostConnectionPool<CL>, BaseOperation<CL, ?>> map = new HashMap<HostConnectionPool<CL>, BaseOperation<CL, ?>>();
+		for (BaseOperation<CL, ?> op : ops) {
+			map.put(getPoolForOperation(op), op);
+		}
+		return map;
+	}
+
+	@Override
+	public List<HostConnectionPool<CL>> getOrderedHostPools() {
+		return new ArrayList<HostConnectionPool<CL>>(pools);
+	}
+
+	@Override
+	public Long getHostTokenForKey(String key) {
+		return tokenSelection.getHostTokenForKey(key);
+	}
+
+	@Override
+	public boolean isPoolActiveForToken(Long token) {
+		return tokenSelection.isPoolActiveForToken(token);
+	}
+
+	@Override
+	public HostConnectionPool<CL> getPoolForToken(Long token) {
+		return tokenSelection.getPoolForToken(token);
+	}
+
+	@Override
+	public List<HostConnectionPool<CL>> getPoolsForTokens(Long start, Long end) {
+		return tokenSelection.getPoolsForTokens(start, end);
+	}
+
+	@Override
+	public void initWithHosts(Map<HostToken, HostConnectionPool<CL>> hostPools) {
+		tokenSelection.initWithHosts(hostPools);
+		pools = new ArrayList<HostConnectionPool<CL>>(hostPools.values());
+	}
+
+	@Override
+	public synchronized boolean addHostPool(HostToken host, HostConnectionPool<CL> hostPool) {
+
+		boolean added = tokenSelection.addHostPool(host, hostPool);
+		if (added) {
+			List<HostConnectionPool<CL>> newPools = new ArrayList<HostConnectionPool<CL>>(pools);
+			newPools.add(hostPool);
+			pools = newPools;
+		}
+		return added;
+	}
+
+	@Override
+	public synchronized boolean removeHostPool(HostToken host) {
+
+		HostConnectionPool<CL> hostPool = tokenSelection.getPoolForToken(host.getToken());
+		boolean removed = tokenSelection.removeHostPool(host);
+		if (removed) {
+			List<HostConnectionPool<CL>> newPools = new ArrayList<HostConnectionPool<CL>>(pools);
+			newPools.remove(hostPool);
+			pools = newPools;
+		}
+		return removed;
+	}
+
+	private HostConnectionPool<CL> getLeastLoadedPool() throws NoAvailableHostsException {
+
+		List<HostConnectionPool<CL>> current = pools;
+		int size = current.size();
+		if (size == 0) {
+			throw new NoAvailableHostsException("No host pools available for latency aware selection");
+		}
+		if (size == 1) {
+			return current.get(0);
+		}
+
+		int first = loadTracker.nextRandom(size);
+		int second = loadTracker.nextRandom(size - 1);
+		if (second >= first) {
+			second++;
+		}
+
+		HostConnectionPool<CL> pool1 = current.get(first);
+		HostConnectionPool<CL> pool2 = current.get(second);
+		boolean active1 = isActive(pool1);
+		boolean active2 = isActive(pool2);
+
+		if (active1 && active2) {
+			return loadTracker.choose(pool1, pool2);
+		} else if (active1) {
+			return pool1;
+		} else if (active2) {
+			return pool2;
+		}
+
+		// Both were inactive, look for any active pool. If there is none then return an inactive pool anyways, 
+		// and HostSelectionWithFallback can choose a fallback pool from another dc
+		for (int i=1; i<size; i++) {
+			HostConnectionPool<CL> pool = current.get((first + i) % size);
+			if (isActive(pool)) {
+				return pool;
+			}
+		}
+		return pool1;
+	}
+
+	private boolean isActive(HostConnectionPool<CL> pool) {
+		return pool.isActive() && pool.getHost().isUp();
+	}
+
+	public String toString() {
+		return "LatencyAwareSelector: pools: " + pools.size();
+	}
+
+	public static class UnitTest {
+
+		private final HostToken h1 = new HostToken(309687905L, new Host("h1", 8080, Status.Up));
+		private final HostToken h2 = new HostToken(1383429731L, new Host("h2", 8080, Status.Up));
+		private final HostToken h3 = new HostToken(2457171554L, new Host("h3", 8080, Status.Up));
+
+		private final BaseOperation<Integer, Integer> testOperation = new BaseOperation<Integer, Integer>() {
+
+			@Override
+			public String getName() {
+				return "TestOperation";
+			}
+
+			@Override
+			public String getKey() {
+				return null;
+			}
+		};
+
+		@Test
+		public void testAvoidsSlowHost() throws Exception {
+
+			HostLoadTracker tracker = new HostLoadTracker();
+			LatencyAwareSelection<Integer> selection = new LatencyAwareSelection<Integer>(tracker);
+
+			Map<HostToken, HostConnectionPool<Integer>> pools = new HashMap<HostToken, HostConnectionPool<Integer>>();
+			pools.put(h1, getMockHostConnectionPool(h1, new AtomicBoolean(true)));
+			pools.put(h2, getMockHostConnectionPool(h2, new AtomicBoolean(true)));
+			pools.put(h3, getMockHostConnectionPool(h3, new AtomicBoolean(true)));
+			selection.initWithHosts(pools);
+
+			tracker.operationStarted(h1.getHost());
+			tracker.operationCompleted(h1.getHost(), 100);
+			tracker.operationStarted(h2.getHost());
+			tracker.operationCompleted(h2.getHost(), 100);
+			tracker.operationStarted(h3.getHost());
+			tracker.operationCompleted(h3.getHost(), 50000);
+
+			Map<String, Integer> result = runTest(300, selection);
+
+			// h3 loses every comparison
+			Assert.assertNull(result.get("h3"));
+			Assert.assertTrue(result.get("h1") > 100);
+			Assert.assertTrue(result.get("h2") > 100);
+		}
+
+		@Test
+		public void testSkipsInactivePools() throws Exception {
+
+			HostLoadTracker tracker = new HostLoadTracker();
+			LatencyAwareSelection<Integer> selection = new LatencyAwareSelection<Integer>(tracker);
+
+			AtomicBoolean h1Active = new AtomicBoolean(true);
+			Map<HostToken, HostConnectionPool<Integer>> pools = new HashMap<HostToken, HostConnectionPool<Integer>>();
+			pools.put(h1, getMockHostConnectionPool(h1, h1Active));
+			pools.put(h2, getMockHostConnectionPool(h2, new AtomicBoolean(true)));
+			selection.initWithHosts(pools);
+
+			// h1 is the faster host but is inactive
+			tracker.operationStarted(h2.getHost());
+			tracker.operationCompleted(h2.getHost(), 50000);
+			h1Active.set(false);
+
+			Map<String, Integer> result = runTest(100, selection);
+			Assert.assertNull(result.get("h1"));
+			Assert.assertEquals(100, result.get("h2").intValue());
+
+			// remove h2, so only the inactive h1 remains
+			selection.removeHostPool(h2);
+			Assert.assertEquals("h1", selection.getPoolForOperation(testOperation).getHost().getHostName());
+		}
+
+		private Map<String, Integer> runTest(int iterations, LatencyAwareSelection<Integer> selection) {
+
+			Map<String, Integer> result = new HashMap<String, Integer>();
+			for (int i=0; i<iterations; i++) {
+				String hostName = selection.getPoolForOperation(testOperation).getHost().getHostName();
+				Integer count = result.get(hostName);
+				result.put(hostName, (count == null) ? 1 : count + 1);
+			}
+			return result;
+		}
+
+		@SuppressWarnings("unchecked")
+		private HostConnectionPool<Integer> getMockHostConnectionPool(final HostToken hostToken, final AtomicBoolean active) {
+
+			HostConnectionPool<Integer> mockHostPool = mock(HostConnectionPool.class);
+			when(mockHostPool.isActive()).thenAnswer(new Answer<Boolean>() {
+				@Override
+				public Boolean answer(InvocationOnMock invocation) throws Throwable {
+					return active.get();
+				}
+			});
+			when(mockHostPool.getHost()).thenReturn(hostToken.getHost());
+			return mockHostPool;
+		}
+	}
+}
@@ -31,6 +31,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import com.netflix.dyno.connectionpool.BaseOperation;
+import com.netflix.dyno.connectionpool.BinaryKeyOperation;
 import com.netflix.dyno.connectionpool.Host;
 import com.netflix.dyno.connectionpool.Host.Status;
 import com.netflix.dyno.connectionpool.HostConnectionPool;
@@ -81,7 +82,13 @@ public class TokenAwareSelection<CL> implements HostSelectionStrategy<CL> {
 	public HostConnectionPool<CL> getPoolForOperation(BaseOperation<CL, ?> op) throws NoAvailableHostsException {
 		
 		String key = op.getKey();
-		Long keyHash = tokenMapper.hash(key);
+		long keyHash;
+		if (op instanceof BinaryKeyOperation) {
+			byte[] binaryKey = ((BinaryKeyOperation<CL, ?>) op).getBinaryKey();
+			keyHash = tokenMapper.hashKey(binaryKey, 0, binaryKey.length);
+		} else {
+			keyHash = tokenMapper.hashKey(key);
+		}
 		HostToken hToken = tokenMapper.getToken(keyHash);
 		
 		HostConnectionPool<CL> hostPool = null;
@@ -148,7 +155,7 @@ public class TokenAwareSelection<CL> implements HostSelectionStrategy<CL> {
 		
 		Long token = null;
 		if (key != null && !key.isEmpty()) {
-			Long keyHash = tokenMapper.hash(key);
+			long keyHash = tokenMapper.hashKey(key);
 			HostToken hToken = tokenMapper.getToken(keyHash);
 			token = (hToken == null) ? null : hToken.getToken();
 		}
@@ -181,6 +188,14 @@ public class TokenAwareSelection<CL> implements HostSelectionStrategy<CL> {
 		return "TokenAwareSelection: " + tokenMapper.toString();
 	}
 	
+	/**
+	 * @param op
+	 * @return true if the operation has a String or binary key that it can be routed by
+	 */
+	public static boolean hasKey(BaseOperation<?, ?> op) {
+		return op.getKey() != null || (op instanceof BinaryKeyOperation && ((BinaryKeyOperation<?, ?>) op).getBinaryKey() != null);
+	}
+	
 	
 	public static class UnitTest { 
 		
@@ -235,6 +250,46 @@ public class TokenAwareSelection<CL> implements HostSelectionStrategy<CL> {
 			verifyTokenDistribution(result);
 		}
 		
+		@Test
+		public void testBinaryKey() throws Exception {
+			
+			Map<HostToken, HostConnectionPool<Integer>> pools = new HashMap<HostToken, HostConnectionPool<Integer>>();
+			pools.put(h1, getMockHostConnectionPool(h1));
+			pools.put(h2, getMockHostConnectionPool(h2));
+			pools.put(h3, getMockHostConnectionPool(h3));
+			pools.put(h4, getMockHostConnectionPool(h4));
+			
+			TokenAwareSelection<Integer> tokenAwareSelector = new TokenAwareSelection<Integer>();
+			tokenAwareSelector.initWithHosts(pools);
+			
+			for (long i=0; i<1000; i++) {
+				
+				final byte[] binaryKey = ("" + i).getBytes("UTF-8");
+				BaseOperation<Integer, Long> op = new BinaryKeyOperation<Integer, Long>() {
+
+					@Override
+					public String getName() {
+						return "TestBinaryOperation";
+					}
+
+					@Override
+					public String getKey() {
+						return null;
+					}
+
+					@Override
+					public byte[] getBinaryKey() {
+						return binaryKey;
+					}
+				};
+				
+				Assert.assertTrue(hasKey(op));
+				HostConnectionPool<Integer> pool = tokenAwareSelector.getPoolForOperation(op);
+				HostConnectionPool<Integer> expected = tokenAwareSelector.getPoolForOperation(getTestOperation(i));
+				Assert.assertEquals(expected.getHost().getHostName(), pool.getHost().getHostName());
+			}
+		}
+		
 		private BaseOperation<Integer, Long> getTestOperation(final Long n) {
 			
 			return new BaseOperation<Integer, Long>() {
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Limit on in flight operations that is learnt from their latency, rather than configured. 
+ * 
+ * Samples are gathered in windows of at least as many operations as the current limit. At the end of each window: 
+ * <ol>
+ * <li> if any operation was dropped (e.g timed out) the limit backs off multiplicatively </li>
+ * <li> else if the average latency grew past {@link #TOLERANCE} times the no load latency, the limit shrinks by the 
+ * ratio of the two (the gradient), so that the queueing that inflated the latency drains </li>
+ * <li> else if the window used at least half of the limit, the limit grows by one </li>
+ * </ol>
+ * The no load latency is the lowest latency seen, re-sampled every {@link #PROBE_WINDOWS} windows so that it follows 
+ * a lasting change in the backend's latency. 
+ * 
+ * Acquiring is a CAS on the in flight count, only the end of a window takes a lock. 
+ * 
+ * @author poberai
+ *
+ */
+public class AdaptiveConcurrencyLimit {
+
+	public static final double TOLERANCE = 2.0;
+	public static final double BACKOFF_RATIO = 0.9;
+	public static final int MIN_WINDOW_SAMPLES = 10;
+	public static final int PROBE_WINDOWS = 100;
+	
+	private final int minLimit; 
+	private final int maxLimit; 
+	
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	private volatile int limit; 
+	
+	// the current window, guarded by this
+	private int windowSamples = 0;
+	private long windowSumNanos = 0;
+	private long windowMinNanos = Long.MAX_VALUE;
+	private int windowMaxInFlight = 0;
+	private boolean windowDropped = false;
+	private int windows = 0;
+	private long noLoadNanos = 0;
+	
+	public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit <= 0 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("Bad limits, min: " + minLimit + ", max: " + maxLimit);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+	
+	/**
+	 * @return true if the operation may go ahead, in which case one of the release methods must be called once it completes
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= limit) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * The operation completed
+	 * @param latencyNanos
+	 * @return true if the limit changed
+	 */
+	public boolean success(long latencyNanos) {
+		return sample(latencyNanos, false);
+	}
+	
+	/**
+	 * The operation failed in a way that signals overload, e.g it timed out
+	 * @return true if the limit changed
+	 */
+	public boolean dropped() {
+		return sample(0, true);
+	}
+	
+	/**
+	 * The operation failed for a reason that says nothing about the load, its latency is ignored
+	 */
+	public void ignore() {
+		inFlight.decrementAndGet();
+	}
+	
+	public int getLimit() {
+		return limit;
+	}
+	
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	
+	private boolean sample(long latencyNanos, boolean dropped) {
+		
+		int current = inFlight.getAndDecrement();
+		
+		synchronized (this) {
+			if (dropped) {
+				windowDropped = true;
+			} else {
+				windowSumNanos += latencyNanos;
+				windowMinNanos = Math.min(windowMinNanos, latencyNanos);
+			}
+			windowSamples++;
+			windowMaxInFlight = Math.max(windowMaxInFlight, current);
+			
+			if (windowSamples < Math.max(MIN_WINDOW_SAMPLES, limit)) {
+				return false;
+			}
+			return endWindow();
+		}
+	}
+	
+	private boolean endWindow() {
+		
+		int newLimit = limit;
+		
+		if (windowDropped) {
+			newLimit = (int) (limit * BACKOFF_RATIO);
+		} else {
+			if (noLoadNanos == 0 || windowMinNanos < noLoadNanos || (++windows % PROBE_WINDOWS) == 0) {
+				noLoadNanos = Math.max(1, windowMinNanos);
+			}
+			
+			long avgNanos = windowSumNanos / windowSamples;
+			double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * noLoadNanos / Math.max(1, avgNanos)));
+			
+			if (gradient < 1.0) {
+				newLimit = (int) (limit * gradient);
+			} else if (windowMaxInFlight * 2 >= limit) {
+				newLimit = limit + 1;
+			}
+		}
+		
+		windowSamples = 0;
+		windowSumNanos = 0;
+		windowMinNanos = Long.MAX_VALUE;
+		windowMaxInFlight = 0;
+		windowDropped = false;
+		
+		newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		if (newLimit == limit) {
+			return false;
+		}
+		limit = newLimit;
+		return true;
+	}
+	
+	public String toString() {
+		return "AdaptiveConcurrencyLimit [limit=" + limit + ", inFlight=" + inFlight.get() + "]";
+	}
+	
+	public static class UnitTest {
+		
+		private static final long Millis = TimeUnit.MILLISECONDS.toNanos(1);
+		
+		@Test
+		public void testRejectsOverTheLimit() throws Exception {
+			
+			AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10);
+			Assert.assertTrue(limit.tryAcquire());
+			Assert.assertTrue(limit.tryAcquire());
+			Assert.assertFalse(limit.tryAcquire());
+			
+			limit.ignore();
+			Assert.assertEquals(1, limit.getInFlight());
+			Assert.assertTrue(limit.tryAcquire());
+		}
+		
+		@Test
+		public void testGrowsWhileLatencyIsFlat() throws Exception {
+			
+			AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 20);
+			for (int round=0; round<100; round++) {
+				runAtLimit(limit, Millis);
+			}
+			Assert.assertEquals(20, limit.getLimit());
+		}
+		
+		@Test
+		public void testShrinksWhenLatencyInflates() throws Exception {
+			
+			AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(40, 4, 100);
+			runAtLimit(limit, Millis);
+			int baseline = limit.getLimit();
+			
+			// 10x the no load latency, the limit shrinks by half each window until it hits the min
+			for (int round=0; round<3; round++) {
+				runAtLimit(limit, 10*Millis);
+			}
+			Assert.assertTrue("Limit " + limit.getLimit(), limit.getLimit() <= baseline/8);
+			for (int round=0; round<10; round++) {
+				runAtLimit(limit, 10*Millis);
+			}
+			Assert.assertEquals(4, limit.getLimit());
+		}
+		
+		@Test
+		public void testBacksOffOnDrops() throws Exception {
+			
+			AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+			for (int i=0; i<10; i++) {
+				Assert.assertTrue(limit.tryAcquire());
+			}
+			for (int i=0; i<9; i++) {
+				Assert.assertFalse(limit.success(Millis));
+			}
+			Assert.assertTrue(limit.dropped());
+			Assert.assertEquals(9, limit.getLimit());
+			Assert.assertEquals(0, limit.getInFlight());
+		}
+		
+		private void runAtLimit(AdaptiveConcurrencyLimit limit, long latencyNanos) {
+			int n = 0;
+			while (limit.tryAcquire()) {
+				n++;
+			}
+			for (int i=0; i<n; i++) {
+				limit.success(latencyNanos);
+			}
+			// make sure that every round closes a window
+			while (n < MIN_WINDOW_SAMPLES) {
+				Assert.assertTrue(limit.tryAcquire());
+				limit.success(latencyNanos);
+				n++;
+			}
+		}
+	}
+}
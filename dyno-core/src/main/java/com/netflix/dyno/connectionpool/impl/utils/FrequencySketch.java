@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Count-min sketch of 4 bit counters that estimates how often a key has been seen recently. 
+ * 
+ * Each key maps to 4 counters (one per row), the estimate is the min of them. Once the number of increments reaches 
+ * 10x the number of counters all counters are halved, so that the estimates favor recent popularity over all time popularity.
+ * This is the TinyLFU admission filter used by {@link NearCache}. 
+ * 
+ * Not thread safe, the caller is expected to synchronize. 
+ * 
+ * @author poberai
+ */
+public class FrequencySketch {
+
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final int MAX_COUNT = 15;
+
+	// 16 counters of 4 bits in each long
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int additions = 0;
+
+	/**
+	 * @param expectedEntries roughly the max number of distinct keys that we need to tell apart
+	 */
+	public FrequencySketch(int expectedEntries) {
+		int size = 1;
+		while (size < Math.max(16, expectedEntries)) {
+			size <<= 1;
+		}
+		table = new long[size];
+		tableMask = size - 1;
+		sampleSize = 10 * size;
+	}
+
+	/**
+	 * @param hash
+	 * @return estimated number of times that the hash was seen, between 0 and 15
+	 */
+	public int frequency(int hash) {
+		int frequency = MAX_COUNT;
+		for (int row=0; row<4; row++) {
+			int index = indexOf(hash, row);
+			int offset = counterOffset(hash, row);
+			int count = (int) ((table[index] >>> offset) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	public void increment(int hash) {
+
+		boolean added = false;
+		for (int row=0; row<4; row++) {
+			int index = indexOf(hash, row);
+			int offset = counterOffset(hash, row);
+			if (((table[index] >>> offset) & 0xfL) != MAX_COUNT) {
+				table[index] += (1L << offset);
+				added = true;
+			}
+		}
+
+		if (added && ++additions == sampleSize) {
+			reset();
+		}
+	}
+
+	private void reset() {
+		for (int i=0; i<table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		additions = additions / 2;
+	}
+
+	private int indexOf(int hash, int row) {
+		long h = (hash + SEEDS[row]) * SEEDS[row];
+		h += h >>> 32;
+		return ((int) h) & tableMask;
+	}
+
+	private int counterOffset(int hash, int row) {
+		// each row uses a different 4 bit counter in the selected long
+		int spread = hash * 0x9e3779b9;
+		return (((spread >>> (row << 3)) & 0x3) + (row << 2)) << 2;
+	}
+
+	public static class UnitTest {
+
+		@Test
+		public void testFrequency() throws Exception {
+
+			FrequencySketch sketch = new FrequencySketch(1024);
+			int hot = "hot".hashCode();
+			int cold = "cold".hashCode();
+
+			for (int i=0; i<10; i++) {
+				sketch.increment(hot);
+			}
+			sketch.increment(cold);
+
+			Assert.assertEquals(10, sketch.frequency(hot));
+			Assert.assertEquals(1, sketch.frequency(cold));
+			Assert.assertEquals(0, sketch.frequency("never".hashCode()));
+
+			// counters saturate at 15
+			for (int i=0; i<20; i++) {
+				sketch.increment(hot);
+			}
+			Assert.assertEquals(15, sketch.frequency(hot));
+		}
+
+		@Test
+		public void testReset() throws Exception {
+
+			FrequencySketch sketch = new FrequencySketch(16);
+			int hot = "hot".hashCode();
+			for (int i=0; i<8; i++) {
+				sketch.increment(hot);
+			}
+
+			Assert.assertEquals(8, sketch.frequency(hot));
+
+			sketch.reset();
+			Assert.assertEquals(4, sketch.frequency(hot));
+
+			// the halving also kicks in on its own once enough increments have been made
+			int additions = sketch.additions;
+			for (int i=0; additions < sketch.sampleSize - 1; i++) {
+				sketch.increment(i * 31);
+				additions = sketch.additions;
+			}
+			sketch.increment(hot);
+			Assert.assertEquals(sketch.sampleSize / 2, sketch.additions);
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Histogram of latencies with a fixed relative error, in the spirit of HdrHistogram. 
+ * 
+ * Values below 2^b (b = sub bucket bits) get a bucket each. Above that, every power of 2 range is split in 2^b linear 
+ * sub buckets, so a recorded value is off by less than 1/2^b of itself, whatever its magnitude. With the default of 6 bits 
+ * that is under 1.6%, for values up to 2^41 (~25 days in micros) in about 2300 buckets. 
+ * 
+ * Recording is lock free and does not allocate. Histograms with the same precision can be merged, e.g across hosts or 
+ * operations. Reads are not atomic with respect to concurrent recording, see {@link LatencyRecorder} for consistent 
+ * interval snapshots.
+ * 
+ * @author poberai
+ */
+public class LatencyHistogram {
+
+	public static final int DEFAULT_SUB_BUCKET_BITS = 6;
+	private static final int MAX_MAGNITUDE = 40;
+
+	private final int subBucketBits;
+	private final int subBucketCount;
+	private final AtomicLongArray counts;
+
+	public LatencyHistogram() {
+		this(DEFAULT_SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * @param subBucketBits the relative error is below 1/2^subBucketBits
+	 */
+	public LatencyHistogram(int subBucketBits) {
+		if (subBucketBits < 1 || subBucketBits > 16) {
+			throw new IllegalArgumentException("subBucketBits must be between 1 and 16");
+		}
+		this.subBucketBits = subBucketBits;
+		this.subBucketCount = 1 << subBucketBits;
+		this.counts = new AtomicLongArray((MAX_MAGNITUDE - subBucketBits + 2) * subBucketCount);
+	}
+
+	/**
+	 * Record a value, negative values count as 0 and values beyond the range go to the last bucket
+	 * @param value
+	 */
+	public void record(long value) {
+		counts.incrementAndGet(getIndex(value));
+	}
+
+	/**
+	 * Add all the values recorded by the other histogram to this one
+	 * @param other
+	 */
+	public void add(LatencyHistogram other) {
+		if (other.subBucketBits != subBucketBits) {
+			throw new IllegalArgumentException("Cannot merge histograms of different precisions");
+		}
+		for (int i=0; i<counts.length(); i++) {
+			long count = other.counts.get(i);
+			if (count > 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+	}
+
+	public void reset() {
+		for (int i=0; i<counts.length(); i++) {
+			counts.set(i, 0L);
+		}
+	}
+
+	public LatencyHistogram copy() {
+		LatencyHistogram copy = new LatencyHistogram(subBucketBits);
+		copy.add(this);
+		return copy;
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		long total = 0;
+		for (int i=0; i<counts.length(); i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * @return the mean of the recorded values, 0 if there are none
+	 */
+	public double getMean() {
+		long total = 0;
+		double sum = 0;
+		for (int i=0; i<counts.length(); i++) {
+			long count = counts.get(i);
+			if (count > 0) {
+				total += count;
+				sum += count * ((getLowestValue(i) + getHighestValue(i)) / 2.0);
+			}
+		}
+		return total == 0 ? 0 : sum / total;
+	}
+
+	/**
+	 * @return the largest value recorded, within the precision of the histogram. 0 if there are none.
+	 */
+	public long getMax() {
+		for (int i=counts.length()-1; i>=0; i--) {
+			if (counts.get(i) > 0) {
+				return getHighestValue(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param percentile between 0 and 1, e.g 0.99 
+	 * @return the value below which that fraction of the recorded values fall, within the precision of the histogram. 
+	 * 0 if there are none. 
+	 */
+	public long getPercentile(double percentile) {
+
+		long total = getCount();
+		if (total == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(Math.min(1.0, Math.max(0.0, percentile)) * total));
+		long seen = 0;
+		for (int i=0; i<counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return getHighestValue(i);
+			}
+		}
+		return getMax();
+	}
+
+	int getIndex(long value) {
+
+		if (value < subBucketCount) {
+			return (int) Math.max(0, value);
+		}
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		if (magnitude > MAX_MAGNITUDE) {
+			return counts.length() - 1;
+		}
+		int shift = magnitude - subBucketBits;
+		// the top subBucketBits+1 bits of the value, between subBucketCount and 2*subBucketCount-1
+		int subBucket = (int) (value >>> shift);
+		return shift * subBucketCount + subBucket;
+	}
+
+	long getLowestValue(int index) {
+		if (index < subBucketCount) {
+			return index;
+		}
+		int shift = index / subBucketCount - 1;
+		long subBucket = index - shift * subBucketCount;
+		return subBucket << shift;
+	}
+
+	long getHighestValue(int index) {
+		if (index < subBucketCount) {
+			return index;
+		}
+		int shift = index / subBucketCount - 1;
+		return getLowestValue(index) + (1L << shift) - 1;
+	}
+
+	public String toString() {
+		return "LatencyHistogram [count=" + getCount() + ", mean=" + getMean() + ", p99=" + getPercentile(0.99) + ", max=" + getMax() + "]";
+	}
+
+	public static class UnitTest {
+
+		@Test
+		public void testIndexRoundTrip() throws Exception {
+
+			LatencyHistogram histogram = new LatencyHistogram();
+
+			long[] values = { 0, 1, 63, 64, 65, 127, 128, 129, 1000, 12345, 999999, 1L << 30, (1L << 41) - 1 };
+			for (long value : values) {
+				int index = histogram.getIndex(value);
+				Assert.assertTrue(value + " >= " + histogram.getLowestValue(index), value >= histogram.getLowestValue(index));
+				Assert.assertTrue(value + " <= " + histogram.getHighestValue(index), value <= histogram.getHighestValue(index));
+				double error = (histogram.getHighestValue(index) - histogram.getLowestValue(index)) / (double) Math.max(1, value);
+				Assert.assertTrue("error for " + value + ": " + error, error < 1.0 / 64);
+			}
+
+			// indexes are contiguous
+			for (int i=1; i<histogram.counts.length(); i++) {
+				Assert.assertEquals(histogram.getHighestValue(i-1) + 1, histogram.getLowestValue(i));
+			}
+
+			Assert.assertEquals(0, histogram.getIndex(-5));
+			Assert.assertEquals(histogram.counts.length() - 1, histogram.getIndex(Long.MAX_VALUE));
+		}
+
+		@Test
+		public void testPercentiles() throws Exception {
+
+			LatencyHistogram histogram = new LatencyHistogram();
+			for (int i=1; i<=10000; i++) {
+				histogram.record(i);
+			}
+
+			Assert.assertEquals(10000, histogram.getCount());
+			assertWithin(5000, histogram.getPercentile(0.5));
+			assertWithin(9900, histogram.getPercentile(0.99));
+			assertWithin(9990, histogram.getPercentile(0.999));
+			assertWithin(10000, histogram.getMax());
+			assertWithin(5000, (long) histogram.getMean());
+			Assert.assertEquals(1, histogram.getPercentile(0.0));
+		}
+
+		@Test
+		public void testMergeAndReset() throws Exception {
+
+			LatencyHistogram h1 = new LatencyHistogram();
+			LatencyHistogram h2 = new LatencyHistogram();
+			for (int i=0; i<99; i++) {
+				h1.record(100);
+			}
+			h2.record(50000);
+
+			LatencyHistogram merged = h1.copy();
+			merged.add(h2);
+			Assert.assertEquals(100, merged.getCount());
+			assertWithin(100, merged.getPercentile(0.99));
+			assertWithin(50000, merged.getPercentile(0.999));
+			Assert.assertEquals(99, h1.getCount());
+
+			merged.reset();
+			Assert.assertEquals(0, merged.getCount());
+			Assert.assertEquals(0, merged.getPercentile(0.99));
+
+			try {
+				merged.add(new LatencyHistogram(4));
+				Assert.fail("Expected IllegalArgumentException");
+			} catch (IllegalArgumentException e) {
+			}
+		}
+
+		private void assertWithin(long expected, long actual) {
+			Assert.assertTrue("expected " + expected + " got " + actual, Math.abs(expected - actual) <= expected / 64.0);
+		}
+	}
+}
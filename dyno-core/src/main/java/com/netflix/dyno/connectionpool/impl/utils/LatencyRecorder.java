@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Records latencies into a {@link LatencyHistogram} per reporting interval, so that percentiles reflect recent 
+ * behavior instead of everything since startup. 
+ * 
+ * Writers record into the active half of a pair of histograms. Taking a snapshot swaps the halves and then waits for 
+ * the writers that were still on the old half to finish (a writer/reader phaser as in HdrHistogram's Recorder), hence 
+ * the snapshot holds exactly the values recorded since the previous one. Recording is lock free and does not allocate. 
+ * 
+ * Every metric gauge polls the recorder separately, so a snapshot is reused for reads that come within 
+ * minIntervalMillis of it. All the gauges of one poll then report the same interval. 
+ * 
+ * @author poberai
+ */
+public class LatencyRecorder {
+
+	public static final long DEFAULT_MIN_INTERVAL_MILLIS = 1000;
+
+	private final long minIntervalMillis;
+
+	private volatile LatencyHistogram active;
+	private LatencyHistogram inactive;
+	private volatile LatencyHistogram lastInterval;
+	private long lastIntervalTime;
+
+	// writer/reader phaser, the sign of the start epoch tells the writers which end epoch to bump
+	private final AtomicLong startEpoch = new AtomicLong(0);
+	private final AtomicLong evenEndEpoch = new AtomicLong(0);
+	private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+	public LatencyRecorder() {
+		this(LatencyHistogram.DEFAULT_SUB_BUCKET_BITS, DEFAULT_MIN_INTERVAL_MILLIS);
+	}
+
+	public LatencyRecorder(int subBucketBits, long minIntervalMillis) {
+		this.minIntervalMillis = minIntervalMillis;
+		this.active = new LatencyHistogram(subBucketBits);
+		this.inactive = new LatencyHistogram(subBucketBits);
+		this.lastInterval = new LatencyHistogram(subBucketBits);
+		this.lastIntervalTime = 0;
+	}
+
+	public void record(long value) {
+		long epoch = startEpoch.getAndIncrement();
+		try {
+			active.record(value);
+		} finally {
+			if (epoch < 0) {
+				oddEndEpoch.getAndIncrement();
+			} else {
+				evenEndEpoch.getAndIncrement();
+			}
+		}
+	}
+
+	/**
+	 * @return the histogram of the values recorded during the last interval. It is never modified once returned.
+	 */
+	public synchronized LatencyHistogram getIntervalHistogram() {
+
+		long now = System.currentTimeMillis();
+		if (now - lastIntervalTime >= minIntervalMillis) {
+			lastInterval = nextInterval();
+			lastIntervalTime = now;
+		}
+		return lastInterval;
+	}
+
+	private LatencyHistogram nextInterval() {
+
+		LatencyHistogram previous = active;
+		active = inactive;
+		inactive = previous;
+		flipPhase();
+
+		// no writer is on the previous half anymore
+		LatencyHistogram interval = previous.copy();
+		previous.reset();
+		return interval;
+	}
+
+	private void flipPhase() {
+
+		boolean nextPhaseIsEven = startEpoch.get() < 0;
+		long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+
+		(nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+		long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+
+		// wait for the writers that entered during the previous phase
+		AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+		while (previousEndEpoch.get() != startValueAtFlip) {
+			Thread.yield();
+		}
+	}
+
+	public static class UnitTest {
+
+		@Test
+		public void testIntervals() throws Exception {
+
+			LatencyRecorder recorder = new LatencyRecorder(LatencyHistogram.DEFAULT_SUB_BUCKET_BITS, 0);
+			for (int i=0; i<100; i++) {
+				recorder.record(10);
+			}
+			LatencyHistogram first = recorder.getIntervalHistogram();
+			Assert.assertEquals(100, first.getCount());
+			Assert.assertEquals(10, first.getPercentile(0.99));
+
+			recorder.record(5000);
+			LatencyHistogram second = recorder.getIntervalHistogram();
+			Assert.assertEquals(1, second.getCount());
+			Assert.assertTrue(second.getPercentile(0.5) >= 5000);
+
+			// snapshots are not modified afterwards
+			Assert.assertEquals(100, first.getCount());
+			Assert.assertEquals(0, recorder.getIntervalHistogram().getCount());
+		}
+
+		@Test
+		public void testSnapshotIsReusedWithinMinInterval() throws Exception {
+
+			LatencyRecorder recorder = new LatencyRecorder(LatencyHistogram.DEFAULT_SUB_BUCKET_BITS, 60000);
+			recorder.record(10);
+			LatencyHistogram interval = recorder.getIntervalHistogram();
+			Assert.assertEquals(1, interval.getCount());
+
+			recorder.record(10);
+			Assert.assertSame(interval, recorder.getIntervalHistogram());
+			Assert.assertEquals(1, recorder.getIntervalHistogram().getCount());
+		}
+
+		@Test
+		public void testNoValuesLostUnderConcurrency() throws Exception {
+
+			final LatencyRecorder recorder = new LatencyRecorder(LatencyHistogram.DEFAULT_SUB_BUCKET_BITS, 0);
+			final AtomicBoolean stop = new AtomicBoolean(false);
+
+			int numThreads = 4;
+			ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+			for (int i=0; i<numThreads; i++) {
+				futures.add(threadPool.submit(new Callable<Long>() {
+
+					@Override
+					public Long call() throws Exception {
+						long count = 0;
+						while (!stop.get()) {
+							recorder.record(count % 1000);
+							count++;
+						}
+						return count;
+					}
+				}));
+			}
+
+			long snapshotTotal = 0;
+			for (int i=0; i<200; i++) {
+				snapshotTotal += recorder.getIntervalHistogram().getCount();
+				Thread.sleep(1);
+			}
+			stop.set(true);
+
+			long recorded = 0;
+			for (Future<Long> future : futures) {
+				recorded += future.get();
+			}
+			threadPool.shutdownNow();
+			snapshotTotal += recorder.getIntervalHistogram().getCount();
+
+			Assert.assertEquals(recorded, snapshotTotal);
+		}
+	}
+}
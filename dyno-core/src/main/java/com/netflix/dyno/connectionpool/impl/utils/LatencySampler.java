@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Keeps the last N latency samples in a ring buffer and estimates percentiles over them. 
+ * 
+ * Recording is a single atomic increment and write. The percentile is computed by sorting a copy of the samples, 
+ * hence it is cached and only recomputed once a fraction of the buffer has been overwritten with new samples. 
+ * 
+ * @author poberai
+ */
+public class LatencySampler {
+
+	private final int size;
+	private final AtomicLongArray samples;
+	private final AtomicLong count = new AtomicLong(0);
+
+	private volatile CachedPercentile cached = new CachedPercentile(-1, -1L, -1L);
+
+	public LatencySampler(int size) {
+		this.size = size;
+		this.samples = new AtomicLongArray(size);
+	}
+
+	public void record(long latency) {
+		int index = (int) (count.getAndIncrement() % size);
+		samples.set(index, latency);
+	}
+
+	/**
+	 * @return total number of samples recorded so far
+	 */
+	public long getSampleCount() {
+		return count.get();
+	}
+
+	/**
+	 * @param percentile e.g 95 for p95
+	 * @return the percentile of the recent samples, or -1 when there are no samples yet
+	 */
+	public long getPercentile(int percentile) {
+
+		long currentCount = count.get();
+		if (currentCount == 0) {
+			return -1L;
+		}
+
+		CachedPercentile c = cached;
+		if (c.percentile == percentile && currentCount - c.sampleCount < Math.max(1, size / 8)) {
+			return c.value;
+		}
+
+		int n = (int) Math.min(currentCount, size);
+		long[] copy = new long[n];
+		for (int i=0; i<n; i++) {
+			copy[i] = samples.get(i);
+		}
+		Arrays.sort(copy);
+
+		int index = (int) Math.ceil(percentile / 100.0 * n) - 1;
+		long value = copy[Math.max(0, Math.min(index, n - 1))];
+
+		cached = new CachedPercentile(percentile, currentCount, value);
+		return value;
+	}
+
+	private static class CachedPercentile {
+
+		private final int percentile;
+		private final long sampleCount;
+		private final long value;
+
+		private CachedPercentile(int percentile, long sampleCount, long value) {
+			this.percentile = percentile;
+			this.sampleCount = sampleCount;
+			this.value = value;
+		}
+	}
+
+	public static class UnitTest {
+
+		@Test
+		public void testPercentile() throws Exception {
+
+			LatencySampler sampler = new LatencySampler(100);
+			Assert.assertEquals(-1L, sampler.getPercentile(95));
+
+			for (int i=1; i<=100; i++) {
+				sampler.record(i);
+			}
+			Assert.assertEquals(100, sampler.getSampleCount());
+			Assert.assertEquals(50L, sampler.getPercentile(50));
+			Assert.assertEquals(95L, sampler.getPercentile(95));
+			Assert.assertEquals(100L, sampler.getPercentile(100));
+		}
+
+		@Test
+		public void testOldSamplesAreOverwritten() throws Exception {
+
+			LatencySampler sampler = new LatencySampler(100);
+			for (int i=0; i<100; i++) {
+				sampler.record(1000);
+			}
+			Assert.assertEquals(1000L, sampler.getPercentile(95));
+
+			for (int i=0; i<100; i++) {
+				sampler.record(10);
+			}
+			Assert.assertEquals(10L, sampler.getPercentile(95));
+		}
+	}
+}
@@ -0,0 +1,534 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Lock free LIFO stack (Treiber stack) with an optional timed wait when the stack is empty.
+ *
+ * push() and poll() are a single CAS on the head of the stack and never take a lock. The most recently pushed
+ * element is handed out first, which for a connection pool means that the warmest connection gets reused and idle ones
+ * sink to the bottom of the stack.
+ *
+ * Threads calling {@link #poll(long, TimeUnit)} on an empty stack register themselves as waiters and park.
+ * Every push() unparks one waiter, hence the waiter queue is only touched when the stack has actually run dry.
+ *
+ * @author poberai
+ *
+ * @param <T>
+ */
+public class LockFreeStack<T> {
+
+	// The top of the stack
+	private final AtomicReference<Node<T>> head = new AtomicReference<Node<T>>(null);
+	// Threads parked waiting for an element to be pushed
+	private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+	private static class Node<T> {
+
+		private final T item;
+		// time at which the item was pushed on the stack, i.e since when it has been idle
+		private final long timestamp;
+		private Node<T> next;
+
+		private Node(T item) {
+			this(item, System.currentTimeMillis());
+		}
+
+		private Node(T item, long timestamp) {
+			this.item = item;
+			this.timestamp = timestamp;
+		}
+	}
+
+	public LockFreeStack() {
+	}
+
+	/**
+	 * Push an element on top of the stack and wake up a waiter if there is one
+	 * @param item
+	 */
+	public void push(T item) {
+
+		if (item == null) {
+			throw new NullPointerException();
+		}
+
+		pushNode(new Node<T>(item));
+	}
+
+	private void pushNode(Node<T> node) {
+
+		Node<T> top;
+		do {
+			top = head.get();
+			node.next = top;
+		} while (!head.compareAndSet(top, node));
+
+		signalWaiter();
+	}
+
+	/**
+	 * Pop the top of the stack
+	 * @return T or null if the stack is empty
+	 */
+	public T poll() {
+
+		Node<T> top;
+		do {
+			top = head.get();
+			if (top == null) {
+				return null;
+			}
+		} while (!head.compareAndSet(top, top.next));
+
+		return top.item;
+	}
+
+	/**
+	 * Pop the top of the stack, parking the calling thread for up to the specified time if the stack is empty
+	 * @param timeout
+	 * @param unit
+	 * @return T or null if nothing was pushed within the timeout
+	 * @throws InterruptedException
+	 */
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+
+		// fast path, no waiting required
+		T item = poll();
+		if (item != null) {
+			return item;
+		}
+
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		final Thread current = Thread.currentThread();
+
+		while (true) {
+
+			waiters.add(current);
+
+			// re-check after registering, else we could miss a push that happened before we were added as a waiter
+			item = poll();
+			if (item != null) {
+				waiters.remove(current);
+				return item;
+			}
+
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				waiters.remove(current);
+				// we may have swallowed a wakeup that was meant for us, pass it on
+				signalWaiterIfNotEmpty();
+				return null;
+			}
+
+			LockSupport.parkNanos(this, remaining);
+			waiters.remove(current);
+
+			if (Thread.interrupted()) {
+				signalWaiterIfNotEmpty();
+				throw new InterruptedException();
+			}
+
+			item = poll();
+			if (item != null) {
+				return item;
+			}
+		}
+	}
+
+	/**
+	 * Atomically remove all elements from the stack and add them to the given collection
+	 * @param collection
+	 * @return the no of elements drained
+	 */
+	public int drainTo(Collection<? super T> collection) {
+
+		Node<T> node = head.getAndSet(null);
+		int count = 0;
+		while (node != null) {
+			collection.add(node.item);
+			node = node.next;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Remove elements that have been sitting on the stack since before the given time, i.e elements that have been idle.
+	 * Since the stack is LIFO the idle elements are always at the bottom of the stack and the oldest ones are removed first.
+	 * 
+	 * Note that this briefly empties the stack and then puts back the elements that are still in use, 
+	 * hence it should only be called periodically and not on every push / poll.
+	 * 
+	 * @param idleSince
+	 * @param maxToRemove
+	 * @param collection
+	 * @return the no of elements removed
+	 */
+	public int drainIdle(long idleSince, int maxToRemove, Collection<? super T> collection) {
+
+		Node<T> node = head.getAndSet(null);
+
+		// newest first
+		List<Node<T>> nodes = new ArrayList<Node<T>>();
+		while (node != null) {
+			nodes.add(node);
+			node = node.next;
+		}
+
+		int removed = 0;
+		int index = nodes.size() - 1;
+		for (; index >= 0 && removed < maxToRemove; index--) {
+			Node<T> oldest = nodes.get(index);
+			if (oldest.timestamp >= idleSince) {
+				break;
+			}
+			collection.add(oldest.item);
+			removed++;
+		}
+
+		// put back the remaining elements oldest first, preserving their timestamps.
+		// Note that we must push new nodes here, re-linking the detached ones would rewrite their next pointers
+		// under a concurrent poll() that still holds a reference to them (ABA) and could resurrect removed elements
+		for (; index >= 0; index--) {
+			Node<T> remaining = nodes.get(index);
+			pushNode(new Node<T>(remaining.item, remaining.timestamp));
+		}
+		return removed;
+	}
+
+	public boolean isEmpty() {
+		return head.get() == null;
+	}
+
+	/**
+	 * Note that this walks the stack and hence is O(n). Should only be used for stats and debugging
+	 * @return int
+	 */
+	public int size() {
+		int count = 0;
+		Node<T> node = head.get();
+		while (node != null) {
+			count++;
+			node = node.next;
+		}
+		return count;
+	}
+
+	private void signalWaiter() {
+		Thread waiter = waiters.poll();
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	private void signalWaiterIfNotEmpty() {
+		if (head.get() != null) {
+			signalWaiter();
+		}
+	}
+
+	public static class UnitTest {
+
+		@Test
+		public void testLifoOrder() throws Exception {
+
+			LockFreeStack<Integer> stack = new LockFreeStack<Integer>();
+			Assert.assertTrue(stack.isEmpty());
+			Assert.assertNull(stack.poll());
+
+			for (int i=0; i<5; i++) {
+				stack.push(i);
+			}
+			Assert.assertEquals(5, stack.size());
+
+			for (int i=4; i>=0; i--) {
+				Assert.assertEquals(i, stack.poll().intValue());
+			}
+			Assert.assertTrue(stack.isEmpty());
+		}
+
+		@Test
+		public void testDrain() throws Exception {
+
+			LockFreeStack<Integer> stack = new LockFreeStack<Integer>();
+			for (int i=0; i<5; i++) {
+				stack.push(i);
+			}
+
+			List<Integer> list = new ArrayList<Integer>();
+			Assert.assertEquals(5, stack.drainTo(list));
+			Assert.assertEquals(5, list.size());
+			Assert.assertTrue(stack.isEmpty());
+		}
+
+		@Test
+		public void testDrainIdle() throws Exception {
+
+			LockFreeStack<Integer> stack = new LockFreeStack<Integer>();
+			for (int i=0; i<3; i++) {
+				stack.push(i);
+			}
+			Thread.sleep(20);
+			long idleSince = System.currentTimeMillis();
+			for (int i=3; i<5; i++) {
+				stack.push(i);
+			}
+
+			List<Integer> list = new ArrayList<Integer>();
+			Assert.assertEquals(2, stack.drainIdle(idleSince, 2, list));
+			Assert.assertEquals(0, list.get(0).intValue());
+			Assert.assertEquals(1, list.get(1).intValue());
+			Assert.assertEquals(3, stack.size());
+
+			list.clear();
+			Assert.assertEquals(1, stack.drainIdle(idleSince, 10, list));
+			Assert.assertEquals(2, list.get(0).intValue());
+
+			// LIFO order is preserved for the elements that remain
+			Assert.assertEquals(4, stack.poll().intValue());
+			Assert.assertEquals(3, stack.poll().intValue());
+			Assert.assertTrue(stack.isEmpty());
+		}
+
+		@Test
+		public void testConcurrentPollAndDrainIdle() throws Exception {
+
+			final int numElements = 16;
+			final LockFreeStack<Integer> stack = new LockFreeStack<Integer>();
+			for (int i=0; i<numElements; i++) {
+				stack.push(i);
+			}
+
+			final AtomicBoolean stop = new AtomicBoolean(false);
+			final ConcurrentLinkedQueue<Integer> drained = new ConcurrentLinkedQueue<Integer>();
+			final CountDownLatch latch = new CountDownLatch(4);
+			final AtomicBoolean duplicate = new AtomicBoolean(false);
+			final boolean[] borrowed = new boolean[numElements];
+
+			ExecutorService thPool = Executors.newFixedThreadPool(5);
+
+			// pollers borrow and return elements, an element must never be handed out twice
+			for (int i=0; i<4; i++) {
+				thPool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						while (!stop.get()) {
+							Integer item = stack.poll();
+							if (item == null) {
+								continue;
+							}
+							synchronized (borrowed) {
+								if (borrowed[item]) {
+									duplicate.set(true);
+								}
+								borrowed[item] = true;
+							}
+							synchronized (borrowed) {
+								borrowed[item] = false;
+							}
+							stack.push(item);
+						}
+						latch.countDown();
+						return null;
+					}
+				});
+			}
+
+			// drainer keeps removing "idle" elements, which must then never show up again
+			thPool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					while (!stop.get()) {
+						List<Integer> list = new ArrayList<Integer>();
+						stack.drainIdle(System.currentTimeMillis() + 1, 1, list);
+						drained.addAll(list);
+						if (drained.size() >= numElements/2) {
+							break;
+						}
+						Thread.sleep(1);
+					}
+					return null;
+				}
+			});
+
+			Thread.sleep(500);
+			stop.set(true);
+			latch.await();
+			thPool.shutdownNow();
+
+			Assert.assertFalse(duplicate.get());
+			List<Integer> remaining = new ArrayList<Integer>();
+			stack.drainTo(remaining);
+			for (Integer item : remaining) {
+				Assert.assertFalse("Drained element " + item + " was resurrected", drained.contains(item));
+			}
+			Assert.assertEquals(numElements, remaining.size() + drained.size());
+		}
+
+		@Test
+		public void testTimedPollOnEmptyStack() throws Exception {
+
+			LockFreeStack<Integer> stack = new LockFreeStack<Integer>();
+
+			long start = System.currentTimeMillis();
+			Assert.assertNull(stack.poll(50, TimeUnit.MILLISECONDS));
+			long duration = System.currentTimeMillis() - start;
+
+			Assert.assertTrue("Duration: " + duration, duration >= 45);
+		}
+
+		@Test
+		public void testWaiterIsWokenOnPush() throws Exception {
+
+			final LockFreeStack<Integer> stack = new LockFreeStack<Integer>();
+			ExecutorService thPool = Executors.newFixedThreadPool(1);
+
+			try {
+				Future<Integer> future = thPool.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						return stack.poll(5, TimeUnit.SECONDS);
+					}
+				});
+
+				Thread.sleep(100);
+				long start = System.currentTimeMillis();
+				stack.push(42);
+
+				Assert.assertEquals(42, future.get().intValue());
+				Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+			} finally {
+				thPool.shutdownNow();
+			}
+		}
+
+		/**
+		 * Contention benchmark that compares the stack against the {@link LinkedBlockingQueue} that HostConnectionPoolImpl used
+		 * to use. N threads borrow and return a fixed set of 8 "connections" as fast as they can.
+		 * This verifies that no elements are lost or duplicated and prints the throughput for both structures.
+		 */
+		@Test
+		public void testContentionBenchmark() throws Exception {
+
+			int[] threadCounts = {8, 64, 256};
+			int numElements = 8;
+			int durationMs = 1000;
+
+			for (int nThreads : threadCounts) {
+
+				final LockFreeStack<Integer> stack = new LockFreeStack<Integer>();
+				final LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+				for (int i=0; i<numElements; i++) {
+					stack.push(i);
+					queue.add(i);
+				}
+
+				long queueOps = runBenchmark(nThreads, durationMs, new Pool() {
+					@Override
+					public Integer borrow() throws InterruptedException {
+						return queue.poll(20, TimeUnit.MILLISECONDS);
+					}
+					@Override
+					public void release(Integer i) {
+						queue.add(i);
+					}
+				});
+
+				long stackOps = runBenchmark(nThreads, durationMs, new Pool() {
+					@Override
+					public Integer borrow() throws InterruptedException {
+						return stack.poll(20, TimeUnit.MILLISECONDS);
+					}
+					@Override
+					public void release(Integer i) {
+						stack.push(i);
+					}
+				});
+
+				System.out.println("Threads: " + nThreads + ", LinkedBlockingQueue ops/sec: " + (queueOps*1000/durationMs) +
+						", LockFreeStack ops/sec: " + (stackOps*1000/durationMs));
+
+				Assert.assertEquals(numElements, stack.size());
+				Assert.assertEquals(numElements, queue.size());
+				Assert.assertTrue(stackOps > 0);
+			}
+		}
+
+		private interface Pool {
+			Integer borrow() throws InterruptedException;
+			void release(Integer i);
+		}
+
+		private long runBenchmark(int nThreads, int durationMs, final Pool pool) throws Exception {
+
+			final AtomicBoolean stop = new AtomicBoolean(false);
+			final AtomicLong counter = new AtomicLong(0L);
+			final CountDownLatch latch = new CountDownLatch(nThreads);
+			final CyclicBarrier barrier = new CyclicBarrier(nThreads+1);
+
+			ExecutorService thPool = Executors.newFixedThreadPool(nThreads);
+
+			for (int i=0; i<nThreads; i++) {
+				thPool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						barrier.await();
+						long count = 0;
+						while (!stop.get()) {
+							Integer i = pool.borrow();
+							if (i != null) {
+								pool.release(i);
+								count++;
+							}
+						}
+						counter.addAndGet(count);
+						latch.countDown();
+						return null;
+					}
+				});
+			}
+
+			barrier.await();
+			Thread.sleep(durationMs);
+			stop.set(true);
+			latch.await();
+			thPool.shutdownNow();
+
+			return counter.get();
+		}
+	}
+}
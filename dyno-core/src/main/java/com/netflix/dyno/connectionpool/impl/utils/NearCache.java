@@ -0,0 +1,818 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.OperationMonitor;
+import com.netflix.dyno.connectionpool.impl.LastOperationMonitor;
+
+/**
+ * Optional in process cache for read results that sits in front of the connection pool. 
+ * 
+ * Entries are grouped by redis key. Each key can hold several cached results, one per sub key, e.g the result of GET
+ * or HGETALL for a key, or HGET for a specific field. A write to the key through the same client just drops the whole key. 
+ * Note that writes done by other clients are NOT seen, hence entries are only fresh up to their TTL. 
+ * 
+ * The cache is bounded by the estimated size of the entries in bytes and uses W-TinyLFU for eviction
+ * 1. New keys go into a small LRU admission window (1% of the capacity)
+ * 2. Keys that fall off the window compete with the LRU key of the main probation segment, and the one that 
+ *    has been used more often recently (as estimated by a {@link FrequencySketch}) stays. 
+ * 3. Keys that are hit while in probation are promoted to the protected segment (80% of the main space). 
+ * 
+ * Lookups, puts and invalidations only touch the concurrent map. What they mean for the eviction policy is recorded in 
+ * a read and a write buffer, which are drained in batches by whichever thread gets the policy lock, so callers never 
+ * wait on each other. The read buffer is lossy, under heavy contention some accesses are simply not recorded, which is 
+ * ok since the eviction policy is only an approximation anyway. The write buffer is not, and writers only wait for the 
+ * lock when it is backing up. Hence the size bound may be exceeded briefly until the next drain. 
+ * 
+ * Loads that race with writes are handled using invalidation stamps. The caller gets the stamp for the key before going
+ * to the server, and the loaded value is only cached if the key has not been invalidated in the meantime. 
+ * 
+ * @author poberai
+ */
+public class NearCache {
+
+	/**
+	 * Decides how long the results for a key can be cached. A TTL <= 0 means that the key is not cached at all.
+	 */
+	public interface TtlPolicy {
+		public long getTtlMillis(String key);
+	}
+
+	// rough per entry overhead of the node, maps and strings
+	private static final int ENTRY_OVERHEAD = 96;
+	private static final int STAMP_STRIPES = 1024;
+
+	// reads are applied once this many are buffered, and dropped beyond the max
+	private static final int READ_BUFFER_DRAIN_THRESHOLD = 32;
+	private static final int READ_BUFFER_MAX = 1024;
+	// writers wait for the policy lock once this many writes are buffered
+	private static final int WRITE_BUFFER_MAX = 1024;
+
+	private enum Segment {
+		WINDOW, PROBATION, PROTECTED;
+	}
+
+	private final ConcurrentHashMap<String, Node> data = new ConcurrentHashMap<String, Node>();
+	private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+	private final ReentrantLock policyLock = new ReentrantLock();
+
+	// keys that were looked up, and nodes that were added, changed or removed since the last drain
+	private final ConcurrentLinkedQueue<String> readBuffer = new ConcurrentLinkedQueue<String>();
+	private final AtomicInteger readBufferSize = new AtomicInteger(0);
+	private final ConcurrentLinkedQueue<Node> writeBuffer = new ConcurrentLinkedQueue<Node>();
+	private final AtomicInteger writeBufferSize = new AtomicInteger(0);
+
+	private final long maxBytes;
+	private final long maxWindowBytes;
+	private final long maxProtectedBytes;
+	private final TtlPolicy ttlPolicy;
+	private final OperationMonitor opMonitor;
+
+	// all below are guarded by the policy lock
+	private final AccessQueue window = new AccessQueue();
+	private final AccessQueue probation = new AccessQueue();
+	private final AccessQueue protectedQueue = new AccessQueue();
+	private final FrequencySketch sketch;
+
+	public NearCache(long maxBytes, final long ttlMillis, OperationMonitor monitor) {
+		this(maxBytes, new TtlPolicy() {
+			@Override
+			public long getTtlMillis(String key) {
+				return ttlMillis;
+			}
+		}, monitor);
+	}
+
+	public NearCache(long maxBytes, TtlPolicy ttlPolicy, OperationMonitor monitor) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes must be > 0");
+		}
+		this.maxBytes = maxBytes;
+		this.maxWindowBytes = Math.max(1, maxBytes / 100);
+		this.maxProtectedBytes = (maxBytes - maxWindowBytes) * 8 / 10;
+		this.ttlPolicy = ttlPolicy;
+		this.opMonitor = monitor;
+		this.sketch = new FrequencySketch((int) Math.min(1 << 24, Math.max(1024, maxBytes / 256)));
+	}
+
+	/**
+	 * @param opName
+	 * @param key
+	 * @param subKey
+	 * @return the cached result or null if there isn't one
+	 */
+	public Object get(String opName, String key, String subKey) {
+
+		Node node = data.get(key);
+		Object value = null;
+
+		if (node != null) {
+			if (node.expireAt <= System.currentTimeMillis()) {
+				if (data.remove(key, node)) {
+					retire(node);
+					opMonitor.recordNearCacheEviction();
+				}
+			} else {
+				value = node.values.get(subKey);
+			}
+		}
+
+		afterRead(key);
+
+		if (value != null) {
+			opMonitor.recordNearCacheHit(opName);
+		} else {
+			opMonitor.recordNearCacheMiss(opName);
+		}
+		return value;
+	}
+
+	/**
+	 * @param key
+	 * @return the stamp to pass to {@link #put(String, String, Object, int, long)} after loading the key
+	 */
+	public long getStamp(String key) {
+		return stamps.get(stripe(key));
+	}
+
+	/**
+	 * Cache the loaded result for a key, unless the key was invalidated after the stamp was taken
+	 * @param key
+	 * @param subKey
+	 * @param value
+	 * @param weight the estimated size of the value in bytes
+	 * @param stamp
+	 */
+	public void put(String key, String subKey, Object value, int weight, long stamp) {
+
+		if (key == null || value == null) {
+			return;
+		}
+		long ttl = ttlPolicy.getTtlMillis(key);
+		if (ttl <= 0) {
+			return;
+		}
+		if (stamps.get(stripe(key)) != stamp) {
+			// the key was written to while we were loading it
+			return;
+		}
+
+		int subKeyWeight = 2 * subKey.length() + weight;
+		Node node;
+		while (true) {
+			node = data.get(key);
+			if (node != null && node.expireAt <= System.currentTimeMillis()) {
+				if (data.remove(key, node)) {
+					retire(node);
+				}
+				continue;
+			}
+
+			if (node == null) {
+				if (ENTRY_OVERHEAD + 2 * key.length() + subKeyWeight > maxBytes) {
+					return;
+				}
+				Node created = new Node(key, subKey, value, subKeyWeight, 2 * key.length(), System.currentTimeMillis() + ttl);
+				node = data.putIfAbsent(key, created);
+				if (node == null) {
+					node = created;
+					break;
+				}
+			}
+
+			// add the sub key to the existing key, keeping its original expiry
+			if (node.put(subKey, value, subKeyWeight)) {
+				break;
+			}
+			// the node was removed concurrently, try again with whatever replaced it
+		}
+
+		// a write that landed after the stamp check may have missed the value we just added, hence drop it ourselves
+		if (stamps.get(stripe(key)) != stamp && data.remove(key, node)) {
+			node.retire();
+		}
+		afterWrite(node);
+	}
+
+	/**
+	 * Drop everything cached for the key. Must be called after every write to the key
+	 * @param key
+	 */
+	public void invalidate(String key) {
+
+		if (key == null) {
+			return;
+		}
+		stamps.incrementAndGet(stripe(key));
+		Node node = data.get(key);
+		if (node != null && data.remove(key, node)) {
+			retire(node);
+		}
+	}
+
+	public void invalidateAll() {
+		policyLock.lock();
+		try {
+			for (int i=0; i<STAMP_STRIPES; i++) {
+				stamps.incrementAndGet(i);
+			}
+			for (Node node : data.values()) {
+				if (data.remove(node.key, node)) {
+					node.retire();
+					writeBuffer.add(node);
+					writeBufferSize.incrementAndGet();
+				}
+			}
+			drainBuffers();
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	public int size() {
+		return data.size();
+	}
+
+	public long getWeightedSize() {
+		policyLock.lock();
+		try {
+			drainBuffers();
+			return totalWeight();
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Rough estimate of the size of a cached value in bytes
+	 * @param value
+	 * @return int
+	 */
+	public static int estimateWeight(Object value) {
+
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof String) {
+			return 40 + 2 * ((String) value).length();
+		}
+		if (value instanceof byte[]) {
+			return 16 + ((byte[]) value).length;
+		}
+		if (value instanceof Map) {
+			int weight = 48;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				weight += 32 + estimateWeight(entry.getKey()) + estimateWeight(entry.getValue());
+			}
+			return weight;
+		}
+		if (value instanceof List) {
+			int weight = 40;
+			for (Object element : (List<?>) value) {
+				weight += 8 + estimateWeight(element);
+			}
+			return weight;
+		}
+		return 16;
+	}
+
+	private void afterRead(String key) {
+
+		if (readBufferSize.get() >= READ_BUFFER_MAX) {
+			// the policy is falling behind, it is fine to miss some accesses
+			tryDrainBuffers();
+			return;
+		}
+		readBuffer.add(key);
+		if (readBufferSize.incrementAndGet() >= READ_BUFFER_DRAIN_THRESHOLD) {
+			tryDrainBuffers();
+		}
+	}
+
+	/**
+	 * Called by whoever removed the node from the map
+	 * @param node
+	 */
+	private void retire(Node node) {
+		node.retire();
+		afterWrite(node);
+	}
+
+	private void afterWrite(Node node) {
+
+		writeBuffer.add(node);
+		if (writeBufferSize.incrementAndGet() < WRITE_BUFFER_MAX) {
+			tryDrainBuffers();
+			return;
+		}
+
+		// do not let the writes pile up faster than they can be applied
+		policyLock.lock();
+		try {
+			drainBuffers();
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	private void tryDrainBuffers() {
+
+		// events that are added while a drain is finishing up are picked up by another round
+		do {
+			if (!policyLock.tryLock()) {
+				return;
+			}
+			try {
+				drainBuffers();
+			} finally {
+				policyLock.unlock();
+			}
+		} while (writeBufferSize.get() > 0);
+	}
+
+	// ALL METHODS BELOW MUST BE CALLED WITH THE POLICY LOCK HELD
+
+	private void drainBuffers() {
+
+		String key;
+		while ((key = readBuffer.poll()) != null) {
+			readBufferSize.decrementAndGet();
+			onAccess(key);
+		}
+
+		Node node;
+		while ((node = writeBuffer.poll()) != null) {
+			writeBufferSize.decrementAndGet();
+			onWrite(node);
+		}
+
+		evict();
+	}
+
+	private void onAccess(String key) {
+
+		sketch.increment(spread(key.hashCode()));
+
+		Node node = data.get(key);
+		if (node == null || node.segment == null) {
+			// miss, or the node is not part of the policy yet or anymore
+			return;
+		}
+
+		switch (node.segment) {
+		case WINDOW:
+			window.moveToLast(node);
+			break;
+		case PROBATION:
+			probation.remove(node);
+			protectedQueue.addLast(node);
+			node.segment = Segment.PROTECTED;
+			// keep the protected segment in bounds by demoting its LRU entries
+			while (protectedQueue.weight > maxProtectedBytes) {
+				Node demoted = protectedQueue.removeFirst();
+				probation.addLast(demoted);
+				demoted.segment = Segment.PROBATION;
+			}
+			break;
+		case PROTECTED:
+			protectedQueue.moveToLast(node);
+			break;
+		}
+	}
+
+	/**
+	 * Brings the policy in line with the node, which may have been added, grown or removed. Writes to the same node can be
+	 * buffered in any order, hence this only looks at the node's current state and never at what the write was. 
+	 * @param node
+	 */
+	private void onWrite(Node node) {
+
+		if (node.isRetired()) {
+			if (node.segment != null) {
+				queueOf(node).remove(node);
+				node.segment = null;
+			}
+		} else if (node.segment == null) {
+			if (!node.admitted) {
+				node.admitted = true;
+				node.policyWeight = node.weight;
+				window.addLast(node);
+				node.segment = Segment.WINDOW;
+			}
+		} else {
+			int weight = node.weight;
+			queueOf(node).weight += weight - node.policyWeight;
+			node.policyWeight = weight;
+		}
+	}
+
+	private void evict() {
+
+		// move the overflow of the admission window into the main space, where it has to earn its place
+		while (window.weight > maxWindowBytes && window.head != null) {
+			Node candidate = window.removeFirst();
+			candidate.segment = null;
+			admit(candidate);
+		}
+
+		// entries can grow in place, so make sure that we are still under the bound
+		while (totalWeight() > maxBytes) {
+			Node victim = (probation.head != null) ? probation.head : (protectedQueue.head != null ? protectedQueue.head : window.head);
+			evictNode(victim);
+		}
+	}
+
+	private void admit(Node candidate) {
+
+		long maxMainBytes = maxBytes - maxWindowBytes;
+		int candidateFreq = sketch.frequency(spread(candidate.key.hashCode()));
+
+		while (probation.weight + protectedQueue.weight + candidate.policyWeight > maxMainBytes) {
+
+			Node victim = (probation.head != null) ? probation.head : protectedQueue.head;
+			if (victim == null) {
+				break;
+			}
+			int victimFreq = sketch.frequency(spread(victim.key.hashCode()));
+			if (candidateFreq > victimFreq) {
+				evictNode(victim);
+			} else {
+				evictNode(candidate);
+				return;
+			}
+		}
+
+		probation.addLast(candidate);
+		candidate.segment = Segment.PROBATION;
+	}
+
+	private void evictNode(Node node) {
+		if (node.segment != null) {
+			queueOf(node).remove(node);
+			node.segment = null;
+		}
+		if (data.remove(node.key, node)) {
+			node.retire();
+			opMonitor.recordNearCacheEviction();
+		}
+	}
+
+	private AccessQueue queueOf(Node node) {
+		switch (node.segment) {
+		case WINDOW:
+			return window;
+		case PROBATION:
+			return probation;
+		default:
+			return protectedQueue;
+		}
+	}
+
+	private long totalWeight() {
+		return window.weight + probation.weight + protectedQueue.weight;
+	}
+
+	private int stripe(String key) {
+		return spread(key.hashCode()) & (STAMP_STRIPES - 1);
+	}
+
+	private static int spread(int h) {
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+
+	private static class Node {
+
+		private final String key;
+		private final long expireAt;
+		// replaced, never modified, so that lock free readers always see a consistent map
+		private volatile Map<String, Object> values;
+		// the weight of the node as a whole, and of each sub key, guarded by the node itself
+		private volatile int weight;
+		private final Map<String, Integer> subKeyWeights = new HashMap<String, Integer>(2);
+		// set once the node is no longer in the map, guarded by the node itself
+		private boolean retired = false;
+
+		// guarded by the policy lock, segment is null until the node is added to the policy and once it is removed
+		private Segment segment;
+		private boolean admitted = false;
+		private int policyWeight;
+		private Node prev;
+		private Node next;
+
+		private Node(String key, String subKey, Object value, int subKeyWeight, int keyWeight, long expireAt) {
+			this.key = key;
+			this.values = Collections.singletonMap(subKey, value);
+			this.subKeyWeights.put(subKey, subKeyWeight);
+			this.weight = ENTRY_OVERHEAD + keyWeight + subKeyWeight;
+			this.expireAt = expireAt;
+		}
+
+		/**
+		 * Adds or replaces the value for the sub key
+		 * @return false if the node was already removed
+		 */
+		private synchronized boolean put(String subKey, Object value, int subKeyWeight) {
+			if (retired) {
+				return false;
+			}
+			Map<String, Object> newValues = new HashMap<String, Object>(values);
+			newValues.put(subKey, value);
+			values = newValues;
+
+			Integer prevWeight = subKeyWeights.put(subKey, subKeyWeight);
+			weight += subKeyWeight - ((prevWeight != null) ? prevWeight : 0);
+			return true;
+		}
+
+		private synchronized void retire() {
+			retired = true;
+		}
+
+		private synchronized boolean isRetired() {
+			return retired;
+		}
+	}
+
+	/**
+	 * Doubly linked list of nodes in access order, LRU at the head
+	 */
+	private static class AccessQueue {
+
+		private Node head;
+		private Node tail;
+		private long weight;
+
+		private void addLast(Node node) {
+			node.prev = tail;
+			node.next = null;
+			if (tail == null) {
+				head = node;
+			} else {
+				tail.next = node;
+			}
+			tail = node;
+			weight += node.policyWeight;
+		}
+
+		private Node removeFirst() {
+			Node node = head;
+			remove(node);
+			return node;
+		}
+
+		private void remove(Node node) {
+			if (node.prev == null) {
+				head = node.next;
+			} else {
+				node.prev.next = node.next;
+			}
+			if (node.next == null) {
+				tail = node.prev;
+			} else {
+				node.next.prev = node.prev;
+			}
+			node.prev = null;
+			node.next = null;
+			weight -= node.policyWeight;
+		}
+
+		private void moveToLast(Node node) {
+			if (tail != node) {
+				remove(node);
+				addLast(node);
+			}
+		}
+	}
+
+	public static class UnitTest {
+
+		@Test
+		public void testGetPutAndInvalidate() throws Exception {
+
+			NearCache cache = new NearCache(1024 * 1024, 60000, new LastOperationMonitor());
+
+			Assert.assertNull(cache.get("GET", "k1", "GET"));
+
+			long stamp = cache.getStamp("k1");
+			cache.put("k1", "GET", "v1", estimateWeight("v1"), stamp);
+			Assert.assertEquals("v1", cache.get("GET", "k1", "GET"));
+
+			// other sub keys of the same key
+			Assert.assertNull(cache.get("HGET", "k1", "HGET:f1"));
+			cache.put("k1", "HGET:f1", "fv1", estimateWeight("fv1"), cache.getStamp("k1"));
+			Assert.assertEquals("fv1", cache.get("HGET", "k1", "HGET:f1"));
+			Assert.assertEquals("v1", cache.get("GET", "k1", "GET"));
+
+			cache.invalidate("k1");
+			Assert.assertNull(cache.get("GET", "k1", "GET"));
+			Assert.assertNull(cache.get("HGET", "k1", "HGET:f1"));
+			Assert.assertEquals(0, cache.size());
+			Assert.assertEquals(0L, cache.getWeightedSize());
+		}
+
+		@Test
+		public void testReplacingSubKeyKeepsWeight() throws Exception {
+
+			NearCache cache = new NearCache(1024 * 1024, 60000, new LastOperationMonitor());
+
+			cache.put("k1", "GET", "v1", estimateWeight("v1"), cache.getStamp("k1"));
+			long weight = cache.getWeightedSize();
+
+			String longValue = "a much longer value than the first one";
+			cache.put("k1", "GET", longValue, estimateWeight(longValue), cache.getStamp("k1"));
+			Assert.assertEquals(longValue, cache.get("GET", "k1", "GET"));
+			Assert.assertEquals(weight + estimateWeight(longValue) - estimateWeight("v1"), cache.getWeightedSize());
+
+			// replacing it again with the same value does not grow the key
+			for (int i=0; i<10; i++) {
+				cache.put("k1", "GET", "v1", estimateWeight("v1"), cache.getStamp("k1"));
+			}
+			Assert.assertEquals(weight, cache.getWeightedSize());
+
+			cache.invalidate("k1");
+			Assert.assertEquals(0L, cache.getWeightedSize());
+		}
+
+		@Test
+		public void testConcurrentAccess() throws Exception {
+
+			final NearCache cache = new NearCache(20 * 1000, 60000, new LastOperationMonitor());
+			final int numThreads = 8;
+			final int numKeys = 500;
+			final CyclicBarrier barrier = new CyclicBarrier(numThreads);
+			final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int t=0; t<numThreads; t++) {
+				final Random random = new Random(t);
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						try {
+							barrier.await();
+							for (int i=0; i<50000; i++) {
+								String key = "key" + random.nextInt(numKeys);
+								String subKey = "HGET:f" + random.nextInt(4);
+								int op = random.nextInt(10);
+								if (op == 0) {
+									cache.invalidate(key);
+								} else if (op < 4) {
+									String value = "value" + random.nextInt(100);
+									cache.put(key, subKey, value, estimateWeight(value), cache.getStamp(key));
+								} else {
+									cache.get("HGET", key, subKey);
+								}
+							}
+						} catch (Throwable e) {
+							error.set(e);
+						}
+					}
+				};
+				threads.add(thread);
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			Assert.assertNull(error.get());
+
+			// once the buffers are drained, the policy accounts for exactly the nodes in the map
+			long weightedSize = cache.getWeightedSize();
+			Assert.assertTrue("size: " + weightedSize, weightedSize <= 20 * 1000);
+			long weight = 0;
+			for (Node node : cache.data.values()) {
+				Assert.assertNotNull(node.segment);
+				Assert.assertEquals(node.weight, node.policyWeight);
+				weight += node.weight;
+			}
+			Assert.assertEquals(weight, weightedSize);
+
+			for (int i=0; i<numKeys; i++) {
+				cache.invalidate("key" + i);
+			}
+			Assert.assertEquals(0, cache.size());
+			Assert.assertEquals(0L, cache.getWeightedSize());
+		}
+
+		@Test
+		public void testLoadRacingWithWrite() throws Exception {
+
+			NearCache cache = new NearCache(1024 * 1024, 60000, new LastOperationMonitor());
+
+			long stamp = cache.getStamp("k1");
+			// a write lands while we are loading the old value
+			cache.invalidate("k1");
+			cache.put("k1", "GET", "old", estimateWeight("old"), stamp);
+
+			Assert.assertNull(cache.get("GET", "k1", "GET"));
+		}
+
+		@Test
+		public void testTtl() throws Exception {
+
+			NearCache cache = new NearCache(1024 * 1024, new TtlPolicy() {
+				@Override
+				public long getTtlMillis(String key) {
+					if (key.startsWith("nocache")) {
+						return 0;
+					}
+					return key.startsWith("short") ? 50 : 60000;
+				}
+			}, new LastOperationMonitor());
+
+			cache.put("nocache1", "GET", "v", 10, cache.getStamp("nocache1"));
+			cache.put("short1", "GET", "v", 10, cache.getStamp("short1"));
+			cache.put("long1", "GET", "v", 10, cache.getStamp("long1"));
+
+			Assert.assertNull(cache.get("GET", "nocache1", "GET"));
+			Assert.assertEquals("v", cache.get("GET", "short1", "GET"));
+
+			Thread.sleep(100);
+
+			Assert.assertNull(cache.get("GET", "short1", "GET"));
+			Assert.assertEquals("v", cache.get("GET", "long1", "GET"));
+			Assert.assertEquals(1, cache.size());
+		}
+
+		@Test
+		public void testSizeBound() throws Exception {
+
+			NearCache cache = new NearCache(100 * 1000, 60000, new LastOperationMonitor());
+			for (int i=0; i<10000; i++) {
+				String key = "key" + i;
+				cache.put(key, "GET", "value" + i, estimateWeight("value" + i), cache.getStamp(key));
+			}
+			Assert.assertTrue("size: " + cache.getWeightedSize(), cache.getWeightedSize() <= 100 * 1000);
+			Assert.assertTrue(cache.size() > 0);
+		}
+
+		@Test
+		public void testFrequentKeysSurviveScan() throws Exception {
+
+			NearCache cache = new NearCache(100 * 1000, 60000, new LastOperationMonitor());
+
+			// a small set of hot keys that are read over and over
+			for (int round=0; round<10; round++) {
+				for (int i=0; i<50; i++) {
+					String key = "hot" + i;
+					if (cache.get("GET", key, "GET") == null) {
+						cache.put(key, "GET", "value", estimateWeight("value"), cache.getStamp(key));
+					}
+				}
+			}
+
+			// followed by a one time scan over lots of cold keys, which would flush out the hot keys with plain LRU
+			for (int i=0; i<20000; i++) {
+				String key = "cold" + i;
+				if (cache.get("GET", key, "GET") == null) {
+					cache.put(key, "GET", "value", estimateWeight("value"), cache.getStamp(key));
+				}
+			}
+
+			int hits = 0;
+			for (int i=0; i<50; i++) {
+				if (cache.get("GET", "hot" + i, "GET") != null) {
+					hits++;
+				}
+			}
+			Assert.assertTrue("hot hits: " + hits, hits >= 45);
+		}
+	}
+}
@@ -5,95 +5,181 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Assert;
 
 import org.junit.Test;
 
+/**
+ * Token bucket rate limiter that refills continuously, i.e a permit becomes available every 1/rps seconds instead of 
+ * the whole second's worth at the top of each second. Up to burst permits can accumulate while the limiter is idle. 
+ * 
+ * The bucket is kept as the theoretical time at which the next permit is due (GCRA), so acquiring a permit is a single 
+ * CAS and callers never block unless they ask to wait via {@link #tryAcquire(long, TimeUnit)}. 
+ * 
+ * @author poberai
+ *
+ */
 public class RateLimitUtil {
 
-	private final AtomicReference<InnerState> ref = new AtomicReference<InnerState>(null);
+	private final int rps;
+	private final long intervalNanos;
+	private final long burstNanos;
 	
-	private RateLimitUtil(int rps) {
-		this.ref.set(new InnerState(rps));
+	// the time at which all the permits taken so far are paid for, i.e the bucket is full again
+	private final AtomicLong nextFreeNanos;
+	
+	private RateLimitUtil(int rps, int burst) {
+		if (rps <= 0) {
+			throw new IllegalArgumentException("rps must be > 0: " + rps);
+		}
+		if (burst <= 0) {
+			throw new IllegalArgumentException("burst must be > 0: " + burst);
+		}
+		this.rps = rps;
+		this.intervalNanos = Math.max(1L, TimeUnit.SECONDS.toNanos(1) / rps);
+		this.burstNanos = burst * intervalNanos;
+		this.nextFreeNanos = new AtomicLong(System.nanoTime());
 	}
 	
+	/**
+	 * @param n permits per second
+	 * @return rate limiter that allows bursts of a tenth of a second's worth of permits
+	 */
 	public static RateLimitUtil create(int n) {
-		return new RateLimitUtil(n);
+		return new RateLimitUtil(n, Math.max(1, n/10));
+	}
+	
+	/**
+	 * @param n permits per second
+	 * @param burst max permits that can be taken at once after the limiter has been idle
+	 * @return rate limiter
+	 */
+	public static RateLimitUtil create(int n, int burst) {
+		return new RateLimitUtil(n, burst);
 	}
 	
 	public int getRps() {
-		return ref.get().getRps();
+		return rps;
 	}
 	
+	/**
+	 * Same as {@link #tryAcquire()}, kept for existing callers
+	 * @return true if a permit was acquired
+	 */
 	public boolean acquire() {
-		
-		if (ref.get().checkSameSecond()) {
-			long timeToSleepMs = ref.get().increment();
-			if (timeToSleepMs != -1) {
-				try {
-					Thread.sleep(timeToSleepMs);
-					return false;
-				} catch (InterruptedException e) {
-					// do nothing here
-					return false;
-				}
-			} else {
-				return true;
-			}
-			
-		} else {
-			
-			InnerState oldState = ref.get();
-			InnerState newState = new InnerState(oldState.limit);
-			
-			ref.compareAndSet(oldState, newState);
-			return false;
-		}
+		return tryAcquire();
 	}
 	
+	/**
+	 * @return true if a permit was available right away
+	 */
+	public boolean tryAcquire() {
+		return tryAcquire(1, 0, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * @param timeout
+	 * @param unit
+	 * @return true if a permit was acquired, waiting at most timeout for one to become available
+	 */
+	public boolean tryAcquire(long timeout, TimeUnit unit) {
+		return tryAcquire(1, timeout, unit);
+	}
 	
-	private class InnerState {
+	/**
+	 * Acquires the permits if they are available now or will be within the timeout, in which case the calling thread 
+	 * sleeps until then. Returns right away, without waiting, if the permits cannot be had within the timeout. 
+	 * 
+	 * @param permits
+	 * @param timeout
+	 * @param unit
+	 * @return true if the permits were acquired
+	 */
+	public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
 		
-		private final AtomicInteger counter = new AtomicInteger();
-		private final AtomicLong second = new AtomicLong(0L);
-		private final AtomicLong origTime = new AtomicLong(0L);
-
-		private final int limit; 
+		long timeoutNanos = unit.toNanos(timeout);
+		long waitNanos; 
 		
-		private InnerState(int limit) {
-			this.limit = limit;
-			counter.set(0);
-			origTime.set(System.currentTimeMillis());
-			second.set(origTime.get()/1000);
+		while (true) {
+			long now = System.nanoTime();
+			long nextFree = nextFreeNanos.get();
+			
+			// an idle bucket does not fill up beyond full
+			long base = Math.max(nextFree, now);
+			long next = base + permits * intervalNanos;
+			
+			// the permits can be had once no more than a burst worth of them is outstanding
+			waitNanos = next - burstNanos - now;
+			if (waitNanos > timeoutNanos) {
+				return false;
+			}
+			if (nextFreeNanos.compareAndSet(nextFree, next)) {
+				break;
+			}
 		}
 		
-		private boolean checkSameSecond() {
-			long time = System.currentTimeMillis();
-			return second.get() == time/1000;
+		if (waitNanos > 0) {
+			sleepUninterruptibly(waitNanos);
 		}
+		return true;
+	}
+	
+	private static void sleepUninterruptibly(long nanos) {
 		
-		private long increment() {
-			
-			if (counter.get() < limit) {
-				counter.incrementAndGet();
-				return -1;
-			} else {
-				return System.currentTimeMillis() - origTime.get();
+		boolean interrupted = false;
+		long end = System.nanoTime() + nanos;
+		try {
+			while (nanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(nanos);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+				nanos = end - System.nanoTime();
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
 			}
-		}
-		
-		private int getRps() {
-			return limit;
 		}
 	}
 	
 	 public static class UnitTest { 
 	    	
+	    	@Test
+	    	public void testBurstThenRefill() throws Exception {
+	    		
+	    		RateLimitUtil limiter = RateLimitUtil.create(10, 5);
+	    		for (int i=0; i<5; i++) {
+	    			Assert.assertTrue(limiter.tryAcquire());
+	    		}
+	    		Assert.assertFalse(limiter.tryAcquire());
+	    		
+	    		// a permit comes back every 100 ms, not at the top of the next second
+	    		Thread.sleep(150);
+	    		Assert.assertTrue(limiter.tryAcquire());
+	    		Assert.assertFalse(limiter.tryAcquire());
+	    	}
+	    	
+	    	@Test
+	    	public void testTryAcquireWithTimeout() throws Exception {
+	    		
+	    		RateLimitUtil limiter = RateLimitUtil.create(20, 1);
+	    		Assert.assertTrue(limiter.tryAcquire());
+	    		
+	    		// the next permit is due in 50 ms
+	    		Assert.assertFalse(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+	    		
+	    		long start = System.nanoTime();
+	    		Assert.assertTrue(limiter.tryAcquire(200, TimeUnit.MILLISECONDS));
+	    		long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	    		Assert.assertTrue("Waited " + waitedMillis, waitedMillis >= 30 && waitedMillis < 200);
+	    	}
+	    	
 	    	@Test
 	    	public void testRate() throws Exception {
 	    	
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.connectionpool.impl.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Counter for hot paths that are hit by many threads at once, along the lines of LongAdder which is not available on java 6. 
+ * 
+ * Updates go to a single base value as long as they do not contend. The first time a CAS on the base fails, the counter 
+ * inflates into a set of stripes, each on its own cache line, and threads then update the stripe picked by their id. 
+ * Reads sum the base and the stripes, so a read is a cheap but not an atomic snapshot of concurrent updates. 
+ * 
+ * @author poberai
+ */
+public class StripedCounter {
+
+	private static final int NUM_STRIPES;
+	// 8 longs, keep each stripe on its own cache line
+	private static final int STRIPE_STRIDE = 8;
+
+	static {
+		int stripes = 1;
+		while (stripes < Math.min(Runtime.getRuntime().availableProcessors(), 64)) {
+			stripes <<= 1;
+		}
+		NUM_STRIPES = stripes;
+	}
+
+	private final AtomicLong base = new AtomicLong(0L);
+	private final AtomicReference<AtomicLongArray> stripes = new AtomicReference<AtomicLongArray>(null);
+
+	public void increment() {
+		add(1L);
+	}
+
+	public void add(long delta) {
+
+		AtomicLongArray cells = stripes.get();
+		if (cells == null) {
+			long current = base.get();
+			if (base.compareAndSet(current, current + delta)) {
+				return;
+			}
+			// contention, spread the updates from now on
+			stripes.compareAndSet(null, new AtomicLongArray(NUM_STRIPES * STRIPE_STRIDE));
+			cells = stripes.get();
+		}
+
+		int stripe = (int) (Thread.currentThread().getId() & (NUM_STRIPES - 1));
+		cells.getAndAdd(stripe * STRIPE_STRIDE, delta);
+	}
+
+	/**
+	 * @return the sum of all the updates
+	 */
+	public long get() {
+
+		long sum = base.get();
+		AtomicLongArray cells = stripes.get();
+		if (cells != null) {
+			for (int i=0; i<NUM_STRIPES; i++) {
+				sum += cells.get(i * STRIPE_STRIDE);
+			}
+		}
+		return sum;
+	}
+
+	public String toString() {
+		return String.valueOf(get());
+	}
+
+	public static class UnitTest {
+
+		@Test
+		public void testSingleThread() throws Exception {
+
+			StripedCounter counter = new StripedCounter();
+			Assert.assertEquals(0, counter.get());
+
+			counter.increment();
+			counter.add(10);
+			counter.add(-3);
+			Assert.assertEquals(8, counter.get());
+			Assert.assertNull(counter.stripes.get());
+		}
+
+		@Test
+		public void testConcurrentUpdates() throws Exception {
+
+			final StripedCounter counter = new StripedCounter();
+
+			int numThreads = 8;
+			final int perThread = 100000;
+			ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+			final CyclicBarrier barrier = new CyclicBarrier(numThreads);
+
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i=0; i<numThreads; i++) {
+				futures.add(threadPool.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						barrier.await();
+						for (int j=0; j<perThread; j++) {
+							counter.increment();
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+			threadPool.shutdownNow();
+
+			Assert.assertEquals(numThreads * perThread, counter.get());
+		}
+
+		@Test
+		public void testContentionBenchmark() throws Exception {
+
+			int[] threadCounts = {1, 8, 64};
+			int durationMs = 500;
+
+			for (int nThreads : threadCounts) {
+
+				final AtomicLong atomic = new AtomicLong(0L);
+				final StripedCounter striped = new StripedCounter();
+
+				long atomicOps = runBenchmark(nThreads, durationMs, new Counter() {
+					@Override
+					public void increment() {
+						atomic.incrementAndGet();
+					}
+					@Override
+					public long get() {
+						return atomic.get();
+					}
+				});
+
+				long stripedOps = runBenchmark(nThreads, durationMs, new Counter() {
+					@Override
+					public void increment() {
+						striped.increment();
+					}
+					@Override
+					public long get() {
+						return striped.get();
+					}
+				});
+
+				System.out.println("Threads: " + nThreads + ", AtomicLong ops/sec: " + (atomicOps*1000/durationMs) +
+						", StripedCounter ops/sec: " + (stripedOps*1000/durationMs));
+
+				Assert.assertTrue(stripedOps > 0);
+			}
+		}
+
+		private interface Counter {
+			void increment();
+			long get();
+		}
+
+		private long runBenchmark(int nThreads, int durationMs, final Counter counter) throws Exception {
+
+			final AtomicBoolean stop = new AtomicBoolean(false);
+			final AtomicLong total = new AtomicLong(0L);
+			final CountDownLatch latch = new CountDownLatch(nThreads);
+			final CyclicBarrier barrier = new CyclicBarrier(nThreads+1);
+
+			ExecutorService thPool = Executors.newFixedThreadPool(nThreads);
+
+			for (int i=0; i<nThreads; i++) {
+				thPool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						barrier.await();
+						long count = 0;
+						while (!stop.get()) {
+							counter.increment();
+							count++;
+						}
+						total.addAndGet(count);
+						latch.countDown();
+						return null;
+					}
+				});
+			}
+
+			barrier.await();
+			Thread.sleep(durationMs);
+			stop.set(true);
+			latch.await();
+			thPool.shutdownNow();
+
+			// every update is counted, no matter how contended
+			Assert.assertEquals(total.get(), counter.get());
+			return total.get();
+		}
+	}
+}
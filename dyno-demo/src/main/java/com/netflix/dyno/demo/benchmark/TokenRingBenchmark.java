@@ -0,0 +1,120 @@
+package com.netflix.dyno.demo.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.Host.Status;
+import com.netflix.dyno.connectionpool.impl.hash.DynoBinarySearch;
+import com.netflix.dyno.connectionpool.impl.hash.Murmur1HashPartitioner;
+import com.netflix.dyno.connectionpool.impl.hash.TokenRing;
+import com.netflix.dyno.connectionpool.impl.lb.HostToken;
+
+/**
+ * Micro benchmark for the key hash -> token owner lookup at 6, 60 and 600 tokens. 
+ * 
+ * Compares the old lookup (DynoBinarySearch over boxed token ranges + a map lookup for the HostToken) 
+ * with the primitive {@link TokenRing}, with and without its prefix index. 
+ * 
+ * Usage: java com.netflix.dyno.demo.benchmark.TokenRingBenchmark [iterations]
+ * 
+ * @author poberai
+ */
+public class TokenRingBenchmark {
+
+	private static final int NUM_HASHES = 1 << 16;
+	private static final long MAX_HASH = (1L << 32) - 1;
+
+	private final long[] hashes = new long[NUM_HASHES];
+	private final int iterations;
+
+	// keeps the JIT from optimizing the lookups away
+	private long sink = 0;
+
+	public TokenRingBenchmark(int iterations) {
+		this.iterations = iterations;
+
+		Murmur1HashPartitioner partitioner = new Murmur1HashPartitioner();
+		for (int i=0; i<NUM_HASHES; i++) {
+			hashes[i] = partitioner.hash("key_" + i);
+		}
+	}
+
+	public void run(int numTokens) {
+
+		List<Long> tokens = new ArrayList<Long>();
+		List<HostToken> hostTokens = new ArrayList<HostToken>();
+		final ConcurrentHashMap<Long, HostToken> tokenMap = new ConcurrentHashMap<Long, HostToken>();
+
+		long step = MAX_HASH / numTokens;
+		for (int i=0; i<numTokens; i++) {
+			Long token = step * (i + 1);
+			HostToken hostToken = new HostToken(token, new Host("host_" + i, 8102, Status.Up));
+			tokens.add(token);
+			hostTokens.add(hostToken);
+			tokenMap.put(token, hostToken);
+		}
+
+		final DynoBinarySearch<Long> binarySearch = new DynoBinarySearch<Long>(tokens);
+		final TokenRing ring = new TokenRing(hostTokens, false);
+		final TokenRing indexedRing = new TokenRing(hostTokens, true);
+
+		Lookup legacy = new Lookup() {
+			@Override
+			public HostToken lookup(long hash) {
+				return tokenMap.get(binarySearch.getTokenOwner(hash));
+			}
+		};
+		Lookup plain = new Lookup() {
+			@Override
+			public HostToken lookup(long hash) {
+				return ring.getTokenOwner(hash);
+			}
+		};
+		Lookup indexed = new Lookup() {
+			@Override
+			public HostToken lookup(long hash) {
+				return indexedRing.getTokenOwner(hash);
+			}
+		};
+
+		// warm up
+		for (int i=0; i<5; i++) {
+			measure(legacy);
+			measure(plain);
+			measure(indexed);
+		}
+
+		System.out.println(String.format("tokens: %4d   DynoBinarySearch: %7.1f ns/op   TokenRing: %7.1f ns/op   TokenRing (indexed): %7.1f ns/op", 
+				numTokens, measure(legacy), measure(plain), measure(indexed)));
+	}
+
+	private double measure(Lookup lookup) {
+
+		long start = System.nanoTime();
+		for (int iter=0; iter<iterations; iter++) {
+			for (int i=0; i<NUM_HASHES; i++) {
+				sink += lookup.lookup(hashes[i]).getToken();
+			}
+		}
+		long duration = System.nanoTime() - start;
+		return (double) duration / ((long) iterations * NUM_HASHES);
+	}
+
+	private interface Lookup {
+		HostToken lookup(long hash);
+	}
+
+	public static void main(String[] args) {
+
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+		TokenRingBenchmark benchmark = new TokenRingBenchmark(iterations);
+
+		benchmark.run(6);
+		benchmark.run(60);
+		benchmark.run(600);
+
+		System.out.println("(checksum: " + benchmark.sink + ")");
+	}
+}
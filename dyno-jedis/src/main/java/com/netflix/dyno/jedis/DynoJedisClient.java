@@ -1,8 +1,11 @@
 package com.netflix.dyno.jedis;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -18,25 +21,36 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisCommands;
 import redis.clients.jedis.JedisPubSub;
 import redis.clients.jedis.MultiKeyCommands;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
 import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.SortingParams;
 import redis.clients.jedis.Tuple;
 import redis.clients.jedis.ZParams;
+import redis.clients.util.SafeEncoder;
 
 import com.netflix.discovery.DiscoveryClient;
+import com.netflix.dyno.connectionpool.BinaryKeyOperation;
 import com.netflix.dyno.connectionpool.Connection;
 import com.netflix.dyno.connectionpool.ConnectionContext;
 import com.netflix.dyno.connectionpool.ConnectionPool;
+import com.netflix.dyno.connectionpool.HedgeableOperation;
 import com.netflix.dyno.connectionpool.Host;
 import com.netflix.dyno.connectionpool.HostConnectionPool;
 import com.netflix.dyno.connectionpool.HostSupplier;
 import com.netflix.dyno.connectionpool.Operation;
 import com.netflix.dyno.connectionpool.OperationResult;
+import com.netflix.dyno.connectionpool.ScanCursor;
+import com.netflix.dyno.connectionpool.ScanPage;
 import com.netflix.dyno.connectionpool.exception.DynoConnectException;
 import com.netflix.dyno.connectionpool.exception.DynoException;
 import com.netflix.dyno.connectionpool.impl.ConnectionPoolConfigurationImpl;
 import com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl;
+import com.netflix.dyno.connectionpool.impl.ScanIterator;
+import com.netflix.dyno.connectionpool.impl.ScanIterator.ScanOperationFactory;
 import com.netflix.dyno.connectionpool.impl.lb.HttpEndpointBasedTokenMapSupplier;
+import com.netflix.dyno.connectionpool.impl.utils.NearCache;
 import com.netflix.dyno.contrib.ArchaiusConnectionPoolConfiguration;
 import com.netflix.dyno.contrib.DynoCPMonitor;
 import com.netflix.dyno.contrib.DynoOPMonitor;
@@ -46,25 +60,46 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	private static final Logger Logger = org.slf4j.LoggerFactory.getLogger(DynoJedisClient.class);
 	
+	// pages buffered per node by the scan iterators
+	private static final int DEFAULT_SCAN_PREFETCH = 2;
+	
 	private final ConnectionPool<Jedis> connPool;
+	// optional, null when the near cache is not enabled
+	private final NearCache nearCache;
 	
 	public DynoJedisClient(String name, ConnectionPool<Jedis> pool) {
+		this(name, pool, null);
+	}
+	
+	/**
+	 * Client with an in process near cache for get, hget and hgetAll. Note that the d_* variants always go to the server, 
+	 * and that only writes made through this client invalidate the cache.
+	 * @param name
+	 * @param pool
+	 * @param cache
+	 */
+	public DynoJedisClient(String name, ConnectionPool<Jedis> pool, NearCache cache) {
 		this.connPool = pool;
+		this.nearCache = cache;
 	}
 	
 	public ConnectionPoolImpl<Jedis> getConnPool() {
 		return (ConnectionPoolImpl<Jedis>) connPool;
 	}
 	
+	public NearCache getNearCache() {
+		return nearCache;
+	}
+	
 	private enum OpName {
 		 APPEND, BITCOUNT, BLPOP, BRPOP, DECR, DECRBY, DEL, DUMP, ECHO, EXISTS, EXPIRE, EXPIREAT, GET, GETBIT, GETRANGE, GETSET, 
 		 FLUSHALL, HDEL, HEXISTS,  HGET, HGETALL, HINCRBY, HINCRBYFLOAT, HKEYS, HLEN, HMGET, HMSET, HSET, HSETNX, HVALS, 
 		 INCR, INCRBY, INCRBYFLOAT, INFO, KEYS, LINDEX, LINSERT, LLEN, LPOP, LPUSH, LPUSHX, LRANGE, LREM, LSET, LTRIM, 
-		 MOVE, PERSIST, PEXPIRE, PEXPIREAT, PSETEX, PTTL, RESTORE, RPOP, RPOPLPUSH, RPUSH, RPUSHX, 
-		 SADD, SCARD, SDIFF, SDIFFSTORE, SET, SETBIT, SETEX, SETNX, SETRANGE, SINTER, SINTERSTORE, SISMEMBER, SMEMBERS, 
-		 SMOVE, SORT, SPOP, SRANDMEMBER, SREM, STRLEN, SUBSTR, SUNION, SUNIONSTORE, TTL, TYPE, 
+		 MGET, MOVE, MSET, MSETNX, PERSIST, PEXPIRE, PEXPIREAT, PSETEX, PTTL, RESTORE, RPOP, RPOPLPUSH, RPUSH, RPUSHX, 
+		 HSCAN, SADD, SCAN, SCARD, SDIFF, SDIFFSTORE, SET, SETBIT, SETEX, SETNX, SETRANGE, SINTER, SINTERSTORE, SISMEMBER, 
+		 SMEMBERS, SMOVE, SORT, SPOP, SRANDMEMBER, SREM, SSCAN, STRLEN, SUBSTR, SUNION, SUNIONSTORE, TTL, TYPE, 
 		 ZADD, ZCARD, ZCOUNT, ZINCRBY, ZRANGE, ZRANGEWITHSCORES, ZRANK, ZRANGEBYSCORE, ZRANGEBYSCOREWITHSCORES, ZREM, ZREMRANGEBYRANK, 
-		 ZREMRANGEBYSCORE, ZREVRANGE, ZREVRANGEBYSCORE, ZREVRANGEBYSCOREWITHSCORES, ZREVRANGEWITHSCORES, ZREVRANK, ZSCORE
+		 ZREMRANGEBYSCORE, ZREVRANGE, ZREVRANGEBYSCORE, ZREVRANGEBYSCOREWITHSCORES, ZREVRANGEWITHSCORES, ZREVRANK, ZSCAN, ZSCORE
 		 ;
 	}
 	
@@ -87,6 +122,169 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 		}
 	}
 	
+	/**
+	 * Key operation that can also be written as part of a pipelined flush when auto pipelining is enabled
+	 */
+	private abstract class PipelineKeyOperation<T> extends BaseKeyOperation<T> implements JedisPipelineOperation<T> {
+		
+		private PipelineKeyOperation(final String k, final OpName o) {
+			super(k, o);
+		}
+	}
+	
+	/**
+	 * Read only key operation that is safe to send to a replica in another rack when the primary is slow, see hedging
+	 */
+	private abstract class ReadKeyOperation<T> extends BaseKeyOperation<T> implements HedgeableOperation<Jedis, T> {
+		
+		private ReadKeyOperation(final String k, final OpName o) {
+			super(k, o);
+		}
+	}
+	
+	/**
+	 * Read only key operation that can be both hedged and auto pipelined
+	 */
+	private abstract class ReadPipelineKeyOperation<T> extends PipelineKeyOperation<T> implements HedgeableOperation<Jedis, T> {
+		
+		private ReadPipelineKeyOperation(final String k, final OpName o) {
+			super(k, o);
+		}
+	}
+	
+	/**
+	 * Operation on a binary key, which is routed by hashing the key bytes directly 
+	 */
+	private abstract class BaseBinaryKeyOperation<T> implements Operation<Jedis, T>, BinaryKeyOperation<Jedis, T> {
+		
+		private final byte[] key;
+		private final OpName op;
+		private BaseBinaryKeyOperation(final byte[] k, final OpName o) {
+			this.key = k;
+			this.op = o;
+		}
+		@Override
+		public String getName() {
+			return op.name();
+		}
+
+		@Override
+		public String getKey() {
+			return null;
+		}
+		
+		@Override
+		public byte[] getBinaryKey() {
+			return key;
+		}
+	}
+	
+	/**
+	 * Read only binary key operation that can be hedged
+	 */
+	private abstract class ReadBinaryKeyOperation<T> extends BaseBinaryKeyOperation<T> implements HedgeableOperation<Jedis, T> {
+		
+		private ReadBinaryKeyOperation(final byte[] k, final OpName o) {
+			super(k, o);
+		}
+	}
+	
+	/**
+	 * Execute an operation that modifies its key, and drop the key from the near cache once it is done. 
+	 * The key is dropped even when the operation fails, since the write may still have been applied on the server. 
+	 */
+	private <R> OperationResult<R> executeWrite(BaseKeyOperation<R> op) {
+		try {
+			return connPool.executeWithFailover(op);
+		} finally {
+			if (nearCache != null) {
+				nearCache.invalidate(op.getKey());
+			}
+		}
+	}
+	
+	/**
+	 * Same as {@link #executeWrite(BaseKeyOperation)} for binary keys. Cached entries are keyed by String, so the key only 
+	 * needs to be decoded when the near cache is enabled.
+	 */
+	private <R> OperationResult<R> executeWrite(BaseBinaryKeyOperation<R> op) {
+		try {
+			return connPool.executeWithFailover(op);
+		} finally {
+			if (nearCache != null) {
+				nearCache.invalidate(SafeEncoder.encode(op.getBinaryKey()));
+			}
+		}
+	}
+	
+	/**
+	 * Adds the command for the key at the given index of a multi key request to the pipeline for its token
+	 */
+	private interface MultiKeyCommand<T> {
+		
+		public Response<T> pipeline(Pipeline pipeline, int index);
+	}
+	
+	/**
+	 * Groups the keys by the token that owns them, and sends one pipelined batch per token. The batches run concurrently and 
+	 * fail over independently of each other. 
+	 * @param keys
+	 * @param opName
+	 * @param command
+	 * @return the result for every key, in the same order as the keys
+	 */
+	private <T> List<T> executeMultiKey(final String[] keys, final OpName opName, final MultiKeyCommand<T> command) {
+		
+		Map<Long, List<Integer>> groups = new LinkedHashMap<Long, List<Integer>>();
+		for (int i=0; i<keys.length; i++) {
+			Long token = connPool.getHostTokenForKey(keys[i]);
+			List<Integer> positions = groups.get(token);
+			if (positions == null) {
+				positions = new ArrayList<Integer>();
+				groups.put(token, positions);
+			}
+			positions.add(i);
+		}
+		
+		List<BaseKeyOperation<List<T>>> ops = new ArrayList<BaseKeyOperation<List<T>>>(groups.size());
+		for (final List<Integer> positions : groups.values()) {
+			
+			// any key in the group routes the batch to the owner of the token
+			ops.add(new BaseKeyOperation<List<T>>(keys[positions.get(0)], opName) {
+				
+				@Override
+				public List<T> execute(Jedis client, ConnectionContext state) {
+					
+					Pipeline pipeline = client.pipelined();
+					List<Response<T>> responses = new ArrayList<Response<T>>(positions.size());
+					for (Integer index : positions) {
+						responses.add(command.pipeline(pipeline, index));
+					}
+					pipeline.sync();
+					
+					List<T> results = new ArrayList<T>(responses.size());
+					for (Response<T> response : responses) {
+						results.add(response.get());
+					}
+					return results;
+				}
+			});
+		}
+		
+		List<OperationResult<List<T>>> groupResults = connPool.executeAllWithFailover(ops);
+		
+		// put the results back in the order of the keys
+		List<T> results = new ArrayList<T>(Collections.<T>nCopies(keys.length, null));
+		int group = 0;
+		for (List<Integer> positions : groups.values()) {
+			List<T> groupResult = groupResults.get(group++).getResult();
+			for (int j=0; j<positions.size(); j++) {
+				results.set(positions.get(j), groupResult.get(j));
+			}
+		}
+		return results;
+	}
+	
 	@Override
 	public Long append(final String key, final String value)  {
 		return d_append(key, value).getResult();
@@ -94,7 +292,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_append(final String key, final String value)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.APPEND) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.APPEND) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -111,7 +309,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<Long> d_decr(final String key)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.DECR) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.DECR) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -128,7 +326,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_decrBy(final String key, final Long delta)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.DECRBY) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.DECRBY) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -145,7 +343,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<Long> d_del(final String key)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.DEL) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.DEL) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -178,7 +376,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<Boolean> d_exists(final String key)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Boolean>(key, OpName.EXISTS) {
+		return connPool.executeWithFailover(new ReadKeyOperation<Boolean>(key, OpName.EXISTS) {
 
 			@Override
 			public Boolean execute(Jedis client, ConnectionContext state)  {
@@ -195,7 +393,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_expire(final String key, final Integer seconds)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.EXPIRE) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.EXPIRE) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -212,7 +410,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<Long> d_expireAt(final String key, final Long unixTime)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.EXPIREAT) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.EXPIREAT) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -228,6 +426,9 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public void d_flushall() {
 
+		if (nearCache != null) {
+			nearCache.invalidateAll();
+		}
 		connPool.executeWithRing(new BaseKeyOperation<Void>(null, OpName.FLUSHALL) {
 			@Override
 			public Void execute(Jedis client, ConnectionContext state) {
@@ -239,18 +440,33 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	@Override
 	public String get(final String key)  {
-		return d_get(key).getResult();
+		if (nearCache == null) {
+			return d_get(key).getResult();
+		}
+		
+		String value = (String) nearCache.get(OpName.GET.name(), key, OpName.GET.name());
+		if (value == null) {
+			long stamp = nearCache.getStamp(key);
+			value = d_get(key).getResult();
+			nearCache.put(key, OpName.GET.name(), value, NearCache.estimateWeight(value), stamp);
+		}
+		return value;
 	}
 
 	public OperationResult<String> d_get(final String key)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<String>(key, OpName.GET) {
+		return connPool.executeWithFailover(new ReadPipelineKeyOperation<String>(key, OpName.GET) {
 			
 			@Override
 			public String execute(Jedis client, ConnectionContext state)  {
 				return client.get(key);
 			}
 			
+			@Override
+			public Response<String> pipeline(Pipeline pipeline) {
+				return pipeline.get(key);
+			}
+			
 		});
 	}
 
@@ -261,7 +477,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Boolean> d_getbit(final String key, final Long offset)  {
 
-		return connPool.executeWithFailover(new BaseKeyOperation<Boolean>(key, OpName.GETBIT) {
+		return connPool.executeWithFailover(new ReadKeyOperation<Boolean>(key, OpName.GETBIT) {
 
 			@Override
 			public Boolean execute(Jedis client, ConnectionContext state)  {
@@ -278,7 +494,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<String> d_getrange(final String key, final Long startOffset, final Long endOffset)  {
 
-		return connPool.executeWithFailover(new BaseKeyOperation<String>(key, OpName.GETRANGE) {
+		return connPool.executeWithFailover(new ReadKeyOperation<String>(key, OpName.GETRANGE) {
 
 			@Override
 			public String execute(Jedis client, ConnectionContext state)  {
@@ -295,7 +511,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<String> d_getSet(final String key, final String value)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<String>(key, OpName.GETSET) {
+		return executeWrite(new BaseKeyOperation<String>(key, OpName.GETSET) {
 
 			@Override
 			public String execute(Jedis client, ConnectionContext state)  {
@@ -312,7 +528,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_hdel(final String key, final String ... fields)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.HDEL) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.HDEL) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -329,7 +545,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Boolean> d_hexists(final String key, final String field)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Boolean>(key, OpName.HEXISTS) {
+		return connPool.executeWithFailover(new ReadKeyOperation<Boolean>(key, OpName.HEXISTS) {
 
 			@Override
 			public Boolean execute(Jedis client, ConnectionContext state)  {
@@ -341,12 +557,23 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	@Override
 	public String hget(final String key, final String field)  {
-		return d_hget(key, field).getResult();
+		if (nearCache == null) {
+			return d_hget(key, field).getResult();
+		}
+		
+		String subKey = OpName.HGET.name() + ":" + field;
+		String value = (String) nearCache.get(OpName.HGET.name(), key, subKey);
+		if (value == null) {
+			long stamp = nearCache.getStamp(key);
+			value = d_hget(key, field).getResult();
+			nearCache.put(key, subKey, value, NearCache.estimateWeight(value), stamp);
+		}
+		return value;
 	}
 	
 	public OperationResult<String> d_hget(final String key, final String field)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<String>(key, OpName.HGET) {
+		return connPool.executeWithFailover(new ReadKeyOperation<String>(key, OpName.HGET) {
 
 			@Override
 			public String execute(Jedis client, ConnectionContext state)  {
@@ -357,13 +584,28 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public Map<String, String> hgetAll(final String key)  {
-		return d_hgetAll(key).getResult();
+		if (nearCache == null) {
+			return d_hgetAll(key).getResult();
+		}
+		
+		Map<String, String> value = (Map<String, String>) nearCache.get(OpName.HGETALL.name(), key, OpName.HGETALL.name());
+		if (value == null) {
+			long stamp = nearCache.getStamp(key);
+			value = d_hgetAll(key).getResult();
+			if (value != null && !value.isEmpty()) {
+				// callers get the cached map, so it must not be modified
+				value = Collections.unmodifiableMap(value);
+				nearCache.put(key, OpName.HGETALL.name(), value, NearCache.estimateWeight(value), stamp);
+			}
+		}
+		return value;
 	}
 	
 	public OperationResult<Map<String, String>> d_hgetAll(final String key)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Map<String, String>>(key, OpName.HGETALL) {
+		return connPool.executeWithFailover(new ReadKeyOperation<Map<String, String>>(key, OpName.HGETALL) {
 
 			@Override
 			public Map<String, String> execute(Jedis client, ConnectionContext state)  {
@@ -380,7 +622,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<Long> d_hincrBy(final String key, final String field, final Long value)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.HINCRBY) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.HINCRBY) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -397,7 +639,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<Long> d_hsetnx(final String key, final String field, final String value)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.HSETNX) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.HSETNX) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -431,7 +673,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<Long> d_hlen(final String key)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.HLEN) {
+		return connPool.executeWithFailover(new ReadKeyOperation<Long>(key, OpName.HLEN) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -448,7 +690,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<List<String>> d_hmget(final String key, final String ... fields)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<List<String>>(key, OpName.HMGET) {
+		return connPool.executeWithFailover(new ReadKeyOperation<List<String>>(key, OpName.HMGET) {
 
 			@Override
 			public List<String> execute(Jedis client, ConnectionContext state)  {
@@ -465,7 +707,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<String> d_hmset(final String key, final Map<String, String> hash)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<String>(key, OpName.HMSET) {
+		return executeWrite(new BaseKeyOperation<String>(key, OpName.HMSET) {
 
 			@Override
 			public String execute(Jedis client, ConnectionContext state)  {
@@ -482,7 +724,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<Long> d_hset(final String key, final String field, final String value)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.HSET) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.HSET) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -516,7 +758,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<Long> d_incr(final String key)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.INCR) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.INCR) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -533,7 +775,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<Long> d_incrBy(final String key, final Long delta)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.INCRBY) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.INCRBY) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -549,7 +791,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	
 	public OperationResult<Double> d_incrByFloat(final String key, final Double increment)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Double>(key, OpName.INCRBYFLOAT) {
+		return executeWrite(new BaseKeyOperation<Double>(key, OpName.INCRBYFLOAT) {
 
 			@Override
 			public Double execute(Jedis client, ConnectionContext state)  {
@@ -718,7 +960,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<List<String>> d_lrange(final String key, final Long start, final Long end)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<List<String>>(key, OpName.LRANGE) {
+		return connPool.executeWithFailover(new ReadKeyOperation<List<String>>(key, OpName.LRANGE) {
 
 			@Override
 			public List<String> execute(Jedis client, ConnectionContext state)  {
@@ -786,7 +1028,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_persist(final String key)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.PERSIST) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.PERSIST) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -802,7 +1044,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_pexpire(final String key, final Integer milliseconds)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.PEXPIRE) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.PEXPIRE) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -818,7 +1060,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_pexpireAt(final String key, final Long millisecondsTimestamp)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.PEXPIREAT) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.PEXPIREAT) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -834,7 +1076,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<String> d_psetex(final String key, final Integer milliseconds, final String value)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<String>(key, OpName.PSETEX) {
+		return executeWrite(new BaseKeyOperation<String>(key, OpName.PSETEX) {
 
 			@Override
 			public String execute(Jedis client, ConnectionContext state)  {
@@ -866,7 +1108,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<String> d_restore(final String key, final Integer ttl, final byte[] serializedValue)  {
 
-		return connPool.executeWithFailover(new BaseKeyOperation<String>(key, OpName.RESTORE) {
+		return executeWrite(new BaseKeyOperation<String>(key, OpName.RESTORE) {
 
 			@Override
 			public String execute(Jedis client, ConnectionContext state)  {
@@ -965,7 +1207,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_scard(final String key)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.SCARD) {
+		return connPool.executeWithFailover(new ReadKeyOperation<Long>(key, OpName.SCARD) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -1014,13 +1256,18 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<String> d_set(final String key, final String value)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<String>(key, OpName.SET) {
+		return executeWrite(new PipelineKeyOperation<String>(key, OpName.SET) {
 
 			@Override
 			public String execute(Jedis client, ConnectionContext state)  {
 				return client.set(key, value);
 			}
 			
+			@Override
+			public Response<String> pipeline(Pipeline pipeline) {
+				return pipeline.set(key, value);
+			}
+			
 		});
 	}
 
@@ -1031,7 +1278,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Boolean> d_setbit(final String key, final Long offset, final Boolean value)  {
 
-		return connPool.executeWithFailover(new BaseKeyOperation<Boolean>(key, OpName.SETBIT) {
+		return executeWrite(new BaseKeyOperation<Boolean>(key, OpName.SETBIT) {
 
 			@Override
 			public Boolean execute(Jedis client, ConnectionContext state)  {
@@ -1049,7 +1296,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Boolean> d_setbit(final String key, final Long offset, final String value)  {
 
-		return connPool.executeWithFailover(new BaseKeyOperation<Boolean>(key, OpName.SETBIT) {
+		return executeWrite(new BaseKeyOperation<Boolean>(key, OpName.SETBIT) {
 
 			@Override
 			public Boolean execute(Jedis client, ConnectionContext state)  {
@@ -1066,7 +1313,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
  
 	public OperationResult<String> d_setex(final String key, final Integer seconds, final String value)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<String>(key, OpName.SETEX) {
+		return executeWrite(new BaseKeyOperation<String>(key, OpName.SETEX) {
 
 			@Override
 			public String execute(Jedis client, ConnectionContext state)  {
@@ -1082,7 +1329,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	}
 
 	public OperationResult<String> d_set(final String key, final String value, final String nxxx, final String expx, final long time) {
-		return connPool.executeWithFailover(new BaseKeyOperation<String>(key, OpName.SET) {
+		return executeWrite(new BaseKeyOperation<String>(key, OpName.SET) {
 
 			@Override
 			public String execute(Jedis client, ConnectionContext state) {
@@ -1099,7 +1346,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_setnx(final String key, final String value)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.SETNX) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.SETNX) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -1116,7 +1363,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_setrange(final String key, final Long offset, final String value)  {
 
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.SETRANGE) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.SETRANGE) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -1150,7 +1397,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Set<String>> d_smembers(final String key)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Set<String>>(key, OpName.SMEMBERS) {
+		return connPool.executeWithFailover(new ReadKeyOperation<Set<String>>(key, OpName.SMEMBERS) {
 
 			@Override
 			public Set<String> execute(Jedis client, ConnectionContext state)  {
@@ -1270,7 +1517,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_strlen(final String key)  {
 		
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.STRLEN) {
+		return connPool.executeWithFailover(new ReadKeyOperation<Long>(key, OpName.STRLEN) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -1444,7 +1691,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Set<String>> d_zrange(final String key, final Long start, final Long end)  {
 
-		return connPool.executeWithFailover(new BaseKeyOperation<Set<String>>(key, OpName.ZRANGE) {
+		return connPool.executeWithFailover(new ReadKeyOperation<Set<String>>(key, OpName.ZRANGE) {
 
 			@Override
 			public Set<String> execute(Jedis client, ConnectionContext state)  {
@@ -1601,7 +1848,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Double> d_zscore(final String key, final String member)  {
 
-		return connPool.executeWithFailover(new BaseKeyOperation<Double>(key, OpName.ZSCORE) {
+		return connPool.executeWithFailover(new ReadKeyOperation<Double>(key, OpName.ZSCORE) {
 
 			@Override
 			public Double execute(Jedis client, ConnectionContext state)  {
@@ -1959,7 +2206,7 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	public OperationResult<Long> d_move(final String key, final Integer dbIndex)  {
 
-		return connPool.executeWithFailover(new BaseKeyOperation<Long>(key, OpName.MOVE) {
+		return executeWrite(new BaseKeyOperation<Long>(key, OpName.MOVE) {
 
 			@Override
 			public Long execute(Jedis client, ConnectionContext state)  {
@@ -2004,143 +2251,686 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	}
 	
 
-	/** MULTI-KEY COMMANDS */
+	/** BINARY COMMANDS */
+	
+	/*
+	 * The d_* variants below take and return raw bytes, so values that are already serialized are never charset encoded 
+	 * or decoded, and keys are routed by hashing their bytes directly. 
+	 */
 
-	@Override
-	public Long del(String... keys) {
-		throw new NotImplementedException("not yet implemented");
-	}
+	public OperationResult<Long> d_append(final byte[] key, final byte[] value)  {
+		
+		return executeWrite(new BaseBinaryKeyOperation<Long>(key, OpName.APPEND) {
 
-	@Override
-	public List<String> blpop(int timeout, String... keys) {
-		throw new NotImplementedException("not yet implemented");
-	}
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.append(key, value);
+			}
 
-	@Override
-	public List<String> brpop(int timeout, String... keys) {
-		throw new NotImplementedException("not yet implemented");
+		});
 	}
 
-	@Override
-	public List<String> blpop(String... args) {
-		throw new NotImplementedException("not yet implemented");
-	}
+	public OperationResult<Long> d_del(final byte[] key)  {
+		
+		return executeWrite(new BaseBinaryKeyOperation<Long>(key, OpName.DEL) {
 
-	@Override
-	public List<String> brpop(String... args) {
-		throw new NotImplementedException("not yet implemented");
-	}
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.del(key);
+			}
 
-	@Override
-	public Set<String> keys(String pattern) {
-		
-		Set<String> allResults = new HashSet<String>();
-		Collection<OperationResult<Set<String>>> results = d_keys(pattern);
-		for (OperationResult<Set<String>> result : results) {
-			allResults.addAll(result.getResult());
-		}
-		return allResults;
+		});
 	}
 
-	public Collection<OperationResult<Set<String>>> d_keys(final String pattern) {
-	
-		Collection<OperationResult<Set<String>>> results = connPool.executeWithRing(new BaseKeyOperation<Set<String>>(pattern, OpName.KEYS) {
+	public OperationResult<Boolean> d_exists(final byte[] key)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<Boolean>(key, OpName.EXISTS) {
 
 			@Override
-			public Set<String> execute(Jedis client, ConnectionContext state) throws DynoException {
-				return client.keys(pattern);
+			public Boolean execute(Jedis client, ConnectionContext state)  {
+				return client.exists(key);
 			}
+
 		});
-		return results;
-	}
-	
-	@Override
-	public List<String> mget(String... keys) {
-		throw new NotImplementedException("not yet implemented");
 	}
 
-	@Override
-	public String mset(String... keysvalues) {
-		throw new NotImplementedException("not yet implemented");
-	}
+	public OperationResult<Long> d_expire(final byte[] key, final int seconds)  {
+		
+		return executeWrite(new BaseBinaryKeyOperation<Long>(key, OpName.EXPIRE) {
 
-	@Override
-	public Long msetnx(String... keysvalues) {
-		throw new NotImplementedException("not yet implemented");
-	}
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.expire(key, seconds);
+			}
 
-	@Override
-	public String rename(String oldkey, String newkey) {
-		throw new NotImplementedException("not yet implemented");
+		});
 	}
 
-	@Override
-	public Long renamenx(String oldkey, String newkey) {
-		throw new NotImplementedException("not yet implemented");
-	}
+	public OperationResult<byte[]> d_get(final byte[] key)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<byte[]>(key, OpName.GET) {
 
-	@Override
-	public Set<String> sinter(String... keys) {
-		throw new NotImplementedException("not yet implemented");
-	}
+			@Override
+			public byte[] execute(Jedis client, ConnectionContext state)  {
+				return client.get(key);
+			}
 
-	public Long sinterstore(final String dstkey, final String ... keys)  {
-		throw new NotImplementedException("not yet implemented");
+		});
 	}
 
-	@Override
-	public Long sort(String key, SortingParams sortingParameters, String dstkey) {
-		throw new NotImplementedException("not yet implemented");
-	}
+	public OperationResult<byte[]> d_getSet(final byte[] key, final byte[] value)  {
+		
+		return executeWrite(new BaseBinaryKeyOperation<byte[]>(key, OpName.GETSET) {
 
-	@Override
-	public Long sort(String key, String dstkey) {
-		throw new NotImplementedException("not yet implemented");
-	}
+			@Override
+			public byte[] execute(Jedis client, ConnectionContext state)  {
+				return client.getSet(key, value);
+			}
 
-	@Override
-	public Set<String> sunion(String... keys) {
-		throw new NotImplementedException("not yet implemented");
+		});
 	}
 
-	@Override
-	public Long sunionstore(String dstkey, String... keys) {
-		throw new NotImplementedException("not yet implemented");
-	}
+	public OperationResult<Long> d_hdel(final byte[] key, final byte[] ... fields)  {
+		
+		return executeWrite(new BaseBinaryKeyOperation<Long>(key, OpName.HDEL) {
 
-	@Override
-	public String watch(String... keys) {
-		throw new NotImplementedException("not yet implemented");
-	}
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.hdel(key, fields);
+			}
 
-	@Override
-	public String unwatch() {
-		throw new NotImplementedException("not yet implemented");
+		});
 	}
 
-	@Override
-	public Long zinterstore(String dstkey, String... sets) {
-		throw new NotImplementedException("not yet implemented");
-	}
+	public OperationResult<Boolean> d_hexists(final byte[] key, final byte[] field)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<Boolean>(key, OpName.HEXISTS) {
 
-	@Override
-	public Long zinterstore(String dstkey, ZParams params, String... sets) {
-		throw new NotImplementedException("not yet implemented");
-	}
+			@Override
+			public Boolean execute(Jedis client, ConnectionContext state)  {
+				return client.hexists(key, field);
+			}
 
-	@Override
-	public Long zunionstore(String dstkey, String... sets) {
-		throw new NotImplementedException("not yet implemented");
+		});
 	}
 
-	@Override
-	public Long zunionstore(String dstkey, ZParams params, String... sets) {
-		throw new NotImplementedException("not yet implemented");
-	}
+	public OperationResult<byte[]> d_hget(final byte[] key, final byte[] field)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<byte[]>(key, OpName.HGET) {
 
-	@Override
-	public String brpoplpush(String source, String destination, int timeout) {
-		throw new NotImplementedException("not yet implemented");
+			@Override
+			public byte[] execute(Jedis client, ConnectionContext state)  {
+				return client.hget(key, field);
+			}
+
+		});
+	}
+
+	public OperationResult<Map<byte[], byte[]>> d_hgetAll(final byte[] key)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<Map<byte[], byte[]>>(key, OpName.HGETALL) {
+
+			@Override
+			public Map<byte[], byte[]> execute(Jedis client, ConnectionContext state)  {
+				return client.hgetAll(key);
+			}
+
+		});
+	}
+
+	public OperationResult<List<byte[]>> d_hmget(final byte[] key, final byte[] ... fields)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<List<byte[]>>(key, OpName.HMGET) {
+
+			@Override
+			public List<byte[]> execute(Jedis client, ConnectionContext state)  {
+				return client.hmget(key, fields);
+			}
+
+		});
+	}
+
+	public OperationResult<String> d_hmset(final byte[] key, final Map<byte[], byte[]> hash)  {
+		
+		return executeWrite(new BaseBinaryKeyOperation<String>(key, OpName.HMSET) {
+
+			@Override
+			public String execute(Jedis client, ConnectionContext state)  {
+				return client.hmset(key, hash);
+			}
+
+		});
+	}
+
+	public OperationResult<Long> d_hset(final byte[] key, final byte[] field, final byte[] value)  {
+		
+		return executeWrite(new BaseBinaryKeyOperation<Long>(key, OpName.HSET) {
+
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.hset(key, field, value);
+			}
+
+		});
+	}
+
+	public OperationResult<Long> d_llen(final byte[] key)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<Long>(key, OpName.LLEN) {
+
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.llen(key);
+			}
+
+		});
+	}
+
+	public OperationResult<byte[]> d_lpop(final byte[] key)  {
+		
+		return connPool.executeWithFailover(new BaseBinaryKeyOperation<byte[]>(key, OpName.LPOP) {
+
+			@Override
+			public byte[] execute(Jedis client, ConnectionContext state)  {
+				return client.lpop(key);
+			}
+
+		});
+	}
+
+	public OperationResult<Long> d_lpush(final byte[] key, final byte[] ... values)  {
+		
+		return connPool.executeWithFailover(new BaseBinaryKeyOperation<Long>(key, OpName.LPUSH) {
+
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.lpush(key, values);
+			}
+
+		});
+	}
+
+	public OperationResult<List<byte[]>> d_lrange(final byte[] key, final long start, final long end)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<List<byte[]>>(key, OpName.LRANGE) {
+
+			@Override
+			public List<byte[]> execute(Jedis client, ConnectionContext state)  {
+				return client.lrange(key, start, end);
+			}
+
+		});
+	}
+
+	public OperationResult<byte[]> d_rpop(final byte[] key)  {
+		
+		return connPool.executeWithFailover(new BaseBinaryKeyOperation<byte[]>(key, OpName.RPOP) {
+
+			@Override
+			public byte[] execute(Jedis client, ConnectionContext state)  {
+				return client.rpop(key);
+			}
+
+		});
+	}
+
+	public OperationResult<Long> d_rpush(final byte[] key, final byte[] ... values)  {
+		
+		return connPool.executeWithFailover(new BaseBinaryKeyOperation<Long>(key, OpName.RPUSH) {
+
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.rpush(key, values);
+			}
+
+		});
+	}
+
+	public OperationResult<Long> d_sadd(final byte[] key, final byte[] ... members)  {
+		
+		return connPool.executeWithFailover(new BaseBinaryKeyOperation<Long>(key, OpName.SADD) {
+
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.sadd(key, members);
+			}
+
+		});
+	}
+
+	public OperationResult<String> d_set(final byte[] key, final byte[] value)  {
+		
+		return executeWrite(new BaseBinaryKeyOperation<String>(key, OpName.SET) {
+
+			@Override
+			public String execute(Jedis client, ConnectionContext state)  {
+				return client.set(key, value);
+			}
+
+		});
+	}
+
+	public OperationResult<String> d_setex(final byte[] key, final int seconds, final byte[] value)  {
+		
+		return executeWrite(new BaseBinaryKeyOperation<String>(key, OpName.SETEX) {
+
+			@Override
+			public String execute(Jedis client, ConnectionContext state)  {
+				return client.setex(key, seconds, value);
+			}
+
+		});
+	}
+
+	public OperationResult<Long> d_setnx(final byte[] key, final byte[] value)  {
+		
+		return executeWrite(new BaseBinaryKeyOperation<Long>(key, OpName.SETNX) {
+
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.setnx(key, value);
+			}
+
+		});
+	}
+
+	public OperationResult<Boolean> d_sismember(final byte[] key, final byte[] member)  {
+		
+		return connPool.executeWithFailover(new BaseBinaryKeyOperation<Boolean>(key, OpName.SISMEMBER) {
+
+			@Override
+			public Boolean execute(Jedis client, ConnectionContext state)  {
+				return client.sismember(key, member);
+			}
+
+		});
+	}
+
+	public OperationResult<Set<byte[]>> d_smembers(final byte[] key)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<Set<byte[]>>(key, OpName.SMEMBERS) {
+
+			@Override
+			public Set<byte[]> execute(Jedis client, ConnectionContext state)  {
+				return client.smembers(key);
+			}
+
+		});
+	}
+
+	public OperationResult<Long> d_srem(final byte[] key, final byte[] ... members)  {
+		
+		return connPool.executeWithFailover(new BaseBinaryKeyOperation<Long>(key, OpName.SREM) {
+
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.srem(key, members);
+			}
+
+		});
+	}
+
+	public OperationResult<Long> d_strlen(final byte[] key)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<Long>(key, OpName.STRLEN) {
+
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.strlen(key);
+			}
+
+		});
+	}
+
+	public OperationResult<Long> d_ttl(final byte[] key)  {
+		
+		return connPool.executeWithFailover(new BaseBinaryKeyOperation<Long>(key, OpName.TTL) {
+
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.ttl(key);
+			}
+
+		});
+	}
+
+	public OperationResult<Long> d_zadd(final byte[] key, final double score, final byte[] member)  {
+		
+		return connPool.executeWithFailover(new BaseBinaryKeyOperation<Long>(key, OpName.ZADD) {
+
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.zadd(key, score, member);
+			}
+
+		});
+	}
+
+	public OperationResult<Set<byte[]>> d_zrange(final byte[] key, final long start, final long end)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<Set<byte[]>>(key, OpName.ZRANGE) {
+
+			@Override
+			public Set<byte[]> execute(Jedis client, ConnectionContext state)  {
+				return client.zrange(key, start, end);
+			}
+
+		});
+	}
+
+	public OperationResult<Long> d_zrem(final byte[] key, final byte[] ... members)  {
+		
+		return connPool.executeWithFailover(new BaseBinaryKeyOperation<Long>(key, OpName.ZREM) {
+
+			@Override
+			public Long execute(Jedis client, ConnectionContext state)  {
+				return client.zrem(key, members);
+			}
+
+		});
+	}
+
+	public OperationResult<Double> d_zscore(final byte[] key, final byte[] member)  {
+		
+		return connPool.executeWithFailover(new ReadBinaryKeyOperation<Double>(key, OpName.ZSCORE) {
+
+			@Override
+			public Double execute(Jedis client, ConnectionContext state)  {
+				return client.zscore(key, member);
+			}
+
+		});
+	}
+
+	/** MULTI-KEY COMMANDS */
+
+	@Override
+	public Long del(final String... keys) {
+		
+		try {
+			List<Long> results = executeMultiKey(keys, OpName.DEL, new MultiKeyCommand<Long>() {
+				
+				@Override
+				public Response<Long> pipeline(Pipeline pipeline, int index) {
+					return pipeline.del(keys[index]);
+				}
+			});
+			
+			long deleted = 0;
+			for (Long result : results) {
+				deleted += result;
+			}
+			return deleted;
+		} finally {
+			invalidate(keys);
+		}
+	}
+
+	@Override
+	public List<String> blpop(int timeout, String... keys) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public List<String> brpop(int timeout, String... keys) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public List<String> blpop(String... args) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public List<String> brpop(String... args) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public Set<String> keys(String pattern) {
+		
+		Set<String> allResults = new HashSet<String>();
+		Collection<OperationResult<Set<String>>> results = d_keys(pattern);
+		for (OperationResult<Set<String>> result : results) {
+			allResults.addAll(result.getResult());
+		}
+		return allResults;
+	}
+
+	public Collection<OperationResult<Set<String>>> d_keys(final String pattern) {
+	
+		Collection<OperationResult<Set<String>>> results = connPool.executeWithRing(new BaseKeyOperation<Set<String>>(pattern, OpName.KEYS) {
+
+			@Override
+			public Set<String> execute(Jedis client, ConnectionContext state) throws DynoException {
+				return client.keys(pattern);
+			}
+		});
+		return results;
+	}
+
+	/**
+	 * Streams the keys matching the pattern from every node in the local rack with SCAN, rather than gathering all of 
+	 * them in memory like {@link #keys(String)}. Close the iterator when it is not consumed to the end. 
+	 * @param pattern
+	 * @return ScanIterator<String>
+	 */
+	public ScanIterator<String> scanIterator(String pattern) {
+		return scanIterator(new ScanParams().match(pattern), null, DEFAULT_SCAN_PREFETCH, 1);
+	}
+
+	/**
+	 * Ring wide SCAN, see {@link ScanIterator}
+	 * @param params MATCH and COUNT for every SCAN
+	 * @param scanCursor the cursor to resume from, see {@link ScanIterator#getCursor()}, or null to start a new scan
+	 * @param prefetch max number of pages buffered per node
+	 * @param parallelism max number of nodes scanned concurrently, 1 scans the nodes one after the other in ring order
+	 * @return ScanIterator<String>
+	 */
+	public ScanIterator<String> scanIterator(ScanParams params, ScanCursor scanCursor, int prefetch, int parallelism) {
+		return ScanIterator.ringScan(getConnPool(), getScanOperationFactory(params), scanCursor, prefetch, parallelism);
+	}
+
+	/**
+	 * One page of a ring wide SCAN. The nodes are scanned one after the other and the returned cursor is the 
+	 * string form of a {@link ScanCursor}, which must be passed back as is. The scan is complete when it is "0". 
+	 */
+	@Override
+	public ScanResult<String> scan(String cursor) {
+		return scan(cursor, new ScanParams());
+	}
+
+	public ScanResult<String> scan(String cursor, ScanParams params) {
+
+		ScanCursor scanCursor = ScanCursor.fromString(cursor);
+		if (scanCursor == null) {
+			scanCursor = ScanCursor.start(connPool.getRingTokens());
+		}
+		if (scanCursor.isComplete()) {
+			return new ScanResult<String>(ScanPage.START_CURSOR, new ArrayList<String>());
+		}
+
+		Map<Long, String> cursors = new LinkedHashMap<Long, String>(scanCursor.getCursors());
+		Long token = cursors.keySet().iterator().next();
+
+		ScanPage<String> page = connPool.executeOnToken(token, getScanOperationFactory(params).getScanOperation(cursors.get(token))).getResult();
+		if (page.isLast()) {
+			cursors.remove(token);
+		} else {
+			cursors.put(token, page.getNextCursor());
+		}
+		return new ScanResult<String>(ScanCursor.of(cursors).toString(), page.getItems());
+	}
+
+	private ScanOperationFactory<Jedis, String> getScanOperationFactory(final ScanParams params) {
+
+		return new ScanOperationFactory<Jedis, String>() {
+
+			@Override
+			public Operation<Jedis, ScanPage<String>> getScanOperation(final String cursor) {
+
+				return new BaseKeyOperation<ScanPage<String>>(cursor, OpName.SCAN) {
+
+					@Override
+					public ScanPage<String> execute(Jedis client, ConnectionContext state) throws DynoException {
+						ScanResult<String> result = client.scan(cursor, params);
+						return new ScanPage<String>(result.getStringCursor(), result.getResult());
+					}
+				};
+			}
+		};
+	}
+	
+	@Override
+	public List<String> mget(final String... keys) {
+		
+		return executeMultiKey(keys, OpName.MGET, new MultiKeyCommand<String>() {
+			
+			@Override
+			public Response<String> pipeline(Pipeline pipeline, int index) {
+				return pipeline.get(keys[index]);
+			}
+		});
+	}
+
+	@Override
+	public String mset(final String... keysvalues) {
+		
+		final String[] keys = getKeys(keysvalues);
+		try {
+			executeMultiKey(keys, OpName.MSET, new MultiKeyCommand<String>() {
+				
+				@Override
+				public Response<String> pipeline(Pipeline pipeline, int index) {
+					return pipeline.set(keys[index], keysvalues[2*index + 1]);
+				}
+			});
+			return "OK";
+		} finally {
+			invalidate(keys);
+		}
+	}
+
+	/**
+	 * MSETNX is atomic, hence all the keys must be owned by the same token. 
+	 */
+	@Override
+	public Long msetnx(final String... keysvalues) {
+		
+		final String[] keys = getKeys(keysvalues);
+		Long token = connPool.getHostTokenForKey(keys[0]);
+		for (String key : keys) {
+			Long keyToken = connPool.getHostTokenForKey(key);
+			if (token == null ? keyToken != null : !token.equals(keyToken)) {
+				throw new DynoException("MSETNX requires all keys to be owned by the same token, cannot set atomically across nodes");
+			}
+		}
+		
+		try {
+			return connPool.executeWithFailover(new BaseKeyOperation<Long>(keys[0], OpName.MSETNX) {
+				
+				@Override
+				public Long execute(Jedis client, ConnectionContext state) {
+					return client.msetnx(keysvalues);
+				}
+			}).getResult();
+		} finally {
+			invalidate(keys);
+		}
+	}
+	
+	private String[] getKeys(String... keysvalues) {
+		
+		if (keysvalues.length == 0 || keysvalues.length % 2 != 0) {
+			throw new IllegalArgumentException("Expected key value pairs, got " + keysvalues.length + " arguments");
+		}
+		String[] keys = new String[keysvalues.length / 2];
+		for (int i=0; i<keys.length; i++) {
+			keys[i] = keysvalues[2*i];
+		}
+		return keys;
+	}
+	
+	private void invalidate(String... keys) {
+		if (nearCache != null) {
+			for (String key : keys) {
+				nearCache.invalidate(key);
+			}
+		}
+	}
+
+	@Override
+	public String rename(String oldkey, String newkey) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public Long renamenx(String oldkey, String newkey) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public Set<String> sinter(String... keys) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	public Long sinterstore(final String dstkey, final String ... keys)  {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public Long sort(String key, SortingParams sortingParameters, String dstkey) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public Long sort(String key, String dstkey) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public Set<String> sunion(String... keys) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public Long sunionstore(String dstkey, String... keys) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public String watch(String... keys) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public String unwatch() {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public Long zinterstore(String dstkey, String... sets) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public Long zinterstore(String dstkey, ZParams params, String... sets) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public Long zunionstore(String dstkey, String... sets) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public Long zunionstore(String dstkey, ZParams params, String... sets) {
+		throw new NotImplementedException("not yet implemented");
+	}
+
+	@Override
+	public String brpoplpush(String source, String destination, int timeout) {
+		throw new NotImplementedException("not yet implemented");
 	}
 
 	@Override
@@ -2170,32 +2960,146 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 
 	@Override
 	public ScanResult<Entry<String, String>> hscan(String key, int cursor) {
-		throw new NotImplementedException("not yet implemented");
+		return hscan(key, String.valueOf(cursor));
 	}
 
 	@Override
 	public ScanResult<String> sscan(String key, int cursor) {
-		throw new NotImplementedException("not yet implemented");
+		return sscan(key, String.valueOf(cursor));
 	}
 
 	@Override
 	public ScanResult<Tuple> zscan(String key, int cursor) {
-		throw new NotImplementedException("not yet implemented");
+		return zscan(key, String.valueOf(cursor));
 	}
 
 	@Override
 	public ScanResult<Entry<String, String>> hscan(String key, String cursor) {
-		throw new NotImplementedException("not yet implemented");
+		return d_hscan(key, cursor, new ScanParams()).getResult();
+	}
+
+	public OperationResult<ScanResult<Entry<String, String>>> d_hscan(final String key, final String cursor, final ScanParams params) {
+
+		return connPool.executeWithFailover(new BaseKeyOperation<ScanResult<Entry<String, String>>>(key, OpName.HSCAN) {
+
+			@Override
+			public ScanResult<Entry<String, String>> execute(Jedis client, ConnectionContext state) throws DynoException {
+				return client.hscan(key, cursor, params);
+			}
+		});
 	}
 
 	@Override
 	public ScanResult<String> sscan(String key, String cursor) {
-		throw new NotImplementedException("not yet implemented");
+		return d_sscan(key, cursor, new ScanParams()).getResult();
+	}
+
+	public OperationResult<ScanResult<String>> d_sscan(final String key, final String cursor, final ScanParams params) {
+
+		return connPool.executeWithFailover(new BaseKeyOperation<ScanResult<String>>(key, OpName.SSCAN) {
+
+			@Override
+			public ScanResult<String> execute(Jedis client, ConnectionContext state) throws DynoException {
+				return client.sscan(key, cursor, params);
+			}
+		});
 	}
 
 	@Override
 	public ScanResult<Tuple> zscan(String key, String cursor) {
-		throw new NotImplementedException("not yet implemented");
+		return d_zscan(key, cursor, new ScanParams()).getResult();
+	}
+
+	public OperationResult<ScanResult<Tuple>> d_zscan(final String key, final String cursor, final ScanParams params) {
+
+		return connPool.executeWithFailover(new BaseKeyOperation<ScanResult<Tuple>>(key, OpName.ZSCAN) {
+
+			@Override
+			public ScanResult<Tuple> execute(Jedis client, ConnectionContext state) throws DynoException {
+				return client.zscan(key, cursor, params);
+			}
+		});
+	}
+
+	/**
+	 * Streams the fields of a hash with HSCAN, see {@link ScanIterator}
+	 * @param key
+	 * @param params MATCH and COUNT for every HSCAN
+	 * @param scanCursor the cursor to resume from, or null to start a new scan
+	 * @return ScanIterator<Entry<String, String>>
+	 */
+	public ScanIterator<Entry<String, String>> hscanIterator(final String key, final ScanParams params, ScanCursor scanCursor) {
+
+		return keyScanIterator(key, OpName.HSCAN, scanCursor, new KeyScanCommand<Entry<String, String>>() {
+
+			@Override
+			public ScanResult<Entry<String, String>> scan(Jedis client, String cursor) {
+				return client.hscan(key, cursor, params);
+			}
+		});
+	}
+
+	/**
+	 * Streams the members of a set with SSCAN, see {@link ScanIterator}
+	 * @param key
+	 * @param params MATCH and COUNT for every SSCAN
+	 * @param scanCursor the cursor to resume from, or null to start a new scan
+	 * @return ScanIterator<String>
+	 */
+	public ScanIterator<String> sscanIterator(final String key, final ScanParams params, ScanCursor scanCursor) {
+
+		return keyScanIterator(key, OpName.SSCAN, scanCursor, new KeyScanCommand<String>() {
+
+			@Override
+			public ScanResult<String> scan(Jedis client, String cursor) {
+				return client.sscan(key, cursor, params);
+			}
+		});
+	}
+
+	/**
+	 * Streams the members of a sorted set with ZSCAN, see {@link ScanIterator}
+	 * @param key
+	 * @param params MATCH and COUNT for every ZSCAN
+	 * @param scanCursor the cursor to resume from, or null to start a new scan
+	 * @return ScanIterator<Tuple>
+	 */
+	public ScanIterator<Tuple> zscanIterator(final String key, final ScanParams params, ScanCursor scanCursor) {
+
+		return keyScanIterator(key, OpName.ZSCAN, scanCursor, new KeyScanCommand<Tuple>() {
+
+			@Override
+			public ScanResult<Tuple> scan(Jedis client, String cursor) {
+				return client.zscan(key, cursor, params);
+			}
+		});
+	}
+
+	/**
+	 * Runs one page of a HSCAN, SSCAN or ZSCAN
+	 */
+	private interface KeyScanCommand<T> {
+
+		public ScanResult<T> scan(Jedis client, String cursor);
+	}
+
+	private <T> ScanIterator<T> keyScanIterator(final String key, final OpName opName, ScanCursor scanCursor, final KeyScanCommand<T> command) {
+
+		return ScanIterator.keyScan(getConnPool(), new ScanOperationFactory<Jedis, T>() {
+
+			@Override
+			public Operation<Jedis, ScanPage<T>> getScanOperation(final String cursor) {
+
+				return new BaseKeyOperation<ScanPage<T>>(key, opName) {
+
+					@Override
+					public ScanPage<T> execute(Jedis client, ConnectionContext state) throws DynoException {
+						ScanResult<T> result = command.scan(client, cursor);
+						return new ScanPage<T>(result.getStringCursor(), result.getResult());
+					}
+				};
+			}
+		}, scanCursor, DEFAULT_SCAN_PREFETCH);
 	}
 
 	@Override
@@ -2213,10 +3117,6 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 		throw new NotImplementedException("not yet implemented");
 	}
 
-	@Override
-	public ScanResult<String> scan(String cursor) {
-		throw new NotImplementedException("not yet implemented");
-	}
 
 	@Override
 	public String pfmerge(String destkey, String... sourcekeys) {
@@ -2233,7 +3133,25 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 	}
 	
 	public DynoJedisPipeline pipelined() {
-		return new DynoJedisPipeline(getConnPool());
+		return new DynoJedisPipeline(getConnPool(), nearCache, false, 0, 0);
+	}
+	
+	/**
+	 * Pipeline that can take commands for any key, see {@link DynoJedisPipeline}
+	 * @return DynoJedisPipeline
+	 */
+	public DynoJedisPipeline multiHostPipelined() {
+		return new DynoJedisPipeline(getConnPool(), nearCache, true, 0, 0);
+	}
+	
+	/**
+	 * Pipeline that can take commands for any key, and flushes the commands for a host once there are too many of them
+	 * @param maxBufferedCommands flush a host after this many commands, 0 for no limit
+	 * @param maxBufferedBytes flush a host after this many bytes of keys and values, 0 for no limit
+	 * @return DynoJedisPipeline
+	 */
+	public DynoJedisPipeline multiHostPipelined(int maxBufferedCommands, long maxBufferedBytes) {
+		return new DynoJedisPipeline(getConnPool(), nearCache, true, maxBufferedCommands, maxBufferedBytes);
 	}
 
 	public static class Builder {
@@ -2244,6 +3162,8 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 		private ConnectionPoolConfigurationImpl cpConfig;
 		private HostSupplier hostSupplier;
 		private DiscoveryClient discoveryClient;
+		private long nearCacheMaxBytes = 0;
+		private NearCache.TtlPolicy nearCacheTtlPolicy;
 		
 		public Builder() {
 		}
@@ -2278,6 +3198,27 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 			return this;
 		}
 
+		/**
+		 * Enable the near cache for get, hget and hgetAll
+		 * @param maxBytes the bound on the estimated size of the cache
+		 * @param ttlMillis how long results are cached for, since writes from other clients are not seen
+		 * @return Builder
+		 */
+		public Builder withNearCache(long maxBytes, final long ttlMillis) {
+			return withNearCache(maxBytes, new NearCache.TtlPolicy() {
+				@Override
+				public long getTtlMillis(String key) {
+					return ttlMillis;
+				}
+			});
+		}
+
+		public Builder withNearCache(long maxBytes, NearCache.TtlPolicy ttlPolicy) {
+			nearCacheMaxBytes = maxBytes;
+			nearCacheTtlPolicy = ttlPolicy;
+			return this;
+		}
+
 		public DynoJedisClient build() {
 
 			assert(appName != null);
@@ -2315,7 +3256,12 @@ public class DynoJedisClient implements JedisCommands, MultiKeyCommands {
 				throw new RuntimeException(e);
 			}
 			
-			final DynoJedisClient client = new DynoJedisClient(appName, pool);
+			NearCache nearCache = null;
+			if (nearCacheMaxBytes > 0) {
+				nearCache = new NearCache(nearCacheMaxBytes, nearCacheTtlPolicy, opMonitor);
+			}
+			
+			final DynoJedisClient client = new DynoJedisClient(appName, pool, nearCache);
 			return client;
 		}
 	}
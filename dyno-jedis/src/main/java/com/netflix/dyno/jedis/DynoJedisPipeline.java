@@ -1,41 +1,211 @@
 package com.netflix.dyno.jedis;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import redis.clients.jedis.BinaryClient.LIST_POSITION;
+import redis.clients.jedis.Builder;
+import redis.clients.jedis.BuilderFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.RedisPipeline;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.SortingParams;
 import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 import com.netflix.dyno.connectionpool.BaseOperation;
 import com.netflix.dyno.connectionpool.Connection;
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.HostConnectionPool;
+import com.netflix.dyno.connectionpool.exception.DynoException;
+import com.netflix.dyno.connectionpool.impl.ConnectionPoolConfigurationImpl;
 import com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl;
+import com.netflix.dyno.connectionpool.impl.CountingConnectionPoolMonitor;
+import com.netflix.dyno.connectionpool.impl.LastOperationMonitor;
+import com.netflix.dyno.connectionpool.impl.utils.NearCache;
 import com.netflix.dyno.jedis.JedisConnectionFactory.JedisConnection;
 
+/**
+ * Pipeline for the dynomite ring. 
+ * 
+ * By default all the commands must be for the same key, since they all go over a single connection to the owner of that key. 
+ * In multi host mode every command is routed to the owner of its key instead. A jedis {@link Pipeline} (and connection) is
+ * opened per token on demand, and on {@link #sync()} all of them are flushed concurrently. 
+ * 
+ * Optionally the commands buffered for a host can be flushed as soon as there are more than N of them, or they 
+ * add up to more than M bytes of keys and values, which bounds the memory held by a long pipeline in a batch job.  
+ * 
+ * When the client has a {@link NearCache}, every key that went through the pipeline is dropped from it once its commands 
+ * have been flushed, whether the flush succeeded or not. The pipeline does not tell reads from writes, so keys that were 
+ * only read are dropped as well. 
+ * 
+ * Like the jedis pipeline this is NOT thread safe. 
+ */
 public class DynoJedisPipeline implements RedisPipeline {
 
 	private static final Logger Logger = LoggerFactory.getLogger(DynoJedisPipeline.class);
 	
+	// rough size of the RESP framing of a command, used for the buffered bytes estimate
+	private static final int COMMAND_OVERHEAD_BYTES = 16;
+	
 	private Pipeline jedisPipeline; 
 	private final ConnectionPoolImpl<Jedis> connPool;
+	private final NearCache nearCache;
 	private Connection<Jedis> connection;
 	private String theKey; 
 	
+	// Only used in multi host mode
+	private final boolean multiHost;
+	private final int maxBufferedCommands;
+	private final long maxBufferedBytes;
+	private final Map<Long, HostPipeline> hostPipelines = new LinkedHashMap<Long, HostPipeline>();
+	
+	// every response handed out since the last sync in submission order
+	private final List<Response<?>> responses = new ArrayList<Response<?>>();
+	
 	private static final String DynoPipeline = "DynoPipeline";
 	
 	DynoJedisPipeline(ConnectionPoolImpl<Jedis> cPool) {
+		this(cPool, false, 0, 0);
+	}
+	
+	DynoJedisPipeline(ConnectionPoolImpl<Jedis> cPool, boolean multiHost, int maxBufferedCommands, long maxBufferedBytes) {
+		this(cPool, null, multiHost, maxBufferedCommands, maxBufferedBytes);
+	}
+	
+	/**
+	 * @param cPool
+	 * @param cache the client's near cache, may be null
+	 * @param multiHost whether commands for different keys can be sent to different hosts
+	 * @param maxBufferedCommands flush a host once this many commands are buffered for it, 0 to only flush on sync
+	 * @param maxBufferedBytes flush a host once this many bytes of keys and values are buffered for it, 0 to only flush on sync
+	 */
+	DynoJedisPipeline(ConnectionPoolImpl<Jedis> cPool, NearCache cache, boolean multiHost, int maxBufferedCommands, long maxBufferedBytes) {
 		this.connPool = cPool;
+		this.nearCache = cache;
+		this.multiHost = multiHost;
+		this.maxBufferedCommands = maxBufferedCommands;
+		this.maxBufferedBytes = maxBufferedBytes;
+	}
+	
+	/**
+	 * The pipeline and connection to the owner of one token, in multi host mode
+	 */
+	private class HostPipeline {
+		
+		private final Connection<Jedis> connection;
+		private final Pipeline pipeline;
+		private int bufferedCommands = 0;
+		private long bufferedBytes = 0;
+		// the keys of the buffered commands, only kept when there is a near cache
+		private final List<String> keys = new ArrayList<String>();
+		
+		private HostPipeline(Connection<Jedis> connection) {
+			this.connection = connection;
+			this.pipeline = ((JedisConnection)connection).getClient().pipelined();
+		}
+		
+		private boolean isFull() {
+			return (maxBufferedCommands > 0 && bufferedCommands >= maxBufferedCommands) 
+					|| (maxBufferedBytes > 0 && bufferedBytes >= maxBufferedBytes);
+		}
+		
+		private void flush() {
+			try {
+				pipeline.sync();
+			} finally {
+				invalidateKeys();
+			}
+			bufferedCommands = 0;
+			bufferedBytes = 0;
+		}
+		
+		private void invalidateKeys() {
+			for (String key : keys) {
+				nearCache.invalidate(key);
+			}
+			keys.clear();
+		}
 	}
 	
 	private void checkKey(final String key) {
+		checkKey(key, 0L);
+	}
+	
+	private void checkKey(final String key, final String ... values) {
+		long bytes = 0;
+		for (String value : values) {
+			bytes += (value != null) ? value.length() : 0;
+		}
+		checkKey(key, bytes);
+	}
+	
+	private void checkKey(final String key, final Map<String, String> hash) {
+		long bytes = 0;
+		for (Map.Entry<String, String> entry : hash.entrySet()) {
+			bytes += entry.getKey().length() + entry.getValue().length();
+		}
+		checkKey(key, bytes);
+	}
+	
+	/**
+	 * Point the current pipeline at the one for the key
+	 * @param key
+	 * @param valueBytes the size of the values sent along with the key
+	 */
+	private void checkKey(final String key, final long valueBytes) {
+		
+		if (multiHost) {
+			
+			Long token = connPool.getHostTokenForKey(key);
+			HostPipeline hostPipeline = hostPipelines.get(token);
+			if (hostPipeline == null) {
+				hostPipeline = new HostPipeline(getConnection(key));
+				hostPipelines.put(token, hostPipeline);
+				
+			} else if (hostPipeline.isFull()) {
+				try { 
+					hostPipeline.flush();
+				} catch (RuntimeException e) {
+					discardPipeline();
+					releaseConnection();
+					responses.clear();
+					throw e;
+				}
+			}
+			
+			hostPipeline.bufferedCommands++;
+			hostPipeline.bufferedBytes += COMMAND_OVERHEAD_BYTES + key.length() + valueBytes;
+			if (nearCache != null) {
+				hostPipeline.keys.add(key);
+			}
+			jedisPipeline = hostPipeline.pipeline;
+			return;
+		}
 		
 		if (theKey != null) {
 			
@@ -50,18 +220,7 @@ public class DynoJedisPipeline implements RedisPipeline {
 		} else {
 
 			theKey = key;
-			connection = connPool.getConnectionForOperation(new BaseOperation<Jedis, String>() {
-
-				@Override
-				public String getName() {
-					return DynoPipeline;
-				}
-
-				@Override
-				public String getKey() {
-					return key;
-				}
-			});
+			connection = getConnection(key);
 			
 			Jedis jedis = ((JedisConnection)connection).getClient();
 			
@@ -69,431 +228,452 @@ public class DynoJedisPipeline implements RedisPipeline {
 		}
 	}
 	
+	private Connection<Jedis> getConnection(final String key) {
+		
+		return connPool.getConnectionForOperation(new BaseOperation<Jedis, String>() {
+
+			@Override
+			public String getName() {
+				return DynoPipeline;
+			}
+
+			@Override
+			public String getKey() {
+				return key;
+			}
+		});
+	}
+	
+	private <T> Response<T> addResponse(Response<T> response) {
+		responses.add(response);
+		return response;
+	}
+	
 	@Override
 	public Response<Long> append(String key, String value) {
-	    checkKey(key);
-	    return jedisPipeline.append(key, value);
+	    checkKey(key, value);
+	    return addResponse(jedisPipeline.append(key, value));
 	}
 
 	@Override
 	public Response<List<String>> blpop(String arg) {
 	    checkKey(arg);
-	    return jedisPipeline.blpop(arg);
+	    return addResponse(jedisPipeline.blpop(arg));
 	}
 
 	@Override
 	public Response<List<String>> brpop(String arg) {
 	    checkKey(arg);
-	    return jedisPipeline.brpop(arg);
+	    return addResponse(jedisPipeline.brpop(arg));
 	}
 
 	@Override
 	public Response<Long> decr(String key) {
 	    checkKey(key);
-	    return jedisPipeline.decr(key);
+	    return addResponse(jedisPipeline.decr(key));
 	}
 
 	@Override
 	public Response<Long> decrBy(String key, long integer) {
 	    checkKey(key);
-	    return jedisPipeline.decrBy(key, integer);
+	    return addResponse(jedisPipeline.decrBy(key, integer));
 	}
 
 	@Override
 	public Response<Long> del(String key) {
 	    checkKey(key);
-	    return jedisPipeline.del(key);
+	    return addResponse(jedisPipeline.del(key));
 	}
 
 	@Override
 	public Response<String> echo(String string) {
 	    checkKey(string);
-	    return jedisPipeline.echo(string);
+	    return addResponse(jedisPipeline.echo(string));
 	}
 
 	@Override
 	public Response<Boolean> exists(String key) {
 	    checkKey(key);
-	    return jedisPipeline.exists(key);
+	    return addResponse(jedisPipeline.exists(key));
 	}
 
 	@Override
 	public Response<Long> expire(String key, int seconds) {
 	    checkKey(key);
-	    return jedisPipeline.expire(key, seconds);
+	    return addResponse(jedisPipeline.expire(key, seconds));
 	}
 
 	@Override
 	public Response<Long> expireAt(String key, long unixTime) {
 	    checkKey(key);
-	    return jedisPipeline.expireAt(key, unixTime);
+	    return addResponse(jedisPipeline.expireAt(key, unixTime));
 	}
 
 	@Override
 	public Response<String> get(String key) {
 	    checkKey(key);
-	    return jedisPipeline.get(key);
+	    return addResponse(jedisPipeline.get(key));
 	}
 
 	@Override
 	public Response<Boolean> getbit(String key, long offset) {
 	    checkKey(key);
-	    return jedisPipeline.getbit(key, offset);
+	    return addResponse(jedisPipeline.getbit(key, offset));
 	}
 
 	@Override
 	public Response<String> getrange(String key, long startOffset, long endOffset) {
 	    checkKey(key);
-	    return jedisPipeline.getrange(key, startOffset, endOffset);
+	    return addResponse(jedisPipeline.getrange(key, startOffset, endOffset));
 	}
 
 	@Override
 	public Response<String> getSet(String key, String value) {
-	    checkKey(key);
-	    return jedisPipeline.getSet(key, value);
+	    checkKey(key, value);
+	    return addResponse(jedisPipeline.getSet(key, value));
 	}
 
 	@Override
 	public Response<Long> hdel(String key, String... field) {
 	    checkKey(key);
-	    return jedisPipeline.hdel(key, field);
+	    return addResponse(jedisPipeline.hdel(key, field));
 	}
 
 	@Override
 	public Response<Boolean> hexists(String key, String field) {
 	    checkKey(key);
-	    return jedisPipeline.hexists(key, field);
+	    return addResponse(jedisPipeline.hexists(key, field));
 	}
 
 	@Override
 	public Response<String> hget(String key, String field) {
 	    checkKey(key);
-	    return jedisPipeline.hget(key, field);
+	    return addResponse(jedisPipeline.hget(key, field));
 	}
 
 	@Override
 	public Response<Map<String, String>> hgetAll(String key) {
 	    checkKey(key);
-	    return jedisPipeline.hgetAll(key);
+	    return addResponse(jedisPipeline.hgetAll(key));
 	}
 
 	@Override
 	public Response<Long> hincrBy(String key, String field, long value) {
 	    checkKey(key);
-	    return jedisPipeline.hincrBy(key, field, value);
+	    return addResponse(jedisPipeline.hincrBy(key, field, value));
 	}
 
 	@Override
 	public Response<Set<String>> hkeys(String key) {
 	    checkKey(key);
-	    return jedisPipeline.hkeys(key);
+	    return addResponse(jedisPipeline.hkeys(key));
 	}
 
 	@Override
 	public Response<Long> hlen(String key) {
 	    checkKey(key);
-	    return jedisPipeline.hlen(key);
+	    return addResponse(jedisPipeline.hlen(key));
 	}
 
 	@Override
 	public Response<List<String>> hmget(String key, String... fields) {
 	    checkKey(key);
-	    return jedisPipeline.hmget(key, fields);
+	    return addResponse(jedisPipeline.hmget(key, fields));
 	}
 
 	@Override
 	public Response<String> hmset(String key, Map<String, String> hash) {
-	    checkKey(key);
-	    return jedisPipeline.hmset(key, hash);
+	    checkKey(key, hash);
+	    return addResponse(jedisPipeline.hmset(key, hash));
 	}
 
 	@Override
 	public Response<Long> hset(String key, String field, String value) {
-	    checkKey(key);
-	    return jedisPipeline.hset(key, field, value);
+	    checkKey(key, field, value);
+	    return addResponse(jedisPipeline.hset(key, field, value));
 	}
 
 	@Override
 	public Response<Long> hsetnx(String key, String field, String value) {
-	    checkKey(key);
-	    return jedisPipeline.hsetnx(key, field, value);
+	    checkKey(key, field, value);
+	    return addResponse(jedisPipeline.hsetnx(key, field, value));
 	}
 
 	@Override
 	public Response<List<String>> hvals(String key) {
 	    checkKey(key);
-	    return jedisPipeline.hvals(key);
+	    return addResponse(jedisPipeline.hvals(key));
 	}
 
 	@Override
 	public Response<Long> incr(String key) {
 	    checkKey(key);
-	    return jedisPipeline.incr(key);
+	    return addResponse(jedisPipeline.incr(key));
 	}
 
 	@Override
 	public Response<Long> incrBy(String key, long integer) {
 	    checkKey(key);
-	    return jedisPipeline.incrBy(key, integer);
+	    return addResponse(jedisPipeline.incrBy(key, integer));
 	}
 
 	@Override
 	public Response<String> lindex(String key, long index) {
 	    checkKey(key);
-	    return jedisPipeline.lindex(key, index);
+	    return addResponse(jedisPipeline.lindex(key, index));
 	}
 
 	@Override
 	public Response<Long> linsert(String key, LIST_POSITION where, String pivot, String value) {
-	    checkKey(key);
+	    checkKey(key, pivot, value);
 	    return linsert(key, where, pivot, value);
 	}
 
 	@Override
 	public Response<Long> llen(String key) {
 	    checkKey(key);
-		return jedisPipeline.llen(key);
+		return addResponse(jedisPipeline.llen(key));
 	}
 
 	@Override
 	public Response<String> lpop(String key) {
 	    checkKey(key);
-	    return jedisPipeline.lpop(key);
+	    return addResponse(jedisPipeline.lpop(key));
 	}
 
 	@Override
 	public Response<Long> lpush(String key, String... string) {
-	    checkKey(key);
-	    return jedisPipeline.lpush(key, string);
+	    checkKey(key, string);
+	    return addResponse(jedisPipeline.lpush(key, string));
 	}
 
 	@Override
 	public Response<Long> lpushx(String key, String... string) {
-	    checkKey(key);
-	    return jedisPipeline.lpushx(key, string);
+	    checkKey(key, string);
+	    return addResponse(jedisPipeline.lpushx(key, string));
 	}
 
 	@Override
 	public Response<List<String>> lrange(String key, long start, long end) {
 	    checkKey(key);
-	    return jedisPipeline.lrange(key, start, end);
+	    return addResponse(jedisPipeline.lrange(key, start, end));
 	}
 
 	@Override
 	public Response<Long> lrem(String key, long count, String value) {
-	    checkKey(key);
-	    return jedisPipeline.lrem(key, count, value);
+	    checkKey(key, value);
+	    return addResponse(jedisPipeline.lrem(key, count, value));
 	}
 
 	@Override
 	public Response<String> lset(String key, long index, String value) {
-	    checkKey(key);
-	    return jedisPipeline.lset(key, index, value);
+	    checkKey(key, value);
+	    return addResponse(jedisPipeline.lset(key, index, value));
 	}
 
 	@Override
 	public Response<String> ltrim(String key, long start, long end) {
 	    checkKey(key);
-	    return jedisPipeline.ltrim(key, start, end);
+	    return addResponse(jedisPipeline.ltrim(key, start, end));
 	}
 
 	@Override
 	public Response<Long> move(String key, int dbIndex) {
 	    checkKey(key);
-	    return jedisPipeline.move(key, dbIndex);
+	    return addResponse(jedisPipeline.move(key, dbIndex));
 	}
 
 	@Override
 	public Response<Long> persist(String key) {
 	    checkKey(key);
-	    return jedisPipeline.persist(key);
+	    return addResponse(jedisPipeline.persist(key));
 	}
 
 	@Override
 	public Response<String> rpop(String key) {
 	    checkKey(key);
-	    return jedisPipeline.rpop(key);
+	    return addResponse(jedisPipeline.rpop(key));
 	}
 
 	@Override
 	public Response<Long> rpush(String key, String... string) {
-	    checkKey(key);
-	    return jedisPipeline.rpush(key, string);
+	    checkKey(key, string);
+	    return addResponse(jedisPipeline.rpush(key, string));
 	}
 
 	@Override
 	public Response<Long> rpushx(String key, String... string) {
-	    checkKey(key);
-	    return jedisPipeline.rpushx(key, string);
+	    checkKey(key, string);
+	    return addResponse(jedisPipeline.rpushx(key, string));
 	}
 
 	@Override
 	public Response<Long> sadd(String key, String... member) {
-	    checkKey(key);
-	    return jedisPipeline.sadd(key, member);
+	    checkKey(key, member);
+	    return addResponse(jedisPipeline.sadd(key, member));
 	}
 
 	@Override
 	public Response<Long> scard(String key) {
 	    checkKey(key);
-	    return jedisPipeline.scard(key);
+	    return addResponse(jedisPipeline.scard(key));
 	}
 
 	@Override
 	public Response<Boolean> sismember(String key, String member) {
 	    checkKey(key);
-	    return jedisPipeline.sismember(key, member);
+	    return addResponse(jedisPipeline.sismember(key, member));
 	}
 
 	@Override
 	public Response<String> set(String key, String value) {
-	    checkKey(key);
-	    return jedisPipeline.set(key, value);
+	    checkKey(key, value);
+	    return addResponse(jedisPipeline.set(key, value));
 	}
 
 	@Override
 	public Response<Boolean> setbit(String key, long offset, boolean value) {
 	    checkKey(key);
-	    return jedisPipeline.setbit(key, offset, value);
+	    return addResponse(jedisPipeline.setbit(key, offset, value));
 	}
 
 	@Override
 	public Response<String> setex(String key, int seconds, String value) {
-	    checkKey(key);
-	    return jedisPipeline.setex(key, seconds, value);
+	    checkKey(key, value);
+	    return addResponse(jedisPipeline.setex(key, seconds, value));
 	}
 
 	@Override
 	public Response<Long> setnx(String key, String value) {
-	    checkKey(key);
-	    return jedisPipeline.setnx(key, value);
+	    checkKey(key, value);
+	    return addResponse(jedisPipeline.setnx(key, value));
 	}
 
 	@Override
 	public Response<Long> setrange(String key, long offset, String value) {
-	    checkKey(key);
-	    return jedisPipeline.setrange(key, offset, value);
+	    checkKey(key, value);
+	    return addResponse(jedisPipeline.setrange(key, offset, value));
 	}
 
 	@Override
 	public Response<Set<String>> smembers(String key) {
 	    checkKey(key);
-	    return jedisPipeline.smembers(key);
+	    return addResponse(jedisPipeline.smembers(key));
 	}
 
 	@Override
 	public Response<List<String>> sort(String key) {
 	    checkKey(key);
-	    return jedisPipeline.sort(key);
+	    return addResponse(jedisPipeline.sort(key));
 	}
 
 	@Override
 	public Response<List<String>> sort(String key, SortingParams sortingParameters) {
 	    checkKey(key);
-	    return jedisPipeline.sort(key, sortingParameters);
+	    return addResponse(jedisPipeline.sort(key, sortingParameters));
 	}
 
 	@Override
 	public Response<String> spop(String key) {
 	    checkKey(key);
-	    return jedisPipeline.spop(key);
+	    return addResponse(jedisPipeline.spop(key));
 	}
 
 	@Override
 	public Response<String> srandmember(String key) {
 	    checkKey(key);
-	    return jedisPipeline.srandmember(key);
+	    return addResponse(jedisPipeline.srandmember(key));
 	}
 
 	@Override
 	public Response<Long> srem(String key, String... member) {
 	    checkKey(key);
-	    return jedisPipeline.srem(key, member);
+	    return addResponse(jedisPipeline.srem(key, member));
 	}
 
 	@Override
 	public Response<Long> strlen(String key) {
 	    checkKey(key);
-	    return jedisPipeline.strlen(key);
+	    return addResponse(jedisPipeline.strlen(key));
 	}
 
 	@Override
 	public Response<String> substr(String key, int start, int end) {
 	    checkKey(key);
-	    return jedisPipeline.substr(key, start, end);
+	    return addResponse(jedisPipeline.substr(key, start, end));
 	}
 
 	@Override
 	public Response<Long> ttl(String key) {
 	    checkKey(key);
-	    return jedisPipeline.ttl(key);
+	    return addResponse(jedisPipeline.ttl(key));
 	}
 
 	@Override
 	public Response<String> type(String key) {
 	    checkKey(key);
-	    return jedisPipeline.type(key);
+	    return addResponse(jedisPipeline.type(key));
 	}
 
 	@Override
 	public Response<Long> zadd(String key, double score, String member) {
-	    checkKey(key);
-	    return jedisPipeline.zadd(key, score, member);
+	    checkKey(key, member);
+	    return addResponse(jedisPipeline.zadd(key, score, member));
 	}
 
 	@Override
 	public Response<Long> zcard(String key) {
 	    checkKey(key);
-	    return jedisPipeline.zcard(key);
+	    return addResponse(jedisPipeline.zcard(key));
 	}
 
 	@Override
 	public Response<Long> zcount(String key, double min, double max) {
 	    checkKey(key);
-	    return jedisPipeline.zcount(key, min, max);
+	    return addResponse(jedisPipeline.zcount(key, min, max));
 	}
 
 	@Override
 	public Response<Double> zincrby(String key, double score, String member) {
-	    checkKey(key);
-	    return jedisPipeline.zincrby(key, score, member);
+	    checkKey(key, member);
+	    return addResponse(jedisPipeline.zincrby(key, score, member));
 	}
 
 	@Override
 	public Response<Set<String>> zrange(String key, long start, long end) {
 	    checkKey(key);
-	    return jedisPipeline.zrange(key, start, end);
+	    return addResponse(jedisPipeline.zrange(key, start, end));
 	}
 
 
 	@Override
 	public Response<Set<String>> zrangeByScore(String key, double min, double max) {
 	    checkKey(key);
-	    return jedisPipeline.zrangeByScore(key, min, max);
+	    return addResponse(jedisPipeline.zrangeByScore(key, min, max));
 	}
 
 	@Override
 	public Response<Set<String>> zrangeByScore(String key, String min, String max) {
 	    checkKey(key);
-	    return jedisPipeline.zrangeByScore(key, min, max);
+	    return addResponse(jedisPipeline.zrangeByScore(key, min, max));
 	}
 
 	@Override
 	public Response<Set<String>> zrangeByScore(String key, double min, double max, int offset, int count) {
 	    checkKey(key);
-	    return jedisPipeline.zrangeByScore(key, min, max, offset, count);
+	    return addResponse(jedisPipeline.zrangeByScore(key, min, max, offset, count));
 	}
 
 	@Override
 	public Response<Set<Tuple>> zrangeByScoreWithScores(String key, double min, double max) {
 	    checkKey(key);
-	    return jedisPipeline.zrangeByScoreWithScores(key, min, max);
+	    return addResponse(jedisPipeline.zrangeByScoreWithScores(key, min, max));
 	}
 
 	@Override
 	public Response<Set<Tuple>> zrangeByScoreWithScores(String key, double min, double max, int offset, int count) {
 	    checkKey(key);
-	    return jedisPipeline.zrangeByScoreWithScores(key, min, max, offset, count);
+	    return addResponse(jedisPipeline.zrangeByScoreWithScores(key, min, max, offset, count));
 	}
 
 	@Override
@@ -505,7 +685,7 @@ public class DynoJedisPipeline implements RedisPipeline {
 	@Override
 	public Response<Set<String>> zrevrangeByScore(String key, String max, String min) {
 	    checkKey(key);
-		return jedisPipeline.zrevrangeByScore(key, max, min);
+		return addResponse(jedisPipeline.zrevrangeByScore(key, max, min));
 	}
 
 	@Override
@@ -517,7 +697,7 @@ public class DynoJedisPipeline implements RedisPipeline {
 	@Override
 	public Response<Set<Tuple>> zrevrangeByScoreWithScores(String key, double max, double min) {
 		checkKey(key);
-		return jedisPipeline.zrevrangeByScoreWithScores(key, max, min);
+		return addResponse(jedisPipeline.zrevrangeByScoreWithScores(key, max, min));
 	}
 
 	@Override
@@ -529,108 +709,534 @@ public class DynoJedisPipeline implements RedisPipeline {
 	@Override
 	public Response<Set<Tuple>> zrangeWithScores(String key, long start, long end) {
 	    checkKey(key);
-		return jedisPipeline.zrangeWithScores(key, start, end);
+		return addResponse(jedisPipeline.zrangeWithScores(key, start, end));
 	}
 
 	@Override
 	public Response<Long> zrank(String key, String member) {
 	    checkKey(key);
-	    return jedisPipeline.zrank(key, member);
+	    return addResponse(jedisPipeline.zrank(key, member));
 	}
 
 	@Override
 	public Response<Long> zrem(String key, String... member) {
 	    checkKey(key);
-	    return jedisPipeline.zrem(key, member);
+	    return addResponse(jedisPipeline.zrem(key, member));
 	}
 
 	@Override
 	public Response<Long> zremrangeByRank(String key, long start, long end) {
 	    checkKey(key);
-	    return jedisPipeline.zremrangeByRank(key, start, end);
+	    return addResponse(jedisPipeline.zremrangeByRank(key, start, end));
 	}
 
 	@Override
 	public Response<Long> zremrangeByScore(String key, double start, double end) {
 	    checkKey(key);
-	    return jedisPipeline.zremrangeByScore(key, start, end);
+	    return addResponse(jedisPipeline.zremrangeByScore(key, start, end));
 	}
 
 	@Override
 	public Response<Set<String>> zrevrange(String key, long start, long end) {
 	    checkKey(key);
-	    return jedisPipeline.zrevrange(key, start, end);
+	    return addResponse(jedisPipeline.zrevrange(key, start, end));
 	}
 
 	@Override
 	public Response<Set<Tuple>> zrevrangeWithScores(String key, long start, long end) {
 	    checkKey(key);
-	    return zrevrangeWithScores(key, start, end);
+	    return addResponse(jedisPipeline.zrevrangeWithScores(key, start, end));
 	}
 
 	@Override
 	public Response<Long> zrevrank(String key, String member) {
 	    checkKey(key);
-		return jedisPipeline.zrevrank(key, member);
+		return addResponse(jedisPipeline.zrevrank(key, member));
 	}
 
 	@Override
 	public Response<Double> zscore(String key, String member) {
 	    checkKey(key);
-	    return jedisPipeline.zscore(key, member);
+	    return addResponse(jedisPipeline.zscore(key, member));
 	}
 
 	@Override
 	public Response<Long> bitcount(String key) {
 	    checkKey(key);
-	    return jedisPipeline.bitcount(key);
+	    return addResponse(jedisPipeline.bitcount(key));
 	}
 
 	@Override
 	public Response<Long> bitcount(String key, long start, long end) {
 	    checkKey(key);
-	    return jedisPipeline.bitcount(key, start, end);
+	    return addResponse(jedisPipeline.bitcount(key, start, end));
 	}
 
 	@Override
 	public Response<Long> pfadd(String key, String... elements) {
-	    checkKey(key);
-		return jedisPipeline.pfadd(key, elements);
+	    checkKey(key, elements);
+		return addResponse(jedisPipeline.pfadd(key, elements));
 	}
 
 	@Override
 	public Response<Long> pfcount(String key) {
 	    checkKey(key);
-		return jedisPipeline.pfcount(key);
+		return addResponse(jedisPipeline.pfcount(key));
 	}
 	
+	/**
+	 * Flush all the buffered commands and wait for their responses. In multi host mode the hosts are flushed concurrently. 
+	 * The pipeline can be used again afterwards. 
+	 */
 	public void sync() {
 		try {
-			jedisPipeline.sync();
+			flushAll();
+		} finally {
+			responses.clear();
+		}
+	}
+	
+	private void flushAll() {
+		
+		if (!multiHost) {
+			try {
+				jedisPipeline.sync();
+			} finally {
+				discardPipeline();
+				releaseConnection();
+			}
+			return;
+		}
+		
+		try {
+			syncHosts();
 		} finally {
-			discardPipeline();
 			releaseConnection();
 		}
 	}
 	
+	/**
+	 * Flush all the buffered commands and return the responses for every command since the last sync, in submission order. 
+	 * Commands that failed are returned as the exception that they failed with, just like jedis does.
+	 * 
+	 * With auto flush the responses of the commands that were already flushed are kept around till then, note that 
+	 * the buffer limits only bound the commands that have not been sent yet.
+	 * @return List<Object>
+	 */
+	public List<Object> syncAndReturnAll() {
+		
+		try {
+			flushAll();
+			
+			List<Object> results = new ArrayList<Object>(responses.size());
+			for (Response<?> response : responses) {
+				try {
+					results.add(response.get());
+				} catch (JedisDataException e) {
+					results.add(e);
+				}
+			}
+			return results;
+		} finally {
+			responses.clear();
+		}
+	}
+	
+	private void syncHosts() {
+		
+		List<HostPipeline> pipelines = new ArrayList<HostPipeline>(hostPipelines.values());
+		if (pipelines.isEmpty()) {
+			return;
+		}
+		
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(pipelines.size());
+		for (int i=1; i<pipelines.size(); i++) {
+			final HostPipeline hostPipeline = pipelines.get(i);
+			futures.add(connPool.getRingExecutor().submit(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					hostPipeline.flush();
+					return null;
+				}
+			}));
+		}
+		
+		RuntimeException failure = null;
+		
+		// the caller flushes the first host itself instead of just waiting
+		try {
+			pipelines.get(0).flush();
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					Throwable cause = e.getCause();
+					failure = (cause instanceof RuntimeException) ? (RuntimeException) cause : new DynoException(cause);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (failure == null) {
+					failure = new DynoException(e);
+				}
+			}
+		}
+		
+		if (failure != null) {
+			throw failure;
+		}
+	}
+	
 	private void discardPipeline() {
 		
+		if (multiHost) {
+			for (HostPipeline hostPipeline : hostPipelines.values()) {
+				try { 
+					hostPipeline.pipeline.sync();
+				} catch (Exception e) {
+					Logger.warn("Failed to discard jedis pipeline", e);
+				} finally {
+					hostPipeline.invalidateKeys();
+				}
+			}
+			return;
+		}
+		
 		try { 
 			if (jedisPipeline != null) {
 				jedisPipeline.sync();
 			}
 		} catch (Exception e) {
 			Logger.warn("Failed to discard jedis pipeline", e);
+		} finally {
+			if (nearCache != null && theKey != null) {
+				nearCache.invalidate(theKey);
+			}
 		}
 	}
 	
 	private void releaseConnection() {
-		if (connection != null) {
+		
+		if (multiHost) {
+			for (HostPipeline hostPipeline : hostPipelines.values()) {
+				returnConnection(hostPipeline.connection);
+			}
+			hostPipelines.clear();
+			jedisPipeline = null;
+			return;
+		}
+		
+		returnConnection(connection);
+	}
+	
+	private void returnConnection(Connection<Jedis> conn) {
+		if (conn != null) {
 			try { 
-				connection.getParentConnectionPool().returnConnection(connection);
+				conn.getParentConnectionPool().returnConnection(conn);
 			} catch (Exception e) {
 				Logger.warn("Failed to return connection in Dyno Jedis Pipeline", e);
 			}
 		}
 	}
+
+	public static class UnitTest {
+
+		private final ConnectionPoolConfigurationImpl cpConfig = new ConnectionPoolConfigurationImpl("test");
+		private final Map<String, String> store = new HashMap<String, String>();
+
+		private TestHost hostA;
+		private TestHost hostB;
+		private TestConnectionPool connPool;
+
+		@Before
+		public void beforeTest() {
+			hostA = new TestHost("hostA");
+			hostB = new TestHost("hostB");
+			connPool = new TestConnectionPool();
+		}
+
+		@After
+		public void afterTest() {
+			connPool.shutdown();
+		}
+
+		@Test
+		public void testCommandsAreRoutedByToken() throws Exception {
+
+			DynoJedisPipeline pipeline = new DynoJedisPipeline(connPool, true, 0, 0);
+			pipeline.set("a1", "v1");
+			pipeline.set("b1", "v2");
+			pipeline.incr("a2");
+
+			// one connection per host, nothing is sent till sync
+			Assert.assertEquals(1, hostA.borrowed.get());
+			Assert.assertEquals(1, hostB.borrowed.get());
+			Assert.assertEquals(0, hostA.pipeline.sent.size());
+
+			pipeline.sync();
+
+			Assert.assertEquals(Arrays.asList("SET a1", "INCR a2"), hostA.pipeline.sent);
+			Assert.assertEquals(Arrays.asList("SET b1"), hostB.pipeline.sent);
+			Assert.assertEquals(1, hostA.returned.get());
+			Assert.assertEquals(1, hostB.returned.get());
+		}
+
+		@Test
+		public void testAutoFlushOnCommandCount() throws Exception {
+
+			DynoJedisPipeline pipeline = new DynoJedisPipeline(connPool, true, 2, 0);
+			for (int i=1; i<=5; i++) {
+				pipeline.set("a" + i, "v");
+			}
+
+			// flushed before the 3rd and the 5th command
+			Assert.assertEquals(2, hostA.pipeline.syncs);
+			Assert.assertEquals(4, hostA.pipeline.sent.size());
+			Assert.assertEquals(0, hostA.returned.get());
+
+			pipeline.sync();
+			Assert.assertEquals(3, hostA.pipeline.syncs);
+			Assert.assertEquals(5, hostA.pipeline.sent.size());
+			Assert.assertEquals(1, hostA.returned.get());
+		}
+
+		@Test
+		public void testAutoFlushOnBytes() throws Exception {
+
+			char[] chars = new char[60];
+			Arrays.fill(chars, 'x');
+			String value = new String(chars);
+
+			// every command is about 16 + 2 + 60 bytes, hence the 3rd command finds the host above the 100 bytes limit
+			DynoJedisPipeline pipeline = new DynoJedisPipeline(connPool, true, 0, 100);
+			pipeline.set("a1", value);
+			pipeline.set("a2", value);
+			Assert.assertEquals(0, hostA.pipeline.syncs);
+
+			pipeline.set("a3", value);
+			Assert.assertEquals(1, hostA.pipeline.syncs);
+			Assert.assertEquals(Arrays.asList("SET a1", "SET a2"), hostA.pipeline.sent);
+
+			pipeline.sync();
+			Assert.assertEquals(3, hostA.pipeline.sent.size());
+		}
+
+		@Test
+		public void testResultsAreInSubmissionOrderAcrossHosts() throws Exception {
+
+			store.put("a1", "x");
+			store.put("b1", "y");
+
+			// with auto flush, so that some of the responses come from earlier flushes
+			DynoJedisPipeline pipeline = new DynoJedisPipeline(connPool, true, 2, 0);
+			pipeline.set("a1", "x");
+			pipeline.get("b1");
+			pipeline.incr("a2");
+			pipeline.get("a1");
+			pipeline.incr("b2");
+			pipeline.set("a3", "z");
+
+			Assert.assertTrue(hostA.pipeline.syncs > 0);
+
+			List<Object> results = pipeline.syncAndReturnAll();
+			Assert.assertEquals(Arrays.<Object>asList("OK", "y", 1L, "x", 1L, "OK"), results);
+
+			// the responses are not carried over to the next round
+			pipeline.get("b1");
+			Assert.assertEquals(Arrays.<Object>asList("y"), pipeline.syncAndReturnAll());
+		}
+
+		@Test
+		public void testConnectionsAreReturnedWhenAHostFails() throws Exception {
+
+			hostB.pipeline.failSync = true;
+
+			DynoJedisPipeline pipeline = new DynoJedisPipeline(connPool, true, 0, 0);
+			pipeline.set("a1", "v1");
+			pipeline.set("b1", "v2");
+
+			try {
+				pipeline.sync();
+				Assert.fail("Expected JedisConnectionException");
+			} catch (JedisConnectionException e) {
+			}
+
+			Assert.assertEquals(Arrays.asList("SET a1"), hostA.pipeline.sent);
+			Assert.assertEquals(1, hostA.returned.get());
+			Assert.assertEquals(1, hostB.returned.get());
+
+			// the pipeline can be used again with fresh connections
+			hostB.pipeline.failSync = false;
+			pipeline.set("b2", "v3");
+			pipeline.sync();
+			Assert.assertEquals(2, hostB.borrowed.get());
+			Assert.assertEquals(2, hostB.returned.get());
+		}
+
+		@Test
+		public void testConnectionsAreReturnedWhenAutoFlushFails() throws Exception {
+
+			DynoJedisPipeline pipeline = new DynoJedisPipeline(connPool, true, 1, 0);
+			pipeline.set("a1", "v1");
+			pipeline.set("b1", "v2");
+
+			hostA.pipeline.failSync = true;
+			try {
+				pipeline.set("a2", "v3");
+				Assert.fail("Expected JedisConnectionException");
+			} catch (JedisConnectionException e) {
+			}
+
+			Assert.assertEquals(1, hostA.returned.get());
+			Assert.assertEquals(1, hostB.returned.get());
+		}
+
+		@Test
+		public void testFlushedKeysAreDroppedFromNearCache() throws Exception {
+
+			NearCache cache = new NearCache(1024 * 1024, 60000, new LastOperationMonitor());
+			for (String key : Arrays.asList("a1", "a2", "b1")) {
+				cache.put(key, "GET", "old", NearCache.estimateWeight("old"), cache.getStamp(key));
+			}
+
+			DynoJedisPipeline pipeline = new DynoJedisPipeline(connPool, cache, true, 1, 0);
+			pipeline.set("a1", "v1");
+			pipeline.set("b1", "v2");
+			Assert.assertEquals("old", cache.get("GET", "a1", "GET"));
+
+			// the auto flush for hostA drops a1
+			pipeline.set("a2", "v3");
+			Assert.assertNull(cache.get("GET", "a1", "GET"));
+			Assert.assertEquals("old", cache.get("GET", "a2", "GET"));
+
+			// even a failed flush may have been applied
+			hostB.pipeline.failSync = true;
+			try {
+				pipeline.sync();
+				Assert.fail("Expected JedisConnectionException");
+			} catch (JedisConnectionException e) {
+			}
+			Assert.assertNull(cache.get("GET", "a2", "GET"));
+			Assert.assertNull(cache.get("GET", "b1", "GET"));
+		}
+
+		private class TestConnectionPool extends ConnectionPoolImpl<Jedis> {
+
+			private TestConnectionPool() {
+				super(new JedisConnectionFactory(new LastOperationMonitor()), cpConfig, new CountingConnectionPoolMonitor());
+			}
+
+			@Override
+			public Long getHostTokenForKey(String key) {
+				return key.startsWith("a") ? 1L : 2L;
+			}
+
+			@Override
+			public <R> Connection<Jedis> getConnectionForOperation(BaseOperation<Jedis, R> op) {
+				TestHost host = op.getKey().startsWith("a") ? hostA : hostB;
+				host.borrowed.incrementAndGet();
+				return host.connection;
+			}
+		}
+
+		private class TestHost {
+
+			private final AtomicInteger borrowed = new AtomicInteger(0);
+			private final AtomicInteger returned = new AtomicInteger(0);
+			private final TestPipeline pipeline = new TestPipeline();
+			private final Connection<Jedis> connection;
+
+			@SuppressWarnings("unchecked")
+			private TestHost(String name) {
+
+				HostConnectionPool<Jedis> hostPool = mock(HostConnectionPool.class);
+				when(hostPool.getHost()).thenReturn(new Host(name, 8102));
+				when(hostPool.getConnectionPoolConfiguration()).thenReturn(cpConfig);
+				when(hostPool.returnConnection(any(Connection.class))).thenAnswer(new Answer<Boolean>() {
+					@Override
+					public Boolean answer(InvocationOnMock invocation) throws Throwable {
+						returned.incrementAndGet();
+						return true;
+					}
+				});
+
+				final Jedis jedis = new Jedis(name, 8102) {
+					@Override
+					public Pipeline pipelined() {
+						return pipeline;
+					}
+				};
+
+				connection = new JedisConnectionFactory(new LastOperationMonitor()).new JedisConnection(hostPool) {
+					@Override
+					public Jedis getClient() {
+						return jedis;
+					}
+				};
+			}
+		}
+
+		/**
+		 * Buffers the commands and completes their responses on sync, the way a jedis pipeline does
+		 */
+		private class TestPipeline extends Pipeline {
+
+			private final List<String> sent = new ArrayList<String>();
+			private final List<String> buffered = new ArrayList<String>();
+			private final List<Response<?>> responses = new ArrayList<Response<?>>();
+			private final List<Object> replies = new ArrayList<Object>();
+			private final Map<String, Long> counters = new HashMap<String, Long>();
+			private int syncs = 0;
+			private boolean failSync = false;
+
+			@Override
+			public Response<String> set(String key, String value) {
+				return buffer("SET " + key, BuilderFactory.STRING, "OK".getBytes());
+			}
+
+			@Override
+			public Response<String> get(String key) {
+				String value = store.get(key);
+				return buffer("GET " + key, BuilderFactory.STRING, value != null ? value.getBytes() : null);
+			}
+
+			@Override
+			public Response<Long> incr(String key) {
+				Long value = counters.containsKey(key) ? counters.get(key) + 1 : 1L;
+				counters.put(key, value);
+				return buffer("INCR " + key, BuilderFactory.LONG, value);
+			}
+
+			@Override
+			public void sync() {
+				syncs++;
+				try {
+					if (failSync) {
+						throw new JedisConnectionException("Failed flush");
+					}
+					for (int i=0; i<responses.size(); i++) {
+						responses.get(i).set(replies.get(i));
+					}
+					sent.addAll(buffered);
+				} finally {
+					buffered.clear();
+					responses.clear();
+					replies.clear();
+				}
+			}
+
+			private <T> Response<T> buffer(String command, Builder<T> builder, Object reply) {
+				Response<T> response = new Response<T>(builder);
+				buffered.add(command);
+				responses.add(response);
+				replies.add(reply);
+				return response;
+			}
+		}
+	}
 }
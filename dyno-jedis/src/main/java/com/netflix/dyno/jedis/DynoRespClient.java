@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.jedis;
+
+import org.slf4j.Logger;
+
+import com.netflix.discovery.DiscoveryClient;
+import com.netflix.dyno.connectionpool.AsyncOperation;
+import com.netflix.dyno.connectionpool.ConnectionPool;
+import com.netflix.dyno.connectionpool.HostSupplier;
+import com.netflix.dyno.connectionpool.ListenableFuture;
+import com.netflix.dyno.connectionpool.OperationResult;
+import com.netflix.dyno.connectionpool.exception.DynoConnectException;
+import com.netflix.dyno.connectionpool.exception.DynoException;
+import com.netflix.dyno.connectionpool.impl.ConnectionPoolConfigurationImpl;
+import com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl;
+import com.netflix.dyno.connectionpool.impl.ConnectionPoolImpl.HostConnectionPoolFactory.Type;
+import com.netflix.dyno.connectionpool.impl.lb.HttpEndpointBasedTokenMapSupplier;
+import com.netflix.dyno.contrib.ArchaiusConnectionPoolConfiguration;
+import com.netflix.dyno.contrib.DynoCPMonitor;
+import com.netflix.dyno.contrib.DynoOPMonitor;
+import com.netflix.dyno.contrib.EurekaHostsSupplier;
+
+/**
+ * Async client on top of the multiplexed {@link RespConnectionFactory}. Many callers share a few sockets per host, hence
+ * a handful of connections per host can serve a large number of concurrent requests.
+ *
+ * Commands are routed by key like with {@link DynoJedisClient}, and the returned futures complete when the reply is
+ * read off the socket.
+ *
+ * @author poberai
+ */
+public class DynoRespClient {
+
+	private static final Logger Logger = org.slf4j.LoggerFactory.getLogger(DynoRespClient.class);
+
+	private final String appName;
+	private final ConnectionPool<RespClient> connPool;
+	private final RespConnectionFactory connFactory;
+
+	public DynoRespClient(String name, ConnectionPool<RespClient> pool, RespConnectionFactory factory) {
+		this.appName = name;
+		this.connPool = pool;
+		this.connFactory = factory;
+	}
+
+	private enum OpName {
+		GET, SET, DEL, EXPIRE, INCR, EXISTS;
+	}
+
+	public ListenableFuture<OperationResult<String>> get(final String key) throws DynoException {
+		return execute(OpName.GET, key);
+	}
+
+	public ListenableFuture<OperationResult<String>> set(final String key, final String value) throws DynoException {
+		return execute(OpName.SET, key, value);
+	}
+
+	public ListenableFuture<OperationResult<Long>> del(final String key) throws DynoException {
+		return execute(OpName.DEL, key);
+	}
+
+	public ListenableFuture<OperationResult<Long>> expire(final String key, final int seconds) throws DynoException {
+		return execute(OpName.EXPIRE, key, String.valueOf(seconds));
+	}
+
+	public ListenableFuture<OperationResult<Long>> incr(final String key) throws DynoException {
+		return execute(OpName.INCR, key);
+	}
+
+	public ListenableFuture<OperationResult<Long>> exists(final String key) throws DynoException {
+		return execute(OpName.EXISTS, key);
+	}
+
+	public String getApplicationName() {
+		return appName;
+	}
+
+	public ConnectionPool<RespClient> getConnPool() {
+		return connPool;
+	}
+
+	public void stopClient() {
+		connPool.shutdown();
+		connFactory.shutdown();
+	}
+
+	/**
+	 * Send a single key command, the key being the first argument after the command name
+	 */
+	private <R> ListenableFuture<OperationResult<R>> execute(final OpName opName, final String key, final String ... args) throws DynoException {
+
+		return connPool.executeAsync(new AsyncOperation<RespClient, R>() {
+
+			@Override
+			public String getName() {
+				return opName.name();
+			}
+
+			@Override
+			public String getKey() {
+				return key;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public ListenableFuture<R> executeAsync(RespClient client) throws DynoException {
+				String[] command = new String[args.length + 2];
+				command[0] = opName.name();
+				command[1] = key;
+				System.arraycopy(args, 0, command, 2, args.length);
+				// the reply type is determined by the command
+				return (ListenableFuture<R>) client.send(command);
+			}
+		});
+	}
+
+	public static class Builder {
+
+		private String appName;
+		private String clusterName;
+		private ConnectionPoolConfigurationImpl cpConfig;
+		private HostSupplier hostSupplier;
+		private DiscoveryClient discoveryClient;
+
+		public Builder() {
+		}
+
+		public Builder withApplicationName(String applicationName) {
+			appName = applicationName;
+			return this;
+		}
+
+		public Builder withDynomiteClusterName(String cluster) {
+			clusterName = cluster;
+			return this;
+		}
+
+		public Builder withCPConfig(ConnectionPoolConfigurationImpl config) {
+			cpConfig = config;
+			return this;
+		}
+
+		public Builder withHostSupplier(HostSupplier hSupplier) {
+			hostSupplier = hSupplier;
+			return this;
+		}
+
+		public Builder withDiscoveryClient(DiscoveryClient client) {
+			discoveryClient = client;
+			return this;
+		}
+
+		public DynoRespClient build() {
+
+			assert(appName != null);
+			assert(clusterName != null);
+
+			if (cpConfig == null) {
+				cpConfig = new ArchaiusConnectionPoolConfiguration(appName);
+			}
+
+			if (hostSupplier == null) {
+				if (discoveryClient == null) {
+					throw new DynoConnectException("HostSupplier not provided. Cannot init EurekaHostsSupplier which needs a non null DiscoveryClient");
+				} else {
+					hostSupplier = new EurekaHostsSupplier(clusterName, discoveryClient);
+				}
+			}
+
+			cpConfig.withHostSupplier(hostSupplier);
+
+			if (cpConfig.getTokenSupplier() == null) {
+				Logger.info("TOKEN AWARE selected and no token supplier found, using default HttpEndpointBasedTokenMapSupplier()");
+				cpConfig.withTokenSupplier(new HttpEndpointBasedTokenMapSupplier());
+			}
+
+			DynoCPMonitor cpMonitor = new DynoCPMonitor(appName);
+			DynoOPMonitor opMonitor = new DynoOPMonitor(appName);
+
+			RespConnectionFactory connFactory = new RespConnectionFactory(opMonitor);
+
+			ConnectionPoolImpl<RespClient> pool = new ConnectionPoolImpl<RespClient>(connFactory, cpConfig, cpMonitor, Type.Async);
+
+			try {
+				pool.start().get();
+			} catch (Exception e) {
+				connFactory.shutdown();
+				throw new RuntimeException(e);
+			}
+
+			return new DynoRespClient(appName, pool, connFactory);
+		}
+	}
+}
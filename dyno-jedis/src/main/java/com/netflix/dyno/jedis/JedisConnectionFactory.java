@@ -1,14 +1,20 @@
 package com.netflix.dyno.jedis;
 
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.NotImplementedException;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 import com.netflix.dyno.connectionpool.AsyncOperation;
+import com.netflix.dyno.connectionpool.AutoPipelineOperation;
 import com.netflix.dyno.connectionpool.Connection;
 import com.netflix.dyno.connectionpool.ConnectionContext;
 import com.netflix.dyno.connectionpool.ConnectionFactory;
@@ -20,6 +26,7 @@ import com.netflix.dyno.connectionpool.ListenableFuture;
 import com.netflix.dyno.connectionpool.Operation;
 import com.netflix.dyno.connectionpool.OperationMonitor;
 import com.netflix.dyno.connectionpool.OperationResult;
+import com.netflix.dyno.connectionpool.PipelinedConnection;
 import com.netflix.dyno.connectionpool.exception.DynoConnectException;
 import com.netflix.dyno.connectionpool.exception.DynoException;
 import com.netflix.dyno.connectionpool.exception.FatalConnectionException;
@@ -41,7 +48,7 @@ public class JedisConnectionFactory implements ConnectionFactory<Jedis> {
 		return new JedisConnection(pool);
 	}
 
-	public class JedisConnection implements Connection<Jedis> {
+	public class JedisConnection implements Connection<Jedis>, PipelinedConnection<Jedis> {
 
 		private final HostConnectionPool<Jedis> hostPool;
 		private final Jedis jedisClient; 
@@ -110,6 +117,68 @@ public class JedisConnectionFactory implements ConnectionFactory<Jedis> {
 			}
 		}
 
+		@Override
+		public List<Object> executePipelined(List<AutoPipelineOperation<Jedis, ?>> ops) throws DynoException {
+
+			long startTime = System.nanoTime()/1000;
+
+			try {
+
+				if (!jedisClient.isConnected()) {
+					open();
+				}
+
+				Pipeline pipeline = jedisClient.pipelined();
+				List<Response<?>> responses = new ArrayList<Response<?>>(ops.size());
+				for (AutoPipelineOperation<Jedis, ?> op : ops) {
+					responses.add(((JedisPipelineOperation<?>) op).pipeline(pipeline));
+				}
+				pipeline.sync();
+
+				// every op in the batch shared the same round trip
+				long duration = System.nanoTime()/1000 - startTime;
+
+				List<Object> results = new ArrayList<Object>(ops.size());
+				for (int i=0; i<ops.size(); i++) {
+					String opName = ops.get(i).getName();
+					try {
+						Object result = responses.get(i).get();
+						opMonitor.recordSuccess(opName);
+						results.add(new OperationResultImpl<Object>(opName, result, opMonitor).setLatency(duration, TimeUnit.MICROSECONDS));
+					} catch (JedisDataException ex) {
+						// error reply for just this op, e.g WRONGTYPE
+						opMonitor.recordFailure(opName, ex.getMessage());
+						results.add(new FatalConnectionException(ex).setAttempt(1).setHost(hostPool.getHost()));
+					}
+				}
+				return results;
+
+			} catch (JedisConnectionException ex) {
+
+				for (AutoPipelineOperation<Jedis, ?> op : ops) {
+					opMonitor.recordFailure(op.getName(), ex.getMessage());
+				}
+				if (ex.getCause() instanceof SocketException) {
+					SocketException se = (SocketException) ex.getCause();
+					if (!se.getMessage().equalsIgnoreCase("timeout")) {
+						close();
+					}
+				}
+
+				lastDynoException = new FatalConnectionException(ex).setAttempt(1);
+				lastDynoException.setHost(hostPool.getHost());
+				throw lastDynoException;
+
+			} catch (RuntimeException ex) {
+				for (AutoPipelineOperation<Jedis, ?> op : ops) {
+					opMonitor.recordFailure(op.getName(), ex.getMessage());
+				}
+				lastDynoException = new FatalConnectionException(ex).setAttempt(1);
+				lastDynoException.setHost(hostPool.getHost());
+				throw lastDynoException;
+			}
+		}
+
 		@Override
 		public <R> ListenableFuture<OperationResult<R>> executeAsync(AsyncOperation<Jedis, R> op) throws DynoException {
 			throw new NotImplementedException();
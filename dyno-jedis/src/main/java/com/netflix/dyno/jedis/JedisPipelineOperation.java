@@ -0,0 +1,27 @@
+package com.netflix.dyno.jedis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import com.netflix.dyno.connectionpool.AutoPipelineOperation;
+
+/**
+ * An {@link AutoPipelineOperation} on {@link Jedis} that knows how to add itself to a {@link Pipeline}. 
+ * 
+ * The {@link JedisConnectionFactory.JedisConnection} adds all the ops in a batch to one pipeline, syncs it and hands 
+ * each op's reply back to its caller.
+ * 
+ * @author poberai
+ *
+ * @param <R>
+ */
+public interface JedisPipelineOperation<R> extends AutoPipelineOperation<Jedis, R> {
+
+	/**
+	 * Add the command for this op to the pipeline
+	 * @param pipeline
+	 * @return Response<R>
+	 */
+	public Response<R> pipeline(Pipeline pipeline);
+}
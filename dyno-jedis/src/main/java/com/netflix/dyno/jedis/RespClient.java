@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.jedis;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.ListenableFuture;
+import com.netflix.dyno.connectionpool.exception.DynoConnectException;
+import com.netflix.dyno.connectionpool.exception.DynoException;
+import com.netflix.dyno.connectionpool.exception.FatalConnectionException;
+import com.netflix.dyno.connectionpool.exception.TimeoutException;
+
+/**
+ * A single non blocking socket to a dynomite / redis host that is shared by many callers.
+ *
+ * Callers encode their command and add it to a write queue, and get back a {@link RespFuture}.
+ * The {@link RespEventLoop} thread drains the write queue, writes all pending commands to the socket in one go and
+ * moves their futures to the in flight queue in the same order. Since redis replies in the order that it received requests,
+ * every reply read off the socket simply completes the future at the head of the in flight queue (FIFO matching).
+ *
+ * Hence there can be many requests in flight on one socket and we don't need one connection per concurrent caller.
+ *
+ * If a reply does not arrive within the socket timeout, or the socket fails, then all in flight requests are failed and the
+ * socket is closed, since every request queued behind the missing reply would be stuck as well. A closed client is not
+ * reused, {@link RespConnectionFactory.RespConnection} replaces it with a new one.
+ *
+ * @author poberai
+ */
+public class RespClient {
+
+	private static final int MAX_WRITE_BATCH = 64;
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final Host host;
+	private final RespEventLoop eventLoop;
+	private final int connectTimeout;
+	private final int socketTimeout;
+
+	// Commands added by callers that have not been written yet
+	private final ConcurrentLinkedQueue<PendingCommand> writeQueue = new ConcurrentLinkedQueue<PendingCommand>();
+	// Commands that have been written (or are being written) and are waiting on a reply, in the order they were written
+	private final ConcurrentLinkedQueue<RespFuture<Object>> inflight = new ConcurrentLinkedQueue<RespFuture<Object>>();
+	// Set when the client is already queued on the event loop for a flush
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	// Only accessed by the event loop thread
+	private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<ByteBuffer>();
+	private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private final RespParser parser = new RespParser();
+	private SelectionKey selectionKey;
+
+	private volatile SocketChannel channel;
+	private volatile DynoConnectException lastException;
+
+	private static class PendingCommand {
+
+		private final ByteBuffer buffer;
+		private final RespFuture<Object> future;
+
+		private PendingCommand(ByteBuffer buffer, RespFuture<Object> future) {
+			this.buffer = buffer;
+			this.future = future;
+		}
+	}
+
+	public RespClient(Host host, RespEventLoop eventLoop, int connectTimeout, int socketTimeout) {
+		this.host = host;
+		this.eventLoop = eventLoop;
+		this.connectTimeout = connectTimeout;
+		this.socketTimeout = socketTimeout;
+	}
+
+	public Host getHost() {
+		return host;
+	}
+
+	/**
+	 * Connect to the host and hand the socket over to the event loop
+	 * @throws DynoException
+	 */
+	public void connect() throws DynoException {
+
+		try {
+			SocketChannel ch = SocketChannel.open();
+			ch.socket().setTcpNoDelay(true);
+			ch.socket().setKeepAlive(true);
+			ch.socket().connect(new InetSocketAddress(host.getHostName(), host.getPort()), connectTimeout);
+			ch.configureBlocking(false);
+			channel = ch;
+		} catch (IOException e) {
+			throw new FatalConnectionException("Failed to connect to host: " + host, e).setHost(host);
+		}
+
+		eventLoop.register(this);
+
+		if (host.isPasswordSet()) {
+			try {
+				Object reply = send("AUTH", host.getPassword()).get(socketTimeout, TimeUnit.MILLISECONDS);
+				if (!"OK".equals(reply)) {
+					throw new FatalConnectionException("Failed to authenticate with host: " + host + ", reply: " + reply).setHost(host);
+				}
+			} catch (DynoException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new FatalConnectionException("Failed to authenticate with host: " + host, e).setHost(host);
+			}
+		}
+	}
+
+	public boolean isConnected() {
+		return channel != null && !closed.get();
+	}
+
+	/**
+	 * Send a command. Bulk string replies are decoded as UTF-8 Strings
+	 * @param args
+	 * @return ListenableFuture<Object>
+	 */
+	public ListenableFuture<Object> send(String ... args) {
+		return enqueue(RespParser.encode(args), new RespFuture<Object>(false));
+	}
+
+	/**
+	 * Send a command. Bulk string replies are returned as byte[]
+	 * @param args
+	 * @return ListenableFuture<Object>
+	 */
+	public ListenableFuture<Object> send(byte[] ... args) {
+		return enqueue(RespParser.encode(args), new RespFuture<Object>(true));
+	}
+
+	/**
+	 * @return the number of requests that are waiting on a reply from the server
+	 */
+	public int getInflightCount() {
+		return inflight.size();
+	}
+
+	public DynoConnectException getLastException() {
+		return lastException;
+	}
+
+	public void close() {
+		if (closed.get()) {
+			return;
+		}
+		eventLoop.execute(new Runnable() {
+			@Override
+			public void run() {
+				fail(new FatalConnectionException("Connection closed").setHost(host));
+			}
+		});
+	}
+
+	private ListenableFuture<Object> enqueue(ByteBuffer buffer, RespFuture<Object> future) {
+
+		if (closed.get()) {
+			DynoConnectException e = lastException;
+			throw (e != null) ? e : new FatalConnectionException("Connection closed").setHost(host);
+		}
+
+		writeQueue.add(new PendingCommand(buffer, future));
+
+		if (flushScheduled.compareAndSet(false, true)) {
+			eventLoop.scheduleFlush(this);
+		}
+
+		if (closed.get()) {
+			// we raced with close(), make sure that this command does not get stuck in the write queue
+			failQueuedCommands(lastException);
+		}
+		return future;
+	}
+
+	// ALL METHODS BELOW ARE CALLED BY THE EVENT LOOP THREAD
+
+	void onRegister(SelectionKey key) {
+		this.selectionKey = key;
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Write all queued commands to the socket
+	 * @throws IOException
+	 */
+	void flush() throws IOException {
+
+		flushScheduled.set(false);
+
+		if (closed.get()) {
+			return;
+		}
+
+		PendingCommand command;
+		while ((command = writeQueue.poll()) != null) {
+			inflight.add(command.future);
+			pendingWrites.add(command.buffer);
+		}
+
+		writePending();
+	}
+
+	void onWritable() throws IOException {
+		writePending();
+	}
+
+	private void writePending() throws IOException {
+
+		while (!pendingWrites.isEmpty()) {
+
+			// gather a batch of commands into one write
+			int batchSize = Math.min(pendingWrites.size(), MAX_WRITE_BATCH);
+			ByteBuffer[] batch = new ByteBuffer[batchSize];
+			int i = 0;
+			for (ByteBuffer buffer : pendingWrites) {
+				if (i == batchSize) {
+					break;
+				}
+				batch[i++] = buffer;
+			}
+
+			channel.write(batch);
+
+			while (!pendingWrites.isEmpty() && !pendingWrites.peek().hasRemaining()) {
+				pendingWrites.poll();
+			}
+
+			if (!pendingWrites.isEmpty() && pendingWrites.peek().hasRemaining()) {
+				// socket send buffer is full, wait till it becomes writable again
+				selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+		}
+
+		if (selectionKey != null && (selectionKey.interestOps() & SelectionKey.OP_WRITE) != 0) {
+			selectionKey.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	void onReadable() throws IOException {
+
+		int n = channel.read(readBuffer);
+		if (n < 0) {
+			throw new IOException("Connection closed by host: " + host);
+		}
+
+		readBuffer.flip();
+
+		while (true) {
+			Object reply = parser.parse(readBuffer);
+			if (reply == RespParser.INCOMPLETE) {
+				break;
+			}
+			complete(reply);
+		}
+
+		if (readBuffer.position() == 0 && readBuffer.limit() == readBuffer.capacity()) {
+			// a single line or bulk string is bigger than the buffer, grow it
+			ByteBuffer bigger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+			bigger.put(readBuffer);
+			readBuffer = bigger;
+		} else {
+			readBuffer.compact();
+		}
+	}
+
+	private void complete(Object reply) {
+
+		RespFuture<Object> future = inflight.poll();
+		if (future == null) {
+			throw new DynoException("Received reply with no request in flight from host: " + host);
+		}
+
+		if (reply instanceof RespParser.RespError) {
+			future.setException(((RespParser.RespError) reply).toException());
+		} else {
+			future.set(future.isBinary() ? reply : RespParser.toStrings(reply));
+		}
+	}
+
+	/**
+	 * Fail the connection if the oldest request in flight has been waiting for longer than the socket timeout
+	 * @param now
+	 */
+	void checkTimeout(long now) {
+
+		RespFuture<Object> oldest = inflight.peek();
+		if (oldest != null && now - oldest.getStartTime() > socketTimeout) {
+			// the socket is torn down, which is fatal for the connection as a whole and not just a slow request
+			TimeoutException timeout = new TimeoutException("Timed out waiting on reply from host: " + host + " after " + socketTimeout + " ms");
+			timeout.setHost(host);
+			fail(new FatalConnectionException("Closing connection to host: " + host + " after a late reply", timeout).setHost(host));
+		}
+	}
+
+	/**
+	 * Close the socket and fail every request that is queued or in flight
+	 * @param e
+	 */
+	void fail(DynoConnectException e) {
+
+		lastException = e;
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+
+		if (selectionKey != null) {
+			selectionKey.cancel();
+		}
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException ex) {
+			// ignore
+		}
+
+		pendingWrites.clear();
+
+		RespFuture<Object> future;
+		while ((future = inflight.poll()) != null) {
+			future.setException(e);
+		}
+		failQueuedCommands(e);
+	}
+
+	private void failQueuedCommands(DynoConnectException e) {
+		DynoConnectException ex = (e != null) ? e : new FatalConnectionException("Connection closed").setHost(host);
+		PendingCommand command;
+		while ((command = writeQueue.poll()) != null) {
+			command.future.setException(ex);
+		}
+	}
+}
@@ -0,0 +1,375 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.jedis;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.AsyncOperation;
+import com.netflix.dyno.connectionpool.Connection;
+import com.netflix.dyno.connectionpool.ConnectionContext;
+import com.netflix.dyno.connectionpool.ConnectionFactory;
+import com.netflix.dyno.connectionpool.ConnectionObservor;
+import com.netflix.dyno.connectionpool.ConnectionPoolConfiguration;
+import com.netflix.dyno.connectionpool.Host;
+import com.netflix.dyno.connectionpool.HostConnectionPool;
+import com.netflix.dyno.connectionpool.ListenableFuture;
+import com.netflix.dyno.connectionpool.Operation;
+import com.netflix.dyno.connectionpool.OperationMonitor;
+import com.netflix.dyno.connectionpool.OperationResult;
+import com.netflix.dyno.connectionpool.exception.DynoConnectException;
+import com.netflix.dyno.connectionpool.exception.DynoException;
+import com.netflix.dyno.connectionpool.exception.FatalConnectionException;
+import com.netflix.dyno.connectionpool.exception.ThrottledException;
+import com.netflix.dyno.connectionpool.exception.TimeoutException;
+import com.netflix.dyno.connectionpool.impl.ConnectionContextImpl;
+import com.netflix.dyno.connectionpool.impl.ConnectionPoolConfigurationImpl;
+import com.netflix.dyno.connectionpool.impl.FutureOperationalResultImpl;
+import com.netflix.dyno.connectionpool.impl.LastOperationMonitor;
+import com.netflix.dyno.connectionpool.impl.OperationResultImpl;
+
+/**
+ * {@link ConnectionFactory} for multiplexed non blocking RESP connections. See {@link RespClient} for how requests
+ * from many callers share one socket.
+ *
+ * This is meant to be used with the async connection pool, i.e {@link com.netflix.dyno.connectionpool.impl.SimpleAsyncConnectionPoolImpl}
+ * which hands out the same connection to many callers at once, and {@link com.netflix.dyno.connectionpool.ConnectionPool#executeAsync(AsyncOperation)}.
+ * Since each connection can have many requests in flight, max conns per host can be set much lower than with
+ * {@link JedisConnectionFactory} where every concurrent caller needs its own socket.
+ *
+ * All the sockets created by this factory are served by one {@link RespEventLoop} thread.
+ *
+ * {@link DynoRespClient.Builder} wires this factory up with an async connection pool.
+ *
+ * @author poberai
+ */
+public class RespConnectionFactory implements ConnectionFactory<RespClient> {
+
+	private final OperationMonitor opMonitor;
+	private final RespEventLoop eventLoop;
+
+	public RespConnectionFactory(OperationMonitor monitor) {
+		this(new RespEventLoop("DynoRespEventLoop"), monitor);
+	}
+
+	public RespConnectionFactory(RespEventLoop loop, OperationMonitor monitor) {
+		this.eventLoop = loop;
+		this.opMonitor = monitor;
+	}
+
+	@Override
+	public Connection<RespClient> createConnection(HostConnectionPool<RespClient> pool, ConnectionObservor connectionObservor)
+			throws DynoConnectException, ThrottledException {
+		return new RespConnection(pool);
+	}
+
+	public void shutdown() {
+		eventLoop.shutdown();
+	}
+
+	public class RespConnection implements Connection<RespClient> {
+
+		private final HostConnectionPool<RespClient> hostPool;
+		private final ConnectionContextImpl context = new ConnectionContextImpl();
+		private final int connectTimeout;
+		private final int socketTimeout;
+
+		// replaced once the socket is closed, e.g after a late reply
+		private volatile RespClient client;
+		private volatile boolean closed = false;
+
+		public RespConnection(HostConnectionPool<RespClient> hostPool) {
+			this.hostPool = hostPool;
+			ConnectionPoolConfiguration configuration = hostPool.getConnectionPoolConfiguration();
+			this.connectTimeout = configuration.getConnectTimeout();
+			this.socketTimeout = configuration.getSocketTimeout();
+			this.client = new RespClient(hostPool.getHost(), eventLoop, connectTimeout, socketTimeout);
+		}
+
+		@Override
+		public <R> OperationResult<R> execute(Operation<RespClient, R> op) throws DynoException {
+
+			long startTime = System.nanoTime()/1000;
+			String opName = op.getName();
+
+			OperationResultImpl<R> opResult = null;
+
+			try {
+				R result = op.execute(client, context);
+				opMonitor.recordSuccess(opName);
+				opResult = new OperationResultImpl<R>(opName, result, opMonitor);
+				return opResult;
+
+			} catch (DynoConnectException ex) {
+				opMonitor.recordFailure(opName, ex.getMessage());
+				throw ex;
+
+			} catch (RuntimeException ex) {
+				opMonitor.recordFailure(opName, ex.getMessage());
+				throw new FatalConnectionException(ex).setAttempt(1).setHost(getHost());
+
+			} finally {
+				long duration = System.nanoTime()/1000 - startTime;
+				if (opResult != null) {
+					opResult.setLatency(duration, TimeUnit.MICROSECONDS);
+				}
+			}
+		}
+
+		@Override
+		public <R> ListenableFuture<OperationResult<R>> executeAsync(AsyncOperation<RespClient, R> op) throws DynoException {
+
+			RespClient current = client;
+			if (!current.isConnected()) {
+				current = reopen(current);
+			}
+
+			long startTime = System.currentTimeMillis();
+			ListenableFuture<R> future = op.executeAsync(current);
+			return new FutureOperationalResultImpl<R>(op.getName(), future, startTime, opMonitor).node(getHost());
+		}
+
+		/**
+		 * The pool keeps handing out this connection, hence a socket that was closed underneath it has to be replaced, 
+		 * else every request sent to it would fail from then on. 
+		 * @param dead
+		 * @return the connected client
+		 * @throws DynoException if the new socket cannot be connected
+		 */
+		private synchronized RespClient reopen(RespClient dead) throws DynoException {
+
+			if (closed) {
+				DynoConnectException e = dead.getLastException();
+				throw (e != null) ? e : new FatalConnectionException("Connection is closed").setHost(getHost());
+			}
+			if (client != dead) {
+				// another caller replaced it already
+				return client;
+			}
+
+			RespClient fresh = new RespClient(hostPool.getHost(), eventLoop, connectTimeout, socketTimeout);
+			fresh.connect();
+			client = fresh;
+			return fresh;
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+			client.close();
+		}
+
+		@Override
+		public Host getHost() {
+			return hostPool.getHost();
+		}
+
+		@Override
+		public void open() throws DynoException {
+			client.connect();
+		}
+
+		@Override
+		public DynoConnectException getLastException() {
+			return client.getLastException();
+		}
+
+		@Override
+		public HostConnectionPool<RespClient> getParentConnectionPool() {
+			return hostPool;
+		}
+
+		@Override
+		public void execPing() {
+			Object result;
+			try {
+				result = client.send("PING").get(socketTimeout, TimeUnit.MILLISECONDS);
+			} catch (Exception e) {
+				throw new DynoConnectException("Unsuccessful ping", e);
+			}
+			if (result == null || !"PONG".equals(result)) {
+				throw new DynoConnectException("Unsuccessful ping, got result: " + result);
+			}
+		}
+
+		@Override
+		public ConnectionContext getContext() {
+			return context;
+		}
+
+		public RespClient getClient() {
+			return client;
+		}
+	}
+
+	public static class UnitTest {
+
+		private ServerSocket server;
+		private final AtomicInteger connections = new AtomicInteger(0);
+		// how long the server holds back its next reply
+		private final AtomicLong replyDelayMillis = new AtomicLong(0L);
+
+		@Before
+		public void beforeTest() throws Exception {
+
+			server = new ServerSocket(0);
+			Thread acceptor = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							final Socket socket = server.accept();
+							connections.incrementAndGet();
+							Thread handler = new Thread() {
+								@Override
+								public void run() {
+									serve(socket);
+								}
+							};
+							handler.setDaemon(true);
+							handler.start();
+						}
+					} catch (IOException e) {
+						// server closed
+					}
+				}
+			};
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		@After
+		public void afterTest() throws Exception {
+			server.close();
+		}
+
+		/**
+		 * Replies +OK to every command
+		 */
+		private void serve(Socket socket) {
+			try {
+				InputStream in = socket.getInputStream();
+				OutputStream out = socket.getOutputStream();
+				RespParser parser = new RespParser();
+				ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+				byte[] bytes = new byte[4096];
+				int n;
+				while ((n = in.read(bytes)) > 0) {
+					buffer.put(bytes, 0, n);
+					buffer.flip();
+					while (parser.parse(buffer) != RespParser.INCOMPLETE) {
+						long delay = replyDelayMillis.getAndSet(0L);
+						if (delay > 0) {
+							Thread.sleep(delay);
+						}
+						out.write("+OK\r\n".getBytes("UTF-8"));
+						out.flush();
+					}
+					buffer.compact();
+				}
+			} catch (Exception e) {
+				// client went away
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Test
+		public void testLateReplyReopensConnection() throws Exception {
+
+			ConnectionPoolConfigurationImpl cpConfig = new ConnectionPoolConfigurationImpl("TestClient")
+				.setConnectTimeout(1000)
+				.setSocketTimeout(100);
+
+			HostConnectionPool<RespClient> hostPool = mock(HostConnectionPool.class);
+			when(hostPool.getHost()).thenReturn(new Host("localhost", server.getLocalPort()));
+			when(hostPool.getConnectionPoolConfiguration()).thenReturn(cpConfig);
+
+			RespConnectionFactory factory = new RespConnectionFactory(new LastOperationMonitor());
+			try {
+				Connection<RespClient> connection = factory.createConnection(hostPool, null);
+				connection.open();
+				Assert.assertEquals("OK", connection.executeAsync(getSetOperation()).get(1, TimeUnit.SECONDS).getResult());
+
+				// the reply comes after the socket timeout, which tears down the socket
+				replyDelayMillis.set(500);
+				try {
+					connection.executeAsync(getSetOperation()).get(2, TimeUnit.SECONDS);
+					Assert.fail("Expected FatalConnectionException");
+				} catch (ExecutionException e) {
+					Assert.assertTrue(e.getCause() instanceof FatalConnectionException);
+					Assert.assertTrue(e.getCause().getCause() instanceof TimeoutException);
+				}
+
+				// later ops go out on a new socket
+				for (int i=0; i<5; i++) {
+					Assert.assertEquals("OK", connection.executeAsync(getSetOperation()).get(1, TimeUnit.SECONDS).getResult());
+				}
+				Assert.assertEquals(2, connections.get());
+
+				connection.close();
+				try {
+					connection.executeAsync(getSetOperation());
+					Assert.fail("Expected DynoConnectException");
+				} catch (DynoConnectException e) {
+				}
+			} finally {
+				factory.shutdown();
+			}
+		}
+
+		private AsyncOperation<RespClient, Object> getSetOperation() {
+
+			return new AsyncOperation<RespClient, Object>() {
+
+				@Override
+				public String getName() {
+					return "SET";
+				}
+
+				@Override
+				public String getKey() {
+					return "key";
+				}
+
+				@Override
+				public ListenableFuture<Object> executeAsync(RespClient client) throws DynoException {
+					return client.send("SET", "key", "value");
+				}
+			};
+		}
+	}
+}
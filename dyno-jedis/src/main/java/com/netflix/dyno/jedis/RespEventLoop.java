@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.jedis;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.dyno.connectionpool.exception.DynoException;
+import com.netflix.dyno.connectionpool.exception.FatalConnectionException;
+
+/**
+ * Single threaded selector loop that does all the socket IO for a set of {@link RespClient}s.
+ *
+ * Caller threads never touch the sockets. They queue up commands on the client and schedule the client for a flush here.
+ * The selector is only woken up when the loop is actually blocked in select(), so that a burst of requests from many
+ * threads results in a few large writes instead of one syscall per request.
+ *
+ * @author poberai
+ */
+public class RespEventLoop implements Executor {
+
+	private static final Logger Logger = LoggerFactory.getLogger(RespEventLoop.class);
+
+	private static final int SELECT_TIMEOUT_MS = 100;
+
+	private final Selector selector;
+	private final Thread thread;
+
+	private final ConcurrentLinkedQueue<RespClient> registrations = new ConcurrentLinkedQueue<RespClient>();
+	private final ConcurrentLinkedQueue<RespClient> flushes = new ConcurrentLinkedQueue<RespClient>();
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	// true while the loop is (about to be) blocked in select() and needs a wakeup to see new work
+	private final AtomicBoolean wakeupNeeded = new AtomicBoolean(false);
+	private final AtomicBoolean running = new AtomicBoolean(true);
+
+	private long lastTimeoutCheck = System.currentTimeMillis();
+
+	public RespEventLoop(String name) {
+		try {
+			selector = Selector.open();
+		} catch (IOException e) {
+			throw new DynoException("Failed to open selector", e);
+		}
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void register(RespClient client) {
+		registrations.add(client);
+		wakeup();
+	}
+
+	public void scheduleFlush(RespClient client) {
+		flushes.add(client);
+		wakeup();
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		wakeup();
+	}
+
+	public void shutdown() {
+		running.set(false);
+		selector.wakeup();
+	}
+
+	private void wakeup() {
+		if (wakeupNeeded.compareAndSet(true, false)) {
+			selector.wakeup();
+		}
+	}
+
+	private void loop() {
+
+		while (running.get()) {
+
+			try {
+				wakeupNeeded.set(true);
+				if (registrations.isEmpty() && flushes.isEmpty() && tasks.isEmpty()) {
+					selector.select(SELECT_TIMEOUT_MS);
+				} else {
+					selector.selectNow();
+				}
+				wakeupNeeded.set(false);
+
+				processRegistrations();
+				processSelectedKeys();
+				processFlushes();
+				processTasks();
+				checkTimeouts();
+
+			} catch (Throwable t) {
+				Logger.error("Unexpected error in event loop", t);
+			}
+		}
+
+		// fail all the remaining clients
+		for (SelectionKey key : selector.keys()) {
+			((RespClient) key.attachment()).fail(new FatalConnectionException("Event loop shutdown"));
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private void processRegistrations() {
+
+		RespClient client;
+		while ((client = registrations.poll()) != null) {
+			try {
+				SelectionKey key = client.getChannel().register(selector, SelectionKey.OP_READ, client);
+				client.onRegister(key);
+			} catch (ClosedChannelException e) {
+				client.fail(new FatalConnectionException(e).setHost(client.getHost()));
+			}
+		}
+	}
+
+	private void processSelectedKeys() {
+
+		Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+		while (iter.hasNext()) {
+
+			SelectionKey key = iter.next();
+			iter.remove();
+
+			RespClient client = (RespClient) key.attachment();
+			try {
+				if (key.isValid() && key.isReadable()) {
+					client.onReadable();
+				}
+				if (key.isValid() && key.isWritable()) {
+					client.onWritable();
+				}
+			} catch (IOException e) {
+				client.fail(new FatalConnectionException(e).setHost(client.getHost()));
+			} catch (DynoException e) {
+				client.fail(new FatalConnectionException(e).setHost(client.getHost()));
+			}
+		}
+	}
+
+	private void processFlushes() {
+
+		RespClient client;
+		while ((client = flushes.poll()) != null) {
+			try {
+				client.flush();
+			} catch (IOException e) {
+				client.fail(new FatalConnectionException(e).setHost(client.getHost()));
+			}
+		}
+	}
+
+	private void processTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	private void checkTimeouts() {
+
+		long now = System.currentTimeMillis();
+		if (now - lastTimeoutCheck < SELECT_TIMEOUT_MS) {
+			return;
+		}
+		lastTimeoutCheck = now;
+
+		for (SelectionKey key : selector.keys()) {
+			((RespClient) key.attachment()).checkTimeout(now);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.jedis;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.netflix.dyno.connectionpool.ListenableFuture;
+
+/**
+ * Settable {@link ListenableFuture} for a single RESP request that is in flight on a {@link RespClient}.
+ * It is completed by the event loop thread when the matching reply is read off the socket.
+ *
+ * @author poberai
+ *
+ * @param <V>
+ */
+public class RespFuture<V> implements ListenableFuture<V> {
+
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private final AtomicBoolean completed = new AtomicBoolean(false);
+	private final ConcurrentLinkedQueue<Listener> listeners = new ConcurrentLinkedQueue<Listener>();
+
+	// when the request was created, used by the event loop for socket timeouts
+	private final long startTime = System.currentTimeMillis();
+	// whether bulk replies should be handed back as byte[] instead of String
+	private final boolean binary;
+
+	private volatile V value;
+	private volatile Throwable error;
+	private volatile boolean cancelled = false;
+
+	public RespFuture(boolean binary) {
+		this.binary = binary;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public boolean set(V v) {
+		if (!completed.compareAndSet(false, true)) {
+			return false;
+		}
+		value = v;
+		latch.countDown();
+		notifyListeners();
+		return true;
+	}
+
+	public boolean setException(Throwable t) {
+		if (!completed.compareAndSet(false, true)) {
+			return false;
+		}
+		error = t;
+		latch.countDown();
+		notifyListeners();
+		return true;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		// Note that the request may already be on the wire. The reply is then simply dropped when it comes back
+		if (!completed.compareAndSet(false, true)) {
+			return false;
+		}
+		cancelled = true;
+		latch.countDown();
+		notifyListeners();
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return latch.getCount() == 0;
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return getValue();
+	}
+
+	@Override
+	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException("Timed out waiting for reply after " + timeout + " " + unit);
+		}
+		return getValue();
+	}
+
+	private V getValue() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (error != null) {
+			throw new ExecutionException(error);
+		}
+		return value;
+	}
+
+	@Override
+	public void addListener(Runnable listener, Executor executor) {
+		listeners.add(new Listener(listener, executor));
+		if (isDone()) {
+			notifyListeners();
+		}
+	}
+
+	private void notifyListeners() {
+		// every listener is polled exactly once, no matter who gets here first
+		Listener listener;
+		while ((listener = listeners.poll()) != null) {
+			listener.executor.execute(listener.runnable);
+		}
+	}
+
+	private static class Listener {
+
+		private final Runnable runnable;
+		private final Executor executor;
+
+		private Listener(Runnable r, Executor e) {
+			this.runnable = r;
+			this.executor = e;
+		}
+	}
+}
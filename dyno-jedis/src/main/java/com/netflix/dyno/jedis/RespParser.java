@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright 2011 Netflix
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.netflix.dyno.jedis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dyno.connectionpool.exception.DynoException;
+
+/**
+ * Encoder and incremental decoder for the redis serialization protocol (RESP).
+ *
+ * Replies are decoded as follows
+ *   simple string  -> String
+ *   error          -> {@link RespError}
+ *   integer        -> Long
+ *   bulk string    -> byte[] (or null)
+ *   array          -> List<Object> (or null)
+ *
+ * A parser instance belongs to one connection. {@link #parse(ByteBuffer)} either returns one complete reply, or 
+ * {@link #INCOMPLETE} when more bytes need to be read off the socket first. Everything that could be decoded is consumed 
+ * from the buffer and kept in the parser, i.e the elements of a large array that arrive over many reads are only parsed once.
+ *
+ * @author poberai
+ */
+public class RespParser {
+
+	public static final Object INCOMPLETE = new Object();
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] CRLF = "\r\n".getBytes(UTF8);
+
+	// The arrays that we are in the middle of decoding, innermost on top
+	private final ArrayDeque<PartialArray> arrays = new ArrayDeque<PartialArray>();
+	// Length of the bulk string whose header has been consumed but whose data has not fully arrived, else -1
+	private int pendingBulkLength = -1;
+
+	private static class PartialArray {
+
+		private final List<Object> elements;
+		private final int count;
+
+		private PartialArray(int count) {
+			this.elements = new ArrayList<Object>(count);
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Error reply sent back by the server, e.g -ERR unknown command
+	 */
+	public static class RespError {
+
+		private final String message;
+
+		public RespError(String message) {
+			this.message = message;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public DynoException toException() {
+			return new DynoException(message);
+		}
+
+		public String toString() {
+			return message;
+		}
+	}
+
+	/**
+	 * Encode a command as a RESP array of bulk strings
+	 * @param args
+	 * @return ByteBuffer ready to be written
+	 */
+	public static ByteBuffer encode(byte[] ... args) {
+
+		byte[] count = Integer.toString(args.length).getBytes(UTF8);
+
+		int size = 1 + count.length + 2;
+		byte[][] lengths = new byte[args.length][];
+		for (int i=0; i<args.length; i++) {
+			lengths[i] = Integer.toString(args[i].length).getBytes(UTF8);
+			size += 1 + lengths[i].length + 2 + args[i].length + 2;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.put((byte)'*').put(count).put(CRLF);
+		for (int i=0; i<args.length; i++) {
+			buffer.put((byte)'$').put(lengths[i]).put(CRLF).put(args[i]).put(CRLF);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	public static ByteBuffer encode(String ... args) {
+		byte[][] bytes = new byte[args.length][];
+		for (int i=0; i<args.length; i++) {
+			bytes[i] = args[i].getBytes(UTF8);
+		}
+		return encode(bytes);
+	}
+
+	/**
+	 * Convert bulk strings in a decoded reply to Strings
+	 * @param reply
+	 * @return Object
+	 */
+	@SuppressWarnings("unchecked")
+	public static Object toStrings(Object reply) {
+
+		if (reply instanceof byte[]) {
+			return new String((byte[]) reply, UTF8);
+		}
+		if (reply instanceof List) {
+			List<Object> list = (List<Object>) reply;
+			for (int i=0; i<list.size(); i++) {
+				list.set(i, toStrings(list.get(i)));
+			}
+		}
+		return reply;
+	}
+
+	/**
+	 * Decode the next reply from the buffer, continuing where the previous call left off
+	 * @param buffer
+	 * @return the reply or INCOMPLETE
+	 */
+	public Object parse(ByteBuffer buffer) {
+
+		while (true) {
+
+			Object value;
+
+			if (pendingBulkLength >= 0) {
+				if (buffer.remaining() < pendingBulkLength + 2) {
+					return INCOMPLETE;
+				}
+				byte[] data = new byte[pendingBulkLength];
+				buffer.get(data);
+				buffer.position(buffer.position() + 2); // CRLF
+				pendingBulkLength = -1;
+				value = data;
+
+			} else {
+
+				int start = buffer.position();
+				int end = findLineEnd(buffer, start + 1);
+				if (end < 0) {
+					return INCOMPLETE;
+				}
+
+				byte type = buffer.get(start);
+				byte[] bytes = new byte[end - start - 1];
+				buffer.position(start + 1);
+				buffer.get(bytes);
+				buffer.position(end + 2);
+				String line = new String(bytes, UTF8);
+
+				switch (type) {
+
+				case '+':
+					value = line;
+					break;
+
+				case '-':
+					value = new RespError(line);
+					break;
+
+				case ':':
+					value = Long.parseLong(line);
+					break;
+
+				case '$': {
+					int length = Integer.parseInt(line);
+					if (length >= 0) {
+						pendingBulkLength = length;
+						continue;
+					}
+					value = null;
+					break;
+				}
+
+				case '*': {
+					int count = Integer.parseInt(line);
+					if (count > 0) {
+						arrays.push(new PartialArray(count));
+						continue;
+					}
+					value = (count == 0) ? new ArrayList<Object>(0) : null;
+					break;
+				}
+
+				default:
+					throw new DynoException("Unknown RESP reply type: " + (char)type);
+				}
+			}
+
+			// add the value to the enclosing arrays, completing them as we go
+			while (true) {
+				PartialArray array = arrays.peek();
+				if (array == null) {
+					return value;
+				}
+				array.elements.add(value);
+				if (array.elements.size() < array.count) {
+					break;
+				}
+				arrays.pop();
+				value = array.elements;
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the CR of the next CRLF at or after from, or -1 if there is none in the buffer yet
+	 */
+	private static int findLineEnd(ByteBuffer buffer, int from) {
+		for (int i=from; i<buffer.limit()-1; i++) {
+			if (buffer.get(i) == '\r' && buffer.get(i+1) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public static class UnitTest {
+
+		@Test
+		public void testSimpleReplies() throws Exception {
+
+			RespParser parser = new RespParser();
+			ByteBuffer buffer = toBuffer("+OK\r\n:42\r\n$5\r\nhello\r\n$0\r\n\r\n");
+
+			Assert.assertEquals("OK", parser.parse(buffer));
+			Assert.assertEquals(42L, parser.parse(buffer));
+			Assert.assertEquals("hello", new String((byte[]) parser.parse(buffer), UTF8));
+			Assert.assertEquals(0, ((byte[]) parser.parse(buffer)).length);
+			Assert.assertSame(INCOMPLETE, parser.parse(buffer));
+		}
+
+		@Test
+		public void testErrorReply() throws Exception {
+
+			RespParser parser = new RespParser();
+			Object reply = parser.parse(toBuffer("-ERR unknown command 'FOO'\r\n"));
+
+			Assert.assertTrue(reply instanceof RespError);
+			Assert.assertEquals("ERR unknown command 'FOO'", ((RespError) reply).getMessage());
+			Assert.assertEquals("ERR unknown command 'FOO'", ((RespError) reply).toException().getMessage());
+		}
+
+		@Test
+		public void testNullReplies() throws Exception {
+
+			RespParser parser = new RespParser();
+			ByteBuffer buffer = toBuffer("$-1\r\n*-1\r\n*0\r\n*2\r\n$-1\r\n$1\r\na\r\n");
+
+			Assert.assertNull(parser.parse(buffer));
+			Assert.assertNull(parser.parse(buffer));
+			Assert.assertEquals(0, ((List<?>) parser.parse(buffer)).size());
+
+			List<?> list = (List<?>) toStrings(parser.parse(buffer));
+			Assert.assertEquals(2, list.size());
+			Assert.assertNull(list.get(0));
+			Assert.assertEquals("a", list.get(1));
+		}
+
+		@Test
+		public void testNestedArrays() throws Exception {
+
+			// e.g the reply to SCAN: [cursor, [keys]] followed by another reply
+			RespParser parser = new RespParser();
+			ByteBuffer buffer = toBuffer("*3\r\n$1\r\n0\r\n*2\r\n$2\r\nk1\r\n*1\r\n:7\r\n-ERR in array\r\n+OK\r\n");
+
+			List<?> reply = (List<?>) toStrings(parser.parse(buffer));
+			Assert.assertEquals(3, reply.size());
+			Assert.assertEquals("0", reply.get(0));
+			List<?> inner = (List<?>) reply.get(1);
+			Assert.assertEquals("k1", inner.get(0));
+			Assert.assertEquals(7L, ((List<?>) inner.get(1)).get(0));
+			Assert.assertTrue(reply.get(2) instanceof RespError);
+
+			Assert.assertEquals("OK", parser.parse(buffer));
+		}
+
+		@Test
+		public void testFramesSplitAcrossReads() throws Exception {
+
+			byte[] bytes = "*3\r\n$5\r\nhello\r\n*2\r\n:1\r\n$-1\r\n+world\r\n:99\r\n".getBytes(UTF8);
+
+			// feed the bytes in every possible chunk size, the way they would come off the socket
+			for (int chunk=1; chunk<=bytes.length; chunk++) {
+
+				RespParser parser = new RespParser();
+				ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+				List<Object> replies = new ArrayList<Object>();
+
+				for (int offset=0; offset<bytes.length; offset+=chunk) {
+					buffer.put(bytes, offset, Math.min(chunk, bytes.length - offset));
+					buffer.flip();
+					Object reply;
+					while ((reply = parser.parse(buffer)) != INCOMPLETE) {
+						replies.add(toStrings(reply));
+					}
+					buffer.compact();
+				}
+
+				Assert.assertEquals("chunk size: " + chunk, 2, replies.size());
+				List<?> array = (List<?>) replies.get(0);
+				Assert.assertEquals("hello", array.get(0));
+				Assert.assertEquals(1L, ((List<?>) array.get(1)).get(0));
+				Assert.assertNull(((List<?>) array.get(1)).get(1));
+				Assert.assertEquals("world", array.get(2));
+				Assert.assertEquals(99L, replies.get(1));
+			}
+		}
+
+		@Test
+		public void testLargeArrayIsParsedIncrementally() throws Exception {
+
+			int count = 10000;
+			StringBuilder sb = new StringBuilder("*" + count + "\r\n");
+			for (int i=0; i<count; i++) {
+				sb.append("$").append(String.valueOf(i).length()).append("\r\n").append(i).append("\r\n");
+			}
+			byte[] bytes = sb.toString().getBytes(UTF8);
+
+			// elements that were decoded are consumed from the buffer, i.e the buffer never has to hold the whole reply
+			RespParser parser = new RespParser();
+			ByteBuffer buffer = ByteBuffer.allocate(64);
+			Object reply = INCOMPLETE;
+			int offset = 0;
+			while (reply == INCOMPLETE) {
+				int n = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.put(bytes, offset, n);
+				offset += n;
+				buffer.flip();
+				reply = parser.parse(buffer);
+				buffer.compact();
+			}
+
+			List<?> list = (List<?>) toStrings(reply);
+			Assert.assertEquals(count, list.size());
+			Assert.assertEquals("9999", list.get(count-1));
+		}
+
+		@Test
+		public void testEncode() throws Exception {
+			ByteBuffer buffer = encode("SET", "key", "value");
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			Assert.assertEquals("*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$5\r\nvalue\r\n", new String(bytes, UTF8));
+		}
+
+		private ByteBuffer toBuffer(String s) {
+			return ByteBuffer.wrap(s.getBytes(UTF8));
+		}
+	}
+}